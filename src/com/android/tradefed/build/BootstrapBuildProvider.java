@@ -88,9 +88,10 @@ public class BootstrapBuildProvider implements IDeviceBuildProvider {
 
     @Override
     public void cleanUp(IBuildInfo info) {
-        // If we created the tests dir, we delete it.
+        // If we created the tests dir, we release it. It is only deleted once the clones of the
+        // build sharing it, like the shards of the invocation, are done with it.
         if (mCreatedTestDir) {
-            FileUtil.recursiveDelete(((IDeviceBuildInfo) info).getTestsDir());
+            SharedBuildFiles.release(((IDeviceBuildInfo) info).getTestsDir());
         }
     }
 
@@ -21,6 +21,7 @@ import com.android.tradefed.build.proto.BuildInformation.BuildFile;
 import com.android.tradefed.build.proto.BuildInformation.KeyBuildFilePair;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileNameIndex;
 import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.MultiMap;
 import com.android.tradefed.util.UniqueMultiMap;
@@ -222,7 +223,8 @@ public class BuildInfo implements IBuildInfo {
      * Helper method to copy all files from the other build.
      *
      * <p>Creates new hardlinks to the files so that each build will have a unique file path to the
-     * file.
+     * file. Directories are shared with the other build instead of being hardlinked file by file,
+     * see {@link #materializeFile(String)}.
      *
      * @throws IOException if an exception is thrown when creating the hardlink.
      */
@@ -234,8 +236,7 @@ public class BuildInfo implements IBuildInfo {
             }
             File copyFile;
             if (origFile.isDirectory()) {
-                copyFile = FileUtil.createTempDir(fileEntry.getKey());
-                FileUtil.recursiveHardlink(origFile, copyFile);
+                copyFile = SharedBuildFiles.share(origFile);
             } else {
                 // Only using createTempFile to create a unique dest filename
                 copyFile = FileUtil.createTempFile(fileEntry.getKey(),
@@ -382,6 +383,10 @@ public class BuildInfo implements IBuildInfo {
             }
         }
         mVersionedFileMultiMap.put(name, new VersionedFile(file, version));
+        if (BuildInfoFileKey.TESTDIR_IMAGE.getFileKey().equals(name) && file != null) {
+            // The test artifacts are searched many times per module, index their names.
+            FileNameIndex.register(file);
+        }
     }
 
     /** {@inheritDoc} */
@@ -390,13 +395,38 @@ public class BuildInfo implements IBuildInfo {
         setFile(key.getFileKey(), file, version);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public File materializeFile(String name) throws IOException {
+        VersionedFile fileRecord = getVersionedFile(name);
+        if (fileRecord == null) {
+            return null;
+        }
+        File file = SharedBuildFiles.materialize(fileRecord.getFile(), name);
+        if (file.equals(fileRecord.getFile())) {
+            return file;
+        }
+        VersionedFile copy = new VersionedFile(file, fileRecord.getVersion());
+        mVersionedFileMultiMap.get(name).set(0, copy);
+        if (fileRecord.equals(mVersionedFileMap.get(name))) {
+            mVersionedFileMap.put(name, copy);
+        }
+        if (BuildInfoFileKey.TESTDIR_IMAGE.getFileKey().equals(name)) {
+            FileNameIndex.register(file);
+        }
+        return file;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void cleanUp() {
         for (VersionedFile fileRecord : mVersionedFileMultiMap.values()) {
-            FileUtil.recursiveDelete(fileRecord.getFile());
+            // Directories shared with other builds are only deleted by the last one.
+            if (SharedBuildFiles.release(fileRecord.getFile())) {
+                FileNameIndex.unregister(fileRecord.getFile());
+            }
         }
         mVersionedFileMultiMap.clear();
     }
@@ -407,22 +437,27 @@ public class BuildInfo implements IBuildInfo {
         if (doNotClean == null) {
             cleanUp();
         }
+        Set<File> released = new HashSet<>();
         for (VersionedFile fileRecord : mVersionedFileMultiMap.values()) {
             if (!doNotClean.contains(fileRecord.getFile())) {
-                FileUtil.recursiveDelete(fileRecord.getFile());
+                if (SharedBuildFiles.release(fileRecord.getFile())) {
+                    FileNameIndex.unregister(fileRecord.getFile());
+                }
+                released.add(fileRecord.getFile());
             }
         }
-        refreshVersionedFiles();
+        refreshVersionedFiles(released);
     }
 
     /**
-     * Run through all the {@link VersionedFile} and remove from the map the one that do not exists.
+     * Run through all the {@link VersionedFile} and remove from the map the one that do not exists
+     * or that were released.
      */
-    private void refreshVersionedFiles() {
+    private void refreshVersionedFiles(Set<File> released) {
         Set<String> keys = new HashSet<>(mVersionedFileMultiMap.keySet());
         for (String key : keys) {
             for (VersionedFile file : mVersionedFileMultiMap.get(key)) {
-                if (!file.getFile().exists()) {
+                if (!file.getFile().exists() || released.contains(file.getFile())) {
                     mVersionedFileMultiMap.remove(key);
                 }
             }
@@ -24,6 +24,10 @@ import com.google.common.annotations.VisibleForTesting;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -32,7 +36,14 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -44,6 +55,15 @@ public class FileDownloadCache {
 
     private static final char REL_PATH_SEPARATOR = '/';
 
+    /** Suffix of the file a segmented download is written to before being published. */
+    static final String PARTIAL_SUFFIX = ".partial";
+
+    /** Minimum size of a file for its content to be digested and deduplicated. Default to 1 MB */
+    private static final long DEDUP_MIN_SIZE = 1024L * 1024L;
+
+    /** How often a thread waiting on another thread's download logs its progress. */
+    private static final long DOWNLOAD_PROGRESS_INTERVAL_MS = 30 * 1000;
+
     /** fixed location of download cache. */
     private final File mCacheRoot;
 
@@ -61,11 +81,46 @@ public class FileDownloadCache {
     /** A map of remote file paths to locks. */
     private final Map<String, ReentrantLock> mFileLocks = new CollapsedKeyMap<>();
 
+    /** The persistent index of the cache entries. */
+    private final FileDownloadCacheIndex mIndex;
+
+    /** A map of remote file paths to the download currently in progress for them. */
+    private final Map<String, InFlightDownload> mInFlightDownloads = new CollapsedKeyMap<>();
+
     private long mCurrentCacheSize = 0;
 
     /** The approximate maximum allowed size of the local file cache. Default to 20 gig */
     private long mMaxFileCacheSize = 20L * 1024L * 1024L * 1024L;
 
+    /** Minimum size of a file to be downloaded in parallel segments. Default to 256 MB */
+    private long mSegmentedDownloadMinSize = 256L * 1024L * 1024L;
+
+    /** Size of each segment of a segmented download. Default to 64 MB */
+    private long mDownloadSegmentSize = 64L * 1024L * 1024L;
+
+    /** Maximum number of segments of a single file downloaded at the same time. */
+    private int mMaxParallelSegments = 4;
+
+    /**
+     * A download in progress, which other threads requesting the same remote file wait on instead
+     * of downloading it again.
+     */
+    private static class InFlightDownload {
+        final File mDestFile;
+        final CompletableFuture<Void> mFuture = new CompletableFuture<>();
+        /** Bytes written so far for segmented downloads, -1 if the file grows as downloaded. */
+        final AtomicLong mBytesDownloaded = new AtomicLong(-1);
+
+        InFlightDownload(File destFile) {
+            mDestFile = destFile;
+        }
+
+        long getBytesDownloaded() {
+            long bytes = mBytesDownloaded.get();
+            return bytes < 0 ? mDestFile.length() : bytes;
+        }
+    }
+
     /**
      * Struct for a {@link File} and its remote relative path
      */
@@ -100,6 +155,9 @@ public class FileDownloadCache {
      */
     FileDownloadCache(File cacheRoot) {
         mCacheRoot = cacheRoot;
+        mIndex =
+                new FileDownloadCacheIndex(
+                        new File(mCacheRoot, FileDownloadCacheIndex.INDEX_FILE_NAME));
         if (!mCacheRoot.exists()) {
             Log.d(LOG_TAG, String.format("Creating file cache at %s",
                     mCacheRoot.getAbsolutePath()));
@@ -107,6 +165,23 @@ public class FileDownloadCache {
                 throw new FatalHostError(String.format("Could not create cache directory at %s",
                         mCacheRoot.getAbsolutePath()));
             }
+        } else if (mIndex.load()) {
+            Log.d(
+                    LOG_TAG,
+                    String.format(
+                            "Loaded file cache index at %s", mCacheRoot.getAbsolutePath()));
+            if (!mIndex.wasClosedCleanly() || !mIndex.getPendingPaths().isEmpty()) {
+                // TF did not shut down cleanly, the cache directory might not match the index.
+                reconcileIndex();
+            }
+            for (FileDownloadCacheIndex.Entry entry : mIndex.getEntriesByLastAccess()) {
+                mCacheMap.put(
+                        entry.mRemotePath, new File(mCacheRoot, convertPath(entry.mRemotePath)));
+            }
+            mCurrentCacheSize = mIndex.getTotalSize();
+            if (mCurrentCacheSize > getMaxFileCacheSize()) {
+                incrementAndAdjustCache(0);
+            }
         } else {
             Log.d(LOG_TAG, String.format("Building file cache from contents at %s",
                     mCacheRoot.getAbsolutePath()));
@@ -117,15 +192,82 @@ public class FileDownloadCache {
             // now sort them based on file timestamp, to get them in LRU order
             Collections.sort(cacheEntryList, new FileTimeComparator());
             // now insert them into the map
+            List<FileDownloadCacheIndex.Entry> indexEntries = new ArrayList<>();
             for (FilePair cacheEntry : cacheEntryList) {
                 mCacheMap.put(cacheEntry.mRelPath, cacheEntry.mFile);
                 mCurrentCacheSize += cacheEntry.mFile.length();
+                indexEntries.add(
+                        new FileDownloadCacheIndex.Entry(
+                                cacheEntry.mRelPath,
+                                cacheEntry.mFile.length(),
+                                null,
+                                cacheEntry.mFile.lastModified()));
             }
+            mIndex.reset(indexEntries);
             // this would be an unusual situation, but check if current cache is already too big
             if (mCurrentCacheSize > getMaxFileCacheSize()) {
                 incrementAndAdjustCache(0);
             }
         }
+        // Record a clean shutdown so that the next load can trust the index.
+        Runtime.getRuntime()
+                .addShutdownHook(new Thread(mIndex::close, "FileDownloadCache-index-close"));
+    }
+
+    /**
+     * Make the loaded index and the cache directory agree, after TF died while modifying the
+     * cache: the files of the interrupted downloads, the files the index does not know about and
+     * the partial files are deleted, and the entries whose file is missing are removed.
+     */
+    private void reconcileIndex() {
+        for (String pendingPath : mIndex.getPendingPaths()) {
+            CLog.d("Deleting interrupted download of %s from the cache", pendingPath);
+            FileUtil.recursiveDelete(new File(mCacheRoot, convertPath(pendingPath)));
+            mIndex.remove(pendingPath);
+        }
+        deleteUnindexedFiles(mCacheRoot, "");
+        for (FileDownloadCacheIndex.Entry entry : mIndex.getEntriesByLastAccess()) {
+            if (!new File(mCacheRoot, convertPath(entry.mRemotePath)).exists()) {
+                CLog.d(
+                        "Cached file of %s is missing, removing it from the index.",
+                        entry.mRemotePath);
+                mIndex.remove(entry.mRemotePath);
+            }
+        }
+    }
+
+    /**
+     * Recursive method deleting the files of a directory that are not entries of the index.
+     *
+     * @param dir the directory to clean up
+     * @param relPath the remote path of <var>dir</var>, ending with a separator unless empty
+     */
+    private void deleteUnindexedFiles(File dir, String relPath) {
+        File[] fileList = dir.listFiles();
+        if (fileList == null) {
+            CLog.e("Unable to list files in cache dir %s", dir.getAbsolutePath());
+            return;
+        }
+        for (File childFile : fileList) {
+            String childPath = relPath + childFile.getName();
+            if (relPath.isEmpty()
+                    && childFile.getName().startsWith(FileDownloadCacheIndex.INDEX_FILE_NAME)) {
+                // the cache index is not a cache entry
+                continue;
+            }
+            if (mIndex.get(childPath) != null) {
+                // an entry, which can also be a directory
+                continue;
+            }
+            if (childFile.isDirectory()) {
+                deleteUnindexedFiles(childFile, childPath + REL_PATH_SEPARATOR);
+                // only delete the directories left empty
+                childFile.delete();
+            } else {
+                CLog.d("Deleting %s, which is not in the cache index", childFile);
+                FileUtil.deleteFile(childFile);
+            }
+        }
     }
 
     /**
@@ -151,6 +293,13 @@ public class FileDownloadCache {
                 relPathSegments.push(childFile.getName());
                 addFiles(childFile, relPathSegments, cacheEntryList);
                 relPathSegments.pop();
+            } else if (relPathSegments.isEmpty()
+                    && childFile.getName().startsWith(FileDownloadCacheIndex.INDEX_FILE_NAME)) {
+                // the cache index is not a cache entry
+                continue;
+            } else if (childFile.getName().endsWith(PARTIAL_SUFFIX)) {
+                // left over from an interrupted segmented download
+                FileUtil.deleteFile(childFile);
             } else if (childFile.isFile()) {
                 StringBuffer relPath = new StringBuffer();
                 for (String pathSeg : relPathSegments) {
@@ -228,11 +377,26 @@ public class FileDownloadCache {
         mCacheMapLock.unlock();
     }
 
+    /**
+     * Set the parameters of segmented downloads, used for {@link IRangedFileDownloader}s.
+     *
+     * @param minSize the minimum size of a file to be downloaded in segments.
+     * @param segmentSize the size of each segment.
+     * @param maxParallelSegments the maximum number of segments downloaded at the same time.
+     */
+    public void setSegmentedDownloadOptions(
+            long minSize, long segmentSize, int maxParallelSegments) {
+        mSegmentedDownloadMinSize = minSize;
+        mDownloadSegmentSize = segmentSize;
+        mMaxParallelSegments = maxParallelSegments;
+    }
+
     /**
      * Returns a local file corresponding to the given <var>remotePath</var>
      * <p/>
      * The local {@link File} will be copied from the cache if it exists, otherwise will be
-     * downloaded via the given {@link IFileDownloader}.
+     * downloaded via the given {@link IFileDownloader}. If the file is already being downloaded by
+     * another thread, waits for that download instead of starting another one.
      *
      * @param downloader the {@link IFileDownloader}
      * @param remotePath the remote file.
@@ -244,6 +408,7 @@ public class FileDownloadCache {
         boolean download = false;
         File cachedFile, copyFile;
 
+        waitForInFlightDownload(remotePath);
         lockFile(remotePath);
         try {
             mCacheMapLock.lock();
@@ -259,9 +424,15 @@ public class FileDownloadCache {
                 mCacheMapLock.unlock();
             }
             try {
-                if (!download
-                        && cachedFile.exists()
-                        && !downloader.isFresh(cachedFile, remotePath)) {
+                if (!download && !cachedFile.exists()) {
+                    Log.d(
+                            LOG_TAG,
+                            String.format(
+                                    "Cached file %s for %s is missing, re-download.",
+                                    cachedFile, remotePath));
+                    forgetMissingFile(remotePath);
+                    download = true;
+                } else if (!download && !downloader.isFresh(cachedFile, remotePath)) {
                     Log.d(
                             LOG_TAG,
                             String.format(
@@ -270,18 +441,42 @@ public class FileDownloadCache {
                     FileUtil.recursiveDelete(cachedFile);
                     download = true;
                 }
-                if (download || !cachedFile.exists()) {
+                if (download) {
                     cachedFile.getParentFile().mkdirs();
-                    downloadFile(downloader, remotePath, cachedFile);
+                    // Persisted first, so that the file is deleted if TF dies while downloading.
+                    mIndex.markPending(remotePath);
+                    InFlightDownload inFlight = new InFlightDownload(cachedFile);
+                    synchronized (mInFlightDownloads) {
+                        mInFlightDownloads.put(remotePath, inFlight);
+                    }
+                    try {
+                        downloadFile(downloader, remotePath, cachedFile, inFlight);
+                        inFlight.mFuture.complete(null);
+                    } catch (BuildRetrievalError | RuntimeException e) {
+                        inFlight.mFuture.completeExceptionally(e);
+                        throw e;
+                    } finally {
+                        synchronized (mInFlightDownloads) {
+                            mInFlightDownloads.remove(remotePath);
+                        }
+                        // The threads waiting for the download must not hang on an Error either.
+                        if (!inFlight.mFuture.isDone()) {
+                            inFlight.mFuture.completeExceptionally(
+                                    new BuildRetrievalError(
+                                            String.format(
+                                                    "Download of %s was aborted", remotePath)));
+                        }
+                    }
                 } else {
                     Log.d(
                             LOG_TAG,
                             String.format(
                                     "Retrieved remote file %s from cached file %s",
                                     remotePath, cachedFile.getAbsolutePath()));
+                    mIndex.recordAccess(remotePath);
                 }
                 copyFile = copyFile(remotePath, cachedFile);
-            } catch (BuildRetrievalError | RuntimeException e) {
+            } catch (BuildRetrievalError | RuntimeException | Error e) {
                 // cached file is likely incomplete, delete it.
                 deleteCacheEntry(remotePath);
                 throw e;
@@ -289,7 +484,7 @@ public class FileDownloadCache {
 
             // Only the thread that first downloads the file should increment the cache.
             if (download) {
-               incrementAndAdjustCache(cachedFile.length());
+                incrementAndAdjustCache(indexDownloadedFile(remotePath, cachedFile));
             }
         } finally {
             unlockFile(remotePath);
@@ -297,13 +492,237 @@ public class FileDownloadCache {
         return copyFile;
     }
 
+    /**
+     * Stop accounting for the entry of a remote path whose cached file was deleted, before it is
+     * downloaded again.
+     */
+    private void forgetMissingFile(String remotePath) {
+        mCacheMapLock.lock();
+        try {
+            FileDownloadCacheIndex.Entry entry = mIndex.get(remotePath);
+            if (entry != null && !mIndex.isShared(remotePath)) {
+                mCurrentCacheSize -= entry.mSize;
+            }
+            mIndex.remove(remotePath);
+        } finally {
+            mCacheMapLock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the download of the given remote file by another thread if one is in progress,
+     * logging its progress periodically.
+     *
+     * @throws BuildRetrievalError if the download in progress failed
+     */
+    private void waitForInFlightDownload(String remotePath) throws BuildRetrievalError {
+        InFlightDownload inFlight;
+        synchronized (mInFlightDownloads) {
+            inFlight = mInFlightDownloads.get(remotePath);
+        }
+        if (inFlight == null) {
+            return;
+        }
+        while (true) {
+            try {
+                inFlight.mFuture.get(DOWNLOAD_PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                CLog.i(
+                        "Waiting for download of %s by another invocation, %d bytes so far.",
+                        remotePath, inFlight.getBytesDownloaded());
+            } catch (InterruptedException e) {
+                throw new BuildRetrievalError(
+                        String.format("Interrupted while waiting for download of %s", remotePath),
+                        e);
+            } catch (ExecutionException e) {
+                throw new BuildRetrievalError(
+                        String.format("Download of %s by another invocation failed", remotePath),
+                        e.getCause());
+            }
+        }
+    }
+
     /** Do the actual file download, clean up on exception is done by the caller. */
-    private void downloadFile(IFileDownloader downloader, String remotePath, File cachedFile)
+    private void downloadFile(
+            IFileDownloader downloader,
+            String remotePath,
+            File cachedFile,
+            InFlightDownload inFlight)
             throws BuildRetrievalError {
         Log.d(LOG_TAG, String.format("Downloading %s to cache", remotePath));
+        if (downloader instanceof IRangedFileDownloader) {
+            IRangedFileDownloader rangedDownloader = (IRangedFileDownloader) downloader;
+            IRangedFileDownloader.RemoteFileInfo info =
+                    rangedDownloader.getRemoteFileInfo(remotePath);
+            if (info != null
+                    && info.getSize() >= mSegmentedDownloadMinSize
+                    && info.getSize() > mDownloadSegmentSize) {
+                downloadSegments(rangedDownloader, remotePath, info, cachedFile, inFlight);
+                return;
+            }
+        }
         downloader.downloadFile(remotePath, cachedFile);
     }
 
+    /**
+     * Download a file as several segments in parallel, into a preallocated partial file that is
+     * only moved to its final location once complete.
+     */
+    private void downloadSegments(
+            IRangedFileDownloader downloader,
+            String remotePath,
+            IRangedFileDownloader.RemoteFileInfo info,
+            File cachedFile,
+            InFlightDownload inFlight)
+            throws BuildRetrievalError {
+        long size = info.getSize();
+        File partialFile = new File(cachedFile.getPath() + PARTIAL_SUFFIX);
+        long segmentCount = (size + mDownloadSegmentSize - 1) / mDownloadSegmentSize;
+        Log.d(
+                LOG_TAG,
+                String.format(
+                        "Downloading %s (%d bytes) in %d segments", remotePath, size, segmentCount));
+        inFlight.mBytesDownloaded.set(0);
+        ExecutorService executor =
+                Executors.newFixedThreadPool(
+                        (int) Math.min(mMaxParallelSegments, segmentCount),
+                        r -> {
+                            Thread t = new Thread(r, "FileDownloadCache-segment");
+                            t.setDaemon(true);
+                            return t;
+                        });
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(partialFile, "rw")) {
+                raf.setLength(size);
+            }
+            List<Future<Void>> segments = new ArrayList<>();
+            for (long offset = 0; offset < size; offset += mDownloadSegmentSize) {
+                final long segmentOffset = offset;
+                final long segmentLength = Math.min(mDownloadSegmentSize, size - offset);
+                segments.add(
+                        executor.submit(
+                                () -> {
+                                    downloader.downloadFileRange(
+                                            remotePath,
+                                            info.getVersion(),
+                                            partialFile,
+                                            segmentOffset,
+                                            segmentLength);
+                                    inFlight.mBytesDownloaded.addAndGet(segmentLength);
+                                    return null;
+                                }));
+            }
+            for (Future<Void> segment : segments) {
+                segment.get();
+            }
+            Files.move(
+                    partialFile.toPath(),
+                    cachedFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new BuildRetrievalError(
+                    String.format("Failed to write segments of %s", remotePath), e);
+        } catch (InterruptedException e) {
+            throw new BuildRetrievalError(
+                    String.format("Interrupted while downloading %s", remotePath), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BuildRetrievalError) {
+                throw (BuildRetrievalError) e.getCause();
+            }
+            throw new BuildRetrievalError(
+                    String.format("Failed to download a segment of %s", remotePath),
+                    e.getCause());
+        } finally {
+            executor.shutdownNow();
+            FileUtil.deleteFile(partialFile);
+        }
+    }
+
+    /**
+     * Record a freshly downloaded file in the index. If a large file has the same content as
+     * another entry, it is replaced by a hardlink to that entry to save space.
+     *
+     * @return the number of bytes the download added to the cache.
+     */
+    private long indexDownloadedFile(String remotePath, File cachedFile) {
+        long size = getSize(cachedFile);
+        String digest = null;
+        if (cachedFile.isFile() && size >= DEDUP_MIN_SIZE) {
+            try {
+                digest = FileUtil.calculateMd5(cachedFile);
+            } catch (IOException e) {
+                CLog.w("Failed to compute digest of %s: %s", cachedFile, e);
+            }
+        }
+        boolean shared = false;
+        if (digest != null) {
+            String otherPath = mIndex.findOtherPathWithDigest(remotePath, digest);
+            if (otherPath != null) {
+                shared = linkToExistingEntry(otherPath, cachedFile);
+                if (!shared) {
+                    // Entries with the same digest are counted once, which only holds for links.
+                    digest = null;
+                }
+            }
+        }
+        mIndex.put(remotePath, size, digest);
+        if (shared) {
+            CLog.d("Content of %s is already cached, sharing it.", remotePath);
+            return 0;
+        }
+        return size;
+    }
+
+    /**
+     * Replace a cached file by a hardlink to the cached file of another remote path with the same
+     * content.
+     *
+     * @return true if the file is now shared, false if it was left as is.
+     */
+    private boolean linkToExistingEntry(String otherPath, File cachedFile) {
+        if (!tryLockFile(otherPath)) {
+            // the other entry is being modified, do not risk linking to a partial file
+            return false;
+        }
+        File linkFile = new File(cachedFile.getPath() + PARTIAL_SUFFIX);
+        try {
+            File otherFile = getCachedFile(otherPath);
+            if (otherFile == null || !otherFile.isFile()) {
+                return false;
+            }
+            Files.createLink(linkFile.toPath(), otherFile.toPath());
+            Files.move(
+                    linkFile.toPath(),
+                    cachedFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            CLog.w("Failed to share cached file %s: %s", cachedFile, e);
+            FileUtil.deleteFile(linkFile);
+            return false;
+        } finally {
+            unlockFile(otherPath);
+        }
+    }
+
+    /** Returns the size of a file, or the total size of the files under a directory. */
+    private static long getSize(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += getSize(child);
+            }
+        }
+        return size;
+    }
+
     @VisibleForTesting
     File copyFile(String remotePath, File cachedFile) throws BuildRetrievalError {
         // attempt to create a local copy of cached file with sane name
@@ -357,8 +776,13 @@ public class FileDownloadCache {
                 if (tryLockFile(remotePath)) {
                     try {
                         File file = mCacheMap.get(remotePath);
-                        mCurrentCacheSize -= file.length();
+                        FileDownloadCacheIndex.Entry entry = mIndex.get(remotePath);
+                        // Content shared with another entry stays on disk.
+                        if (!mIndex.isShared(remotePath)) {
+                            mCurrentCacheSize -= entry != null ? entry.mSize : file.length();
+                        }
                         file.delete();
+                        mIndex.remove(remotePath);
                         keyIterator.remove();
                     } finally {
                         unlockFile(remotePath);
@@ -455,6 +879,7 @@ public class FileDownloadCache {
             mCacheMapLock.lock();
             try {
                 File file = mCacheMap.remove(remoteFilePath);
+                mIndex.remove(remoteFilePath);
                 if (file != null) {
                     FileUtil.recursiveDelete(file);
                 } else {
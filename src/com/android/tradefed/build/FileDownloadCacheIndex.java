@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.build;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent index of the entries of a {@link FileDownloadCache}.
+ *
+ * <p>The index is an append-only journal of entry additions, accesses and removals, so that the
+ * cache can be rebuilt at startup without walking the whole cache directory. The journal is
+ * compacted into one record per entry once it grows too large compared to the number of entries.
+ * A partially written last record, for example after a crash, is ignored when loading. A
+ * download is recorded as pending before it starts, so that the file of a download interrupted by
+ * a crash is known to be incomplete when the index is loaded again. Closing the index records that
+ * the cache was shut down cleanly, so that the cache directory only needs to be checked against
+ * the index after a crash.
+ *
+ * <p>Entries also record the digest of their content, which allows identical files published
+ * under different remote paths to share the same storage.
+ */
+class FileDownloadCacheIndex {
+
+    /** Name of the index file, in the cache root directory. */
+    static final String INDEX_FILE_NAME = ".tf_cache_index";
+
+    private static final String PUT = "P";
+    private static final String ACCESS = "A";
+    private static final String DELETE = "D";
+    private static final String PENDING = "S";
+    private static final String CLOSED = "C";
+    private static final String SEPARATOR = "\t";
+    private static final String NO_DIGEST = "-";
+
+    /** Minimum number of journal records before compaction is considered. */
+    private static final int MIN_COMPACTION_RECORDS = 1000;
+
+    /** An entry of the index. */
+    static class Entry {
+        final String mRemotePath;
+        final long mSize;
+        /** Digest of the content, <code>null</code> if not computed. */
+        final String mDigest;
+
+        long mLastAccess;
+
+        Entry(String remotePath, long size, String digest, long lastAccess) {
+            mRemotePath = remotePath;
+            mSize = size;
+            mDigest = digest;
+            mLastAccess = lastAccess;
+        }
+    }
+
+    private final File mIndexFile;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private final Map<String, Set<String>> mDigestPaths = new HashMap<>();
+    /** The remote paths being downloaded, until they are put or removed. */
+    private final Set<String> mPendingPaths = new HashSet<>();
+    private OutputStream mJournal = null;
+    private int mJournalRecords = 0;
+    /** Whether the last record loaded is the one written by {@link #close()}. */
+    private boolean mClosedCleanly = false;
+
+    FileDownloadCacheIndex(File indexFile) {
+        mIndexFile = indexFile;
+    }
+
+    /**
+     * Load the index from disk.
+     *
+     * @return <code>true</code> if the index was loaded, <code>false</code> if there is no usable
+     *     index and the cache needs to be rebuilt from the filesystem.
+     */
+    synchronized boolean load() {
+        if (!mIndexFile.isFile()) {
+            return false;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(mIndexFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                mClosedCleanly = CLOSED.equals(line);
+                if (!mClosedCleanly) {
+                    applyRecord(line);
+                }
+                mJournalRecords++;
+            }
+        } catch (IOException e) {
+            CLog.e("Failed to load cache index %s", mIndexFile);
+            CLog.e(e);
+            mEntries.clear();
+            mDigestPaths.clear();
+            mPendingPaths.clear();
+            mClosedCleanly = false;
+            return false;
+        }
+        // Rewrite it, which also drops any partial record at the end.
+        compact();
+        return true;
+    }
+
+    /** Replace the content of the index with the given entries, e.g. after a rebuild. */
+    synchronized void reset(List<Entry> entries) {
+        mEntries.clear();
+        mDigestPaths.clear();
+        mPendingPaths.clear();
+        for (Entry entry : entries) {
+            addEntry(entry);
+        }
+        compact();
+    }
+
+    /** Returns all the entries, least recently accessed first. */
+    synchronized List<Entry> getEntriesByLastAccess() {
+        List<Entry> entries = new ArrayList<>(mEntries.values());
+        Collections.sort(entries, Comparator.comparingLong(e -> e.mLastAccess));
+        return entries;
+    }
+
+    /** Returns the entry for the given remote path, or <code>null</code>. */
+    synchronized Entry get(String remotePath) {
+        return mEntries.get(normalize(remotePath));
+    }
+
+    /** Add or replace the entry of a remote path. */
+    synchronized void put(String remotePath, long size, String digest) {
+        remotePath = normalize(remotePath);
+        removeEntry(remotePath);
+        mPendingPaths.remove(remotePath);
+        Entry entry = new Entry(remotePath, size, digest, System.currentTimeMillis());
+        addEntry(entry);
+        appendRecord(
+                PUT,
+                remotePath,
+                Long.toString(size),
+                digest == null ? NO_DIGEST : digest,
+                Long.toString(entry.mLastAccess));
+    }
+
+    /** Record an access to a remote path. */
+    synchronized void recordAccess(String remotePath) {
+        Entry entry = mEntries.get(normalize(remotePath));
+        if (entry != null) {
+            entry.mLastAccess = System.currentTimeMillis();
+            appendRecord(ACCESS, entry.mRemotePath, Long.toString(entry.mLastAccess));
+        }
+    }
+
+    /** Remove the entry of a remote path, or its pending download. */
+    synchronized void remove(String remotePath) {
+        remotePath = normalize(remotePath);
+        boolean pending = mPendingPaths.remove(remotePath);
+        if (removeEntry(remotePath) != null || pending) {
+            appendRecord(DELETE, remotePath);
+        }
+    }
+
+    /**
+     * Record that a remote path is being downloaded, until it is {@link #put} or {@link #remove}d.
+     * The record is persisted before the download starts.
+     */
+    synchronized void markPending(String remotePath) {
+        remotePath = normalize(remotePath);
+        if (mPendingPaths.add(remotePath)) {
+            appendRecord(PENDING, remotePath);
+        }
+    }
+
+    /**
+     * Returns the remote paths whose download is pending. Right after {@link #load()}, these are
+     * the downloads that were interrupted and left incomplete files.
+     */
+    synchronized Set<String> getPendingPaths() {
+        return new HashSet<>(mPendingPaths);
+    }
+
+    /**
+     * Returns true if the loaded index was {@link #close()}d after its last modification, in which
+     * case it matches the content of the cache directory. False after a crash.
+     */
+    synchronized boolean wasClosedCleanly() {
+        return mClosedCleanly;
+    }
+
+    /**
+     * Returns the remote path of another entry with the given digest, or <code>null</code> if
+     * there is none.
+     */
+    synchronized String findOtherPathWithDigest(String remotePath, String digest) {
+        Set<String> paths = mDigestPaths.get(digest);
+        if (paths == null) {
+            return null;
+        }
+        remotePath = normalize(remotePath);
+        for (String path : paths) {
+            if (!path.equals(remotePath)) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    /** Returns true if the content of the remote path is shared with another entry. */
+    synchronized boolean isShared(String remotePath) {
+        Entry entry = mEntries.get(normalize(remotePath));
+        if (entry == null || entry.mDigest == null) {
+            return false;
+        }
+        return mDigestPaths.get(entry.mDigest).size() > 1;
+    }
+
+    /** Returns the size used on disk by all the entries, counting shared content once. */
+    synchronized long getTotalSize() {
+        long size = 0;
+        Set<String> countedDigests = new HashSet<>();
+        for (Entry entry : mEntries.values()) {
+            if (entry.mDigest == null || countedDigests.add(entry.mDigest)) {
+                size += entry.mSize;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Close the journal, recording that the index matches the cache directory. Any later
+     * modification reopens the journal and invalidates the record.
+     */
+    synchronized void close() {
+        if (mIndexFile.isFile()) {
+            writeRecord(CLOSED);
+        }
+        closeJournal();
+    }
+
+    private void closeJournal() {
+        StreamUtil.close(mJournal);
+        mJournal = null;
+    }
+
+    private void applyRecord(String line) {
+        String[] fields = line.split(SEPARATOR, -1);
+        try {
+            if (PUT.equals(fields[0]) && fields.length == 5) {
+                removeEntry(fields[1]);
+                mPendingPaths.remove(fields[1]);
+                String digest = NO_DIGEST.equals(fields[3]) ? null : fields[3];
+                addEntry(
+                        new Entry(
+                                fields[1],
+                                Long.parseLong(fields[2]),
+                                digest,
+                                Long.parseLong(fields[4])));
+            } else if (ACCESS.equals(fields[0]) && fields.length == 3) {
+                Entry entry = mEntries.get(fields[1]);
+                if (entry != null) {
+                    entry.mLastAccess = Long.parseLong(fields[2]);
+                }
+            } else if (DELETE.equals(fields[0]) && fields.length == 2) {
+                removeEntry(fields[1]);
+                mPendingPaths.remove(fields[1]);
+            } else if (PENDING.equals(fields[0]) && fields.length == 2) {
+                mPendingPaths.add(fields[1]);
+            } else {
+                CLog.w("Ignoring malformed cache index record '%s'", line);
+            }
+        } catch (NumberFormatException e) {
+            CLog.w("Ignoring malformed cache index record '%s'", line);
+        }
+    }
+
+    private void addEntry(Entry entry) {
+        mEntries.put(entry.mRemotePath, entry);
+        if (entry.mDigest != null) {
+            mDigestPaths.computeIfAbsent(entry.mDigest, k -> new HashSet<>()).add(entry.mRemotePath);
+        }
+    }
+
+    private Entry removeEntry(String remotePath) {
+        Entry entry = mEntries.remove(remotePath);
+        if (entry != null && entry.mDigest != null) {
+            Set<String> paths = mDigestPaths.get(entry.mDigest);
+            paths.remove(remotePath);
+            if (paths.isEmpty()) {
+                mDigestPaths.remove(entry.mDigest);
+            }
+        }
+        return entry;
+    }
+
+    private void appendRecord(String... fields) {
+        if (mJournalRecords > MIN_COMPACTION_RECORDS && mJournalRecords > 2 * mEntries.size()) {
+            compact();
+            return;
+        }
+        writeRecord(fields);
+    }
+
+    private void writeRecord(String... fields) {
+        try {
+            if (mJournal == null) {
+                mJournal = new FileOutputStream(mIndexFile, true);
+            }
+            // Write each record in one call so that a crash leaves at most one partial line.
+            mJournal.write(
+                    (String.join(SEPARATOR, fields) + "\n").getBytes(StandardCharsets.UTF_8));
+            mJournal.flush();
+            mJournalRecords++;
+        } catch (IOException e) {
+            CLog.e("Failed to append to cache index %s", mIndexFile);
+            CLog.e(e);
+        }
+    }
+
+    /** Rewrite the journal with one record per entry, replacing the old one atomically. */
+    private void compact() {
+        closeJournal();
+        File tmpIndex = new File(mIndexFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmpIndex)) {
+            StringBuilder builder = new StringBuilder();
+            for (Entry entry : mEntries.values()) {
+                builder.append(
+                                String.join(
+                                        SEPARATOR,
+                                        PUT,
+                                        entry.mRemotePath,
+                                        Long.toString(entry.mSize),
+                                        entry.mDigest == null ? NO_DIGEST : entry.mDigest,
+                                        Long.toString(entry.mLastAccess)))
+                        .append('\n');
+            }
+            for (String pendingPath : mPendingPaths) {
+                builder.append(PENDING).append(SEPARATOR).append(pendingPath).append('\n');
+            }
+            out.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            CLog.e("Failed to compact cache index %s", mIndexFile);
+            CLog.e(e);
+            FileUtil.deleteFile(tmpIndex);
+            return;
+        }
+        try {
+            Files.move(
+                    tmpIndex.toPath(),
+                    mIndexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            mJournalRecords = mEntries.size() + mPendingPaths.size();
+        } catch (IOException e) {
+            CLog.e("Failed to replace cache index %s", mIndexFile);
+            CLog.e(e);
+            FileUtil.deleteFile(tmpIndex);
+        }
+    }
+
+    /** Normalize remote paths the same way the cache map does. */
+    private static String normalize(String remotePath) {
+        return new File(remotePath).getPath();
+    }
+}
@@ -20,6 +20,7 @@ import com.android.tradefed.build.proto.BuildInformation;
 import com.android.tradefed.device.ITestDevice;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.List;
@@ -253,6 +254,20 @@ public interface IBuildInfo extends Serializable {
         // Default implementation for projects that don't extend BuildInfo class.
     }
 
+    /**
+     * Ensures the file stored with the given name can be modified by this build without affecting
+     * the builds it was cloned from or cloned into, and returns it. Directories are shared between
+     * a build and its clones until one of them needs to modify them.
+     *
+     * @param name the unique name of the file
+     * @return the {@link File} this build can modify, or <code>null</code> if no file is stored
+     *     with this name.
+     * @throws IOException if the file could not be copied
+     */
+    public default File materializeFile(String name) throws IOException {
+        return getFile(name);
+    }
+
     /**
      * Clean up any temporary build files
      */
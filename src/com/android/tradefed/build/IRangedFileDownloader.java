@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.build;
+
+import java.io.File;
+
+/**
+ * A {@link IFileDownloader} that can download a byte range of a remote file. Allows large files
+ * to be fetched as several segments in parallel.
+ */
+public interface IRangedFileDownloader extends IFileDownloader {
+
+    /** The size and version of a remote file, identifying the content its ranges are read from. */
+    public static class RemoteFileInfo {
+        private final long mSize;
+        private final String mVersion;
+
+        public RemoteFileInfo(long size, String version) {
+            mSize = size;
+            mVersion = version;
+        }
+
+        /** Returns the size in bytes of the remote file. */
+        public long getSize() {
+            return mSize;
+        }
+
+        /**
+         * Returns the implementation-specific version of the remote file content, or <code>null
+         * </code> if the content cannot be pinned.
+         */
+        public String getVersion() {
+            return mVersion;
+        }
+    }
+
+    /**
+     * Returns the size and version of a remote file.
+     *
+     * @param remoteFilePath the remote path to the file, relative to an implementation-specific
+     *     root.
+     * @return the {@link RemoteFileInfo}, or <code>null</code> if the size is unknown or the path
+     *     is not a single file, in which case it should be downloaded with {@link
+     *     #downloadFile(String, File)}.
+     * @throws BuildRetrievalError if the file information could not be retrieved
+     */
+    public RemoteFileInfo getRemoteFileInfo(String remoteFilePath) throws BuildRetrievalError;
+
+    /**
+     * Downloads a range of a remote file into the same range of a local file.
+     *
+     * <p>The destination file already exists with its final size. Implementations must only write
+     * to the requested range so that several ranges can be downloaded concurrently.
+     *
+     * <p>The range is read from the given version of the file, so that the ranges of a file
+     * replaced during the download are not mixed up. If that version is not available anymore, the
+     * download fails.
+     *
+     * @param remoteFilePath the remote path to the file, relative to an implementation-specific
+     *     root.
+     * @param version the version of the file, from {@link #getRemoteFileInfo(String)}.
+     * @param destFile the local file to write the range into.
+     * @param offset the offset of the first byte of the range.
+     * @param length the number of bytes of the range.
+     * @throws BuildRetrievalError if the range could not be downloaded
+     */
+    public void downloadFileRange(
+            String remoteFilePath, String version, File destFile, long offset, long length)
+            throws BuildRetrievalError;
+}
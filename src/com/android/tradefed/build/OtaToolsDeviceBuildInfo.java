@@ -15,10 +15,7 @@
  */
 package com.android.tradefed.build;
 
-import com.android.tradefed.util.FileUtil;
-
 import java.io.File;
-import java.io.IOException;
 
 /**
  * An {@link OtaDeviceBuildInfo} that also contains an otatools directory.
@@ -55,22 +52,17 @@ public class OtaToolsDeviceBuildInfo extends OtaDeviceBuildInfo {
 
     @Override
     public void cleanUp() {
-        FileUtil.recursiveDelete(mOtaToolsDir);
+        SharedBuildFiles.release(mOtaToolsDir);
         super.cleanUp();
     }
 
     @Override
     public IBuildInfo clone() {
-        try {
-            OtaToolsDeviceBuildInfo clone = new OtaToolsDeviceBuildInfo(
-                    (OtaDeviceBuildInfo)super.clone());
-            File toolsCopy = FileUtil.createTempDir("otatools");
-            FileUtil.recursiveHardlink(mOtaToolsDir, toolsCopy);
-            clone.setOtaTools(toolsCopy);
-            return clone;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        OtaToolsDeviceBuildInfo clone = new OtaToolsDeviceBuildInfo(
+                (OtaDeviceBuildInfo)super.clone());
+        // The tools are only executed, share them with the clone.
+        clone.setOtaTools(SharedBuildFiles.share(mOtaToolsDir));
+        return clone;
     }
 }
 
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.build;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reference counts the build directories shared between a build and its clones.
+ *
+ * <p>Instead of hardlinking every file of a directory for each clone (for example each shard of
+ * an invocation), the clones use the directory of the original build and take a reference on it.
+ * The directory is read-only for the clones: a clone that needs to modify or delete files in it
+ * first gets its own copy with {@link #materialize(File, String)}. The directory is deleted when
+ * the last build holding it releases its reference with {@link #release(File)}.
+ */
+class SharedBuildFiles {
+
+    /** Number of builds holding each shared directory, guarded by the class. */
+    private static final Map<Path, Integer> sReferences = new HashMap<>();
+
+    private SharedBuildFiles() {}
+
+    /**
+     * Take a reference on a directory for a new build. The first time a directory is shared, the
+     * build that owns it gets a reference too.
+     *
+     * @param dir the directory to share
+     * @return the directory to use in the new build
+     */
+    static File share(File dir) {
+        if (dir == null) {
+            return null;
+        }
+        synchronized (SharedBuildFiles.class) {
+            sReferences.merge(toPath(dir), 2, (count, initial) -> count + 1);
+        }
+        return dir;
+    }
+
+    /** Returns the number of builds holding a directory, 0 if it is not shared. */
+    static int getReferenceCount(File file) {
+        synchronized (SharedBuildFiles.class) {
+            return sReferences.getOrDefault(toPath(file), 0);
+        }
+    }
+
+    /**
+     * Release the reference of a build on one of its files, and delete the file if no other build
+     * uses it. The files that are not shared are deleted directly, except the ones located in a
+     * shared directory that is still used.
+     *
+     * @param file the file or directory of the build
+     * @return true if the file was deleted, false if other builds still use it
+     */
+    static boolean release(File file) {
+        if (file == null) {
+            return false;
+        }
+        Path path = toPath(file);
+        synchronized (SharedBuildFiles.class) {
+            Integer count = sReferences.get(path);
+            if (count != null) {
+                if (count > 1) {
+                    sReferences.put(path, count - 1);
+                    return false;
+                }
+                sReferences.remove(path);
+            }
+            if (isInSharedDir(path)) {
+                return false;
+            }
+        }
+        FileUtil.recursiveDelete(file);
+        return true;
+    }
+
+    /**
+     * Give a build its own copy of a shared directory, so it can modify it without affecting the
+     * other builds. The reference of the build on the shared directory is released. The directory
+     * is returned as is if it is not shared, or if the build holds the last reference on it.
+     *
+     * @param file the file or directory of the build
+     * @param prefix the prefix of the name of the copy
+     * @return the file the build can modify
+     * @throws IOException if the copy failed
+     */
+    static File materialize(File file, String prefix) throws IOException {
+        Path path = toPath(file);
+        synchronized (SharedBuildFiles.class) {
+            Integer count = sReferences.get(path);
+            if (count == null) {
+                return file;
+            }
+            if (count == 1) {
+                sReferences.remove(path);
+                return file;
+            }
+        }
+        File copy = FileUtil.createTempDir(prefix);
+        try {
+            FileUtil.recursiveHardlink(file, copy);
+        } catch (IOException e) {
+            FileUtil.recursiveDelete(copy);
+            throw e;
+        }
+        CLog.d("Materialized shared build directory %s in %s", file, copy);
+        release(file);
+        return copy;
+    }
+
+    /** Returns true if the path is located under a shared directory, guarded by the class. */
+    private static boolean isInSharedDir(Path path) {
+        for (Path sharedDir : sReferences.keySet()) {
+            if (!path.equals(sharedDir) && path.startsWith(sharedDir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Path toPath(File file) {
+        return file.getAbsoluteFile().toPath().normalize();
+    }
+}
@@ -22,21 +22,41 @@ import com.android.tradefed.util.RunUtil;
 import com.google.common.annotations.VisibleForTesting;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A simple class to watch a set of command files for changes, and to trigger a
  * reload of _all_ manually-loaded command files when such a change happens.
+ * <p />
+ * The directories of the files are watched with a {@link WatchService}, so the command files
+ * depending on a changed file are checked as soon as it changes, without checking the others. All
+ * the files are still polled as often as without a {@link WatchService}, for the file systems not
+ * reporting their changes.
  */
 class CommandFileWatcher extends Thread {
     private static final long POLL_TIME_MS = 20 * 1000;  // 20 seconds
+    // Time without new changes before checking them, to handle a file being written at once.
+    private static final long SETTLE_TIME_MS = 1000;
+    // Maximum time spent waiting for the changes to settle, for files that keep changing.
+    private static final long MAX_SETTLE_TIME_MS = 5 * SETTLE_TIME_MS;
     // thread-safe (for read-writes, not write during iteration) structure holding all commands
     // being watched. map of absolute file system path to command file
     private Map<String, CommandFile> mCmdFileMap = new Hashtable<>();
@@ -117,12 +137,161 @@ class CommandFileWatcher extends Thread {
      */
     @Override
     public void run() {
-        while (!isCancelled()) {
+        WatchService watchService = createWatchService();
+        if (watchService == null) {
+            while (!isCancelled()) {
+                checkForUpdates();
+                getRunUtil().sleep(POLL_TIME_MS);
+            }
+            return;
+        }
+        Map<Path, WatchKey> watchedDirs = new HashMap<>();
+        try {
+            long lastFullPoll = System.currentTimeMillis();
             checkForUpdates();
-            getRunUtil().sleep(POLL_TIME_MS);
+            while (!isCancelled()) {
+                updateWatchedDirs(watchService, watchedDirs);
+                long nextFullPoll = lastFullPoll + POLL_TIME_MS;
+                Set<File> changedFiles = waitForChanges(watchService, nextFullPoll);
+                if (System.currentTimeMillis() >= nextFullPoll) {
+                    // Also check the changed files.
+                    checkForUpdates();
+                    lastFullPoll = System.currentTimeMillis();
+                } else if (!changedFiles.isEmpty()) {
+                    checkForUpdates(changedFiles);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            CLog.d("Stopped watching the command files.");
+        } finally {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                CLog.e(e);
+            }
+        }
+    }
+
+    /**
+     * Factory method for creating the {@link WatchService} of the command files, returns null if
+     * they can only be polled.
+     * <p />
+     * Exposed for unit testing.
+     */
+    WatchService createWatchService() {
+        try {
+            return FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            CLog.w("Cannot watch the command files, polling them instead: %s", e);
+            return null;
+        }
+    }
+
+    /**
+     * Watch the directories of the command files and their dependencies, and stop watching the
+     * ones not needed anymore.
+     */
+    @VisibleForTesting
+    void updateWatchedDirs(WatchService watchService, Map<Path, WatchKey> watchedDirs) {
+        Set<Path> dirs = new HashSet<>();
+        for (File file : getWatchedFiles()) {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null) {
+                dirs.add(dir.toPath());
+            }
+        }
+        Iterator<Map.Entry<Path, WatchKey>> iter = watchedDirs.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Path, WatchKey> entry = iter.next();
+            if (!dirs.contains(entry.getKey()) || !entry.getValue().isValid()) {
+                entry.getValue().cancel();
+                iter.remove();
+            }
+        }
+        for (Path dir : dirs) {
+            if (watchedDirs.containsKey(dir)) {
+                continue;
+            }
+            try {
+                watchedDirs.put(
+                        dir,
+                        dir.register(
+                                watchService,
+                                StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_MODIFY,
+                                StandardWatchEventKinds.ENTRY_DELETE));
+            } catch (IOException e) {
+                // Missing directory, its files are still polled.
+                CLog.d("Cannot watch %s: %s", dir, e);
+            }
         }
     }
 
+    /**
+     * Wait for changes of the watched files. Once one of them changed, waits until there was no
+     * change for {@link #SETTLE_TIME_MS}, up to {@link #MAX_SETTLE_TIME_MS}. The changes of the
+     * other files of the watched directories are ignored.
+     *
+     * @param deadline the time in ms after which to stop waiting, even if changes are not settled
+     * @return the changed files, empty if there was none.
+     */
+    @VisibleForTesting
+    Set<File> waitForChanges(WatchService watchService, long deadline)
+            throws InterruptedException {
+        Set<File> watchedFiles = new HashSet<>();
+        for (File file : getWatchedFiles()) {
+            watchedFiles.add(file.getAbsoluteFile());
+        }
+        Set<File> changedFiles = new HashSet<>();
+        long settleDeadline = deadline;
+        long waitEnd = deadline;
+        long now = System.currentTimeMillis();
+        while (now < waitEnd) {
+            WatchKey key = watchService.poll(waitEnd - now, TimeUnit.MILLISECONDS);
+            if (key == null) {
+                break;
+            }
+            Path dir = (Path) key.watchable();
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Events were lost, check all the files.
+                    changedFiles.addAll(watchedFiles);
+                    changed = true;
+                } else {
+                    File file = dir.resolve((Path) event.context()).toFile().getAbsoluteFile();
+                    if (watchedFiles.contains(file)) {
+                        changedFiles.add(file);
+                        changed = true;
+                    }
+                }
+            }
+            key.reset();
+            now = System.currentTimeMillis();
+            if (changed) {
+                if (settleDeadline == deadline) {
+                    settleDeadline = Math.min(deadline, now + MAX_SETTLE_TIME_MS);
+                }
+                waitEnd = Math.min(settleDeadline, now + SETTLE_TIME_MS);
+            }
+        }
+        return changedFiles;
+    }
+
+    /** Returns the command files being watched and their dependencies. */
+    private Set<File> getWatchedFiles() {
+        Set<File> files = new HashSet<>();
+        synchronized (mCmdFileMap) {
+            for (CommandFile cmd : mCmdFileMap.values()) {
+                files.add(cmd.file);
+                for (CommandFile dep : cmd.dependencies) {
+                    files.add(dep.file);
+                }
+            }
+        }
+        return files;
+    }
+
     /**
      * Same as {@link #addCmdFile(File, List, Collection)} but accepts a list of {@link File}s
      * as dependencies
@@ -176,6 +345,44 @@ class CommandFileWatcher extends Thread {
         }
     }
 
+    /**
+     * Check only the command files which are or depend on one of the changed files.
+     * <p />
+     * Exposed for unit testing
+     */
+    void checkForUpdates(Collection<File> changedFiles) {
+        Set<String> changedPaths = new HashSet<>();
+        for (File file : changedFiles) {
+            changedPaths.add(file.getAbsolutePath());
+        }
+        List<CommandFile> cmdCopy;
+        synchronized (mCmdFileMap) {
+            cmdCopy = new ArrayList<CommandFile>(mCmdFileMap.values());
+        }
+        for (CommandFile cmd : cmdCopy) {
+            if (!dependsOn(cmd, changedPaths)) {
+                continue;
+            }
+            // Each command file is checked on its own, as all the ones depending on a changed
+            // file need to be notified.
+            if (checkCommandFileForUpdate(cmd, new HashSet<File>())) {
+                mListener.notifyFileChanged(cmd.file, cmd.extraArgs);
+            }
+        }
+    }
+
+    private static boolean dependsOn(CommandFile cmd, Set<String> paths) {
+        if (paths.contains(cmd.file.getAbsolutePath())) {
+            return true;
+        }
+        for (CommandFile dep : cmd.dependencies) {
+            if (paths.contains(dep.file.getAbsolutePath())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     boolean checkCommandFileForUpdate(CommandFile cmd, Set<File> checkedFiles) {
         if (checkedFiles.contains(cmd.file)) {
             return false;
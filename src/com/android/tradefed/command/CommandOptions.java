@@ -24,6 +24,7 @@ import com.android.tradefed.config.OptionUpdateRule;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.util.UniqueMultiMap;
 
+import java.io.File;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
@@ -137,6 +138,14 @@ public class CommandOptions implements ICommandOptions {
     )
     private boolean mDynamicSharding = true;
 
+    @Option(
+        name = "shard-runtime-history",
+        description =
+                "File where the duration of the modules is recorded, and used to balance the "
+                        + "shards of the next sharded invocations. Only for local sharding."
+    )
+    private File mShardRuntimeHistory = null;
+
     public static final String INVOCATION_DATA = "invocation-data";
 
     @Option(
@@ -459,6 +468,12 @@ public class CommandOptions implements ICommandOptions {
         return mDynamicSharding;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public File getShardRuntimeHistoryFile() {
+        return mShardRuntimeHistory;
+    }
+
     /** {@inheritDoc} */
     @Override
     public UniqueMultiMap<String, String> getInvocationData() {
@@ -37,6 +37,7 @@ import com.android.tradefed.config.IConfigurationFactory;
 import com.android.tradefed.config.IDeviceConfiguration;
 import com.android.tradefed.config.IGlobalConfiguration;
 import com.android.tradefed.config.Option;
+import com.android.tradefed.config.OptionSetter;
 import com.android.tradefed.config.RetryConfigurationFactory;
 import com.android.tradefed.config.SandboxConfigurationFactory;
 import com.android.tradefed.device.DeviceAllocationState;
@@ -93,18 +94,18 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
 /**
@@ -117,8 +118,8 @@ import java.util.regex.Pattern;
  */
 public class CommandScheduler extends Thread implements ICommandScheduler, ICommandFileListener {
 
-    /** the queue of commands ready to be executed. */
-    private List<ExecutableCommand> mReadyCommands;
+    /** the queue of commands ready to be executed, bucketed by device requirements. */
+    private ReadyCommandQueue<ExecutableCommand> mReadyCommands;
     private Set<ExecutableCommand> mUnscheduledWarning;
 
     /** the queue of commands sleeping. */
@@ -137,6 +138,8 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
     private RemoteManager mRemoteManager = null;
 
     private CommandFileWatcher mCommandFileWatcher = null;
+    /** map of command file path to the commands last added from it, with their extra args */
+    private Map<String, List<List<String>>> mCommandFileCommands = new ConcurrentHashMap<>();
 
     /** latch used to notify other threads that this thread is running */
     private final CountDownLatch mRunLatch;
@@ -828,7 +831,8 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
         public void notifyDeviceStateChange(String serial, DeviceAllocationState oldState,
                 DeviceAllocationState newState) {
             if (newState.equals(DeviceAllocationState.Available)) {
-                // new avail device was added, wake up scheduler
+                // new avail device was added, wake up scheduler for the commands that can use it
+                mReadyCommands.markDirty(serial);
                 mCommandProcessWait.signalEventReceived();
             }
         }
@@ -841,7 +845,7 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
      */
     public CommandScheduler() {
         super("CommandScheduler");  // set the thread name
-        mReadyCommands = new LinkedList<>();
+        mReadyCommands = new ReadyCommandQueue<>(new ExecutableCommandComparator());
         mUnscheduledWarning = new HashSet<>();
         mSleepingCommands = new HashSet<>();
         mExecutingCommands = new HashSet<>();
@@ -975,6 +979,9 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
             while (!isShutdown()) {
                 // wait until processing is required again
                 mCommandProcessWait.waitAndReset(mPollTime);
+                // Device state might change without notification (battery level, properties), so
+                // re-evaluate all commands every poll time, even if other events keep arriving.
+                mReadyCommands.markAllDirtyIfStale(System.currentTimeMillis(), mPollTime);
                 checkInvocations();
                 try {
                     processReadyCommands(manager);
@@ -1035,37 +1042,46 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
         // minimize length of synchronized block by just matching commands with device first,
         // then scheduling invocations/adding looping commands back to queue
         synchronized (this) {
-            // sort ready commands by priority, so high priority commands are matched first
-            Collections.sort(mReadyCommands, new ExecutableCommandComparator());
-            Iterator<ExecutableCommand> cmdIter = mReadyCommands.iterator();
-            while (cmdIter.hasNext()) {
-                ExecutableCommand cmd = cmdIter.next();
-                IConfiguration config = cmd.getConfiguration();
-                IInvocationContext context = new InvocationContext();
-                context.setConfigurationDescriptor(config.getConfigurationDescription());
-                Map<String, ITestDevice> devices = allocateDevices(config, manager);
-                if (!devices.isEmpty()) {
-                    cmdIter.remove();
-                    mExecutingCommands.add(cmd);
-                    context.addAllocatedDevice(devices);
-
-                    // track command matched with device
-                    scheduledCommandMap.put(cmd, context);
-                    // clean warned list to avoid piling over time.
-                    mUnscheduledWarning.remove(cmd);
-                } else {
-                    if (!mUnscheduledWarning.contains(cmd)) {
-                        CLog.logAndDisplay(LogLevel.DEBUG, "No available device matching all the "
-                                + "config's requirements for cmd id %d.",
-                                cmd.getCommandTracker().getId());
-                        // make sure not to record since it may contains password
-                        System.out.println(
-                                String.format(
-                                        "The command %s will be rescheduled.",
-                                        Arrays.toString(cmd.getCommandTracker().getArgs())));
-                        mUnscheduledWarning.add(cmd);
-                    }
-                }
+            int readyCommandCount = mReadyCommands.size();
+            // Only the highest priority command of each group of commands with identical device
+            // requirements is tried, and only if a device it could use changed since last time.
+            mReadyCommands.match(
+                    cmd -> {
+                        IConfiguration config = cmd.getConfiguration();
+                        IInvocationContext context = new InvocationContext();
+                        context.setConfigurationDescriptor(
+                                config.getConfigurationDescription());
+                        Map<String, ITestDevice> devices = allocateDevices(config, manager);
+                        if (!devices.isEmpty()) {
+                            mExecutingCommands.add(cmd);
+                            context.addAllocatedDevice(devices);
+
+                            // track command matched with device
+                            scheduledCommandMap.put(cmd, context);
+                            // clean warned list to avoid piling over time.
+                            mUnscheduledWarning.remove(cmd);
+                            return true;
+                        }
+                        if (!mUnscheduledWarning.contains(cmd)) {
+                            CLog.logAndDisplay(
+                                    LogLevel.DEBUG,
+                                    "No available device matching all the "
+                                            + "config's requirements for cmd id %d.",
+                                    cmd.getCommandTracker().getId());
+                            // make sure not to record since it may contains password
+                            System.out.println(
+                                    String.format(
+                                            "The command %s will be rescheduled.",
+                                            Arrays.toString(cmd.getCommandTracker().getArgs())));
+                            mUnscheduledWarning.add(cmd);
+                        }
+                        return false;
+                    });
+            // Only log the passes which tried to allocate devices, not the idle ones.
+            if (mReadyCommands.getLastMatchAttempts() > 0) {
+                CLog.d(
+                        "%d allocation attempts for %d ready commands.",
+                        mReadyCommands.getLastMatchAttempts(), readyCommandCount);
             }
         }
 
@@ -1256,33 +1272,104 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
      */
     private void internalAddCommandFile(File cmdFile, List<String> extraArgs)
             throws ConfigurationException {
+        List<List<String>> commands = parseCommandFile(cmdFile, extraArgs);
+        for (List<String> command : commands) {
+            addCommandFromFile(command, cmdFile);
+        }
+        mCommandFileCommands.put(cmdFile.getAbsolutePath(), commands);
+    }
+
+    /**
+     * Reload a changed command file, only removing the commands which are not in it anymore and
+     * adding the new ones. The unchanged commands keep their state and are not parsed again.
+     */
+    private void reloadCommandFile(File cmdFile, List<String> extraArgs)
+            throws ConfigurationException {
+        List<List<String>> commands = parseCommandFile(cmdFile, extraArgs);
+        // The commands are recorded again once they are all added: if adding one of them fails,
+        // the next reload removes and adds all the commands of the file.
+        List<List<String>> previousCommands =
+                mCommandFileCommands.remove(cmdFile.getAbsolutePath());
+        if (previousCommands == null) {
+            removeCommandsFromFile(cmdFile);
+            for (List<String> command : commands) {
+                addCommandFromFile(command, cmdFile);
+            }
+            mCommandFileCommands.put(cmdFile.getAbsolutePath(), commands);
+            return;
+        }
+        // Commands which were added or removed, or whose number of occurrences changed.
+        Map<List<String>, Integer> countDiffs = new HashMap<>();
+        for (List<String> command : commands) {
+            countDiffs.merge(command, 1, Integer::sum);
+        }
+        for (List<String> command : previousCommands) {
+            countDiffs.merge(command, -1, Integer::sum);
+        }
+        Set<List<String>> changedCommands = new HashSet<>();
+        for (Map.Entry<List<String>, Integer> countDiff : countDiffs.entrySet()) {
+            if (countDiff.getValue() != 0) {
+                changedCommands.add(countDiff.getKey());
+            }
+        }
+        CLog.logAndDisplay(
+                LogLevel.INFO,
+                "Reloading %d changed commands out of %d from cmdfile '%s'",
+                changedCommands.size(),
+                countDiffs.size(),
+                cmdFile.getAbsolutePath());
+        if (!changedCommands.isEmpty()) {
+            removeCommandsFromFile(cmdFile, changedCommands);
+            for (List<String> command : commands) {
+                if (changedCommands.contains(command)) {
+                    addCommandFromFile(command, cmdFile);
+                }
+            }
+        }
+        mCommandFileCommands.put(cmdFile.getAbsolutePath(), commands);
+    }
+
+    /**
+     * Parse a command file, and watch it and its included files if command files are reloaded.
+     *
+     * @return the commands of the file, with the extra args.
+     */
+    private List<List<String>> parseCommandFile(File cmdFile, List<String> extraArgs)
+            throws ConfigurationException {
         try {
             CommandFileParser parser = createCommandFileParser();
 
-            List<CommandLine> commands = parser.parseFile(cmdFile);
+            List<CommandLine> commandLines = parser.parseFile(cmdFile);
             if (mReloadCmdfiles) {
                 // note always should re-register for command file, even if already listening,
                 // since the dependent file list might have changed
                 getCommandFileWatcher().addCmdFile(cmdFile, extraArgs, parser.getIncludedFiles());
             }
-            for (CommandLine command : commands) {
+            List<List<String>> commands = new ArrayList<>(commandLines.size());
+            for (CommandLine command : commandLines) {
                 command.addAll(extraArgs);
-                String[] arrayCommand = command.asArray();
-                final String prettyCmdLine = QuotationAwareTokenizer.combineTokens(arrayCommand);
-                CLog.d("Adding command %s", prettyCmdLine);
-
-                try {
-                    internalAddCommand(arrayCommand, 0, cmdFile.getAbsolutePath());
-                } catch (ConfigurationException e) {
-                    throw new ConfigurationException(String.format(
-                            "Failed to add command '%s': %s", prettyCmdLine, e.getMessage()), e);
-                }
+                commands.add(Arrays.asList(command.asArray()));
             }
+            return commands;
         } catch (IOException e) {
             throw new ConfigurationException("Failed to read file " + cmdFile.getAbsolutePath(), e);
         }
     }
 
+    private void addCommandFromFile(List<String> command, File cmdFile)
+            throws ConfigurationException {
+        String[] arrayCommand = command.toArray(new String[0]);
+        final String prettyCmdLine = QuotationAwareTokenizer.combineTokens(arrayCommand);
+        CLog.d("Adding command %s", prettyCmdLine);
+
+        try {
+            internalAddCommand(arrayCommand, 0, cmdFile.getAbsolutePath());
+        } catch (ConfigurationException e) {
+            throw new ConfigurationException(String.format(
+                    "Failed to add command '%s': %s", prettyCmdLine, e.getMessage()), e);
+        }
+    }
+
     /**
      * Factory method for creating a {@link CommandFileParser}.
      *
@@ -1384,7 +1471,7 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
                 public void run() {
                     synchronized (CommandScheduler.this) {
                         if (mSleepingCommands.remove(cmd)) {
-                            mReadyCommands.add(cmd);
+                            addReadyCommand(cmd);
                             mCommandProcessWait.signalEventReceived();
                         }
                     }
@@ -1392,12 +1479,52 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
             };
             mCommandTimer.schedule(delayCommand, delayTime, TimeUnit.MILLISECONDS);
         } else {
-            mReadyCommands.add(cmd);
+            addReadyCommand(cmd);
             mCommandProcessWait.signalEventReceived();
         }
         return true;
     }
 
+    /** Adds a command to the ready queue, in the bucket of its device requirements. */
+    private synchronized void addReadyCommand(ExecutableCommand cmd) {
+        IConfiguration config = cmd.getConfiguration();
+        mReadyCommands.add(cmd, getDeviceRequirementsKey(config), getRequestedSerials(config));
+    }
+
+    /**
+     * Returns a key identifying the device requirements of a config. Configs with the same key
+     * allocate the same way against a given set of devices.
+     */
+    static String getDeviceRequirementsKey(IConfiguration config) {
+        StringBuilder key = new StringBuilder();
+        for (IDeviceConfiguration deviceConfig : config.getDeviceConfig()) {
+            key.append('[')
+                    .append(deviceConfig.isFake())
+                    .append(';')
+                    .append(
+                            OptionSetter.getOptionValuesAsString(
+                                    deviceConfig.getDeviceRequirements()))
+                    .append(']');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the serials a config is restricted to, or <code>null</code> if at least one of its
+     * devices can potentially be any device.
+     */
+    static Set<String> getRequestedSerials(IConfiguration config) {
+        Set<String> serials = new HashSet<>();
+        for (IDeviceConfiguration deviceConfig : config.getDeviceConfig()) {
+            List<String> requested = deviceConfig.getDeviceRequirements().getSerials();
+            if (requested.isEmpty()) {
+                return null;
+            }
+            serials.addAll(requested);
+        }
+        return serials;
+    }
+
     /**
      * Helper method to return an array of {@link String} elements as a readable {@link String}
      *
@@ -1646,6 +1773,7 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
         if (mReloadCmdfiles) {
             getCommandFileWatcher().removeAllFiles();
         }
+        mCommandFileCommands.clear();
         if (mCommandTimer != null) {
             for (Runnable task : mCommandTimer.getQueue()) {
                 mCommandTimer.remove(task);
@@ -1662,25 +1790,26 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
      * Remove commands originally added via the given command file
      * @param cmdFile
      */
-    private synchronized void removeCommandsFromFile(File cmdFile) {
-        Iterator<ExecutableCommand> cmdIter = mReadyCommands.iterator();
-        while (cmdIter.hasNext()) {
-            ExecutableCommand cmd = cmdIter.next();
-            String path = cmd.getCommandFilePath();
-            if (path != null &&
-                    path.equals(cmdFile.getAbsolutePath())) {
-                cmdIter.remove();
-            }
-        }
-        cmdIter = mSleepingCommands.iterator();
-        while (cmdIter.hasNext()) {
-            ExecutableCommand cmd = cmdIter.next();
-            String path = cmd.getCommandFilePath();
-            if (path != null &&
-                    path.equals(cmdFile.getAbsolutePath())) {
-                cmdIter.remove();
-            }
-        }
+    private void removeCommandsFromFile(File cmdFile) {
+        removeCommandsFromFile(cmdFile, null);
+    }
+
+    /**
+     * Remove some of the commands originally added via the given command file
+     *
+     * @param cmdFile
+     * @param commands the args of the commands to remove, or null to remove all of them
+     */
+    private synchronized void removeCommandsFromFile(File cmdFile, Set<List<String>> commands) {
+        Predicate<ExecutableCommand> fromFile =
+                cmd ->
+                        cmdFile.getAbsolutePath().equals(cmd.getCommandFilePath())
+                                && (commands == null
+                                        || commands.contains(
+                                                Arrays.asList(
+                                                        cmd.getCommandTracker().getArgs())));
+        mReadyCommands.removeIf(fromFile);
+        mSleepingCommands.removeIf(fromFile);
         if (isShuttingDown()) {
             mCommandProcessWait.signalEventReceived();
         }
@@ -2105,10 +2234,13 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
         /**
          * Wait for given ms for event to be received, and reset state back to 'no event received'
          * upon completion.
+         *
+         * @return true if event received before time elapsed, false otherwise
          */
-        public synchronized void waitAndReset(long maxWaitTime) {
-            waitForEvent(maxWaitTime);
+        public synchronized boolean waitAndReset(long maxWaitTime) {
+            boolean received = waitForEvent(maxWaitTime);
             reset();
+            return received;
         }
 
         /**
@@ -2188,11 +2320,10 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
     public void notifyFileChanged(File cmdFile, List<String> extraArgs) {
         CLog.logAndDisplay(LogLevel.INFO, "Detected update for cmdfile '%s'. Reloading",
                 cmdFile.getAbsolutePath());
-        removeCommandsFromFile(cmdFile);
         try {
-            // just add the file again, including re-registering for command file watcher
-            // don't want to remove the registration here in case file fails to load
-            internalAddCommandFile(cmdFile, extraArgs);
+            // only add the commands which changed, including re-registering for command file
+            // watcher. don't want to remove the registration here in case file fails to load
+            reloadCommandFile(cmdFile, extraArgs);
         } catch (ConfigurationException e) {
             CLog.wtf(String.format("Failed to automatically reload cmdfile %s",
                     cmdFile.getAbsolutePath()), e);
@@ -2216,7 +2347,7 @@ public class CommandScheduler extends Thread implements ICommandScheduler, IComm
         for (ExecutableCommand cmd : mExecutingCommands) {
             cmds.add(new ExecutableCommandState(cmd, CommandState.EXECUTING));
         }
-        for (ExecutableCommand cmd : mReadyCommands) {
+        for (ExecutableCommand cmd : mReadyCommands.getAll()) {
             cmds.add(new ExecutableCommandState(cmd, CommandState.WAITING_FOR_DEVICE));
         }
         for (ExecutableCommand cmd : mSleepingCommands) {
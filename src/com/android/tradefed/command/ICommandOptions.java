@@ -19,6 +19,7 @@ package com.android.tradefed.command;
 import com.android.tradefed.device.metric.AutoLogCollector;
 import com.android.tradefed.util.UniqueMultiMap;
 
+import java.io.File;
 import java.util.Set;
 
 /**
@@ -161,6 +162,9 @@ public interface ICommandOptions {
     /** Returns if we should use dynamic sharding or not */
     public boolean shouldUseDynamicSharding();
 
+    /** Returns the file of module durations used to balance the shards, or null if not set. */
+    public File getShardRuntimeHistoryFile();
+
     /** Returns the data passed to the invocation to describe it */
     public UniqueMultiMap<String, String> getInvocationData();
 
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.command;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Queue of commands waiting for a device, bucketed by their device requirements.
+ *
+ * <p>Commands with identical requirements succeed or fail to allocate against the same pool of
+ * devices, so once the highest priority command of a bucket fails to get a device, the rest of
+ * the bucket does not need to be tried. A bucket is only looked at again once something changed
+ * for it: a command was added to it, or a device it could use was made available.
+ *
+ * <p>Structural operations are not thread-safe and must be guarded by the caller. The dirty
+ * marking methods can be called from any thread without holding the caller's lock.
+ *
+ * @param <T> the type of queued command
+ */
+class ReadyCommandQueue<T> {
+
+    /** A group of commands sharing the same device requirements. */
+    private static class Bucket<T> {
+        final String mKey;
+        /** Serials the bucket is restricted to, <code>null</code> if any device can match. */
+        final Set<String> mSerials;
+        final List<T> mCommands = new ArrayList<>();
+        boolean mDirty = true;
+
+        Bucket(String key, Collection<String> serials) {
+            mKey = key;
+            mSerials = serials == null ? null : new HashSet<>(serials);
+        }
+
+        boolean canUse(String serial) {
+            return mSerials == null || mSerials.contains(serial);
+        }
+    }
+
+    private final Comparator<T> mPriorityComparator;
+    private final Map<String, Bucket<T>> mBuckets = new LinkedHashMap<>();
+    private final Map<T, Bucket<T>> mCommandBuckets = new HashMap<>();
+
+    private final ConcurrentLinkedQueue<String> mAvailableSerials = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mAllDirty = new AtomicBoolean(false);
+
+    private long mLastMatchAttempts = 0;
+    private long mLastAllDirtyTime = 0;
+
+    /**
+     * Creates a {@link ReadyCommandQueue}.
+     *
+     * @param priorityComparator the {@link Comparator} ordering commands, lower first.
+     */
+    ReadyCommandQueue(Comparator<T> priorityComparator) {
+        mPriorityComparator = priorityComparator;
+    }
+
+    /**
+     * Add a command to the queue.
+     *
+     * @param command the command to add.
+     * @param requirementsKey key identifying the device requirements of the command. Commands with
+     *     the same key must allocate the same way against a given set of devices.
+     * @param serials the serials the command is restricted to, or <code>null</code> if any device
+     *     can potentially match.
+     */
+    void add(T command, String requirementsKey, Collection<String> serials) {
+        Bucket<T> bucket = mBuckets.get(requirementsKey);
+        if (bucket == null) {
+            bucket = new Bucket<>(requirementsKey, serials);
+            mBuckets.put(requirementsKey, bucket);
+        }
+        bucket.mCommands.add(command);
+        bucket.mDirty = true;
+        mCommandBuckets.put(command, bucket);
+    }
+
+    /**
+     * Remove a command from the queue.
+     *
+     * @return <code>true</code> if the command was queued.
+     */
+    boolean remove(T command) {
+        Bucket<T> bucket = mCommandBuckets.remove(command);
+        if (bucket == null) {
+            return false;
+        }
+        bucket.mCommands.remove(command);
+        if (bucket.mCommands.isEmpty()) {
+            mBuckets.remove(bucket.mKey);
+        }
+        return true;
+    }
+
+    /** Remove all the commands matching the given {@link Predicate}. */
+    void removeIf(Predicate<T> filter) {
+        for (T command : getAll()) {
+            if (filter.test(command)) {
+                remove(command);
+            }
+        }
+    }
+
+    /** Remove all commands from the queue. */
+    void clear() {
+        mBuckets.clear();
+        mCommandBuckets.clear();
+        mAvailableSerials.clear();
+    }
+
+    /** Returns the number of queued commands. */
+    int size() {
+        return mCommandBuckets.size();
+    }
+
+    /** Returns a snapshot of all the queued commands. */
+    List<T> getAll() {
+        List<T> commands = new ArrayList<>(size());
+        for (Bucket<T> bucket : mBuckets.values()) {
+            commands.addAll(bucket.mCommands);
+        }
+        return commands;
+    }
+
+    /** Returns the number of distinct device requirements currently queued. */
+    int getBucketCount() {
+        return mBuckets.size();
+    }
+
+    /**
+     * Signal that the device with the given serial became available. Only the buckets that could
+     * use it will be re-evaluated on the next {@link #match(Predicate)}. Safe to call from any
+     * thread.
+     */
+    void markDirty(String serial) {
+        if (serial == null) {
+            markAllDirty();
+        } else {
+            mAvailableSerials.add(serial);
+        }
+    }
+
+    /**
+     * Signal that every bucket needs to be re-evaluated on the next {@link #match(Predicate)},
+     * for example when device state might have changed without notification. Safe to call from
+     * any thread.
+     */
+    void markAllDirty() {
+        mAllDirty.set(true);
+    }
+
+    /**
+     * Mark every bucket dirty if this did not happen in the last <code>interval</code> ms, so
+     * commands blocked on device state that changes without notification are re-evaluated
+     * periodically even while other events keep arriving. Must be called from the thread calling
+     * {@link #match(Predicate)}.
+     *
+     * @param now the current time in ms.
+     * @param interval the maximum time in ms between two re-evaluations of every bucket.
+     */
+    void markAllDirtyIfStale(long now, long interval) {
+        if (now - mLastAllDirtyTime >= interval) {
+            mLastAllDirtyTime = now;
+            markAllDirty();
+        }
+    }
+
+    /**
+     * Match the queued commands against the devices, highest priority first.
+     *
+     * <p>Only dirty buckets are evaluated. Within a bucket, commands are tried in priority order
+     * until one fails to allocate, after which the bucket is considered blocked until marked dirty
+     * again. Across buckets, the highest priority pending command is always tried first.
+     *
+     * @param allocator tries to allocate devices for a command, returns <code>true</code> if it
+     *     succeeded. Allocated commands are removed from the queue.
+     * @return the list of allocated commands, in the order they were allocated.
+     */
+    List<T> match(Predicate<T> allocator) {
+        applyDirtyMarks();
+        mLastMatchAttempts = 0;
+        PriorityQueue<Bucket<T>> candidates =
+                new PriorityQueue<>(
+                        Math.max(1, mBuckets.size()),
+                        (b1, b2) ->
+                                mPriorityComparator.compare(
+                                        b1.mCommands.get(0), b2.mCommands.get(0)));
+        for (Bucket<T> bucket : mBuckets.values()) {
+            if (bucket.mDirty) {
+                bucket.mDirty = false;
+                Collections.sort(bucket.mCommands, mPriorityComparator);
+                candidates.add(bucket);
+            }
+        }
+        List<T> allocated = new ArrayList<>();
+        while (!candidates.isEmpty()) {
+            Bucket<T> bucket = candidates.poll();
+            T command = bucket.mCommands.get(0);
+            mLastMatchAttempts++;
+            if (!allocator.test(command)) {
+                // Nothing else in this bucket can be allocated until something changes for it.
+                continue;
+            }
+            allocated.add(command);
+            bucket.mCommands.remove(0);
+            mCommandBuckets.remove(command);
+            if (bucket.mCommands.isEmpty()) {
+                mBuckets.remove(bucket.mKey);
+            } else {
+                candidates.add(bucket);
+            }
+        }
+        return allocated;
+    }
+
+    /** Returns the number of allocation attempts made during the last {@link #match}. */
+    long getLastMatchAttempts() {
+        return mLastMatchAttempts;
+    }
+
+    private void applyDirtyMarks() {
+        if (mAllDirty.getAndSet(false)) {
+            mAvailableSerials.clear();
+            for (Bucket<T> bucket : mBuckets.values()) {
+                bucket.mDirty = true;
+            }
+            return;
+        }
+        String serial;
+        Set<String> serials = new HashSet<>();
+        while ((serial = mAvailableSerials.poll()) != null) {
+            serials.add(serial);
+        }
+        if (serials.isEmpty()) {
+            return;
+        }
+        for (Bucket<T> bucket : mBuckets.values()) {
+            if (bucket.mDirty) {
+                continue;
+            }
+            Iterator<String> it = serials.iterator();
+            while (it.hasNext() && !bucket.mDirty) {
+                bucket.mDirty = bucket.canUse(it.next());
+            }
+        }
+    }
+}
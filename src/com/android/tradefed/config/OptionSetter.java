@@ -33,6 +33,7 @@ import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -73,6 +74,19 @@ public class OptionSetter {
     static final Pattern USE_KEYSTORE_REGEX = Pattern.compile("USE_KEYSTORE@(.*)");
     private IKeyStoreClient mKeyStoreClient = null;
 
+    /**
+     * The {@link Option} fields of each class, resolved once per class. Configurations are created
+     * many times with the same classes (shards, suite modules), so the reflection lookups are only
+     * paid once.
+     */
+    private static final ClassValue<List<Field>> OPTION_FIELDS =
+            new ClassValue<List<Field>>() {
+                @Override
+                protected List<Field> computeValue(Class<?> optionClass) {
+                    return Collections.unmodifiableList(buildOptionFieldsForClass(optionClass));
+                }
+            };
+
     static {
         handlers.put(boolean.class, new BooleanHandler());
         handlers.put(Boolean.class, new BooleanHandler());
@@ -777,23 +791,39 @@ public class OptionSetter {
      * Gets a list of all {@link Option} fields (both declared and inherited) for given class.
      *
      * @param optionClass the {@link Class} to search
-     * @return a {@link Collection} of fields annotated with {@link Option}
+     * @return an unmodifiable {@link Collection} of fields annotated with {@link Option}
      */
     static Collection<Field> getOptionFieldsForClass(final Class<?> optionClass) {
-        Collection<Field> fieldList = new ArrayList<Field>();
-        buildOptionFieldsForClass(optionClass, fieldList);
-        return fieldList;
+        return OPTION_FIELDS.get(optionClass);
+    }
+
+    /**
+     * Returns a {@link String} describing the values of all the {@link Option} fields of the given
+     * object. Two objects of the same class with the same option values get the same description,
+     * which makes it usable as a key.
+     *
+     * @param optionObject the {@link Object} to describe
+     * @return the class name followed by each option name and its value
+     */
+    public static String getOptionValuesAsString(Object optionObject) {
+        StringBuilder builder = new StringBuilder(optionObject.getClass().getName());
+        for (Field field : getOptionFieldsForClass(optionObject.getClass())) {
+            builder.append(';')
+                    .append(field.getAnnotation(Option.class).name())
+                    .append('=')
+                    .append(getFieldValueAsString(field, optionObject));
+        }
+        return builder.toString();
     }
 
     /**
-     * Recursive method that adds all option fields (both declared and inherited) to the
-     * <var>optionFields</var> for provided <var>optionClass</var>
+     * Returns all option fields (both declared and inherited) for provided <var>optionClass</var>,
+     * reusing the cached fields of the super class.
      *
      * @param optionClass
-     * @param optionFields
      */
-    private static void buildOptionFieldsForClass(final Class<?> optionClass,
-            Collection<Field> optionFields) {
+    private static List<Field> buildOptionFieldsForClass(final Class<?> optionClass) {
+        List<Field> optionFields = new ArrayList<Field>();
         for (Field field : optionClass.getDeclaredFields()) {
             if (field.isAnnotationPresent(Option.class)) {
                 optionFields.add(field);
@@ -801,8 +831,9 @@ public class OptionSetter {
         }
         Class<?> superClass = optionClass.getSuperclass();
         if (superClass != null) {
-            buildOptionFieldsForClass(superClass, optionFields);
+            optionFields.addAll(OPTION_FIELDS.get(superClass));
         }
+        return optionFields;
     }
 
     /**
@@ -109,8 +109,18 @@ public class DeviceManager implements IDeviceManager {
      */
     private static final String DEVICE_LIST_PATTERN = ".*\n(%s)\\s+(device|offline).*";
 
+    /** Number of bytes of images represented by a permit when the flashers are limited by size */
+    private static final long FLASH_PERMIT_BYTES = 1024 * 1024;
+
     private Semaphore mConcurrentFlashLock = null;
 
+    /**
+     * Whether the permits of {@code mConcurrentFlashLock} are {@link #FLASH_PERMIT_BYTES} of images
+     * being flashed instead of flashers, and their total number.
+     */
+    private boolean mFlashLockCountsBytes = false;
+    private int mFlashLockPermits = 0;
+
     /**
      * This serves both as an indication of whether the flash lock should be used, and as an
      * indicator of whether or not the flash lock has been initialized -- if this is true
@@ -1395,6 +1405,7 @@ public class DeviceManager implements IDeviceManager {
         synchronized (mShouldCheckFlashLock) {
             mConcurrentFlashLock = flashLock;
             mShouldCheckFlashLock = shouldCheck;
+            mFlashLockCountsBytes = false;
         }
     }
 
@@ -1414,6 +1425,17 @@ public class DeviceManager implements IDeviceManager {
                 if (!mShouldCheckFlashLock) return;
 
                 IHostOptions hostOptions = getHostOptions();
+                Long concurrentFlashingBytes = hostOptions.getConcurrentFlasherBytesLimit();
+                if (concurrentFlashingBytes != null) {
+                    if (mConcurrentFlashLock == null) {
+                        long permits = concurrentFlashingBytes / FLASH_PERMIT_BYTES;
+                        permits = Math.max(1L, Math.min(Integer.MAX_VALUE, permits));
+                        mFlashLockPermits = (int) permits;
+                        mFlashLockCountsBytes = true;
+                        mConcurrentFlashLock = new Semaphore(mFlashLockPermits, true /* fair */);
+                    }
+                    return;
+                }
                 Integer concurrentFlashingLimit = hostOptions.getConcurrentFlasherLimit();
 
                 if (concurrentFlashingLimit == null) {
@@ -1445,25 +1467,57 @@ public class DeviceManager implements IDeviceManager {
     /** {@inheritDoc} */
     @Override
     public void takeFlashingPermit() {
+        takeFlashingPermit(0L);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void takeFlashingPermit(long imageBytes) {
         initConcurrentFlashLock();
         if (!mShouldCheckFlashLock) return;
 
-        IHostOptions hostOptions = getHostOptions();
-        Integer concurrentFlashingLimit = hostOptions.getConcurrentFlasherLimit();
-        CLog.i(
-                "Requesting a flashing permit out of the max limit of %s. Current queue "
-                        + "length: %s",
-                concurrentFlashingLimit,
-                mConcurrentFlashLock.getQueueLength());
-        mConcurrentFlashLock.acquireUninterruptibly();
+        int permits = getFlashPermitCount(imageBytes);
+        if (mFlashLockCountsBytes) {
+            CLog.i(
+                    "Requesting %s MB of flashing permits out of the max limit of %s MB. Current "
+                            + "queue length: %s",
+                    permits,
+                    mFlashLockPermits,
+                    mConcurrentFlashLock.getQueueLength());
+        } else {
+            IHostOptions hostOptions = getHostOptions();
+            Integer concurrentFlashingLimit = hostOptions.getConcurrentFlasherLimit();
+            CLog.i(
+                    "Requesting a flashing permit out of the max limit of %s. Current queue "
+                            + "length: %s",
+                    concurrentFlashingLimit,
+                    mConcurrentFlashLock.getQueueLength());
+        }
+        mConcurrentFlashLock.acquireUninterruptibly(permits);
     }
 
     /** {@inheritDoc} */
     @Override
     public void returnFlashingPermit() {
+        returnFlashingPermit(0L);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void returnFlashingPermit(long imageBytes) {
         if (mConcurrentFlashLock != null) {
-            mConcurrentFlashLock.release();
+            mConcurrentFlashLock.release(getFlashPermitCount(imageBytes));
+        }
+    }
+
+    /** Returns the number of permits of the flash lock needed to flash images of a given size. */
+    private int getFlashPermitCount(long imageBytes) {
+        if (!mFlashLockCountsBytes) {
+            return 1;
         }
+        long permits = (imageBytes + FLASH_PERMIT_BYTES - 1) / FLASH_PERMIT_BYTES;
+        // Images bigger than the limit are flashed alone instead of never.
+        return (int) Math.max(1L, Math.min(mFlashLockPermits, permits));
     }
 
     /** {@inheritDoc} */
@@ -284,6 +284,26 @@ public interface IDeviceManager {
      */
     public void returnFlashingPermit();
 
+    /**
+     * Request permission to flash images of the given size. If the flashers are limited by the
+     * number of bytes being flashed, this will wait in line until there is enough room under the
+     * limit; otherwise it is the same as {@link #takeFlashingPermit()}.
+     *
+     * @param imageBytes the total size of the images to flash
+     */
+    public default void takeFlashingPermit(long imageBytes) {
+        takeFlashingPermit();
+    }
+
+    /**
+     * Restore a flashing permit acquired with {@link #takeFlashingPermit(long)}.
+     *
+     * @param imageBytes the size passed when taking the permit
+     */
+    public default void returnFlashingPermit(long imageBytes) {
+        returnFlashingPermit();
+    }
+
     /** Get the adb version currently in use by the device manager. */
     public String getAdbVersion();
 }
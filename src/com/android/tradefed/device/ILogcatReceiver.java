@@ -43,5 +43,23 @@ public interface ILogcatReceiver {
     public default InputStreamSource getLogcatData(int maxBytes, int offset) {
         return getLogcatData(maxBytes);
     }
+
+    /**
+     * Returns the logcat buffer since the given time, without querying the device.
+     *
+     * @param date the time in ms since epoch.
+     * @return The logcat buffer from the first line logged at or after the date, or null if it
+     *     cannot be found in the buffer.
+     */
+    public default InputStreamSource getLogcatDataSince(long date) {
+        return null;
+    }
+
+    /** Returns the size of the current logcat buffer, the reference for the offsets. */
+    public default long getLogcatDataSize() {
+        try (InputStreamSource data = getLogcatData()) {
+            return data.size();
+        }
+    }
 }
 
@@ -40,6 +40,7 @@ import java.io.OutputStream;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -276,6 +277,22 @@ public interface INativeDevice {
      */
     public String executeShellCommand(String command) throws DeviceNotAvailableException;
 
+    /**
+     * Helper method which executes several adb shell commands over as few shell sessions as
+     * possible and returns the output of each command.
+     *
+     * <p>Each command runs in its own subshell, as it would with {@link
+     * #executeShellCommand(String)}, but the commands are sent together so that a batch costs a
+     * single round-trip to the device. The commands run in order.
+     *
+     * @param commands the adb shell commands to run
+     * @return the shell output of each command, in the same order as the commands
+     * @throws DeviceNotAvailableException if connection with device is lost and cannot be
+     *     recovered.
+     */
+    public List<String> executeShellCommands(List<String> commands)
+            throws DeviceNotAvailableException;
+
     /**
      * Helper method which executes a adb shell command and returns the results as a {@link
      * CommandResult} properly populated with the command status output, stdout and stderr.
@@ -431,6 +448,23 @@ public interface INativeDevice {
     public CommandResult executeLongFastbootCommand(String... commandArgs)
             throws DeviceNotAvailableException;
 
+    /**
+     * Helper method which executes a long running fastboot command as a system command with
+     * additional environment variables.
+     * <p/>
+     * Identical to {@link #executeLongFastbootCommand(String...)} except the command also runs
+     * with the given environment variables.
+     *
+     * @param envVarMap the environment variables to set for the fastboot command
+     * @param commandArgs the fastboot command and arguments to run
+     * @return the CommandResult containing output of command
+     * @throws DeviceNotAvailableException if connection with device is lost and cannot be
+     * recovered.
+     */
+    public CommandResult executeLongFastbootCommand(
+            Map<String, String> envVarMap, String... commandArgs)
+            throws DeviceNotAvailableException;
+
     /**
      * Get whether to use fastboot erase or fastboot format to wipe a partition on the device.
      *
@@ -22,10 +22,12 @@ import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.result.ByteArrayInputStreamSource;
 import com.android.tradefed.result.InputStreamSource;
 import com.android.tradefed.result.SnapshotInputStreamSource;
-import com.android.tradefed.util.FixedByteArrayOutputStream;
 import com.android.tradefed.util.SizeLimitedOutputStream;
 import com.android.tradefed.util.StreamUtil;
 
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -96,9 +98,8 @@ public class LargeOutputReceiver implements IShellOutputReceiver {
     /**
      * Gets the last <var>maxBytes</var> of collected output as a {@link InputStreamSource}.
      *
-     * @param maxBytes the maximum amount of data to return. Should be an amount that can
-     *            comfortably fit in memory
-     * @return The collected output from the command, stored in memory
+     * @param maxBytes the maximum amount of data to return.
+     * @return The collected output from the command, see {@link #getDataFrom(long)}.
      */
     public synchronized InputStreamSource getData(final int maxBytes) {
         return getData(maxBytes, 0);
@@ -107,45 +108,100 @@ public class LargeOutputReceiver implements IShellOutputReceiver {
     /**
      * Gets the last <var>maxBytes</var> of collected output as a {@link InputStreamSource}.
      *
-     * @param maxBytes the maximum amount of data to return. Should be an amount that can
-     *     comfortably fit in memory
+     * @param maxBytes the maximum amount of data to return.
      * @param offset The offset of when to start getting the data from the buffer.
-     * @return The collected output from the command, stored in memory
+     * @return The collected output from the command, see {@link #getDataFrom(long)}.
      */
     public synchronized InputStreamSource getData(final int maxBytes, final int offset) {
-        if (mOutStream != null) {
-            InputStream fullStream = null;
-            try {
-                fullStream = mOutStream.getData();
-                final FixedByteArrayOutputStream os = new FixedByteArrayOutputStream(maxBytes);
-                StreamUtil.copyStreams(fullStream, os, offset);
-                return new InputStreamSource() {
-
-                    @Override
-                    public InputStream createInputStream() {
-                        return os.getData();
-                    }
-
-                    @Override
-                    public void close() {
-                        // ignore, nothing to do
-                    }
-
-                    @Override
-                    public long size() {
-                        return os.size();
-                    }
-                };
-            } catch (IOException e) {
-                CLog.e("failed to get %s data for %s.", mDescriptor, mSerialNumber);
-                CLog.e(e);
-            } finally {
-                StreamUtil.close(fullStream);
+        if (mOutStream == null) {
+            // return an empty InputStreamSource
+            return new ByteArrayInputStreamSource(new byte[0]);
+        }
+        long end = mOutStream.getTotalSize();
+        return getDataFrom(Math.max(mOutStream.getOldestPosition() + offset, end - maxBytes));
+    }
+
+    /**
+     * Gets the output collected from the given position as a {@link InputStreamSource}.
+     *
+     * <p>The data is read directly from the backing files, without copying it: the first stream
+     * created by the source is opened right away so it can still be read if the data is dropped
+     * or deleted afterward. Data collected after this call is not part of the source.
+     *
+     * @param position the position in the output, see {@link #getPosition()}. If the data at this
+     *     position was already dropped, the source starts at the oldest data kept.
+     * @return The collected output from the command.
+     */
+    public synchronized InputStreamSource getDataFrom(long position) {
+        if (mOutStream == null) {
+            return new ByteArrayInputStreamSource(new byte[0]);
+        }
+        long start = Math.max(position, mOutStream.getOldestPosition());
+        long end = Math.max(start, mOutStream.getTotalSize());
+        return new RangeInputStreamSource(start, end);
+    }
+
+    /**
+     * Returns the position of the next byte of output, i.e. the number of bytes collected since
+     * the creation of the receiver or the last {@link #clear()}.
+     */
+    public synchronized long getPosition() {
+        return mOutStream == null ? 0L : mOutStream.getTotalSize();
+    }
+
+    /** Returns the position of the oldest byte of output that is still kept. */
+    public synchronized long getOldestPosition() {
+        return mOutStream == null ? 0L : mOutStream.getOldestPosition();
+    }
+
+    /** Opens a stream over the output between two positions, or null if it is not available. */
+    private synchronized InputStream openRange(long start, long end) {
+        if (mOutStream == null) {
+            return null;
+        }
+        try {
+            long actualStart = Math.max(start, mOutStream.getOldestPosition());
+            return ByteStreams.limit(
+                    mOutStream.getDataFrom(actualStart), Math.max(0L, end - actualStart));
+        } catch (IOException e) {
+            CLog.e("failed to get %s data for %s.", mDescriptor, mSerialNumber);
+            CLog.e(e);
+            return null;
+        }
+    }
+
+    /** A {@link InputStreamSource} over a range of the output, read from the backing files. */
+    private class RangeInputStreamSource implements InputStreamSource {
+        private final long mStart;
+        private final long mEnd;
+        private InputStream mFirstStream;
+
+        RangeInputStreamSource(long start, long end) {
+            mStart = start;
+            mEnd = end;
+            mFirstStream = openRange(start, end);
+        }
+
+        @Override
+        public synchronized InputStream createInputStream() {
+            InputStream stream = mFirstStream;
+            mFirstStream = null;
+            if (stream == null) {
+                stream = openRange(mStart, mEnd);
             }
+            return stream == null ? new ByteArrayInputStream(new byte[0]) : stream;
         }
 
-        // return an empty InputStreamSource
-        return new ByteArrayInputStreamSource(new byte[0]);
+        @Override
+        public synchronized void close() {
+            StreamUtil.close(mFirstStream);
+            mFirstStream = null;
+        }
+
+        @Override
+        public long size() {
+            return mEnd - mStart;
+        }
     }
 
     /**
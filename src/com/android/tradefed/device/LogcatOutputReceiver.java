@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.device;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.result.InputStreamSource;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * A {@link LargeOutputReceiver} for logcat output in the 'threadtime' or 'time' format, which keeps
+ * a sparse index of the line timestamps. The output since a given time can then be found in the
+ * collected data instead of querying the device again.
+ */
+class LogcatOutputReceiver extends LargeOutputReceiver {
+
+    /** Minimum amount of output between two entries of the index. */
+    static final long INDEX_INTERVAL = 32 * 1024;
+    /** Length of the 'MM-dd HH:mm:ss.SSS' timestamp starting each line. */
+    private static final int TIMESTAMP_LENGTH = 18;
+    private static final long ONE_DAY_MS = 24 * 60 * 60 * 1000L;
+
+    /** An entry of the index: the position of a line starting with the given time. */
+    private static final class IndexEntry {
+        final long mTime;
+        final long mPosition;
+
+        IndexEntry(long time, long position) {
+            mTime = time;
+            mPosition = position;
+        }
+    }
+
+    private final List<IndexEntry> mIndex = new ArrayList<>();
+    private TimestampParser mParser = new TimestampParser(0L);
+    private long mNextIndexPosition = 0L;
+
+    /**
+     * Creates a {@link LogcatOutputReceiver}.
+     *
+     * @param descriptor the descriptor of the command to run. For logging only.
+     * @param serialNumber the serial number of the device. For logging only.
+     * @param maxDataSize the approximate max amount of data to keep.
+     */
+    LogcatOutputReceiver(String descriptor, String serialNumber, long maxDataSize) {
+        super(descriptor, serialNumber, maxDataSize);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void addOutput(byte[] data, int offset, int length) {
+        long position = getPosition();
+        super.addOutput(data, offset, length);
+        if (getPosition() != position + length) {
+            // Cancelled or failed to write, the positions would not match the output anymore.
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            if (mParser.add(data[offset + i], position + i, mNextIndexPosition)) {
+                mIndex.add(new IndexEntry(mParser.getTime(), mParser.getLineStart()));
+                mNextIndexPosition = mParser.getLineStart() + INDEX_INTERVAL;
+                pruneIndex();
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        resetIndex();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void delete() {
+        super.delete();
+        resetIndex();
+    }
+
+    /**
+     * Gets the output collected since the given time, read from the collected data.
+     *
+     * @param date the time in ms since epoch, in the host time zone.
+     * @return The output starting at the first line logged at or after the date, see {@link
+     *     #getDataFrom(long)}. Null if the output is not indexed, for example because of its
+     *     format.
+     */
+    synchronized InputStreamSource getDataSince(long date) {
+        long oldest = getOldestPosition();
+        pruneIndex();
+        if (mIndex.isEmpty()) {
+            return null;
+        }
+        // Find the last entry before the date, and the first line at or after it from there.
+        int low = 0;
+        int high = mIndex.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mIndex.get(mid).mTime < date) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        long scanStart = found < 0 ? oldest : mIndex.get(found).mPosition;
+        long scanEnd = found + 1 < mIndex.size() ? mIndex.get(found + 1).mPosition : getPosition();
+        // Positions before the first rotation and the ones of the index are line starts.
+        boolean lineStart = found >= 0 || oldest == 0L;
+        return getDataFrom(findFirstLineSince(date, scanStart, scanEnd, lineStart));
+    }
+
+    /**
+     * Returns the position of the first line logged at or after the date in a range of the
+     * output, or the end of the range if there is none.
+     */
+    private long findFirstLineSince(long date, long start, long end, boolean lineStart) {
+        TimestampParser parser = new TimestampParser(lineStart ? start : -1L);
+        try (InputStreamSource source = getDataFrom(start);
+                InputStream stream = new BufferedInputStream(source.createInputStream())) {
+            long position = start;
+            int b;
+            while (position < end && (b = stream.read()) != -1) {
+                if (parser.add((byte) b, position, start) && parser.getTime() >= date) {
+                    return parser.getLineStart();
+                }
+                position++;
+            }
+        } catch (IOException e) {
+            CLog.e(e);
+        }
+        return end;
+    }
+
+    private void pruneIndex() {
+        long oldest = getOldestPosition();
+        int dropped = 0;
+        while (dropped < mIndex.size() && mIndex.get(dropped).mPosition < oldest) {
+            dropped++;
+        }
+        mIndex.subList(0, dropped).clear();
+    }
+
+    private void resetIndex() {
+        mIndex.clear();
+        mParser = new TimestampParser(0L);
+        mNextIndexPosition = 0L;
+    }
+
+    /**
+     * Parses a 'MM-dd HH:mm:ss.SSS' timestamp in the host time zone. The year is the current one,
+     * or the previous one if that would place the timestamp more than a day in the future.
+     *
+     * @return the time in ms since epoch, or -1 if the data is not a timestamp.
+     */
+    static long parseTimestamp(byte[] data, long now) {
+        if (data[2] != '-' || data[5] != ' ' || data[8] != ':' || data[11] != ':'
+                || data[14] != '.') {
+            return -1L;
+        }
+        int month = parseNumber(data, 0, 2);
+        int day = parseNumber(data, 3, 2);
+        int hour = parseNumber(data, 6, 2);
+        int minute = parseNumber(data, 9, 2);
+        int second = parseNumber(data, 12, 2);
+        int millis = parseNumber(data, 15, 3);
+        if (month < 1 || day < 1 || hour < 0 || minute < 0 || second < 0 || millis < 0) {
+            return -1L;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        int year = calendar.get(Calendar.YEAR);
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        calendar.set(Calendar.MILLISECOND, millis);
+        if (calendar.getTimeInMillis() > now + ONE_DAY_MS) {
+            calendar.add(Calendar.YEAR, -1);
+        }
+        return calendar.getTimeInMillis();
+    }
+
+    private static int parseNumber(byte[] data, int offset, int length) {
+        int value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (data[i] < '0' || data[i] > '9') {
+                return -1;
+            }
+            value = value * 10 + data[i] - '0';
+        }
+        return value;
+    }
+
+    /** Parses the timestamps starting the lines of the output, one byte at a time. */
+    private static final class TimestampParser {
+        private final byte[] mPrefix = new byte[TIMESTAMP_LENGTH];
+        // Number of bytes of the current line prefix, -1 if the line is not parsed.
+        private int mPrefixLength;
+        private long mLineStart;
+        private long mTime;
+
+        /** @param lineStart the position of the first line start, or -1 if unknown. */
+        TimestampParser(long lineStart) {
+            mLineStart = lineStart;
+            mPrefixLength = lineStart < 0 ? -1 : 0;
+        }
+
+        /**
+         * Add a byte of the output.
+         *
+         * @param b the byte.
+         * @param position the position of the byte in the output.
+         * @param minLineStart only the lines starting at or after this position are parsed.
+         * @return true if the byte completed the timestamp of the current line.
+         */
+        boolean add(byte b, long position, long minLineStart) {
+            if (b == '\n') {
+                mLineStart = position + 1;
+                mPrefixLength = mLineStart >= minLineStart ? 0 : -1;
+                return false;
+            }
+            if (mPrefixLength < 0) {
+                return false;
+            }
+            mPrefix[mPrefixLength++] = b;
+            if (mPrefixLength < TIMESTAMP_LENGTH) {
+                return false;
+            }
+            mPrefixLength = -1;
+            mTime = parseTimestamp(mPrefix, System.currentTimeMillis());
+            return mTime >= 0;
+        }
+
+        long getLineStart() {
+            return mLineStart;
+        }
+
+        long getTime() {
+            return mTime;
+        }
+    }
+}
@@ -25,7 +25,7 @@ import com.google.errorprone.annotations.MustBeClosed;
  */
 public class LogcatReceiver implements ILogcatReceiver {
     private BackgroundDeviceAction mDeviceAction;
-    private LargeOutputReceiver mReceiver;
+    private LogcatOutputReceiver mReceiver;
 
     static final String LOGCAT_CMD = "logcat -v threadtime";
     private static final String LOGCAT_DESC = "logcat";
@@ -41,7 +41,7 @@ public class LogcatReceiver implements ILogcatReceiver {
     public LogcatReceiver(ITestDevice device, String logcatCmd,
             long maxFileSize, int logStartDelay) {
 
-        mReceiver = new LargeOutputReceiver(LOGCAT_DESC, device.getSerialNumber(),
+        mReceiver = new LogcatOutputReceiver(LOGCAT_DESC, device.getSerialNumber(),
                 maxFileSize);
         // FIXME: remove mLogStartDelay. Currently delay starting logcat, as starting
         // immediately after a device comes online has caused adb instability
@@ -88,6 +88,16 @@ public class LogcatReceiver implements ILogcatReceiver {
         return mReceiver.getData(maxBytes, offset);
     }
 
+    @Override
+    public InputStreamSource getLogcatDataSince(long date) {
+        return mReceiver.getDataSince(date);
+    }
+
+    @Override
+    public long getLogcatDataSize() {
+        return mReceiver.getPosition() - mReceiver.getOldestPosition();
+    }
+
     @Override
     public void clear() {
         mReceiver.clear();
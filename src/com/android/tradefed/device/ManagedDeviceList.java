@@ -22,15 +22,17 @@ import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.util.ConditionPriorityBlockingQueue.IMatcher;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
-import javax.annotation.concurrent.GuardedBy;
-
 /**
  * A thread-safe data structure that holds all devices known to {@link DeviceManager}.
  * <p/>
@@ -38,6 +40,11 @@ import javax.annotation.concurrent.GuardedBy;
  * creation time, and that copy is used as the iteration target. If queue is modified during
  * iteration, a {@link ConcurrentModificationException} will not be thrown, but the iterator
  * will also not reflect the modified contents.
+ * <p/>
+ * Only adding and removing devices is serialized. Allocations do not take any lock: matching a
+ * device against the {@link IDeviceSelection} can query the device, so allocations run in
+ * parallel and rely on {@link IManagedTestDevice#handleAllocationEvent(DeviceEvent)} being an
+ * atomic state transition to decide which one gets the device.
  */
 class ManagedDeviceList implements Iterable<IManagedTestDevice> {
 
@@ -62,9 +69,26 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
         }
     }
 
-    private final ReentrantLock mListLock = new ReentrantLock(true);
-    @GuardedBy("mListLock")
-    private List<IManagedTestDevice> mList = new LinkedList<IManagedTestDevice>();
+    /** A device of the list, with its position in the allocation order. */
+    private static class Entry {
+        final IManagedTestDevice mDevice;
+        /** Devices are tried in increasing order, allocating a device moves it last. */
+        volatile long mOrder;
+
+        Entry(IManagedTestDevice device, long order) {
+            mDevice = device;
+            mOrder = order;
+        }
+    }
+
+    private static final Comparator<Entry> ALLOCATION_ORDER =
+            Comparator.comparingLong(e -> e.mOrder);
+
+    /** Serializes the changes of the list, reads and allocations do not need it. */
+    private final ReentrantLock mWriteLock = new ReentrantLock();
+    private final List<Entry> mList = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, Entry> mSerialIndex = new ConcurrentHashMap<>();
+    private final AtomicLong mOrderCounter = new AtomicLong();
     private final IManagedTestDeviceFactory mDeviceFactory;
 
     public ManagedDeviceList(IManagedTestDeviceFactory d) {
@@ -83,26 +107,18 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
      * Get a copy of the contents of the queue.
      */
     List<IManagedTestDevice> getCopy() {
-        mListLock.lock();
-        try {
-            List<IManagedTestDevice> l = new ArrayList<IManagedTestDevice>(size());
-            l.addAll(mList);
-            return l;
-        } finally {
-            mListLock.unlock();
+        List<IManagedTestDevice> l = new ArrayList<IManagedTestDevice>(mList.size());
+        for (Entry e : getEntriesInAllocationOrder()) {
+            l.add(e.mDevice);
         }
+        return l;
     }
 
     /**
      * Return the number of elements in the list
      */
     public int size() {
-        mListLock.lock();
-        try {
-            return mList.size();
-        } finally {
-            mListLock.unlock();
-        }
+        return mList.size();
     }
 
     /**
@@ -112,12 +128,17 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
      * @return the {@link IManagedTestDevice} or <code>null</code> if not found
      */
     public IManagedTestDevice find(final String serialNumber) {
-        return find(new IMatcher<IManagedTestDevice>() {
-            @Override
-            public boolean matches(IManagedTestDevice element) {
-                return serialNumber.equals(element.getSerialNumber());
+        Entry e = mSerialIndex.get(serialNumber);
+        if (e != null) {
+            return e.mDevice;
+        }
+        // Devices added directly are not indexed.
+        for (Entry entry : mList) {
+            if (serialNumber.equals(entry.mDevice.getSerialNumber())) {
+                return entry.mDevice;
             }
-        });
+        }
+        return null;
     }
 
     private boolean isValidDeviceSerial(String serial) {
@@ -131,20 +152,16 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
      */
     public void updateFastbootStates(Set<String> serials) {
         List<IManagedTestDevice> toRemove = new ArrayList<>();
-        mListLock.lock();
-        try {
-            for (IManagedTestDevice d : mList) {
-                if (serials.contains(d.getSerialNumber())) {
-                    d.setDeviceState(TestDeviceState.FASTBOOT);
-                } else if (d.getDeviceState() == TestDeviceState.FASTBOOT) {
-                    // device was previously on fastboot, assume its gone now
-                    d.setDeviceState(TestDeviceState.NOT_AVAILABLE);
-                    CLog.d("Device %s was in fastboot and not found anymore", d.getSerialNumber());
-                    toRemove.add(d);
-                }
+        for (Entry e : mList) {
+            IManagedTestDevice d = e.mDevice;
+            if (serials.contains(d.getSerialNumber())) {
+                d.setDeviceState(TestDeviceState.FASTBOOT);
+            } else if (d.getDeviceState() == TestDeviceState.FASTBOOT) {
+                // device was previously on fastboot, assume its gone now
+                d.setDeviceState(TestDeviceState.NOT_AVAILABLE);
+                CLog.d("Device %s was in fastboot and not found anymore", d.getSerialNumber());
+                toRemove.add(d);
             }
-        } finally {
-            mListLock.unlock();
         }
         for (IManagedTestDevice d : toRemove) {
             handleDeviceEvent(d, DeviceEvent.DISCONNECTED);
@@ -160,35 +177,28 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
         AllocationMatcher m = new AllocationMatcher(options);
         // this method is a variant of find, that attempts to find a device matching options
         // and that can be transitioned to allocated state.
-        // if found, the device will be moved to the back of the list to try to even out
-        // allocations among devices
-        mListLock.lock();
-        try {
-            Iterator<IManagedTestDevice> iterator = mList.iterator();
-            while (iterator.hasNext()) {
-                IManagedTestDevice d = iterator.next();
-                if (m.matches(d)) {
-                    iterator.remove();
-                    mList.add(d);
-                    return d;
+        // if found, the device will be moved to the back of the allocation order to try to even
+        // out allocations among devices
+        List<Entry> candidates;
+        List<String> serials = options.getSerials();
+        if (serials != null && !serials.isEmpty() && !hasUnindexedEntries()) {
+            // Only look at the requested devices.
+            candidates = new ArrayList<>(serials.size());
+            for (String serial : serials) {
+                Entry e = mSerialIndex.get(serial);
+                if (e != null) {
+                    candidates.add(e);
                 }
             }
-        } finally {
-            mListLock.unlock();
+            candidates.sort(ALLOCATION_ORDER);
+        } else {
+            candidates = getEntriesInAllocationOrder();
         }
-        return null;
-    }
-
-    private IManagedTestDevice find(IMatcher<IManagedTestDevice> m) {
-        mListLock.lock();
-        try {
-            for (IManagedTestDevice d : mList) {
-                if (m.matches(d)) {
-                    return d;
-                }
+        for (Entry e : candidates) {
+            if (m.matches(e.mDevice)) {
+                e.mOrder = mOrderCounter.incrementAndGet();
+                return e.mDevice;
             }
-        } finally {
-            mListLock.unlock();
         }
         return null;
     }
@@ -199,11 +209,12 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
      * Exposed for unit testing
      */
      void clear() {
-         mListLock.lock();
+         mWriteLock.lock();
          try {
              mList.clear();
+             mSerialIndex.clear();
          } finally {
-             mListLock.unlock();
+             mWriteLock.unlock();
          }
     }
 
@@ -218,17 +229,19 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
         if (!isValidDeviceSerial(idevice.getSerialNumber())) {
             return null;
         }
-        mListLock.lock();
+        mWriteLock.lock();
         try {
             IManagedTestDevice d = find(idevice.getSerialNumber());
             if (d == null || DeviceAllocationState.Unavailable.equals(d.getAllocationState())) {
-                mList.remove(d);
+                if (d != null) {
+                    remove(d);
+                }
                 d = mDeviceFactory.createDevice(idevice);
-                mList.add(d);
+                addEntry(idevice.getSerialNumber(), d);
             }
             return d;
         } finally {
-            mListLock.unlock();
+            mWriteLock.unlock();
         }
     }
 
@@ -237,11 +250,25 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
      * @param device
      */
     void add(IManagedTestDevice device) {
-        mListLock.lock();
+        addEntry(null, device);
+    }
+
+    /**
+     * Add a device at the end of the allocation order.
+     *
+     * @param serial the serial to index the device with, or null to not index it.
+     * @param device the {@link IManagedTestDevice} to add.
+     */
+    private void addEntry(String serial, IManagedTestDevice device) {
+        mWriteLock.lock();
         try {
-            mList.add(device);
+            Entry e = new Entry(device, mOrderCounter.incrementAndGet());
+            mList.add(e);
+            if (serial != null) {
+                mSerialIndex.put(serial, e);
+            }
         } finally {
-            mListLock.unlock();
+            mWriteLock.unlock();
         }
     }
 
@@ -262,11 +289,28 @@ class ManagedDeviceList implements Iterable<IManagedTestDevice> {
     }
 
     private void remove(IManagedTestDevice d) {
-        mListLock.lock();
+        mWriteLock.lock();
         try {
-            mList.remove(d);
+            for (Entry e : mList) {
+                if (e.mDevice == d) {
+                    mList.remove(e);
+                    mSerialIndex.values().remove(e);
+                    return;
+                }
+            }
         } finally {
-            mListLock.unlock();
+            mWriteLock.unlock();
         }
     }
+
+    private boolean hasUnindexedEntries() {
+        return mSerialIndex.size() < mList.size();
+    }
+
+    /** Returns a snapshot of the entries, in the order devices should be tried for allocation. */
+    private List<Entry> getEntriesInAllocationOrder() {
+        List<Entry> entries = new ArrayList<>(mList);
+        entries.sort(ALLOCATION_ORDER);
+        return entries;
+    }
 }
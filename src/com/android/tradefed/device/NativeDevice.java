@@ -62,6 +62,7 @@ import com.android.tradefed.util.RunUtil;
 import com.android.tradefed.util.SizeLimitedOutputStream;
 import com.android.tradefed.util.StreamUtil;
 import com.android.tradefed.util.StringEscapeUtils;
+import com.android.tradefed.util.TarUtil;
 import com.android.tradefed.util.ZipUtil;
 import com.android.tradefed.util.ZipUtil2;
 
@@ -81,15 +82,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -125,6 +129,8 @@ public class NativeDevice implements IManagedTestDevice {
 
     /** the default number of command retry attempts to perform */
     protected static final int MAX_RETRY_ATTEMPTS = 2;
+    /** Max length of a batch of shell commands, adb limits the command to 4k on older devices */
+    private static final int MAX_SHELL_BATCH_LENGTH = 4000;
 
     /** Value returned for any invalid/not found user id: UserHandle defined the -10000 value */
     public static final int INVALID_USER_ID = -10000;
@@ -209,6 +215,7 @@ public class NativeDevice implements IManagedTestDevice {
     private RecoveryMode mRecoveryMode = RecoveryMode.AVAILABLE;
 
     private Boolean mIsEncryptionSupported = null;
+    private Boolean mIsTarAvailable = null;
     private ReentrantLock mAllocationStateLock = new ReentrantLock();
     @GuardedBy("mAllocationStateLock")
     private DeviceAllocationState mAllocationState = DeviceAllocationState.Unknown;
@@ -225,6 +232,12 @@ public class NativeDevice implements IManagedTestDevice {
 
     private File mExecuteShellCommandLogs = null;
 
+    /** Number of round-trips to the device during the invocation. */
+    private final AtomicLong mDeviceActionCount = new AtomicLong();
+    /** Number of shell sessions used to run batches of commands, and of commands they ran. */
+    private final AtomicLong mShellBatchCount = new AtomicLong();
+    private final AtomicLong mBatchedCommandCount = new AtomicLong();
+
     /**
      * Interface for a generic device communication attempt.
      */
@@ -648,16 +661,10 @@ public class NativeDevice implements IManagedTestDevice {
     @Override
     public void executeShellCommand(final String command, final IShellOutputReceiver receiver)
             throws DeviceNotAvailableException {
-        DeviceAction action = new DeviceAction() {
-            @Override
-            public boolean run() throws TimeoutException, IOException,
-                    AdbCommandRejectedException, ShellCommandUnresponsiveException {
-                getIDevice().executeShellCommand(command, receiver,
-                        mCmdTimeout, TimeUnit.MILLISECONDS);
-                return true;
-            }
-        };
-        performDeviceAction(String.format("shell %s", command), action, MAX_RETRY_ATTEMPTS);
+        performDeviceAction(
+                String.format("shell %s", command),
+                createShellAction(command, receiver),
+                MAX_RETRY_ATTEMPTS);
     }
 
     /**
@@ -742,6 +749,96 @@ public class NativeDevice implements IManagedTestDevice {
         return output;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public List<String> executeShellCommands(List<String> commands)
+            throws DeviceNotAvailableException {
+        List<String> outputs = new ArrayList<>(commands.size());
+        // Number of failed sessions in a row, that did not complete any command.
+        int failedAttempts = 0;
+        while (outputs.size() < commands.size()) {
+            int start = outputs.size();
+            // Pack as many commands as possible in a single shell session, each one followed by a
+            // delimiter to split the output.
+            String delimiter = String.format("__TF_BATCH_%s__", UUID.randomUUID());
+            StringBuilder script = new StringBuilder();
+            int end = start;
+            while (end < commands.size()) {
+                String command =
+                        String.format("(%s\n); echo; echo %s;", commands.get(end), delimiter);
+                if (end > start && script.length() + command.length() > MAX_SHELL_BATCH_LENGTH) {
+                    break;
+                }
+                script.append(command);
+                end++;
+            }
+            if (end - start == 1) {
+                outputs.add(executeShellCommand(commands.get(start)));
+                continue;
+            }
+            mShellBatchCount.incrementAndGet();
+            mBatchedCommandCount.addAndGet(end - start);
+            // The batch is not retried as a whole: the commands that completed before a failure
+            // must not run again.
+            CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+            boolean sessionCompleted =
+                    performDeviceAction(
+                            String.format("shell batch of %d commands", end - start),
+                            createShellAction(script.toString(), receiver),
+                            0);
+            String[] parts =
+                    receiver.getOutput()
+                            .split("\r?\n" + Pattern.quote(delimiter) + "\r?\n", -1);
+            // The last part follows the last delimiter, it is not the output of a command.
+            int completed = Math.min(parts.length - 1, end - start);
+            for (int i = 0; i < completed; i++) {
+                outputs.add(parts[i]);
+            }
+            if (completed > 0) {
+                failedAttempts = 0;
+            }
+            if (completed == end - start) {
+                continue;
+            }
+            if (sessionCompleted) {
+                // The session ended before the delimiter, do not run the interrupted command again.
+                CLog.w(
+                        "Shell session on %s ended while running '%s'",
+                        getSerialNumber(), commands.get(start + completed));
+                outputs.add(parts[completed]);
+            } else if (++failedAttempts > MAX_RETRY_ATTEMPTS) {
+                throw new DeviceUnresponsiveException(
+                        String.format(
+                                "Attempted shell batch multiple times on device %s without "
+                                        + "communication success. Aborting.",
+                                getSerialNumber()),
+                        getSerialNumber());
+            } else {
+                // Only the commands without output are sent again.
+                CLog.w(
+                        "Shell session on %s failed, running the %d remaining commands again",
+                        getSerialNumber(), commands.size() - outputs.size());
+            }
+        }
+        return outputs;
+    }
+
+    /** Creates the {@link DeviceAction} running a shell command with the default timeout. */
+    private DeviceAction createShellAction(
+            final String command, final IShellOutputReceiver receiver) {
+        return new DeviceAction() {
+            @Override
+            public boolean run()
+                    throws TimeoutException, IOException, AdbCommandRejectedException,
+                            ShellCommandUnresponsiveException {
+                getIDevice()
+                        .executeShellCommand(
+                                command, receiver, mCmdTimeout, TimeUnit.MILLISECONDS);
+                return true;
+            }
+        };
+    }
+
     /** {@inheritDoc} */
     @Override
     public CommandResult executeShellV2Command(String cmd) throws DeviceNotAvailableException {
@@ -1494,6 +1591,24 @@ public class NativeDevice implements IManagedTestDevice {
             CLog.e("file %s is not a directory", localFileDir.getAbsolutePath());
             return false;
         }
+        if (getOptions().shouldPushDirAsTar() && isTarAvailable()) {
+            List<String> relativePaths = new ArrayList<>();
+            listLocalFiles(localFileDir, "", excludedDirectories, false, relativePaths);
+            if (pushFilesAsTar(localFileDir, relativePaths, deviceFilePath)) {
+                return true;
+            }
+            CLog.w("Failed to push %s as tar, pushing files one by one.", localFileDir);
+        }
+        return pushDirFileByFile(localFileDir, deviceFilePath, excludedDirectories);
+    }
+
+    /**
+     * Recursively push the files of a local directory one by one, without trying to push them as
+     * tar again for each sub directory.
+     */
+    private boolean pushDirFileByFile(
+            File localFileDir, String deviceFilePath, Set<String> excludedDirectories)
+            throws DeviceNotAvailableException {
         File[] childFiles = localFileDir.listFiles();
         if (childFiles == null) {
             CLog.e("Could not read files in %s", localFileDir.getAbsolutePath());
@@ -1510,7 +1625,7 @@ public class NativeDevice implements IManagedTestDevice {
                     continue;
                 }
                 executeShellCommand(String.format("mkdir -p \"%s\"", remotePath));
-                if (!pushDir(childFile, remotePath, excludedDirectories)) {
+                if (!pushDirFileByFile(childFile, remotePath, excludedDirectories)) {
                     return false;
                 }
             } else if (childFile.isFile()) {
@@ -1597,6 +1712,29 @@ public class NativeDevice implements IManagedTestDevice {
         // implementation will add localFileDir.getName() to destination path
         deviceFilePath = String.format("%s/%s", interpolatePathVariables(deviceFilePath),
                 localFileDir.getName());
+        if (getOptions().shouldPushDirAsTar() && isTarAvailable()) {
+            Map<String, long[]> remoteFiles = getRemoteFileListing(deviceFilePath);
+            if (remoteFiles != null) {
+                List<String> relativePaths = new ArrayList<>();
+                listLocalFiles(localFileDir, "", new HashSet<>(), true, relativePaths);
+                List<String> pathsToSync = new ArrayList<>();
+                for (String relativePath : relativePaths) {
+                    File localFile = new File(localFileDir, relativePath);
+                    // Directories are always part of the archive so that empty ones get created.
+                    if (localFile.isDirectory()
+                            || isChanged(localFile, remoteFiles.get(relativePath))) {
+                        pathsToSync.add(relativePath);
+                    }
+                }
+                CLog.d(
+                        "Syncing %d of %d local entries to %s",
+                        pathsToSync.size(), relativePaths.size(), deviceFilePath);
+                if (pushFilesAsTar(localFileDir, pathsToSync, deviceFilePath)) {
+                    return true;
+                }
+            }
+            CLog.w("Failed to sync %s as tar, syncing files one by one.", localFileDir);
+        }
         if (!doesFileExist(deviceFilePath)) {
             executeShellCommand(String.format("mkdir -p \"%s\"", deviceFilePath));
         }
@@ -1673,6 +1811,164 @@ public class NativeDevice implements IManagedTestDevice {
                 syncAction, MAX_RETRY_ATTEMPTS);
     }
 
+    /** Returns true if the device can extract a tar stream. The result is cached. */
+    @VisibleForTesting
+    boolean isTarAvailable() throws DeviceNotAvailableException {
+        if (mIsTarAvailable == null) {
+            CommandResult result = executeShellV2Command("command -v tar");
+            mIsTarAvailable = CommandStatus.SUCCESS.equals(result.getStatus());
+            if (!mIsTarAvailable) {
+                CLog.w("tar is not available on %s.", getSerialNumber());
+            }
+        }
+        return mIsTarAvailable;
+    }
+
+    /**
+     * Recursively list the files and directories of a local directory.
+     *
+     * @param dir the directory to list.
+     * @param prefix the path of the directory relative to the root of the listing.
+     * @param excludedDirectories names of the directories to skip.
+     * @param skipHidden whether or not hidden files and directories are skipped.
+     * @param relativePaths the list to add the paths relative to the root of the listing to.
+     */
+    private static void listLocalFiles(
+            File dir,
+            String prefix,
+            Set<String> excludedDirectories,
+            boolean skipHidden,
+            List<String> relativePaths) {
+        File[] childFiles =
+                skipHidden ? dir.listFiles(new NoHiddenFilesFilter()) : dir.listFiles();
+        if (childFiles == null) {
+            return;
+        }
+        for (File childFile : childFiles) {
+            String relativePath = prefix + childFile.getName();
+            if (childFile.isDirectory()) {
+                if (excludedDirectories.contains(childFile.getName())) {
+                    CLog.d(
+                            "%s directory was not pushed because it was filtered.",
+                            childFile.getAbsolutePath());
+                    continue;
+                }
+                relativePaths.add(relativePath);
+                listLocalFiles(
+                        childFile,
+                        relativePath + "/",
+                        excludedDirectories,
+                        skipHidden,
+                        relativePaths);
+            } else if (childFile.isFile()) {
+                relativePaths.add(relativePath);
+            }
+        }
+    }
+
+    /**
+     * Push some files of a local directory to a device directory as a single tar stream.
+     *
+     * <p>The tar is written to a temporary file before being streamed to the device, so pushing
+     * requires as much free space in the host temporary directory as the files pushed, or less
+     * when compressed.
+     *
+     * @param localDir the local directory the files are relative to.
+     * @param relativePaths the files and directories to push, relative to <var>localDir</var>.
+     * @param deviceDir the device directory to extract the files into.
+     * @return <code>true</code> if the files were pushed successfully.
+     * @throws DeviceNotAvailableException
+     */
+    private boolean pushFilesAsTar(File localDir, List<String> relativePaths, String deviceDir)
+            throws DeviceNotAvailableException {
+        if (relativePaths.isEmpty()) {
+            CLog.d("No files to push");
+            return true;
+        }
+        boolean compress = getOptions().shouldCompressPushDirTar();
+        File tarFile = null;
+        try {
+            tarFile = TarUtil.createTar(localDir, relativePaths, compress);
+            String cmd =
+                    String.format(
+                            "mkdir -p \"%s\" && tar -x%sf - -C \"%s\"",
+                            deviceDir, compress ? "z" : "", deviceDir);
+            CommandResult result =
+                    executeShellV2Command(
+                            cmd,
+                            tarFile,
+                            null,
+                            getLongCommandTimeout(),
+                            TimeUnit.MILLISECONDS,
+                            MAX_RETRY_ATTEMPTS);
+            if (!CommandStatus.SUCCESS.equals(result.getStatus())) {
+                CLog.w(
+                        "Failed to extract tar into %s on %s: %s",
+                        deviceDir, getSerialNumber(), result.getStderr());
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            CLog.e("Failed to create tar of %s", localDir);
+            CLog.e(e);
+            return false;
+        } finally {
+            FileUtil.deleteFile(tarFile);
+        }
+    }
+
+    /**
+     * Returns the size and modification time in seconds of all the files under a device directory,
+     * keyed by path relative to the directory, using a single shell command. Returns <code>null
+     * </code> if the listing failed.
+     */
+    @VisibleForTesting
+    Map<String, long[]> getRemoteFileListing(String deviceDir)
+            throws DeviceNotAvailableException {
+        CommandResult result =
+                executeShellV2Command(
+                        String.format(
+                                "find \"%s\" -type f -exec stat -c '%%s %%Y %%n' {} +",
+                                deviceDir));
+        Map<String, long[]> files = new HashMap<>();
+        if (!CommandStatus.SUCCESS.equals(result.getStatus())) {
+            // The directory does not exist yet, everything needs to be pushed.
+            if (result.getStderr() != null && result.getStderr().contains("No such file")) {
+                return files;
+            }
+            CLog.w("Failed to list %s on %s: %s", deviceDir, getSerialNumber(), result.getStderr());
+            return null;
+        }
+        String prefix = deviceDir + "/";
+        String stdout = result.getStdout() == null ? "" : result.getStdout();
+        for (String line : stdout.split("\n")) {
+            String[] fields = line.split(" ", 3);
+            if (fields.length != 3 || !fields[2].startsWith(prefix)) {
+                continue;
+            }
+            try {
+                files.put(
+                        fields[2].substring(prefix.length()),
+                        new long[] {Long.parseLong(fields[0]), Long.parseLong(fields[1])});
+            } catch (NumberFormatException e) {
+                CLog.w("Ignoring unexpected listing line '%s'", line);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Returns true if a local file differs from its remote listing entry. Both adb push and tar
+     * extraction preserve the modification time, so it is compared without clock offset.
+     */
+    private static boolean isChanged(File localFile, long[] remoteSizeAndTime) {
+        if (remoteSizeAndTime == null) {
+            return true;
+        }
+        return localFile.length() != remoteSizeAndTime[0]
+                || localFile.lastModified() / 1000 > remoteSizeAndTime[1];
+    }
+
     /**
      * Queries the file listing service for a given directory
      *
@@ -1811,12 +2107,33 @@ public class NativeDevice implements IManagedTestDevice {
         return doFastbootCommand(getLongCommandTimeout(), cmdArgs);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CommandResult executeLongFastbootCommand(
+            Map<String, String> envVarMap, String... cmdArgs)
+            throws DeviceNotAvailableException, UnsupportedOperationException {
+        return doFastbootCommand(getLongCommandTimeout(), envVarMap, cmdArgs);
+    }
+
     /**
      * @param cmdArgs
      * @throws DeviceNotAvailableException
      */
     private CommandResult doFastbootCommand(final long timeout, String... cmdArgs)
             throws DeviceNotAvailableException, UnsupportedOperationException {
+        return doFastbootCommand(timeout, new HashMap<>(), cmdArgs);
+    }
+
+    /**
+     * @param envVarMap the additional environment variables of the command
+     * @param cmdArgs
+     * @throws DeviceNotAvailableException
+     */
+    private CommandResult doFastbootCommand(
+            final long timeout, Map<String, String> envVarMap, String... cmdArgs)
+            throws DeviceNotAvailableException, UnsupportedOperationException {
         if (!mFastbootEnabled) {
             throw new UnsupportedOperationException(String.format(
                     "Attempted to fastboot on device %s , but fastboot is not available. Aborting.",
@@ -1826,9 +2143,14 @@ public class NativeDevice implements IManagedTestDevice {
         for (int i = 0; i < MAX_RETRY_ATTEMPTS; i++) {
             File fastbootTmpDir = getHostOptions().getFastbootTmpDir();
             IRunUtil runUtil = null;
-            if (fastbootTmpDir != null) {
+            if (fastbootTmpDir != null || !envVarMap.isEmpty()) {
                 runUtil = new RunUtil();
-                runUtil.setEnvVariable("TMPDIR", fastbootTmpDir.getAbsolutePath());
+                if (fastbootTmpDir != null) {
+                    runUtil.setEnvVariable("TMPDIR", fastbootTmpDir.getAbsolutePath());
+                }
+                for (Map.Entry<String, String> envVar : envVarMap.entrySet()) {
+                    runUtil.setEnvVariable(envVar.getKey(), envVar.getValue());
+                }
             } else {
                 runUtil = getRunUtil();
             }
@@ -1978,6 +2300,7 @@ public class NativeDevice implements IManagedTestDevice {
             int retryAttempts) throws DeviceNotAvailableException {
 
         for (int i = 0; i < retryAttempts + 1; i++) {
+            mDeviceActionCount.incrementAndGet();
             try {
                 return action.run();
             } catch (TimeoutException e) {
@@ -2170,6 +2493,13 @@ public class NativeDevice implements IManagedTestDevice {
      */
     @Override
     public InputStreamSource getLogcatSince(long date) {
+        if (mLogcatReceiver != null) {
+            // Look up the logcat captured in background first, to avoid querying the device.
+            InputStreamSource logcat = mLogcatReceiver.getLogcatDataSince(date);
+            if (logcat != null) {
+                return logcat;
+            }
+        }
         try {
             if (getApiLevel() <= 22) {
                 CLog.i("Api level too low to use logcat -t 'time' reverting to dump");
@@ -2776,8 +3106,8 @@ public class NativeDevice implements IManagedTestDevice {
     public void postBootSetup() throws DeviceNotAvailableException  {
         enableAdbRoot();
         prePostBootSetup();
-        for (String command : mOptions.getPostBootCommands()) {
-            executeShellCommand(command);
+        if (!mOptions.getPostBootCommands().isEmpty()) {
+            executeShellCommands(mOptions.getPostBootCommands());
         }
     }
 
@@ -4124,6 +4454,9 @@ public class NativeDevice implements IManagedTestDevice {
         // Default implementation
         mContentProvider = null;
         mShouldSkipContentProviderSetup = false;
+        mDeviceActionCount.set(0L);
+        mShellBatchCount.set(0L);
+        mBatchedCommandCount.set(0L);
         try {
             mExecuteShellCommandLogs =
                     FileUtil.createTempFile("TestDevice_ExecuteShellCommands", ".txt");
@@ -4138,6 +4471,16 @@ public class NativeDevice implements IManagedTestDevice {
      */
     @Override
     public void postInvocationTearDown() {
+        // Report the round-trips saved by batching, each batch replaced one per command.
+        long roundTrips = mDeviceActionCount.get();
+        CLog.i(
+                "%s: %d round-trips to the device, %d without batching (%d shell commands run "
+                        + "in %d batches)",
+                getSerialNumber(),
+                roundTrips,
+                roundTrips - mShellBatchCount.get() + mBatchedCommandCount.get(),
+                mBatchedCommandCount.get(),
+                mShellBatchCount.get());
         mIsEncryptionSupported = null;
         FileUtil.deleteFile(mExecuteShellCommandLogs);
         mExecuteShellCommandLogs = null;
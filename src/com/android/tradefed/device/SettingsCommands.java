@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.device;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the shell commands reading and changing the settings of a device, for {@link
+ * ITestDevice#getSetting(String, String)} and {@link ITestDevice#setSetting(String, String,
+ * String)}, and for the callers running them in batches with {@link
+ * ITestDevice#executeShellCommands(List)}.
+ */
+public class SettingsCommands {
+
+    private static final List<String> NAMESPACES = Arrays.asList("system", "secure", "global");
+
+    private SettingsCommands() {}
+
+    /** Returns true if the namespace is one of system, secure or global. */
+    public static boolean isValidNamespace(String namespace) {
+        return NAMESPACES.contains(namespace.trim().toLowerCase());
+    }
+
+    /**
+     * Returns the command printing the value of a setting, or "null" if it does not exist.
+     *
+     * @throws IllegalArgumentException if the namespace is not valid
+     */
+    public static String getCommand(String namespace, String key) {
+        return getCommand("", namespace, key);
+    }
+
+    /**
+     * Returns the command changing the value of a setting.
+     *
+     * @throws IllegalArgumentException if the namespace is not valid
+     */
+    public static String putCommand(String namespace, String key, String value) {
+        return putCommand("", namespace, key, value);
+    }
+
+    /**
+     * Returns the command deleting a setting.
+     *
+     * @throws IllegalArgumentException if the namespace is not valid
+     */
+    public static String deleteCommand(String namespace, String key) {
+        return buildCommand("", "delete", namespace, key.trim());
+    }
+
+    /** Returns the get command, with an optional user flag such as "--user 10". */
+    static String getCommand(String userFlag, String namespace, String key) {
+        return buildCommand(userFlag, "get", namespace, key.trim());
+    }
+
+    /** Returns the put command, with an optional user flag such as "--user 10". */
+    static String putCommand(String userFlag, String namespace, String key, String value) {
+        return buildCommand(userFlag, "put", namespace, key.trim() + " " + value.trim());
+    }
+
+    private static String buildCommand(
+            String userFlag, String action, String namespace, String arguments) {
+        if (!isValidNamespace(namespace)) {
+            throw new IllegalArgumentException(
+                    "Namespace must be one of system, secure, global. You provided: " + namespace);
+        }
+        StringBuilder command = new StringBuilder("settings ");
+        if (!userFlag.isEmpty()) {
+            command.append(userFlag).append(' ');
+        }
+        return command.append(action)
+                .append(' ')
+                .append(namespace.trim().toLowerCase())
+                .append(' ')
+                .append(arguments)
+                .toString();
+    }
+}
@@ -89,8 +89,6 @@ public class TestDevice extends NativeDevice {
 
     private static final int FLAG_PRIMARY = 1; // From the UserInfo class
 
-    private static final String[] SETTINGS_NAMESPACE = {"system", "secure", "global"};
-
     /** user pattern in the output of "pm list users" = TEXT{<id>:<name>:<flags>} TEXT * */
     private static final String USER_PATTERN = "(.*?\\{)(\\d+)(:)(.*)(:)(\\d+)(\\}.*)";
     /** Pattern to find the display ids of "dumpsys SurfaceFlinger" */
@@ -1434,9 +1432,8 @@ public class TestDevice extends NativeDevice {
      */
     private String getSettingInternal(String userFlag, String namespace, String key)
             throws DeviceNotAvailableException {
-        namespace = namespace.toLowerCase();
-        if (Arrays.asList(SETTINGS_NAMESPACE).contains(namespace)) {
-            String cmd = String.format("settings %s get %s %s", userFlag, namespace, key);
+        if (SettingsCommands.isValidNamespace(namespace)) {
+            String cmd = SettingsCommands.getCommand(userFlag, namespace, key);
             String output = executeShellCommand(cmd);
             if ("null".equals(output)) {
                 CLog.w("settings returned null for command: %s. "
@@ -1459,7 +1456,7 @@ public class TestDevice extends NativeDevice {
     private Map<String, String> getAllSettingsInternal(String namespace)
             throws DeviceNotAvailableException {
         namespace = namespace.toLowerCase();
-        if (Arrays.asList(SETTINGS_NAMESPACE).contains(namespace)) {
+        if (SettingsCommands.isValidNamespace(namespace)) {
             Map<String, String> map = new HashMap<>();
             String cmd = String.format("settings list %s", namespace);
             String output = executeShellCommand(cmd);
@@ -1503,13 +1500,7 @@ public class TestDevice extends NativeDevice {
     private void setSettingInternal(String userFlag, String namespace, String key, String value)
             throws DeviceNotAvailableException {
         checkApiLevelAgainst("Changing settings", 22);
-        if (Arrays.asList(SETTINGS_NAMESPACE).contains(namespace.toLowerCase())) {
-            executeShellCommand(String.format("settings %s put %s %s %s",
-                    userFlag, namespace, key, value));
-        } else {
-            throw new IllegalArgumentException("Namespace must be one of system, secure, global."
-                    + " You provided: " + namespace);
-        }
+        executeShellCommand(SettingsCommands.putCommand(userFlag, namespace, key, value));
     }
 
     /**
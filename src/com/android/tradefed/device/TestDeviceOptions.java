@@ -148,6 +148,22 @@ public class TestDeviceOptions {
     )
     private boolean mUseContentProvider = true;
 
+    @Option(
+        name = "push-dir-as-tar",
+        description =
+                "Push directories as a single tar stream extracted on the device instead of file "
+                        + "by file. Falls back to pushing file by file if tar is unavailable. The "
+                        + "tar is staged in the host temporary directory first, which needs as "
+                        + "much free space as the pushed directory."
+    )
+    private boolean mPushDirAsTar = false;
+
+    @Option(
+        name = "push-dir-tar-compression",
+        description = "Gzip the tar stream used when pushing directories as tar."
+    )
+    private boolean mPushDirTarCompression = false;
+
     // ====================== Options Related to Virtual Devices ======================
     @Option(
             name = INSTANCE_TYPE_OPTION,
@@ -483,6 +499,16 @@ public class TestDeviceOptions {
         return mUseContentProvider;
     }
 
+    /** Returns whether or not directories should be pushed as a single tar stream. */
+    public boolean shouldPushDirAsTar() {
+        return mPushDirAsTar;
+    }
+
+    /** Returns whether or not the tar stream used to push directories should be gzipped. */
+    public boolean shouldCompressPushDirTar() {
+        return mPushDirTarCompression;
+    }
+
     // =========================== Getter and Setter for Virtual Devices
     /** Return the Gce Avd timeout for the instance to come online. */
     public long getGceCmdTimeout() {
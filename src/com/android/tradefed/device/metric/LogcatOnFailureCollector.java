@@ -47,7 +47,7 @@ public class LogcatOnFailureCollector extends BaseDeviceMetricCollector {
             // In case of multiple runs for the same test runner, re-init the receiver.
             initReceiver(device);
             // Get the current offset of the buffer to be able to query later
-            int offset = (int) mLogcatReceivers.get(device).getLogcatData().size();
+            int offset = (int) mLogcatReceivers.get(device).getLogcatDataSize();
             if (offset > OFFSET_CORRECTION) {
                 offset -= OFFSET_CORRECTION;
             }
@@ -22,21 +22,19 @@ import com.android.tradefed.invoker.IInvocationContext;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
 import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.util.CollectionScheduler;
+import com.android.tradefed.util.CollectionScheduler.ScheduledCollection;
 
 import java.io.File;
-import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 
 /**
  * A {@link IMetricCollector} that makes runs multiple metric collectors periodically. This is a
  * best effort scheduler. It makes the best effort to run the collectors at given intervals while
- * making sure that no two collectors are run at the same time.
+ * making sure that no two collectors are run at the same time on the same device.
  */
 public class ScheduleMultipleDeviceMetricCollector extends BaseDeviceMetricCollector {
     @Option(
@@ -66,12 +64,7 @@ public class ScheduleMultipleDeviceMetricCollector extends BaseDeviceMetricColle
     // Time interval at which the commands should run.
     private Map<ScheduledDeviceMetricCollector, Long> mMetricCollectorIntervals = new HashMap<>();
 
-    // Time when the commands to collect various metrics were last run.
-    private Map<ScheduledDeviceMetricCollector, Long> mLastUpdate = new HashMap<>();
-
-    private Timer mTimer;
-
-    private long mScheduleRate;
+    private List<ScheduledCollection> mCollections = new ArrayList<>();
 
     @Override
     public ITestInvocationListener init(
@@ -109,9 +102,9 @@ public class ScheduleMultipleDeviceMetricCollector extends BaseDeviceMetricColle
             return;
         }
 
-        setupCollection();
+        parseAllArgs();
 
-        if (mScheduleRate == 0) {
+        if (mMetricCollectorIntervals.isEmpty()) {
             CLog.e(
                     "Failed to get a valid interval for even one metric collector. "
                             + "Please make sure that the collectors have non-zero intervals "
@@ -119,60 +112,23 @@ public class ScheduleMultipleDeviceMetricCollector extends BaseDeviceMetricColle
             return;
         }
 
-        // TODO(b/70394486): Investigate if ScheduledThreadPool is better suited here so that we can
-        // schedule all the metrics in their own thread and create a common object which allows
-        // running of only one collector at a time.
-        mTimer = new Timer();
-
-        TimerTask timerTask =
-                new TimerTask() {
-                    @Override
-                    public void run() {
-                        collect(runData);
-                    }
-                };
-
-        mTimer.scheduleAtFixedRate(timerTask, 0, mScheduleRate);
-    }
-
-    /**
-     * Sets up the collection process by parsing all the args, retrieving the intervals from the
-     * args and initializing the last update value of each of the collectors to current time.
-     */
-    private void setupCollection() {
-        parseAllArgs();
-        for (ScheduledDeviceMetricCollector singleMetricCollector :
-                mMetricCollectorIntervals.keySet()) {
-            mLastUpdate.put(singleMetricCollector, System.currentTimeMillis());
-        }
-
-        mScheduleRate = gcdOfIntervals();
-    }
-
-    /**
-     * Runs all the requested collectors sequentially. Dumps the output in {@code
-     * mmResultsDirectory/outputDirFormat} of the collector prefixed.
-     *
-     * @param runData holds the filename of the metrics collected for each collector.
-     */
-    private void collect(DeviceMetricData runData) {
-        for (ScheduledDeviceMetricCollector singleMetricCollector :
-                mMetricCollectorIntervals.keySet()) {
-
-            Long elapsedTime = System.currentTimeMillis() - mLastUpdate.get(singleMetricCollector);
-
-            Long taskInterval = mMetricCollectorIntervals.get(singleMetricCollector);
-
-            if (elapsedTime >= taskInterval) {
-                try {
-                    for (ITestDevice device : getDevices()) {
-                        singleMetricCollector.collect(device, runData);
-                    }
-                    mLastUpdate.put(singleMetricCollector, System.currentTimeMillis());
-                } catch (InterruptedException e) {
-                    CLog.e("Exception during %s", singleMetricCollector.getClass());
-                    CLog.e(e);
-                }
+        // Each collector runs at its own interval, the scheduler runs the collections of the same
+        // device one at a time.
+        for (Map.Entry<ScheduledDeviceMetricCollector, Long> entry :
+                mMetricCollectorIntervals.entrySet()) {
+            ScheduledDeviceMetricCollector singleMetricCollector = entry.getKey();
+            long interval = entry.getValue();
+            for (ITestDevice device : getDevices()) {
+                mCollections.add(
+                        CollectionScheduler.getInstance()
+                                .schedule(
+                                        device.getSerialNumber(),
+                                        interval,
+                                        interval,
+                                        true,
+                                        () ->
+                                                singleMetricCollector.collectSerially(
+                                                        device, runData)));
             }
         }
     }
@@ -191,27 +147,12 @@ public class ScheduleMultipleDeviceMetricCollector extends BaseDeviceMetricColle
         }
     }
 
-    /** Get the {@code scheduleRate} common to all tasks which is the gcd of all the intervals. */
-    private Long gcdOfIntervals() {
-        Collection<Long> intervals = mMetricCollectorIntervals.values();
-        if (intervals.isEmpty()) {
-            return 0L;
-        }
-        BigInteger gcdSoFar = new BigInteger(intervals.iterator().next().toString());
-
-        for (Long interval : intervals) {
-            gcdSoFar = gcdSoFar.gcd(new BigInteger(interval.toString()));
-        }
-
-        return gcdSoFar.longValue();
-    }
-
     @Override
     public final void onTestRunEnd(
             DeviceMetricData runData, final Map<String, Metric> currentRunMetrics) {
-        if (mTimer != null) {
-            mTimer.cancel();
-            mTimer.purge();
+        for (ScheduledCollection collection : mCollections) {
+            collection.cancel();
         }
+        mCollections = new ArrayList<>();
     }
 }
@@ -21,19 +21,24 @@ import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
+import com.android.tradefed.util.CollectionScheduler;
+import com.android.tradefed.util.CollectionScheduler.ScheduledCollection;
 import com.android.tradefed.util.FileUtil;
 
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 
 /**
  * A {@link IMetricCollector} that allows to run a collection task periodically at a set interval.
+ *
+ * <p>The collections run on the host-wide {@link CollectionScheduler}, one per device: the
+ * collections of the different collectors on the same device run one at a time.
  */
 public abstract class ScheduledDeviceMetricCollector extends BaseDeviceMetricCollector {
 
@@ -50,48 +55,52 @@ public abstract class ScheduledDeviceMetricCollector extends BaseDeviceMetricCol
     )
     private long mIntervalMs = 60 * 1000l;
 
-    private Timer timer;
+    private List<ScheduledCollection> mCollections = new ArrayList<>();
 
     @Override
     public final void onTestRunStart(DeviceMetricData runData) {
         CLog.d("starting with interval = %s", mIntervalMs);
         onStart(runData);
-        timer = new Timer();
-        TimerTask timerTask =
-                new TimerTask() {
-                    @Override
-                    public void run() {
-                        try {
-                            for (ITestDevice device : getDevices()) {
-                                collect(device, runData);
-                            }
-                        } catch (InterruptedException e) {
-                            timer.cancel();
-                            Thread.currentThread().interrupt();
-                            CLog.e("Interrupted exception thrown from task:");
-                            CLog.e(e);
-                        }
-                    }
-                };
-
-        if (mFixedScheduleRate) {
-            timer.scheduleAtFixedRate(timerTask, 0, mIntervalMs);
-        } else {
-            timer.schedule(timerTask, 0, mIntervalMs);
+        for (ITestDevice device : getDevices()) {
+            mCollections.add(
+                    CollectionScheduler.getInstance()
+                            .schedule(
+                                    device.getSerialNumber(),
+                                    0L,
+                                    mIntervalMs,
+                                    mFixedScheduleRate,
+                                    () -> collectSerially(device, runData)));
         }
     }
 
     @Override
     public final void onTestRunEnd(
             DeviceMetricData runData, final Map<String, Metric> currentRunMetrics) {
-        if (timer != null) {
-            timer.cancel();
-            timer.purge();
+        long ticks = 0L;
+        long missedTicks = 0L;
+        long lateTicks = 0L;
+        for (ScheduledCollection collection : mCollections) {
+            collection.cancel();
+            ticks += collection.getTickCount();
+            missedTicks += collection.getMissedTickCount();
+            lateTicks += collection.getLateTickCount();
+        }
+        mCollections = new ArrayList<>();
+        if (missedTicks > 0 || lateTicks > 0) {
+            CLog.w(
+                    "%s collected %d times, missed %d and was late %d times.",
+                    getTag(), ticks, missedTicks, lateTicks);
         }
         onEnd(runData);
         CLog.d("finished");
     }
 
+    /** Collections of different devices can run concurrently, collectors expect them not to. */
+    synchronized void collectSerially(ITestDevice device, DeviceMetricData runData)
+            throws InterruptedException {
+        collect(device, runData);
+    }
+
     /**
      * Task periodically & asynchronously run during the test running on a specific device.
      *
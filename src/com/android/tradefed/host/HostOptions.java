@@ -35,6 +35,14 @@ public class HostOptions implements IHostOptions {
             "The maximum number of concurrent flashers (may be useful to avoid memory constraints)")
     private Integer mConcurrentFlasherLimit = 1;
 
+    @Option(
+            name = "concurrent-flasher-bytes-limit",
+            description =
+                    "The maximum number of bytes of images flashed concurrently. When set, it is "
+                            + "used instead of concurrent-flasher-limit so that the flashers are "
+                            + "scheduled by disk bandwidth.")
+    private Long mConcurrentFlasherBytesLimit = null;
+
     @Option(
         name = "concurrent-download-limit",
         description =
@@ -70,6 +78,20 @@ public class HostOptions implements IHostOptions {
             description = "Whether to use zip64 format in partial download.")
     private boolean mUseZip64InPartialDownload = false;
 
+    @Option(
+            name = "sandbox-jvm-pool-size",
+            description =
+                    "The number of warm JVMs kept for each sandbox classpath to dump the sandbox "
+                            + "configurations. 0 starts a new JVM for each dump.")
+    private int mSandboxJvmPoolSize = 0;
+
+    @Option(
+            name = "sandbox-jvm-max-uses",
+            description =
+                    "The number of configuration dumps after which a warm sandbox JVM is "
+                            + "replaced by a new one.")
+    private int mSandboxJvmMaxUses = 20;
+
     /**
      * {@inheritDoc}
      */
@@ -78,6 +100,12 @@ public class HostOptions implements IHostOptions {
         return mConcurrentFlasherLimit;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public Long getConcurrentFlasherBytesLimit() {
+        return mConcurrentFlasherBytesLimit;
+    }
+
     /** {@inheritDoc} */
     @Override
     public Integer getConcurrentDownloadLimit() {
@@ -119,4 +147,16 @@ public class HostOptions implements IHostOptions {
     public boolean getUseZip64InPartialDownload() {
         return mUseZip64InPartialDownload;
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getSandboxJvmPoolSize() {
+        return mSandboxJvmPoolSize;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getSandboxJvmMaxUses() {
+        return mSandboxJvmMaxUses;
+    }
 }
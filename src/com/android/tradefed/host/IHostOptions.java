@@ -36,6 +36,12 @@ public interface IHostOptions {
      */
     Integer getConcurrentFlasherLimit();
 
+    /**
+     * Returns the max number of bytes of images being flashed concurrently, or null to limit the
+     * number of concurrent flashers instead. Used by {@link DeviceFlashPreparer}.
+     */
+    Long getConcurrentFlasherBytesLimit();
+
     /**
      * Returns the max number of concurrent downloads allowed. Used by {@link IBuildProvider} that
      * downloads remote builds.
@@ -59,4 +65,13 @@ public interface IHostOptions {
 
     /** Check if it should use the zip64 format in partial download or not. */
     boolean getUseZip64InPartialDownload();
+
+    /**
+     * Returns the number of warm JVMs kept for each sandbox classpath to dump the sandbox
+     * configurations, 0 if they are disabled.
+     */
+    int getSandboxJvmPoolSize();
+
+    /** Returns the number of configuration dumps after which a warm sandbox JVM is replaced. */
+    int getSandboxJvmMaxUses();
 }
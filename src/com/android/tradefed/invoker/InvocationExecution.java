@@ -655,6 +655,8 @@ public class InvocationExecution implements IInvocationExecution {
             return;
         }
         try {
+            // The tests dir might be shared with the other shards, get our own copy to modify it.
+            testsDir = info.materializeFile(BuildInfoFileKey.TESTDIR_IMAGE.getFileKey());
             // Avoid conflict by creating a randomized name for the arriving symlink file.
             File subDir = FileUtil.createTempDir(baseName, testsDir);
             subDir.delete();
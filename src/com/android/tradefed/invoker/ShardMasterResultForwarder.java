@@ -16,7 +16,10 @@
 package com.android.tradefed.invoker;
 
 import com.android.tradefed.build.IBuildInfo;
+import com.android.tradefed.invoker.shard.ModuleRuntimeHistory;
 import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
+import com.android.tradefed.result.CollectingTestListener;
 import com.android.tradefed.result.ILogSaverListener;
 import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.InputStreamSource;
@@ -24,10 +27,14 @@ import com.android.tradefed.result.LogDataType;
 import com.android.tradefed.result.LogFile;
 import com.android.tradefed.result.LogSaverResultForwarder;
 import com.android.tradefed.result.ResultForwarder;
+import com.android.tradefed.testtype.suite.ModuleDefinition;
 import com.android.tradefed.util.TimeUtil;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 /**
@@ -49,6 +56,13 @@ public class ShardMasterResultForwarder extends ResultForwarder implements ILogS
     private List<IInvocationContext> mShardContextList;
     private int shardIndex = 0;
 
+    private long mStartTime = 0L;
+    private long mExpectedMakespan = 0L;
+    private List<Long> mShardElapsed = new ArrayList<>();
+    private ModuleRuntimeHistory mModuleRuntimeHistory = null;
+    private Map<String, Long> mModuleDurations = new LinkedHashMap<>();
+    private String mCurrentModuleId = null;
+
     /**
      * Create a {@link ShardMasterResultForwarder}.
      *
@@ -70,6 +84,7 @@ public class ShardMasterResultForwarder extends ResultForwarder implements ILogS
     public void invocationStarted(IInvocationContext context) {
         if (!mStartReported) {
             mOriginalContext = context;
+            mStartTime = System.currentTimeMillis();
             super.invocationStarted(context);
             mStartReported = true;
         } else {
@@ -96,18 +111,72 @@ public class ShardMasterResultForwarder extends ResultForwarder implements ILogS
     @Override
     public void invocationEnded(long elapsedTime) {
         mTotalElapsed += elapsedTime;
+        mShardElapsed.add(elapsedTime);
         if (mInitCount == mShardsRemaining) {
             mFirstShardEndTime = System.currentTimeMillis();
         }
         mShardsRemaining--;
         if (mShardsRemaining <= 0) {
-            // TODO: consider logging all shard final times.
             CLog.i(
                     "There was %s between the first and last shard ended.",
                     TimeUtil.formatElapsedTime(System.currentTimeMillis() - mFirstShardEndTime));
+            List<String> shardTimes = new ArrayList<>();
+            for (long shardElapsed : mShardElapsed) {
+                shardTimes.add(TimeUtil.formatElapsedTime(shardElapsed));
+            }
+            CLog.i("Shards elapsed times: %s", shardTimes);
+            CLog.i(
+                    "Expected makespan: %s, actual makespan: %s.",
+                    TimeUtil.formatElapsedTime(mExpectedMakespan),
+                    TimeUtil.formatElapsedTime(System.currentTimeMillis() - mStartTime));
+            if (mModuleRuntimeHistory != null) {
+                for (Entry<String, Long> module : mModuleDurations.entrySet()) {
+                    mModuleRuntimeHistory.recordDuration(module.getKey(), module.getValue());
+                }
+                mModuleRuntimeHistory.save();
+            }
             copyShardBuildInfoToMain(mOriginalContext, mShardContextList);
             super.invocationEnded(mTotalElapsed);
+            CollectingTestListener.releaseSpilledResults(getListeners());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testModuleStarted(IInvocationContext moduleContext) {
+        List<String> moduleIds = moduleContext.getAttributes().get(ModuleDefinition.MODULE_ID);
+        mCurrentModuleId = (moduleIds == null || moduleIds.isEmpty()) ? null : moduleIds.get(0);
+        super.testModuleStarted(moduleContext);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testRunEnded(long elapsedTime, HashMap<String, Metric> runMetrics) {
+        // Modules split into several shards add up to the duration of the whole module.
+        if (mCurrentModuleId != null) {
+            mModuleDurations.merge(mCurrentModuleId, elapsedTime, Long::sum);
         }
+        super.testRunEnded(elapsedTime, runMetrics);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void testModuleEnded() {
+        mCurrentModuleId = null;
+        super.testModuleEnded();
+    }
+
+    /**
+     * Set the makespan expected when the shards were planned, to be compared with the actual one
+     * once all the shards completed.
+     */
+    public void setExpectedMakespan(long expectedMakespan) {
+        mExpectedMakespan = expectedMakespan;
+    }
+
+    /** Set the {@link ModuleRuntimeHistory} where the duration of the modules are recorded. */
+    public void setModuleRuntimeHistory(ModuleRuntimeHistory history) {
+        mModuleRuntimeHistory = history;
     }
 
     /** {@inheritDoc} */
@@ -42,6 +42,7 @@ import com.android.tradefed.log.ITestLogger;
 import com.android.tradefed.log.LogRegistry;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.postprocessor.IPostProcessor;
+import com.android.tradefed.result.CollectingTestListener;
 import com.android.tradefed.result.FileInputStreamSource;
 import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.InputStreamSource;
@@ -356,6 +357,11 @@ public class TestInvocation implements ITestInvocation {
                 }
             } finally {
                 invocationPath.cleanUpBuilds(context, config);
+                if (!resumed) {
+                    // The resumed invocation keeps reporting to the same listeners.
+                    CollectingTestListener.releaseSpilledResults(
+                            config.getTestInvocationListeners());
+                }
             }
         }
         if (tearDownException != null) {
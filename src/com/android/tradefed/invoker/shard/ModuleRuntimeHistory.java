@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.invoker.shard;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Locally persisted history of the duration of the modules, used to balance the shards of the
+ * next invocations.
+ *
+ * <p>The history is a text file with one <code>module-id\tduration-ms</code> line per module. Each
+ * new duration is averaged with the previous one so a single outlier does not skew the estimate.
+ */
+public class ModuleRuntimeHistory {
+
+    private static final String SEPARATOR = "\t";
+
+    private final File mHistoryFile;
+    private final Map<String, Long> mDurations = new HashMap<>();
+
+    /**
+     * Create the history and load its content from the file, if it exists.
+     *
+     * @param historyFile the {@link File} where the history is persisted.
+     */
+    public ModuleRuntimeHistory(File historyFile) {
+        mHistoryFile = historyFile;
+        load();
+    }
+
+    /** Returns the expected duration in ms of a module, or <code>null</code> if unknown. */
+    public synchronized Long getDuration(String moduleId) {
+        return mDurations.get(moduleId);
+    }
+
+    /** Record the duration in ms of a module run. */
+    public synchronized void recordDuration(String moduleId, long duration) {
+        if (moduleId == null || moduleId.contains(SEPARATOR) || moduleId.contains("\n")) {
+            return;
+        }
+        Long previous = mDurations.get(moduleId);
+        mDurations.put(moduleId, previous == null ? duration : (previous + duration) / 2);
+    }
+
+    /** Persist the history, replacing the previous file atomically. */
+    public synchronized void save() {
+        File tmpFile = new File(mHistoryFile.getPath() + ".tmp");
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Long> entry : mDurations.entrySet()) {
+            builder.append(entry.getKey()).append(SEPARATOR).append(entry.getValue()).append('\n');
+        }
+        try {
+            File parent = mHistoryFile.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory()) {
+                parent.mkdirs();
+            }
+            try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+                out.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            Files.move(
+                    tmpFile.toPath(),
+                    mHistoryFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            CLog.e("Failed to save the module runtime history %s", mHistoryFile);
+            CLog.e(e);
+            FileUtil.deleteFile(tmpFile);
+        }
+    }
+
+    private void load() {
+        if (!mHistoryFile.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(mHistoryFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR);
+                if (fields.length != 2) {
+                    continue;
+                }
+                try {
+                    mDurations.put(fields[0], Long.parseLong(fields[1]));
+                } catch (NumberFormatException e) {
+                    CLog.w("Ignoring malformed module runtime '%s'", line);
+                }
+            }
+        } catch (IOException e) {
+            CLog.e("Failed to load the module runtime history %s", mHistoryFile);
+            CLog.e(e);
+            mDurations.clear();
+        }
+    }
+}
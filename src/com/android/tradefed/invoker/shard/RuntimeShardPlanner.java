@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.invoker.shard;
+
+import com.android.tradefed.testtype.IRemoteTest;
+import com.android.tradefed.testtype.IRuntimeHintProvider;
+import com.android.tradefed.testtype.suite.ITestSuite;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Orders the {@link IRemoteTest}s of a sharded invocation by expected runtime, longest first.
+ *
+ * <p>The {@link TestsPoolPoller}s take the tests from the head of the shared pool, so each shard
+ * that becomes free picks the longest remaining test: this is the longest-processing-time-first
+ * heuristic. The expected runtime of a test comes from the {@link ModuleRuntimeHistory} if the
+ * module ran before, otherwise from {@link IRuntimeHintProvider#getRuntimeHint()}.
+ */
+class RuntimeShardPlanner {
+
+    private final ModuleRuntimeHistory mHistory;
+    private final Map<IRemoteTest, Long> mEstimates = new IdentityHashMap<>();
+
+    /**
+     * @param history the {@link ModuleRuntimeHistory} of previous runs, can be null.
+     */
+    RuntimeShardPlanner(ModuleRuntimeHistory history) {
+        mHistory = history;
+    }
+
+    /**
+     * Estimate the runtime of the tests and sort them longest first. The sort is stable so tests
+     * without any estimate keep their relative order.
+     */
+    void sortLongestFirst(List<IRemoteTest> tests) {
+        // Modules split into several shards share their recorded duration.
+        Map<String, Integer> moduleParts = new HashMap<>();
+        for (IRemoteTest test : tests) {
+            String moduleId = getModuleId(test);
+            if (moduleId != null) {
+                moduleParts.merge(moduleId, 1, Integer::sum);
+            }
+        }
+        long knownTotal = 0L;
+        int knownCount = 0;
+        List<IRemoteTest> unknown = new ArrayList<>();
+        for (IRemoteTest test : tests) {
+            long estimate = 0L;
+            String moduleId = getModuleId(test);
+            Long recorded =
+                    (mHistory == null || moduleId == null) ? null : mHistory.getDuration(moduleId);
+            if (recorded != null) {
+                estimate = recorded / moduleParts.get(moduleId);
+            } else if (test instanceof IRuntimeHintProvider) {
+                estimate = ((IRuntimeHintProvider) test).getRuntimeHint();
+            }
+            if (estimate > 0L) {
+                mEstimates.put(test, estimate);
+                knownTotal += estimate;
+                knownCount++;
+            } else {
+                unknown.add(test);
+            }
+        }
+        // Tests without estimate are assumed to be average.
+        long average = knownCount == 0 ? 0L : knownTotal / knownCount;
+        for (IRemoteTest test : unknown) {
+            mEstimates.put(test, average);
+        }
+        tests.sort((a, b) -> Long.compare(getEstimate(b), getEstimate(a)));
+    }
+
+    /** Returns the estimated runtime of a test sorted by {@link #sortLongestFirst(List)}. */
+    long getEstimate(IRemoteTest test) {
+        Long estimate = mEstimates.get(test);
+        return estimate == null ? 0L : estimate;
+    }
+
+    /**
+     * Returns the expected makespan, in ms, of running the tests in order on the given number of
+     * shards, each shard taking the next test when it becomes free.
+     */
+    long getExpectedMakespan(List<IRemoteTest> tests, int shardCount) {
+        if (shardCount <= 0) {
+            return 0L;
+        }
+        PriorityQueue<Long> shardLoads = new PriorityQueue<>();
+        for (int i = 0; i < shardCount; i++) {
+            shardLoads.add(0L);
+        }
+        long makespan = 0L;
+        for (IRemoteTest test : tests) {
+            long load = shardLoads.poll() + getEstimate(test);
+            makespan = Math.max(makespan, load);
+            shardLoads.add(load);
+        }
+        return makespan;
+    }
+
+    /** Returns the id of the module run by a test, or null if it does not run a single module. */
+    static String getModuleId(IRemoteTest test) {
+        if (test instanceof ITestSuite && ((ITestSuite) test).getDirectModule() != null) {
+            return ((ITestSuite) test).getDirectModule().getId();
+        }
+        return null;
+    }
+}
@@ -105,6 +105,19 @@ public class ShardHelper implements IShardHelper {
         }
         ShardMasterResultForwarder resultCollector =
                 new ShardMasterResultForwarder(buildMasterShardListeners(config), expectedShard);
+        ModuleRuntimeHistory history = null;
+        if (config.getCommandOptions().getShardRuntimeHistoryFile() != null) {
+            history =
+                    new ModuleRuntimeHistory(
+                            config.getCommandOptions().getShardRuntimeHistoryFile());
+            resultCollector.setModuleRuntimeHistory(history);
+        }
+        RuntimeShardPlanner planner = new RuntimeShardPlanner(history);
+
+        // The command line and the key store client used to deep copy the configuration objects
+        // are the same for all the shards, only resolve them once.
+        String[] commandArgs = QuotationAwareTokenizer.tokenizeLine(config.getCommandLine());
+        IKeyStoreClient keyStoreClient = createKeyStoreClient();
 
         config.getLogSaver().invocationStarted(context);
         resultCollector.invocationStarted(context);
@@ -114,9 +127,13 @@ public class ShardHelper implements IShardHelper {
             // available (like 4) for autosharding.
             if (shardCount != null) {
                 // We shuffle the tests for best results: avoid having the same module sub-tests
-                // contiguously in the list.
+                // contiguously in the list. Then the longest tests are moved first, so the
+                // pollers always pick the longest remaining test.
                 Collections.shuffle(shardableTests);
+                planner.sortLongestFirst(shardableTests);
                 int maxShard = Math.min(shardCount, shardableTests.size());
+                resultCollector.setExpectedMakespan(
+                        planner.getExpectedMakespan(shardableTests, maxShard));
                 CountDownLatch tracker = new CountDownLatch(maxShard);
                 Collection<ITokenRequest> tokenPool = null;
                 if (config.getCommandOptions().shouldUseTokenSharding()) {
@@ -127,9 +144,20 @@ public class ShardHelper implements IShardHelper {
                     TestsPoolPoller poller =
                             new TestsPoolPoller(shardableTests, tokenPool, tracker);
                     shardConfig.setTest(poller);
-                    rescheduleConfig(shardConfig, config, context, rescheduler, resultCollector, i);
+                    rescheduleConfig(
+                            shardConfig,
+                            config,
+                            commandArgs,
+                            keyStoreClient,
+                            context,
+                            rescheduler,
+                            resultCollector,
+                            i);
                 }
             } else {
+                planner.sortLongestFirst(shardableTests);
+                resultCollector.setExpectedMakespan(
+                        planner.getExpectedMakespan(shardableTests, shardableTests.size()));
                 CountDownLatch tracker = new CountDownLatch(shardableTests.size());
                 Collection<ITokenRequest> tokenPool = null;
                 if (config.getCommandOptions().shouldUseTokenSharding()) {
@@ -146,7 +174,15 @@ public class ShardHelper implements IShardHelper {
                     } else {
                         shardConfig.setTest(testShard);
                     }
-                    rescheduleConfig(shardConfig, config, context, rescheduler, resultCollector, i);
+                    rescheduleConfig(
+                            shardConfig,
+                            config,
+                            commandArgs,
+                            keyStoreClient,
+                            context,
+                            rescheduler,
+                            resultCollector,
+                            i);
                     i++;
                 }
             }
@@ -163,11 +199,13 @@ public class ShardHelper implements IShardHelper {
     private void rescheduleConfig(
             IConfiguration shardConfig,
             IConfiguration config,
+            String[] commandArgs,
+            IKeyStoreClient keyStoreClient,
             IInvocationContext context,
             IRescheduler rescheduler,
             ShardMasterResultForwarder resultCollector,
             int index) {
-        cloneConfigObject(config, shardConfig);
+        cloneConfigObject(commandArgs, keyStoreClient, shardConfig);
         ShardBuildCloner.cloneBuildInfos(config, shardConfig, context);
 
         shardConfig.setTestInvocationListeners(
@@ -199,27 +237,31 @@ public class ShardHelper implements IShardHelper {
         config.validateOptions(true);
     }
 
-    /**
-     * Helper to clone {@link ISystemStatusChecker}s from the original config to the clonedConfig.
-     */
-    private void cloneConfigObject(IConfiguration oriConfig, IConfiguration clonedConfig) {
-        IKeyStoreClient client = null;
+    /** Creates the {@link IKeyStoreClient} used to deep copy the configuration objects. */
+    private IKeyStoreClient createKeyStoreClient() {
         try {
-            client = getGlobalConfiguration().getKeyStoreFactory().createKeyStoreClient();
+            return getGlobalConfiguration().getKeyStoreFactory().createKeyStoreClient();
         } catch (KeyStoreException e) {
             throw new RuntimeException(
                     String.format(
                             "failed to load keystore client when sharding: %s", e.getMessage()),
                     e);
         }
+    }
+
+    /**
+     * Helper to clone {@link ISystemStatusChecker}s from the original config to the clonedConfig.
+     *
+     * @param commandArgs the tokenized command line of the original config.
+     * @param client the {@link IKeyStoreClient} to create the copies with.
+     * @param clonedConfig the {@link IConfiguration} of the shard.
+     */
+    private void cloneConfigObject(
+            String[] commandArgs, IKeyStoreClient client, IConfiguration clonedConfig) {
         try {
             IConfiguration deepCopy =
                     ConfigurationFactory.getInstance()
-                            .createConfigurationFromArgs(
-                                    QuotationAwareTokenizer.tokenizeLine(
-                                            oriConfig.getCommandLine()),
-                                    null,
-                                    client);
+                            .createConfigurationFromArgs(commandArgs, null, client);
             for (String objType : CONFIG_OBJ_TO_CLONE) {
                 clonedConfig.setConfigurationObjectList(
                         objType, deepCopy.getConfigurationObjectList(objType));
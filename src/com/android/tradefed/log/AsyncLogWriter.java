@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes log messages to a stream from a background thread, several messages at a time, so the
+ * logging threads do not wait on the stream. The queue of messages is bounded: when the stream
+ * cannot keep up, the logging threads wait for room in the queue instead of dropping messages.
+ */
+class AsyncLogWriter {
+
+    static final int DEFAULT_CAPACITY = 8192;
+    private static final int MAX_BATCH_SIZE = 512;
+
+    private final OutputStream mStream;
+    private final BlockingQueue<String> mQueue;
+    private final Thread mThread;
+
+    /** Number of messages queued and written, guarded by this. */
+    private long mQueued = 0L;
+    private long mWritten = 0L;
+    private boolean mClosed = false;
+
+    AsyncLogWriter(OutputStream stream, String name) {
+        this(stream, name, DEFAULT_CAPACITY);
+    }
+
+    AsyncLogWriter(OutputStream stream, String name, int capacity) {
+        mStream = stream;
+        mQueue = new ArrayBlockingQueue<>(capacity);
+        mThread = new Thread(this::writeMessages, name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Queue a message to be written, waiting for room in the queue if needed. The message is
+     * written directly if the writer is closed.
+     */
+    void write(String message) throws IOException {
+        boolean closed;
+        synchronized (this) {
+            closed = mClosed;
+            if (!closed) {
+                mQueued++;
+            }
+        }
+        if (closed) {
+            mStream.write(message.getBytes());
+            return;
+        }
+        try {
+            mQueue.put(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // Keep the message rather than losing it.
+            mStream.write(message.getBytes());
+            markWritten(1);
+            return;
+        }
+        synchronized (this) {
+            closed = mClosed;
+        }
+        if (closed) {
+            // Closed while queuing, the background thread may be gone already.
+            writeRemaining();
+        }
+    }
+
+    /** Wait until all the messages queued so far have been written to the stream. */
+    void flush() {
+        boolean interrupted = false;
+        synchronized (this) {
+            long queued = mQueued;
+            while (mWritten < queued && mThread.isAlive()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Write the queued messages and stop the background thread. */
+    void close() {
+        flush();
+        synchronized (this) {
+            mClosed = true;
+        }
+        mThread.interrupt();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeRemaining();
+    }
+
+    /** Write the messages left in the queue once the background thread is stopped. */
+    private void writeRemaining() {
+        List<String> remaining = new ArrayList<>();
+        mQueue.drainTo(remaining);
+        if (remaining.isEmpty()) {
+            return;
+        }
+        writeBatch(remaining, new StringBuilder());
+    }
+
+    private void writeBatch(List<String> batch, StringBuilder builder) {
+        for (String message : batch) {
+            builder.append(message);
+        }
+        try {
+            mStream.write(builder.toString().getBytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        markWritten(batch.size());
+    }
+
+    private void writeMessages() {
+        List<String> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        StringBuilder builder = new StringBuilder();
+        while (true) {
+            try {
+                batch.add(mQueue.take());
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    if (mClosed) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            mQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            writeBatch(batch, builder);
+            batch.clear();
+            builder.setLength(0);
+        }
+    }
+
+    private synchronized void markWritten(int count) {
+        mWritten += count;
+        notifyAll();
+    }
+}
@@ -58,7 +58,11 @@ public class FileLogger extends BaseLeveledLogOutput {
     @Option(name = "max-log-size", description = "maximum allowable size of tmp log data in mB.")
     private long mMaxLogSizeMbytes = 20;
 
+    @Option(name = "async-log", description = "write the log file from a background thread.")
+    private boolean mAsyncLog = false;
+
     private SizeLimitedOutputStream mLogStream;
+    private volatile AsyncLogWriter mAsyncWriter;
 
     public FileLogger() {
     }
@@ -80,6 +84,9 @@ public class FileLogger extends BaseLeveledLogOutput {
     protected void init(String logPrefix, String fileSuffix) {
         mLogStream =
                 new SizeLimitedOutputStream(mMaxLogSizeMbytes * 1024 * 1024, logPrefix, fileSuffix);
+        if (mAsyncLog) {
+            mAsyncWriter = new AsyncLogWriter(mLogStream, logPrefix + "writer");
+        }
     }
 
     /**
@@ -139,11 +146,22 @@ public class FileLogger extends BaseLeveledLogOutput {
      * @throws IOException
      */
     void writeToLog(String outMessage) throws IOException {
-        if (mLogStream != null) {
+        AsyncLogWriter asyncWriter = mAsyncWriter;
+        if (asyncWriter != null) {
+            asyncWriter.write(outMessage);
+        } else if (mLogStream != null) {
             mLogStream.write(outMessage.getBytes());
         }
     }
 
+    /** Wait for the messages being written in the background, if any. */
+    private void flushAsyncWriter() {
+        AsyncLogWriter asyncWriter = mAsyncWriter;
+        if (asyncWriter != null) {
+            asyncWriter.flush();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -191,6 +209,7 @@ public class FileLogger extends BaseLeveledLogOutput {
         if (mLogStream != null) {
             try {
                 // create a InputStream from log file
+                flushAsyncWriter();
                 mLogStream.flush();
                 return new SnapshotInputStreamSource("FileLogger", mLogStream.getData());
             } catch (IOException e) {
@@ -215,6 +234,11 @@ public class FileLogger extends BaseLeveledLogOutput {
      * Exposed for unit testing.
      */
     void doCloseLog() {
+        AsyncLogWriter asyncWriter = mAsyncWriter;
+        mAsyncWriter = null;
+        if (asyncWriter != null) {
+            asyncWriter.close();
+        }
         SizeLimitedOutputStream stream = mLogStream;
         mLogStream = null;
         StreamUtil.flushAndCloseStream(stream);
@@ -231,6 +255,7 @@ public class FileLogger extends BaseLeveledLogOutput {
      */
     void dumpToLog(InputStream inputStream) throws IOException {
         if (mLogStream != null) {
+            flushAsyncWriter();
             StreamUtil.copyStreams(inputStream, mLogStream);
         }
     }
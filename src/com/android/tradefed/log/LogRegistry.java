@@ -26,9 +26,9 @@ import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Date;
-import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A {@link ILogRegistry} implementation that multiplexes and manages different loggers,
@@ -43,8 +43,11 @@ public class LogRegistry implements ILogRegistry {
     private static final String LOG_TAG = "LogRegistry";
     private static final String GLOBAL_LOG_PREFIX = "tradefed_global_log_";
     private static final String HISTORY_LOG_PREFIX = "tradefed_history_log_";
-    private static LogRegistry mLogRegistry = null;
-    private Map<ThreadGroup, ILeveledLogOutput> mLogTable = new Hashtable<>();
+    private static volatile LogRegistry mLogRegistry = null;
+    // Looked up for every log message, do not lock it for reads.
+    private Map<ThreadGroup, ILeveledLogOutput> mLogTable = new ConcurrentHashMap<>();
+    // Group whose logger is used by a shared thread while it runs a task submitted by that group.
+    private static final ThreadLocal<ThreadGroup> sLogContext = new ThreadLocal<>();
     private FileLogger mGlobalLogger;
     private HistoryLogger mHistoryLogger;
 
@@ -83,6 +86,18 @@ public class LogRegistry implements ILogRegistry {
         return mLogRegistry;
     }
 
+    /**
+     * Returns true if a message of the given level would be printed by the logger of the calling
+     * thread. Does not create the {@link LogRegistry} if it is not in use yet.
+     */
+    static boolean isLoggable(LogLevel logLevel) {
+        LogRegistry registry = mLogRegistry;
+        if (registry == null) {
+            return true;
+        }
+        return logLevel.getPriority() >= registry.getLogger().getLogLevel().getPriority();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -152,7 +167,46 @@ public class LogRegistry implements ILogRegistry {
      * @return the ThreadGroup that the current thread belongs to
      */
     ThreadGroup getCurrentThreadGroup() {
-        return Thread.currentThread().getThreadGroup();
+        return getLogContext();
+    }
+
+    /**
+     * Wrap a task so that it logs with the logger of the calling thread, whichever thread runs it.
+     * Used by the thread pools shared between invocations, whose threads do not belong to the
+     * {@link ThreadGroup} of the invocation submitting the task.
+     *
+     * @param task the task to run on a shared thread
+     * @return the wrapped task
+     */
+    public static Runnable wrapWithLogContext(Runnable task) {
+        ThreadGroup context = getLogContext();
+        return () -> runWithLogContext(context, task);
+    }
+
+    /**
+     * Run a task with the logger of the given log context.
+     *
+     * @param context the log context, from {@link #getLogContext()}
+     * @param task the task to run
+     */
+    public static void runWithLogContext(ThreadGroup context, Runnable task) {
+        ThreadGroup previous = sLogContext.get();
+        sLogContext.set(context);
+        try {
+            task.run();
+        } finally {
+            if (previous == null) {
+                sLogContext.remove();
+            } else {
+                sLogContext.set(previous);
+            }
+        }
+    }
+
+    /** Returns the group whose logger is used by the current thread. */
+    public static ThreadGroup getLogContext() {
+        ThreadGroup context = sLogContext.get();
+        return (context != null) ? context : Thread.currentThread().getThreadGroup();
     }
 
     /**
@@ -182,14 +236,12 @@ public class LogRegistry implements ILogRegistry {
      *     for the thread group.
      */
     public ILeveledLogOutput getLogger() {
-        synchronized (mLogTable) {
-            ILeveledLogOutput log = mLogTable.get(getCurrentThreadGroup());
-            if (log == null) {
-                // If there's no logger set for this thread, use global logger
-                log = mGlobalLogger;
-            }
-            return log;
+        ILeveledLogOutput log = mLogTable.get(getCurrentThreadGroup());
+        if (log == null) {
+            // If there's no logger set for this thread, use global logger
+            log = mGlobalLogger;
         }
+        return log;
     }
 
     /**
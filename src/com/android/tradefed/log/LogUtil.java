@@ -16,6 +16,7 @@
 
 package com.android.tradefed.log;
 
+import com.android.ddmlib.DdmPreferences;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.tradefed.config.GlobalConfiguration;
@@ -31,6 +32,10 @@ import java.util.Date;
  */
 public class LogUtil {
 
+    /** {@link SimpleDateFormat} is not thread safe and expensive to create, keep one per thread. */
+    private static final ThreadLocal<SimpleDateFormat> sDateFormat =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat("MM-dd HH:mm:ss"));
+
     /**
      * Make uninstantiable
      */
@@ -56,9 +61,16 @@ public class LogUtil {
      * @see Log#getLogFormatString(LogLevel, String, String)
      */
     public static String getLogFormatString(LogLevel logLevel, String tag, String message) {
-        SimpleDateFormat formatter = new SimpleDateFormat("MM-dd HH:mm:ss");
-        return String.format("%s %c/%s: %s\n", formatter.format(new Date()),
-                logLevel.getPriorityLetter(), tag, message);
+        return new StringBuilder()
+                .append(sDateFormat.get().format(new Date()))
+                .append(' ')
+                .append(logLevel.getPriorityLetter())
+                .append('/')
+                .append(tag)
+                .append(": ")
+                .append(message)
+                .append('\n')
+                .toString();
     }
 
     /**
@@ -76,6 +88,9 @@ public class LogUtil {
          * @param message The {@code String} to log
          */
         public static void v(String message) {
+            if (!isLoggable(LogLevel.VERBOSE)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.v(getClassName(2), message);
         }
@@ -88,6 +103,9 @@ public class LogUtil {
          * @param args The format string arguments
          */
         public static void v(String format, Object... args) {
+            if (!isLoggable(LogLevel.VERBOSE)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.v(getClassName(2), String.format(format, args));
         }
@@ -98,6 +116,9 @@ public class LogUtil {
          * @param message The {@code String} to log
          */
         public static void d(String message) {
+            if (!isLoggable(LogLevel.DEBUG)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.d(getClassName(2), message);
         }
@@ -110,6 +131,9 @@ public class LogUtil {
          * @param args The format string arguments
          */
         public static void d(String format, Object... args) {
+            if (!isLoggable(LogLevel.DEBUG)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.d(getClassName(2), String.format(format, args));
         }
@@ -120,6 +144,9 @@ public class LogUtil {
          * @param message The {@code String} to log
          */
         public static void i(String message) {
+            if (!isLoggable(LogLevel.INFO)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.i(getClassName(2), message);
         }
@@ -132,6 +159,9 @@ public class LogUtil {
          * @param args The format string arguments
          */
         public static void i(String format, Object... args) {
+            if (!isLoggable(LogLevel.INFO)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.i(getClassName(2), String.format(format, args));
         }
@@ -142,6 +172,9 @@ public class LogUtil {
          * @param message The {@code String} to log
          */
         public static void w(String message) {
+            if (!isLoggable(LogLevel.WARN)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.w(getClassName(2), message);
         }
@@ -153,6 +186,9 @@ public class LogUtil {
          * @param t The {@link Throwable} to log
          */
         public static void w(Throwable t) {
+            if (!isLoggable(LogLevel.WARN)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.w(getClassName(2), getStackTraceString(t));
         }
@@ -165,6 +201,9 @@ public class LogUtil {
          * @param args The format string arguments
          */
         public static void w(String format, Object... args) {
+            if (!isLoggable(LogLevel.WARN)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.w(getClassName(2), String.format(format, args));
         }
@@ -175,6 +214,9 @@ public class LogUtil {
          * @param message The {@code String} to log
          */
         public static void e(String message) {
+            if (!isLoggable(LogLevel.ERROR)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.e(getClassName(2), message);
         }
@@ -187,6 +229,9 @@ public class LogUtil {
          * @param args The format string arguments
          */
         public static void e(String format, Object... args) {
+            if (!isLoggable(LogLevel.ERROR)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.e(getClassName(2), String.format(format, args));
         }
@@ -197,6 +242,9 @@ public class LogUtil {
          * @param t the {@link Throwable} to output.
          */
         public static void e(Throwable t) {
+            if (!isLoggable(LogLevel.ERROR)) {
+                return;
+            }
             // frame 2: skip frames 0 (#getClassName) and 1 (this method)
             Log.e(getClassName(2), t);
         }
@@ -282,6 +330,20 @@ public class LogUtil {
             }
         }
 
+        /**
+         * Returns true if a message of the given level would be logged by the calling thread. The
+         * messages that would be filtered are dropped before looking up their tag in the stack
+         * and formatting them.
+         *
+         * @param logLevel the {@link LogLevel} of the message
+         */
+        public static boolean isLoggable(LogLevel logLevel) {
+            if (logLevel.getPriority() < DdmPreferences.getLogLevel().getPriority()) {
+                return false;
+            }
+            return LogRegistry.isLoggable(logLevel);
+        }
+
         /**
          * Sets the GlobalConfiguration instance for CLog to use - exposed for unit testing
          *
@@ -15,27 +15,19 @@
  */
 package com.android.tradefed.postprocessor;
 
-import com.android.tradefed.metrics.proto.MetricMeasurement.Measurements;
 import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
 import com.android.tradefed.result.TestDescription;
 
-import com.google.common.collect.ArrayListMultimap;
-
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * A metric aggregator that gives the min, max, mean, variance and standard deviation for numeric
  * metrics collected during multiple-iteration test runs, treating them as doubles. Non-numeric
  * metrics are ignored.
  *
- * <p>It parses metrics from single string as currently metrics are passed this way.
+ * <p>It parses metrics from single string as currently metrics are passed this way. The statistics
+ * of each test are updated with the values of each iteration, instead of keeping all the values.
  */
 public class AggregatePostProcessor extends BasePostProcessor {
     private static final String STATS_KEY_MIN = "min";
@@ -47,10 +39,9 @@ public class AggregatePostProcessor extends BasePostProcessor {
     // Separator for final upload
     private static final String STATS_KEY_SEPARATOR = "-";
 
-    // Stores the test metrics for aggregation by test description.
+    // Stores the statistics of the test metrics for aggregation by test description.
     // TODO(b/118708851): Remove this workaround once AnTS is ready.
-    private HashMap<String, ArrayListMultimap<String, Metric>> mStoredTestMetrics =
-            new HashMap<String, ArrayListMultimap<String, Metric>>();
+    private HashMap<String, Map<String, MetricStatistics>> mStoredTestMetrics = new HashMap<>();
 
     @Override
     public Map<String, Metric.Builder> processTestMetrics(
@@ -58,44 +49,21 @@ public class AggregatePostProcessor extends BasePostProcessor {
         // TODO(b/118708851): Move this processing elsewhere once AnTS is ready.
         // Use the string representation of the test description to key the tests.
         String fullTestName = testDescription.toString();
-        // Store result from the current test.
-        if (!mStoredTestMetrics.containsKey(fullTestName)) {
-            mStoredTestMetrics.put(fullTestName, ArrayListMultimap.create());
-        }
-        ArrayListMultimap<String, Metric> storedMetricsForThisTest =
-                mStoredTestMetrics.get(fullTestName);
+        // Add the results of the current test to the statistics of its previous iterations.
+        Map<String, MetricStatistics> storedMetricsForThisTest =
+                mStoredTestMetrics.computeIfAbsent(fullTestName, k -> new HashMap<>());
         for (Map.Entry<String, Metric> entry : testMetrics.entrySet()) {
-            storedMetricsForThisTest.put(entry.getKey(), entry.getValue());
+            storedMetricsForThisTest
+                    .computeIfAbsent(entry.getKey(), k -> new MetricStatistics())
+                    .addAll(entry.getValue().getMeasurements().getSingleString());
         }
-        // Aggregate all data in iterations of this test.
+        // Report the statistics of all the iterations of this test.
         Map<String, Metric.Builder> aggregateMetrics = new HashMap<String, Metric.Builder>();
-        for (String metricKey : storedMetricsForThisTest.keySet()) {
-            List<Metric> metrics = storedMetricsForThisTest.get(metricKey);
-            List<Measurements> measures =
-                    metrics.stream().map(Metric::getMeasurements).collect(Collectors.toList());
-            // Parse metrics into a list of SingleString values, concating lists in the process
-            List<String> rawValues =
-                    measures.stream()
-                            .map(Measurements::getSingleString)
-                            .map(
-                                    m -> {
-                                        // Split results; also deals with the case of empty results
-                                        // in a certain run
-                                        List<String> splitVals = Arrays.asList(m.split(",", 0));
-                                        if (splitVals.size() == 1 && splitVals.get(0).isEmpty()) {
-                                            return Collections.<String>emptyList();
-                                        }
-                                        return splitVals;
-                                    })
-                            .flatMap(Collection::stream)
-                            .map(String::trim)
-                            .collect(Collectors.toList());
-            // Do not report empty metrics
-            if (rawValues.isEmpty()) {
-                continue;
-            }
-            if (isAllDoubleValues(rawValues)) {
-                buildStats(metricKey, rawValues, aggregateMetrics);
+        for (Map.Entry<String, MetricStatistics> entry : storedMetricsForThisTest.entrySet()) {
+            // Do not report empty or non-numeric metrics
+            MetricStatistics stats = entry.getValue();
+            if (stats.isValid() && stats.getCount() > 0) {
+                buildStats(entry.getKey(), stats, aggregateMetrics);
             }
         }
         return aggregateMetrics;
@@ -107,85 +75,44 @@ public class AggregatePostProcessor extends BasePostProcessor {
         // parsed to double values.
         Map<String, Metric.Builder> aggregateMetrics = new HashMap<String, Metric.Builder>();
         for (Map.Entry<String, Metric> entry : rawMetrics.entrySet()) {
-            String values = entry.getValue().getMeasurements().getSingleString();
-            List<String> splitVals = Arrays.asList(values.split(",", 0));
+            MetricStatistics stats = new MetricStatistics();
+            int count = stats.addAll(entry.getValue().getMeasurements().getSingleString());
             // Build stats only for the keys with more than one value.
-            if (isAllDoubleValues(splitVals) && splitVals.size() > 1) {
-                buildStats(entry.getKey(), splitVals, aggregateMetrics);
+            if (stats.isValid() && count > 1) {
+                buildStats(entry.getKey(), stats, aggregateMetrics);
             }
         }
         return aggregateMetrics;
     }
 
     /**
-     * Return true is all the values can be parsed to double value.
-     * Otherwise return false.
-     * @param rawValues list whose values are validated.
-     * @return
-     */
-    private boolean isAllDoubleValues(List<String> rawValues) {
-        return rawValues
-                .stream()
-                .allMatch(
-                        val -> {
-                            try {
-                                Double.parseDouble(val);
-                                return true;
-                            } catch (NumberFormatException e) {
-                                return false;
-                            }
-                        });
-    }
-
-    /**
-     * Build stats for the given set of values and build the metrics using the metric key
-     * and stats name and update the results in aggregated metrics.
+     * Build the metrics of the given stats using the metric key and stats name and update the
+     * results in aggregated metrics.
      *
      * @param metricKey key to which the values correspond to.
-     * @param values list of raw values.
+     * @param stats the {@link MetricStatistics} of the values.
      * @param aggregateMetrics where final metrics will be stored.
      */
-    private void buildStats(String metricKey, List<String> values,
+    private void buildStats(
+            String metricKey,
+            MetricStatistics stats,
             Map<String, Metric.Builder> aggregateMetrics) {
-        List<Double> doubleValues =
-                values.stream().map(Double::parseDouble).collect(Collectors.toList());
-        HashMap<String, Double> stats = getStats(doubleValues);
-        for (String statKey : stats.keySet()) {
-            Metric.Builder metricBuilder = Metric.newBuilder();
-            metricBuilder
-                    .getMeasurementsBuilder()
-                    .setSingleString(String.format("%2.2f", stats.get(statKey)));
-            aggregateMetrics.put(
-                    String.join(STATS_KEY_SEPARATOR, metricKey, statKey),
-                    metricBuilder);
-        }
+        double variance = stats.getVariance();
+        addStat(metricKey, STATS_KEY_MIN, stats.getMin(), aggregateMetrics);
+        addStat(metricKey, STATS_KEY_MAX, stats.getMax(), aggregateMetrics);
+        addStat(metricKey, STATS_KEY_MEAN, stats.getMean(), aggregateMetrics);
+        addStat(metricKey, STATS_KEY_VAR, variance, aggregateMetrics);
+        addStat(metricKey, STATS_KEY_STDEV, Math.sqrt(variance), aggregateMetrics);
+        addStat(metricKey, STATS_KEY_MEDIAN, stats.getMedian(), aggregateMetrics);
     }
 
-    private HashMap<String, Double> getStats(Collection<Double> values) {
-        List<Double> valuesList = new ArrayList<>(values);
-        Collections.sort(valuesList);
-        HashMap<String, Double> stats = new HashMap<>();
-        double sum = values.stream().mapToDouble(Double::doubleValue).sum();
-        double count = (double) valuesList.size();
-        // The orElse situation should never happen.
-        double mean =
-                values.stream()
-                        .mapToDouble(Double::doubleValue)
-                        .average()
-                        .orElseThrow(IllegalStateException::new);
-        double variance = values.stream().reduce(0.0, (a, b) -> a + Math.pow(b - mean, 2) / count);
-        // Calculate median.
-        double median = valuesList.get(valuesList.size() / 2);
-        if (valuesList.size() % 2 == 0) {
-            median = (median + valuesList.get(valuesList.size() / 2 - 1)) / 2.0;
-        }
-
-        stats.put(STATS_KEY_MIN, valuesList.get(0));
-        stats.put(STATS_KEY_MAX, valuesList.get(valuesList.size() - 1));
-        stats.put(STATS_KEY_MEAN, mean);
-        stats.put(STATS_KEY_VAR, variance);
-        stats.put(STATS_KEY_STDEV, Math.sqrt(variance));
-        stats.put(STATS_KEY_MEDIAN, median);
-        return stats;
+    private void addStat(
+            String metricKey,
+            String statKey,
+            double value,
+            Map<String, Metric.Builder> aggregateMetrics) {
+        Metric.Builder metricBuilder = Metric.newBuilder();
+        metricBuilder.getMeasurementsBuilder().setSingleString(String.format("%2.2f", value));
+        aggregateMetrics.put(String.join(STATS_KEY_SEPARATOR, metricKey, statKey), metricBuilder);
     }
 }
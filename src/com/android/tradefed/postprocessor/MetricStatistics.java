@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.postprocessor;
+
+import java.util.Arrays;
+
+/**
+ * Statistics of a numeric metric updated one value at a time, without keeping all the values.
+ *
+ * <p>The mean and variance are computed with Welford's algorithm. The median comes from a
+ * mergeable quantile sketch: it is exact until {@link #SKETCH_LEVEL_SIZE} values were added, and
+ * approximate after that, with each stored value standing for a power of two of the added ones.
+ */
+final class MetricStatistics {
+
+    /** Number of values kept at each level of the quantile sketch before it is compacted. */
+    static final int SKETCH_LEVEL_SIZE = 256;
+    /** Enough levels for more values than a test can report. */
+    private static final int MAX_SKETCH_LEVELS = 48;
+
+    private long mCount = 0L;
+    private double mMean = 0.0;
+    // Sum of the squared differences to the mean.
+    private double mSquaredDiffs = 0.0;
+    private double mMin = Double.POSITIVE_INFINITY;
+    private double mMax = Double.NEGATIVE_INFINITY;
+    // Set once a value is not a number, the statistics are not reported anymore.
+    private boolean mInvalid = false;
+
+    // Level i of the sketch holds values standing for 2^i added values each.
+    private final double[][] mLevels = new double[MAX_SKETCH_LEVELS][];
+    private final int[] mLevelSizes = new int[MAX_SKETCH_LEVELS];
+    // Alternate which half of a level is kept when compacting it, to not bias the quantiles.
+    private boolean mKeepOdd = false;
+
+    /** Add a value. */
+    void add(double value) {
+        mCount++;
+        double delta = value - mMean;
+        mMean += delta / mCount;
+        mSquaredDiffs += delta * (value - mMean);
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+        addToLevel(0, value);
+    }
+
+    /**
+     * Add the comma separated values of a metric, skipping the trailing empty values like {@link
+     * String#split(String)}. If one of the values is not a number, including an empty value, the
+     * statistics are marked invalid.
+     *
+     * @return the number of values found in the string.
+     */
+    int addAll(String values) {
+        int end = values.length();
+        while (end > 0 && values.charAt(end - 1) == ',') {
+            end--;
+        }
+        int count = 0;
+        int start = 0;
+        while (start < end && !mInvalid) {
+            int comma = values.indexOf(',', start);
+            int valueEnd = comma < 0 || comma >= end ? end : comma;
+            try {
+                add(parseDouble(values, start, valueEnd));
+            } catch (NumberFormatException e) {
+                mInvalid = true;
+            }
+            count++;
+            start = valueEnd + 1;
+        }
+        return count;
+    }
+
+    /** Add the values of other statistics, as if they had been added to these ones. */
+    void merge(MetricStatistics other) {
+        mInvalid |= other.mInvalid;
+        if (other.mCount == 0L) {
+            return;
+        }
+        long count = mCount + other.mCount;
+        double delta = other.mMean - mMean;
+        mMean += delta * other.mCount / count;
+        mSquaredDiffs += other.mSquaredDiffs + delta * delta * mCount * other.mCount / count;
+        mCount = count;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+        for (int level = 0; level < MAX_SKETCH_LEVELS; level++) {
+            for (int i = 0; i < other.mLevelSizes[level]; i++) {
+                addToLevel(level, other.mLevels[level][i]);
+            }
+        }
+    }
+
+    /** Returns true if all the values added were numbers. */
+    boolean isValid() {
+        return !mInvalid;
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    double getMin() {
+        return mMin;
+    }
+
+    double getMax() {
+        return mMax;
+    }
+
+    double getMean() {
+        return mMean;
+    }
+
+    /** Returns the population variance of the values. */
+    double getVariance() {
+        return mCount == 0L ? 0.0 : mSquaredDiffs / mCount;
+    }
+
+    /** Returns the median of the values, the mean of the two middle ones for an even count. */
+    double getMedian() {
+        if (mCount == 0L) {
+            return Double.NaN;
+        }
+        // Sort the values of the sketch with their weight.
+        int size = 0;
+        for (int level = 0; level < MAX_SKETCH_LEVELS; level++) {
+            size += mLevelSizes[level];
+        }
+        double[] values = new double[size];
+        long[] weights = new long[size];
+        Integer[] order = new Integer[size];
+        int index = 0;
+        for (int level = 0; level < MAX_SKETCH_LEVELS; level++) {
+            for (int i = 0; i < mLevelSizes[level]; i++) {
+                values[index] = mLevels[level][i];
+                weights[index] = 1L << level;
+                order[index] = index;
+                index++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+        // The weights of the values up to each sorted value.
+        long[] ranks = new long[size];
+        long total = 0L;
+        for (int i = 0; i < size; i++) {
+            total += weights[order[i]];
+            ranks[i] = total;
+        }
+        double median = values[order[findRank(ranks, total / 2)]];
+        if (total % 2 == 0) {
+            median = (median + values[order[findRank(ranks, total / 2 - 1)]]) / 2.0;
+        }
+        return median;
+    }
+
+    /** Returns the index of the value at a 0-based rank, given the ranks of the sorted values. */
+    private static int findRank(long[] ranks, long rank) {
+        int index = Arrays.binarySearch(ranks, rank + 1);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private void addToLevel(int level, double value) {
+        if (mLevels[level] == null) {
+            mLevels[level] = new double[SKETCH_LEVEL_SIZE];
+        }
+        double[] values = mLevels[level];
+        int size = mLevelSizes[level];
+        values[size++] = value;
+        if (size < SKETCH_LEVEL_SIZE) {
+            mLevelSizes[level] = size;
+            return;
+        }
+        // Full level: keep every other value, each standing for two values, in the next level.
+        Arrays.sort(values, 0, size);
+        mLevelSizes[level] = 0;
+        for (int i = mKeepOdd ? 1 : 0; i < size; i += 2) {
+            addToLevel(level + 1, values[i]);
+        }
+        mKeepOdd = !mKeepOdd;
+    }
+
+    /**
+     * Parses a number like {@link Double#parseDouble(String)} without creating a string for the
+     * common decimal numbers.
+     *
+     * @throws NumberFormatException if the characters are not a number.
+     */
+    static double parseDouble(String s, int start, int end) {
+        // Ignore the surrounding whitespaces like String#trim.
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int i = start;
+        boolean negative = i < end && s.charAt(i) == '-';
+        if (negative || (i < end && s.charAt(i) == '+')) {
+            i++;
+        }
+        long mantissa = 0L;
+        int digits = 0;
+        int decimals = 0;
+        boolean dot = false;
+        boolean hasDigits = false;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '.' && !dot) {
+                dot = true;
+            } else if (c >= '0' && c <= '9') {
+                hasDigits = true;
+                if (mantissa != 0L || c != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (dot) {
+                    decimals++;
+                }
+            } else {
+                break;
+            }
+        }
+        // The mantissa and the power of ten are exact doubles, so the division is correctly
+        // rounded. Anything else, like exponents or long mantissas, takes the slow path.
+        if (i == end && hasDigits && digits <= 15 && decimals < POWERS_OF_TEN.length) {
+            double value = mantissa / POWERS_OF_TEN[decimals];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(s.substring(start, end));
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15,
+        1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+}
@@ -48,6 +48,18 @@ public class CollectingTestListener implements ITestInvocationListener, ILogSave
             description = "attempt to add test metrics values for test runs with the same name.")
     private boolean mIsAggregateMetrics = false;
 
+    @Option(
+        name = "spill-results-to-disk",
+        description =
+                "keep the results of the ended test cases on disk instead of in memory, only "
+                        + "their status is kept in memory. Meant for runs with a very large "
+                        + "number of test cases."
+    )
+    private boolean mSpillResultsToDisk = false;
+
+    // The file shared by all the runs to keep their results on disk.
+    private TestResultSpillFile mSpillFile = null;
+
     /** Toggle the 'aggregate metrics' option */
     protected void setIsAggregrateMetrics(boolean aggregate) {
         mIsAggregateMetrics = aggregate;
@@ -170,6 +182,12 @@ public class CollectingTestListener implements ITestInvocationListener, ILogSave
             mDefaultRun = false;
         }
         result.setAggregateMetrics(mIsAggregateMetrics);
+        if (mSpillResultsToDisk) {
+            if (mSpillFile == null) {
+                mSpillFile = new TestResultSpillFile();
+            }
+            result.setSpillFile(mSpillFile);
+        }
         return result;
     }
 
@@ -295,6 +313,31 @@ public class CollectingTestListener implements ITestInvocationListener, ILogSave
         mCurrentTestRunResult.testLogSaved(dataName, logFile);
     }
 
+    /**
+     * Delete the file holding the results of the runs kept on disk with {@code
+     * spill-results-to-disk}. Called once the invocation ended and all the listeners reported its
+     * results: the results of the runs kept on disk are not accessible anymore afterward.
+     */
+    public void releaseSpilledResults() {
+        if (mSpillFile != null) {
+            mSpillFile.cleanUp();
+        }
+    }
+
+    /**
+     * Release the results kept on disk by the {@link CollectingTestListener}s among the given
+     * listeners.
+     *
+     * @see #releaseSpilledResults()
+     */
+    public static void releaseSpilledResults(List<ITestInvocationListener> listeners) {
+        for (ITestInvocationListener listener : listeners) {
+            if (listener instanceof CollectingTestListener) {
+                ((CollectingTestListener) listener).releaseSpilledResults();
+            }
+        }
+    }
+
     /**
      * Gets the results for the current test run.
      *
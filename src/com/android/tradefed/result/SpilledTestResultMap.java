@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.result;
+
+import com.android.ddmlib.testrunner.TestResult.TestStatus;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link Map} of {@link TestResult}s that keeps the results of the ended tests in a {@link
+ * TestResultSpillFile} instead of the heap. Only the {@link TestDescription} and the status of
+ * each test are kept in memory, the results are read back from the file when accessed.
+ *
+ * <p>The results read back from the file are copies: modifying them does not modify the map, they
+ * have to be {@link #put} again. Like {@link TestRunResult}, this is not thread safe.
+ */
+class SpilledTestResultMap extends AbstractMap<TestDescription, TestResult> {
+
+    /** Where to find the result of a test. */
+    private static final class Slot {
+        /** The result while it is in memory, null once it was written to the file. */
+        TestResult mResult;
+        /** The status of the result written to the file, or of the merged result. */
+        TestStatus mStatus;
+        /** Offset of the result in the file. */
+        long mOffset = -1L;
+        /** The attempts the result is merged from, for the results of a merged run. */
+        List<Map<TestDescription, TestResult>> mAttempts;
+
+        TestStatus getStatus() {
+            return mResult != null ? mResult.getStatus() : mStatus;
+        }
+    }
+
+    private final Map<TestDescription, Slot> mSlots = new LinkedHashMap<>();
+    private final MergeStrategy mStrategy;
+    private final TestResultSpillFile mSpillFile;
+    private boolean mSpillFailed = false;
+
+    /**
+     * Creates an empty map, results are spilled to disk with {@link #spill(TestDescription)}.
+     *
+     * @param spillFile the {@link TestResultSpillFile} the results are written to, it may be
+     *     shared with other maps and is not deleted by this map.
+     */
+    SpilledTestResultMap(TestResultSpillFile spillFile) {
+        mSpillFile = spillFile;
+        mStrategy = null;
+    }
+
+    /**
+     * Creates an empty map for a merged run. The merged results are read from the maps of each
+     * attempt, so this map does not write to disk.
+     *
+     * @param strategy the {@link MergeStrategy} used to merge the results added with {@link
+     *     #putMerged(TestDescription, List, TestStatus)}.
+     */
+    SpilledTestResultMap(MergeStrategy strategy) {
+        mSpillFile = null;
+        mStrategy = strategy;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The result is kept in memory until {@link #spill(TestDescription)} is called. The
+     * previous value is only returned if it was still in memory.
+     */
+    @Override
+    public TestResult put(TestDescription test, TestResult result) {
+        Slot slot = new Slot();
+        slot.mResult = result;
+        Slot previous = mSlots.put(test, slot);
+        return previous == null ? null : previous.mResult;
+    }
+
+    /**
+     * Add the result of a merged run, the result is only merged from the attempts when accessed.
+     *
+     * @param test the {@link TestDescription} of the test.
+     * @param attempts the results of each attempt of the run.
+     * @param status the {@link TestStatus} of the merged result.
+     */
+    void putMerged(
+            TestDescription test,
+            List<Map<TestDescription, TestResult>> attempts,
+            TestStatus status) {
+        Slot slot = new Slot();
+        slot.mAttempts = attempts;
+        slot.mStatus = status;
+        mSlots.put(test, slot);
+    }
+
+    /**
+     * Write the in-memory result of a test to the file and release it. If the file cannot be
+     * written or the map has no file, the results are kept in memory.
+     */
+    void spill(TestDescription test) {
+        Slot slot = mSlots.get(test);
+        if (slot == null || slot.mResult == null || mSpillFile == null || mSpillFailed) {
+            return;
+        }
+        try {
+            slot.mOffset = mSpillFile.append(writeResult(slot.mResult));
+            slot.mStatus = slot.mResult.getStatus();
+            slot.mResult = null;
+        } catch (IOException e) {
+            CLog.e(
+                    "Failed to spill test results to %s, keeping them in memory.",
+                    mSpillFile.getFile());
+            CLog.e(e);
+            mSpillFailed = true;
+        }
+    }
+
+    /** Returns the status of a test without reading its result, or null if it is not known. */
+    TestStatus getStatus(TestDescription test) {
+        Slot slot = mSlots.get(test);
+        return slot == null ? null : slot.getStatus();
+    }
+
+    @Override
+    public TestResult get(Object test) {
+        Slot slot = mSlots.get(test);
+        return slot == null ? null : load((TestDescription) test, slot);
+    }
+
+    @Override
+    public boolean containsKey(Object test) {
+        return mSlots.containsKey(test);
+    }
+
+    @Override
+    public int size() {
+        return mSlots.size();
+    }
+
+    @Override
+    public Set<TestDescription> keySet() {
+        return Collections.unmodifiableSet(mSlots.keySet());
+    }
+
+    /** {@inheritDoc} The results are read one at a time while iterating. */
+    @Override
+    public Set<Map.Entry<TestDescription, TestResult>> entrySet() {
+        return new AbstractSet<Map.Entry<TestDescription, TestResult>>() {
+            @Override
+            public Iterator<Map.Entry<TestDescription, TestResult>> iterator() {
+                Iterator<Map.Entry<TestDescription, Slot>> slots = mSlots.entrySet().iterator();
+                return new Iterator<Map.Entry<TestDescription, TestResult>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return slots.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<TestDescription, TestResult> next() {
+                        Map.Entry<TestDescription, Slot> entry = slots.next();
+                        return new SimpleImmutableEntry<>(
+                                entry.getKey(), load(entry.getKey(), entry.getValue()));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return mSlots.size();
+            }
+        };
+    }
+
+    private TestResult load(TestDescription test, Slot slot) {
+        if (slot.mResult != null) {
+            return slot.mResult;
+        }
+        if (slot.mAttempts != null) {
+            List<TestResult> results = new ArrayList<>();
+            for (Map<TestDescription, TestResult> attempt : slot.mAttempts) {
+                TestResult result = attempt.get(test);
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+            return TestResult.merge(results, mStrategy);
+        }
+        try {
+            return readResult(mSpillFile.read(slot.mOffset));
+        } catch (IOException | RuntimeException e) {
+            throw new RuntimeException(
+                    String.format(
+                            "Failed to read the result of %s from %s", test, mSpillFile.getFile()),
+                    e);
+        }
+    }
+
+    private static byte[] writeResult(TestResult result) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(result.getStatus().name());
+        writeString(out, result.getStackTrace());
+        out.writeLong(result.getStartTime());
+        out.writeLong(result.getEndTime());
+        out.writeInt(result.getMetrics().size());
+        for (Map.Entry<String, String> metric : result.getMetrics().entrySet()) {
+            writeString(out, metric.getKey());
+            writeString(out, metric.getValue());
+        }
+        out.writeInt(result.getProtoMetrics().size());
+        for (Map.Entry<String, Metric> metric : result.getProtoMetrics().entrySet()) {
+            writeString(out, metric.getKey());
+            byte[] metricBytes = metric.getValue().toByteArray();
+            out.writeInt(metricBytes.length);
+            out.write(metricBytes);
+        }
+        Map<String, LogFile> loggedFiles = result.getLoggedFiles();
+        out.writeInt(loggedFiles.size());
+        for (Map.Entry<String, LogFile> loggedFile : loggedFiles.entrySet()) {
+            LogFile logFile = loggedFile.getValue();
+            writeString(out, loggedFile.getKey());
+            writeString(out, logFile.getPath());
+            writeString(out, logFile.getUrl());
+            out.writeBoolean(logFile.isCompressed());
+            out.writeUTF(logFile.getType().name());
+            out.writeLong(logFile.getSize());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static TestResult readResult(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        TestResult result = new TestResult();
+        result.setStatus(TestStatus.valueOf(in.readUTF()));
+        result.setStackTrace(readString(in));
+        result.setStartTime(in.readLong());
+        result.setEndTime(in.readLong());
+        int count = in.readInt();
+        Map<String, String> metrics = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            metrics.put(readString(in), readString(in));
+        }
+        result.setMetrics(metrics);
+        count = in.readInt();
+        HashMap<String, Metric> protoMetrics = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String key = readString(in);
+            byte[] metricBytes = new byte[in.readInt()];
+            in.readFully(metricBytes);
+            protoMetrics.put(key, Metric.parseFrom(metricBytes));
+        }
+        result.setProtoMetrics(protoMetrics);
+        count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String dataName = readString(in);
+            String path = readString(in);
+            String url = readString(in);
+            boolean isCompressed = in.readBoolean();
+            LogDataType type = LogDataType.valueOf(in.readUTF());
+            long size = in.readLong();
+            result.addLoggedFile(dataName, new LogFile(path, url, isCompressed, type, size));
+        }
+        return result;
+    }
+
+    /** Write a nullable string, without the 64k limit of {@link DataOutputStream#writeUTF}. */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
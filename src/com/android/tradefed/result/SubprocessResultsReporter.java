@@ -20,6 +20,7 @@ import com.android.tradefed.config.Option;
 import com.android.tradefed.invoker.IInvocationContext;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
+import com.android.tradefed.result.proto.SubprocessEventProto.TestCaseEvent;
 import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.StreamUtil;
 import com.android.tradefed.util.SubprocessEventHelper.BaseTestEventInfo;
@@ -36,17 +37,27 @@ import com.android.tradefed.util.SubprocessEventHelper.TestRunFailedEventInfo;
 import com.android.tradefed.util.SubprocessEventHelper.TestRunStartedEventInfo;
 import com.android.tradefed.util.SubprocessEventHelper.TestStartedEventInfo;
 import com.android.tradefed.util.SubprocessTestResultsParser;
+import com.android.tradefed.util.SubprocessTestResultsParser.BinaryEvents;
 import com.android.tradefed.util.proto.TfMetricProtoUtil;
 
+import com.google.protobuf.CodedOutputStream;
+
 import org.json.JSONObject;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implements {@link ITestInvocationListener} to be specified as a result_reporter and forward from
@@ -65,15 +76,39 @@ public class SubprocessResultsReporter
     @Option(name = "output-test-log", description = "Option to report test logs to parent process.")
     private boolean mOutputTestlog = false;
 
+    @Option(
+        name = "subprocess-report-binary",
+        description =
+                "send the events to the report port as binary frames instead of text lines, if "
+                        + "the parent process supports it."
+    )
+    private boolean mBinaryEvents = true;
+
+    /** Maximum time the binary events stay buffered before being sent. */
+    private static final long BINARY_EVENTS_FLUSH_INTERVAL_MS = 1000;
+
+    private static final int BINARY_EVENTS_BUFFER_SIZE = 64 * 1024;
+
     private IBuildInfo mPrimaryBuildInfo = null;
     private Socket mReportSocket = null;
     private PrintWriter mPrintWriter = null;
+    /** Whether the hello line was sent and the parent process did not reply yet. */
+    private boolean mBinaryEventsOffered = false;
+    /** The binary events stream, guarded by itself as it is also flushed periodically. */
+    private CodedOutputStream mEventStream = null;
+    private ScheduledExecutorService mEventFlusher = null;
 
     private boolean mPrintWarning = true;
 
     /** {@inheritDoc} */
     @Override
     public void testAssumptionFailure(TestDescription testId, String trace) {
+        if (shouldSendBinaryEvents()) {
+            sendTestCaseEvent(
+                    SubprocessTestResultsParser.StatusKeys.TEST_ASSUMPTION_FAILURE,
+                    newTestCaseEvent(testId).setTrace(trace));
+            return;
+        }
         FailedTestEventInfo info =
                 new FailedTestEventInfo(testId.getClassName(), testId.getTestName(), trace);
         printEvent(SubprocessTestResultsParser.StatusKeys.TEST_ASSUMPTION_FAILURE, info);
@@ -88,6 +123,14 @@ public class SubprocessResultsReporter
     /** {@inheritDoc} */
     @Override
     public void testEnded(TestDescription testId, long endTime, HashMap<String, Metric> metrics) {
+        if (shouldSendBinaryEvents()) {
+            sendTestCaseEvent(
+                    SubprocessTestResultsParser.StatusKeys.TEST_ENDED,
+                    newTestCaseEvent(testId)
+                            .setTime(endTime)
+                            .putAllMetrics(metrics == null ? new HashMap<>() : metrics));
+            return;
+        }
         // TODO: transfer the proto metrics instead of string metrics
         TestEndedEventInfo info =
                 new TestEndedEventInfo(
@@ -101,6 +144,12 @@ public class SubprocessResultsReporter
     /** {@inheritDoc} */
     @Override
     public void testFailed(TestDescription testId, String reason) {
+        if (shouldSendBinaryEvents()) {
+            sendTestCaseEvent(
+                    SubprocessTestResultsParser.StatusKeys.TEST_FAILED,
+                    newTestCaseEvent(testId).setTrace(reason));
+            return;
+        }
         FailedTestEventInfo info =
                 new FailedTestEventInfo(testId.getClassName(), testId.getTestName(), reason);
         printEvent(SubprocessTestResultsParser.StatusKeys.TEST_FAILED, info);
@@ -109,6 +158,11 @@ public class SubprocessResultsReporter
     /** {@inheritDoc} */
     @Override
     public void testIgnored(TestDescription testId) {
+        if (shouldSendBinaryEvents()) {
+            sendTestCaseEvent(
+                    SubprocessTestResultsParser.StatusKeys.TEST_IGNORED, newTestCaseEvent(testId));
+            return;
+        }
         BaseTestEventInfo info = new BaseTestEventInfo(testId.getClassName(), testId.getTestName());
         printEvent(SubprocessTestResultsParser.StatusKeys.TEST_IGNORED, info);
     }
@@ -160,6 +214,12 @@ public class SubprocessResultsReporter
     /** {@inheritDoc} */
     @Override
     public void testStarted(TestDescription testId, long startTime) {
+        if (shouldSendBinaryEvents()) {
+            sendTestCaseEvent(
+                    SubprocessTestResultsParser.StatusKeys.TEST_STARTED,
+                    newTestCaseEvent(testId).setTime(startTime));
+            return;
+        }
         TestStartedEventInfo info =
                 new TestStartedEventInfo(testId.getClassName(), testId.getTestName(), startTime);
         printEvent(SubprocessTestResultsParser.StatusKeys.TEST_STARTED, info);
@@ -216,11 +276,13 @@ public class SubprocessResultsReporter
     @Override
     public void invocationEnded(long elapsedTime) {
         if (mPrimaryBuildInfo == null) {
+            stopFlushingEvents();
             return;
         }
         InvocationEndedEventInfo eventEnd =
                 new InvocationEndedEventInfo(mPrimaryBuildInfo.getBuildAttributes());
         printEvent(SubprocessTestResultsParser.StatusKeys.INVOCATION_ENDED, eventEnd);
+        stopFlushingEvents();
     }
 
     /**
@@ -276,16 +338,17 @@ public class SubprocessResultsReporter
         }
         if(mReportPort != null) {
             try {
-                if (mReportSocket == null) {
-                    mReportSocket = new Socket("localhost", mReportPort.intValue());
-                    mPrintWriter = new PrintWriter(mReportSocket.getOutputStream(), true);
-                }
-                if (!mReportSocket.isConnected()) {
-                    throw new RuntimeException("Reporter Socket is not connected");
+                connect();
+                if (shouldSendBinaryEvents()) {
+                    writeEventFrame(key, event.toString().getBytes(StandardCharsets.UTF_8));
+                    // The events other than the test case ones are few, and often mark the end
+                    // of a group of events, send them right away.
+                    flushEvents();
+                } else {
+                    String eventLog = String.format("%s %s\n", key, event.toString());
+                    mPrintWriter.print(eventLog);
+                    mPrintWriter.flush();
                 }
-                String eventLog = String.format("%s %s\n", key, event.toString());
-                mPrintWriter.print(eventLog);
-                mPrintWriter.flush();
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -299,9 +362,140 @@ public class SubprocessResultsReporter
         }
     }
 
+    /** Connect to the report port if not done yet, and offer it the binary events. */
+    private void connect() throws IOException {
+        if (mReportSocket == null) {
+            mReportSocket = new Socket("localhost", mReportPort.intValue());
+            mPrintWriter = new PrintWriter(mReportSocket.getOutputStream(), true);
+            if (mBinaryEvents) {
+                // Older parent processes ignore the hello line and never reply, the events are
+                // sent as text lines until a reply is received.
+                mPrintWriter.print(BinaryEvents.HELLO + "\n");
+                mPrintWriter.flush();
+                mBinaryEventsOffered = true;
+            }
+        }
+        if (!mReportSocket.isConnected()) {
+            throw new RuntimeException("Reporter Socket is not connected");
+        }
+    }
+
+    /**
+     * Returns true if the events should be sent as binary frames. Switches to them once the
+     * parent process replied to the hello line, without waiting for the reply.
+     */
+    private boolean shouldSendBinaryEvents() {
+        if (mEventStream != null) {
+            return true;
+        }
+        if (!mBinaryEventsOffered || mReportFile != null) {
+            return false;
+        }
+        try {
+            InputStream in = mReportSocket.getInputStream();
+            if (in.available() < Integer.BYTES) {
+                return false;
+            }
+            mBinaryEventsOffered = false;
+            if (new DataInputStream(in).readInt() < BinaryEvents.VERSION) {
+                CLog.d("Parent process does not support binary events, sending them as text.");
+                return false;
+            }
+            // The 0 byte marks the end of the text lines.
+            DataOutputStream out = new DataOutputStream(mReportSocket.getOutputStream());
+            out.writeByte(0);
+            out.writeInt(BinaryEvents.MAGIC);
+            out.flush();
+            mEventStream =
+                    CodedOutputStream.newInstance(
+                            mReportSocket.getOutputStream(), BINARY_EVENTS_BUFFER_SIZE);
+            mEventFlusher =
+                    Executors.newSingleThreadScheduledExecutor(
+                            r -> {
+                                Thread t = new Thread(r, "SubprocessResultsReporter-flush");
+                                t.setDaemon(true);
+                                return t;
+                            });
+            mEventFlusher.scheduleWithFixedDelay(
+                    () -> {
+                        try {
+                            flushEvents();
+                        } catch (IOException e) {
+                            CLog.e(e);
+                        }
+                    },
+                    BINARY_EVENTS_FLUSH_INTERVAL_MS,
+                    BINARY_EVENTS_FLUSH_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private TestCaseEvent.Builder newTestCaseEvent(TestDescription testId) {
+        return TestCaseEvent.newBuilder()
+                .setClassName(testId.getClassName())
+                .setTestName(testId.getTestName());
+    }
+
+    /**
+     * Send a test case event as a proto. It is buffered with the following events, and sent with
+     * them at most {@link #BINARY_EVENTS_FLUSH_INTERVAL_MS} later.
+     */
+    private void sendTestCaseEvent(String key, TestCaseEvent.Builder event) {
+        TestCaseEvent proto = event.build();
+        synchronized (mEventStream) {
+            try {
+                mEventStream.writeRawByte(BinaryEvents.EVENT_KEYS.indexOf(key));
+                mEventStream.writeUInt32NoTag(proto.getSerializedSize());
+                proto.writeTo(mEventStream);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /** Write an event payload as a frame, in the buffer of the events stream. */
+    private void writeEventFrame(String key, byte[] payload) throws IOException {
+        int index = BinaryEvents.EVENT_KEYS.indexOf(key);
+        if (index < 0) {
+            CLog.w("Event %s is not supported by the binary events, skipping it.", key);
+            return;
+        }
+        synchronized (mEventStream) {
+            mEventStream.writeRawByte(index | BinaryEvents.JSON_PAYLOAD);
+            mEventStream.writeUInt32NoTag(payload.length);
+            mEventStream.writeRawBytes(payload);
+        }
+    }
+
+    /** Send the buffered binary events. */
+    private void flushEvents() throws IOException {
+        synchronized (mEventStream) {
+            mEventStream.flush();
+        }
+    }
+
+    /** Send the buffered binary events, and stop sending them periodically. */
+    private void stopFlushingEvents() {
+        if (mEventFlusher != null) {
+            mEventFlusher.shutdownNow();
+            mEventFlusher = null;
+        }
+        if (mEventStream != null) {
+            try {
+                flushEvents();
+            } catch (IOException e) {
+                CLog.e(e);
+            }
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public void close() {
+        stopFlushingEvents();
         StreamUtil.close(mReportSocket);
         StreamUtil.close(mPrintWriter);
     }
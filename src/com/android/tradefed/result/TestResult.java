@@ -177,11 +177,7 @@ public class TestResult {
         long latestEndTime = Long.MIN_VALUE;
 
         List<String> errorMsg = new ArrayList<>();
-        int pass = 0;
-        int fail = 0;
-        int assumption_failure = 0;
-        int ignored = 0;
-        int incomplete = 0;
+        List<TestStatus> statuses = new ArrayList<>();
 
         for (TestResult attempt : results) {
             mergedResult.mProtoMetrics.putAll(attempt.getProtoMetrics());
@@ -189,25 +185,58 @@ public class TestResult {
             mergedResult.mLoggedFiles.putAll(attempt.getLoggedFiles());
             earliestStartTime = Math.min(attempt.getStartTime(), earliestStartTime);
             latestEndTime = Math.max(attempt.getEndTime(), latestEndTime);
+            statuses.add(attempt.getStatus());
             switch (attempt.getStatus()) {
+                case FAILURE:
+                case ASSUMPTION_FAILURE:
+                    if (attempt.getStackTrace() != null) {
+                        errorMsg.add(attempt.getStackTrace());
+                    }
+                    break;
+                case INCOMPLETE:
+                    errorMsg.add("incomplete test case result.");
+                    break;
+                default:
+                    break;
+            }
+        }
+        mergedResult.setStatus(mergeStatuses(statuses, strategy));
+        if (errorMsg.isEmpty()) {
+            mergedResult.mStackTrace = null;
+        } else {
+            mergedResult.mStackTrace = Joiner.on("\n\n").join(errorMsg);
+        }
+        mergedResult.setStartTime(earliestStartTime);
+        mergedResult.setEndTime(latestEndTime);
+        return mergedResult;
+    }
+
+    /**
+     * Merge the statuses of the attempts for a same test case based on the merging strategy.
+     *
+     * @param statuses the {@link TestStatus} of each attempt.
+     * @param strategy the {@link MergeStrategy} to be used to determine the merging outcome.
+     * @return the merged {@link TestStatus}.
+     */
+    static TestStatus mergeStatuses(List<TestStatus> statuses, MergeStrategy strategy) {
+        int pass = 0;
+        int fail = 0;
+        int assumption_failure = 0;
+        int ignored = 0;
+        int incomplete = 0;
+        for (TestStatus status : statuses) {
+            switch (status) {
                 case PASSED:
                     pass++;
                     break;
                 case FAILURE:
                     fail++;
-                    if (attempt.getStackTrace() != null) {
-                        errorMsg.add(attempt.getStackTrace());
-                    }
                     break;
                 case INCOMPLETE:
                     incomplete++;
-                    errorMsg.add("incomplete test case result.");
                     break;
                 case ASSUMPTION_FAILURE:
                     assumption_failure++;
-                    if (attempt.getStackTrace() != null) {
-                        errorMsg.add(attempt.getStackTrace());
-                    }
                     break;
                 case IGNORED:
                     ignored++;
@@ -215,48 +244,34 @@ public class TestResult {
             }
         }
 
+        // Status when no attempt is ignored, assumption failure or incomplete.
+        TestStatus defaultStatus;
         switch (strategy) {
             case ANY_PASS_IS_PASS:
             case ONE_TESTCASE_PASS_IS_PASS:
                 // We prioritize passing the test due to the merging strategy.
                 if (pass > 0) {
-                    mergedResult.setStatus(TestStatus.PASSED);
-                } else if (fail == 0) {
-                    if (ignored > 0) {
-                        mergedResult.setStatus(TestStatus.IGNORED);
-                    } else if (assumption_failure > 0) {
-                        mergedResult.setStatus(TestStatus.ASSUMPTION_FAILURE);
-                    } else if (incomplete > 0) {
-                        mergedResult.setStatus(TestStatus.INCOMPLETE);
-                    }
-                } else {
-                    mergedResult.setStatus(TestStatus.FAILURE);
+                    return TestStatus.PASSED;
+                } else if (fail > 0) {
+                    return TestStatus.FAILURE;
                 }
+                defaultStatus = TestStatus.INCOMPLETE;
                 break;
             default:
                 // We keep a sane default of one failure is a failure that should be reported.
                 if (fail > 0) {
-                    mergedResult.setStatus(TestStatus.FAILURE);
-                } else {
-                    if (ignored > 0) {
-                        mergedResult.setStatus(TestStatus.IGNORED);
-                    } else if (assumption_failure > 0) {
-                        mergedResult.setStatus(TestStatus.ASSUMPTION_FAILURE);
-                    } else if (incomplete > 0) {
-                        mergedResult.setStatus(TestStatus.INCOMPLETE);
-                    } else {
-                        mergedResult.setStatus(TestStatus.PASSED);
-                    }
+                    return TestStatus.FAILURE;
                 }
+                defaultStatus = TestStatus.PASSED;
                 break;
         }
-        if (errorMsg.isEmpty()) {
-            mergedResult.mStackTrace = null;
-        } else {
-            mergedResult.mStackTrace = Joiner.on("\n\n").join(errorMsg);
+        if (ignored > 0) {
+            return TestStatus.IGNORED;
+        } else if (assumption_failure > 0) {
+            return TestStatus.ASSUMPTION_FAILURE;
+        } else if (incomplete > 0) {
+            return TestStatus.INCOMPLETE;
         }
-        mergedResult.setStartTime(earliestStartTime);
-        mergedResult.setEndTime(latestEndTime);
-        return mergedResult;
+        return defaultStatus;
     }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.result;
+
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * An append-only temporary file holding records addressed by their offset. A single file is
+ * shared by all the {@link SpilledTestResultMap}s of a {@link CollectingTestListener}, so the
+ * number of open files does not grow with the number of runs and attempts.
+ *
+ * <p>The file is only created when the first record is written, and is deleted by {@link
+ * #cleanUp()}. Not thread safe.
+ */
+class TestResultSpillFile {
+
+    private File mFile;
+    private RandomAccessFile mStream;
+
+    /**
+     * Append a record to the file.
+     *
+     * @return the offset of the record, to read it back with {@link #read(long)}.
+     * @throws IOException if the record could not be written.
+     */
+    long append(byte[] record) throws IOException {
+        if (mStream == null) {
+            mFile = FileUtil.createTempFile("test-results", ".bin");
+            mStream = new RandomAccessFile(mFile, "rw");
+        }
+        long offset = mStream.length();
+        mStream.seek(offset);
+        mStream.writeInt(record.length);
+        mStream.write(record);
+        return offset;
+    }
+
+    /**
+     * Read back a record written with {@link #append(byte[])}.
+     *
+     * @throws IOException if the record could not be read or the file was deleted.
+     */
+    byte[] read(long offset) throws IOException {
+        if (mStream == null) {
+            throw new IOException("The results file was deleted.");
+        }
+        mStream.seek(offset);
+        byte[] record = new byte[mStream.readInt()];
+        mStream.readFully(record);
+        return record;
+    }
+
+    /** Returns the file, or null if no record was written. */
+    File getFile() {
+        return mFile;
+    }
+
+    /** Close and delete the file. The records written so far are not accessible anymore. */
+    void cleanUp() {
+        StreamUtil.close(mStream);
+        mStream = null;
+        FileUtil.deleteFile(mFile);
+        mFile = null;
+    }
+}
@@ -22,6 +22,7 @@ import com.android.tradefed.util.proto.TfMetricProtoUtil;
 
 import com.google.common.base.Joiner;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -45,6 +46,11 @@ public class TestRunResult {
     // Uses a LinkedHashMap to have predictable iteration order
     private Map<TestDescription, TestResult> mTestResults =
             new LinkedHashMap<TestDescription, TestResult>();
+    // Same as mTestResults when the results of the ended tests are kept on disk, null otherwise.
+    private SpilledTestResultMap mSpilledResults = null;
+    // The file the results are kept in, possibly shared with other runs.
+    private TestResultSpillFile mSpillFile = null;
+    private boolean mOwnsSpillFile = false;
     // Store the metrics for the run
     private Map<String, String> mRunMetrics = new HashMap<>();
     private HashMap<String, Metric> mRunProtoMetrics = new HashMap<>();
@@ -76,6 +82,66 @@ public class TestRunResult {
         mAggregateMetrics = metricAggregation;
     }
 
+    /**
+     * Sets whether the results of the ended tests are kept on disk instead of in memory, for runs
+     * with a very large number of tests. In this mode, only the status of each test is kept in
+     * memory and {@link #getTestResults()} reads the results back from disk while iterating: the
+     * {@link TestResult}s it returns are copies. Should be set before any test is reported.
+     */
+    public void setSpillToDisk(boolean spillToDisk) {
+        if (spillToDisk && mSpilledResults == null) {
+            setSpillFile(new TestResultSpillFile());
+            mOwnsSpillFile = true;
+        } else if (!spillToDisk && mSpilledResults != null) {
+            mTestResults = new LinkedHashMap<>(mSpilledResults);
+            mSpilledResults = null;
+            cleanUp();
+            mSpillFile = null;
+            mOwnsSpillFile = false;
+        }
+    }
+
+    /**
+     * Keep the results of the ended tests in a file shared with other runs, see {@link
+     * #setSpillToDisk(boolean)}. The file is not deleted by {@link #cleanUp()}, its owner deletes
+     * it once none of the runs is accessed anymore.
+     */
+    void setSpillFile(TestResultSpillFile spillFile) {
+        if (mSpilledResults != null) {
+            return;
+        }
+        mSpillFile = spillFile;
+        mSpilledResults = new SpilledTestResultMap(spillFile);
+        mSpilledResults.putAll(mTestResults);
+        for (TestDescription test : mTestResults.keySet()) {
+            mSpilledResults.spill(test);
+        }
+        mTestResults = mSpilledResults;
+    }
+
+    /** Returns true if the results of the ended tests are kept on disk. */
+    public boolean isSpilledToDisk() {
+        return mSpilledResults != null;
+    }
+
+    /**
+     * Delete the file holding the results of a run kept on disk, unless it is shared with other
+     * runs. The results are not accessible anymore afterward.
+     */
+    public void cleanUp() {
+        if (mOwnsSpillFile) {
+            mSpillFile.cleanUp();
+        }
+    }
+
+    /**
+     * Returns the file holding the results of the run kept on disk, or null if none was written.
+     * Exposed for testing.
+     */
+    File getSpillFile() {
+        return mSpillFile == null ? null : mSpillFile.getFile();
+    }
+
     /** @return the test run name */
     public String getName() {
         return mTestRunName;
@@ -115,10 +181,9 @@ public class TestRunResult {
     /** Gets the set of tests in given statuses. */
     private Set<TestDescription> getTestsInState(List<TestStatus> statuses) {
         Set<TestDescription> tests = new LinkedHashSet<>();
-        for (Map.Entry<TestDescription, TestResult> testEntry : getTestResults().entrySet()) {
-            TestStatus status = testEntry.getValue().getStatus();
-            if (statuses.contains(status)) {
-                tests.add(testEntry.getKey());
+        for (TestDescription test : getTestResults().keySet()) {
+            if (statuses.contains(getTestStatus(test))) {
+                tests.add(test);
             }
         }
         return tests;
@@ -155,14 +220,22 @@ public class TestRunResult {
                 mStatusCounts[i] = 0;
             }
             // now recalculate
-            for (TestResult r : mTestResults.values()) {
-                mStatusCounts[r.getStatus().ordinal()]++;
+            for (TestDescription test : mTestResults.keySet()) {
+                mStatusCounts[getTestStatus(test).ordinal()]++;
             }
             mIsCountDirty = false;
         }
         return mStatusCounts[status.ordinal()];
     }
 
+    /** Returns the status of a test, without reading its result from disk. */
+    private TestStatus getTestStatus(TestDescription test) {
+        if (mSpilledResults != null) {
+            return mSpilledResults.getStatus(test);
+        }
+        return mTestResults.get(test).getStatus();
+    }
+
     /** Gets the number of tests in this run. */
     public int getNumTests() {
         return mTestResults.size();
@@ -252,6 +325,10 @@ public class TestRunResult {
         r.setStatus(status);
         r.setStackTrace(trace);
         addTestResult(test, r);
+        if (mSpilledResults != null && r != mCurrentTestResult) {
+            // Event for a test that already ended.
+            mSpilledResults.spill(test);
+        }
     }
 
     public void testFailed(TestDescription test, String trace) {
@@ -282,6 +359,9 @@ public class TestRunResult {
         result.setMetrics(TfMetricProtoUtil.compatibleConvert(testMetrics));
         result.setProtoMetrics(testMetrics);
         addTestResult(test, result);
+        if (mSpilledResults != null) {
+            mSpilledResults.spill(test);
+        }
         mCurrentTestResult = null;
     }
 
@@ -432,6 +512,13 @@ public class TestRunResult {
         HashMap<String, Metric> finalRunProtoMetrics = new HashMap<>();
         Map<String, LogFile> finalRunLoggedFiles = new HashMap<>();
         Map<TestDescription, List<TestResult>> testResultsAttempts = new LinkedHashMap<>();
+        // When results are on disk, only merge the statuses now and the results when accessed.
+        boolean isSpilled = false;
+        for (TestRunResult eachRunResult : testRunResults) {
+            isSpilled |= eachRunResult.isSpilledToDisk();
+        }
+        Map<TestDescription, List<TestStatus>> testStatusAttempts = new LinkedHashMap<>();
+        List<Map<TestDescription, TestResult>> attempts = new ArrayList<>();
 
         // Keep track of if one of the run is not complete
         boolean isAtLeastOneCompleted = false;
@@ -481,18 +568,40 @@ public class TestRunResult {
             finalRunLoggedFiles.putAll(eachRunResult.getRunLoggedFiles());
             // TODO: We are not handling the TestResult log files in the merging logic (different
             // from the TestRunResult log files). Need to improve in the future.
-            for (Map.Entry<TestDescription, TestResult> testResultEntry :
-                    eachRunResult.getTestResults().entrySet()) {
-                if (!testResultsAttempts.containsKey(testResultEntry.getKey())) {
-                    testResultsAttempts.put(testResultEntry.getKey(), new ArrayList<>());
+            if (isSpilled) {
+                attempts.add(eachRunResult.getTestResults());
+                for (TestDescription test : eachRunResult.getTestResults().keySet()) {
+                    testStatusAttempts
+                            .computeIfAbsent(test, k -> new ArrayList<>())
+                            .add(eachRunResult.getTestStatus(test));
+                }
+            } else {
+                for (Map.Entry<TestDescription, TestResult> testResultEntry :
+                        eachRunResult.getTestResults().entrySet()) {
+                    if (!testResultsAttempts.containsKey(testResultEntry.getKey())) {
+                        testResultsAttempts.put(testResultEntry.getKey(), new ArrayList<>());
+                    }
+                    List<TestResult> results = testResultsAttempts.get(testResultEntry.getKey());
+                    results.add(testResultEntry.getValue());
                 }
-                List<TestResult> results = testResultsAttempts.get(testResultEntry.getKey());
-                results.add(testResultEntry.getValue());
             }
         }
 
         // Evaluate test cases based on strategy
-        finalRunResult.mTestResults = evaluateTestCases(testResultsAttempts, strategy);
+        if (isSpilled) {
+            SpilledTestResultMap mergedResults = new SpilledTestResultMap(strategy);
+            for (Map.Entry<TestDescription, List<TestStatus>> entry :
+                    testStatusAttempts.entrySet()) {
+                mergedResults.putMerged(
+                        entry.getKey(),
+                        attempts,
+                        TestResult.mergeStatuses(entry.getValue(), strategy));
+            }
+            finalRunResult.mSpilledResults = mergedResults;
+            finalRunResult.mTestResults = mergedResults;
+        } else {
+            finalRunResult.mTestResults = evaluateTestCases(testResultsAttempts, strategy);
+        }
         // Evaluate the run error status based on strategy
         boolean isRunFailure = isRunFailed(atLeastOneFailure, allFailure, strategy);
         if (isRunFailure) {
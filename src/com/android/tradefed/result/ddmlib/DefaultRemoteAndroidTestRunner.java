@@ -21,6 +21,9 @@ import com.android.ddmlib.testrunner.InstrumentationResultParser;
 import com.android.ddmlib.testrunner.RemoteAndroidTestRunner;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Extension of the ddmlib {@link RemoteAndroidTestRunner} to set some default for Tradefed use
@@ -28,6 +31,8 @@ import java.util.Collection;
  */
 public class DefaultRemoteAndroidTestRunner extends RemoteAndroidTestRunner {
 
+    private final Map<String, String> mInstrumentationArgs = new LinkedHashMap<>();
+
     public DefaultRemoteAndroidTestRunner(
             String packageName, String runnerName, IShellEnabledDevice remoteDevice) {
         super(packageName, runnerName, remoteDevice);
@@ -42,4 +47,26 @@ public class DefaultRemoteAndroidTestRunner extends RemoteAndroidTestRunner {
         parser.setTrimLine(false);
         return parser;
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addInstrumentationArg(String name, String value) {
+        super.addInstrumentationArg(name, value);
+        mInstrumentationArgs.put(name, value);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeInstrumentationArg(String name) {
+        super.removeInstrumentationArg(name);
+        mInstrumentationArgs.remove(name);
+    }
+
+    /**
+     * Returns the instrumentation arguments of the runner, including the ones set through helpers
+     * such as {@link #setClassName(String)}.
+     */
+    public Map<String, String> getInstrumentationArgs() {
+        return Collections.unmodifiableMap(mInstrumentationArgs);
+    }
 }
@@ -42,6 +42,9 @@ import java.util.UUID;
 /**
  * Result reporter build a {@link TestRecord} protobuf with all the results inside. Should be
  * extended to handle what to do with the final proto in {@link #processFinalProto(TestRecord)}.
+ *
+ * <p>The events are handled through {@link #runEvent(Runnable)}, which subclasses can override to
+ * build the records on another thread than the one reporting the results.
  */
 @OptionClass(alias = "proto-reporter")
 public abstract class ProtoResultReporter implements ITestInvocationListener, ILogSaverListener {
@@ -119,20 +122,54 @@ public abstract class ProtoResultReporter implements ITestInvocationListener, IL
      */
     public void processTestCaseEnded(TestRecord testCaseRecord) {}
 
+    /**
+     * Called when the invocation ends, right before the final proto is built, to add attributes
+     * to the invocation context reported in it.
+     *
+     * @param invocationContext The invocation {@link IInvocationContext}.
+     */
+    protected void beforeFinalProto(IInvocationContext invocationContext) {}
+
+    /**
+     * Handle an event, by building and processing its records. By default the event is handled
+     * right away on the calling thread. Subclasses may handle the events on another thread, in
+     * the order they were reported.
+     *
+     * <p>The event only captures the arguments of the callback, the records are built when it
+     * runs.
+     *
+     * @param event The handling of the event.
+     */
+    protected void runEvent(Runnable event) {
+        event.run();
+    }
+
+    /**
+     * Wait for all the events passed to {@link #runEvent(Runnable)} to be handled. Called when the
+     * invocation ends, after its event.
+     */
+    protected void waitForEvents() {}
+
     // Invocation events
 
     @Override
     public final void invocationStarted(IInvocationContext context) {
+        long startTime = System.currentTimeMillis();
+        Any description = Any.pack(context.toProto());
+        runEvent(() -> handleInvocationStarted(context, startTime, description));
+    }
+
+    private void handleInvocationStarted(
+            IInvocationContext context, long startTime, Any description) {
         mLatestChild = new Stack<>();
         mInvocationRecordBuilder = TestRecord.newBuilder();
         // Set invocation unique id
         mInvocationRecordBuilder.setTestRecordId(UUID.randomUUID().toString());
 
         // Populate start time of invocation
-        mInvocationStartTime = System.currentTimeMillis();
-        Timestamp startTime = createTimeStamp(mInvocationStartTime);
-        mInvocationRecordBuilder.setStartTime(startTime);
-        mInvocationRecordBuilder.setDescription(Any.pack(context.toProto()));
+        mInvocationStartTime = startTime;
+        mInvocationRecordBuilder.setStartTime(createTimeStamp(mInvocationStartTime));
+        mInvocationRecordBuilder.setDescription(description);
 
         mContext = context;
 
@@ -152,19 +189,30 @@ public abstract class ProtoResultReporter implements ITestInvocationListener, IL
 
     @Override
     public void invocationFailed(Throwable cause) {
-        mInvocationFailure = cause;
+        runEvent(() -> mInvocationFailure = cause);
     }
 
     @Override
     public final void invocationEnded(long elapsedTime) {
+        long endTime = System.currentTimeMillis();
+        runEvent(() -> handleInvocationEnded(elapsedTime, endTime));
+        waitForEvents();
+    }
+
+    /**
+     * Handle the end of the invocation. The context is only read here, while the thread ending the
+     * invocation waits for the events.
+     */
+    private void handleInvocationEnded(long elapsedTime, long endTime) {
         if (mModuleInProgress) {
             // If we had a module in progress, and a new module start occurs, complete the call
-            testModuleEnded();
+            handleTestModuleEnded(endTime);
         }
         // Populate end time of invocation
         Timestamp endTime = createTimeStamp(mInvocationStartTime + elapsedTime);
         mInvocationRecordBuilder.setEndTime(endTime);
         // Update the context in case it changed
+        beforeFinalProto(mContext);
         mInvocationRecordBuilder.setDescription(Any.pack(mContext.toProto()));
 
         if (mInvocationFailure != null) {
@@ -188,16 +236,22 @@ public abstract class ProtoResultReporter implements ITestInvocationListener, IL
 
     @Override
     public final void testModuleStarted(IInvocationContext moduleContext) {
+        long startTime = System.currentTimeMillis();
+        String moduleId = moduleContext.getAttributes().get(ModuleDefinition.MODULE_ID).get(0);
+        Any description = Any.pack(moduleContext.toProto());
+        runEvent(() -> handleTestModuleStarted(moduleId, startTime, description));
+    }
+
+    private void handleTestModuleStarted(String moduleId, long startTime, Any description) {
         if (mModuleInProgress) {
             // If we had a module in progress, and a new module start occurs, complete the call
-            testModuleEnded();
+            handleTestModuleEnded(startTime);
         }
         TestRecord.Builder moduleBuilder = TestRecord.newBuilder();
         moduleBuilder.setParentTestRecordId(mInvocationRecordBuilder.getTestRecordId());
-        moduleBuilder.setTestRecordId(
-                moduleContext.getAttributes().get(ModuleDefinition.MODULE_ID).get(0));
-        moduleBuilder.setStartTime(createTimeStamp(System.currentTimeMillis()));
-        moduleBuilder.setDescription(Any.pack(moduleContext.toProto()));
+        moduleBuilder.setTestRecordId(moduleId);
+        moduleBuilder.setStartTime(createTimeStamp(startTime));
+        moduleBuilder.setDescription(description);
         mLatestChild.add(moduleBuilder);
         mModuleInProgress = true;
         try {
@@ -210,9 +264,14 @@ public abstract class ProtoResultReporter implements ITestInvocationListener, IL
 
     @Override
     public final void testModuleEnded() {
+        long endTime = System.currentTimeMillis();
+        runEvent(() -> handleTestModuleEnded(endTime));
+    }
+
+    private void handleTestModuleEnded(long endTime) {
         TestRecord.Builder moduleBuilder = mLatestChild.pop();
         mModuleInProgress = false;
-        moduleBuilder.setEndTime(createTimeStamp(System.currentTimeMillis()));
+        moduleBuilder.setEndTime(createTimeStamp(endTime));
         TestRecord.Builder parentBuilder = mLatestChild.peek();
 
         // Finalize the module and track it in the child
@@ -240,6 +299,11 @@ public abstract class ProtoResultReporter implements ITestInvocationListener, IL
 
     @Override
     public void testRunStarted(String runName, int testCount, int attemptNumber, long startTime) {
+        runEvent(() -> handleTestRunStarted(runName, testCount, attemptNumber, startTime));
+    }
+
+    private void handleTestRunStarted(
+            String runName, int testCount, int attemptNumber, long startTime) {
         TestRecord.Builder runBuilder = TestRecord.newBuilder();
         TestRecord.Builder parent = mLatestChild.peek();
         runBuilder.setParentTestRecordId(parent.getTestRecordId());
@@ -259,6 +323,10 @@ public abstract class ProtoResultReporter implements ITestInvocationListener, IL
 
     @Override
     public final void testRunFailed(String errorMessage) {
+        runEvent(() -> handleTestRunFailed(errorMessage));
+    }
+
+    private void handleTestRunFailed(String errorMessage) {
         TestRecord.Builder current = mLatestChild.peek();
         DebugInfo.Builder debugBuilder = DebugInfo.newBuilder();
         debugBuilder.setErrorMessage(errorMessage);
@@ -276,6 +344,11 @@ public abstract class ProtoResultReporter implements ITestInvocationListener, IL
 
     @Override
     public final void testRunEnded(long elapsedTimeMillis, HashMap<String, Metric> runMetrics) {
+        Map<String, Metric> metrics = new HashMap<>(runMetrics);
+        runEvent(() -> handleTestRunEnded(elapsedTimeMillis, metrics));
+    }
+
+    private void handleTestRunEnded(long elapsedTimeMillis, Map<String, Metric> runMetrics) {
         TestRecord.Builder runBuilder = mLatestChild.pop();
         long startTime = timeStampToMillis(runBuilder.getStartTime());
         runBuilder.setEndTime(createTimeStamp(startTime + elapsedTimeMillis));
@@ -302,6 +375,10 @@ public abstract class ProtoResultReporter implements ITestInvocationListener, IL
 
     @Override
     public final void testStarted(TestDescription test, long startTime) {
+        runEvent(() -> handleTestStarted(test, startTime));
+    }
+
+    private void handleTestStarted(TestDescription test, long startTime) {
         TestRecord.Builder testBuilder = TestRecord.newBuilder();
         TestRecord.Builder parent = mLatestChild.peek();
         testBuilder.setParentTestRecordId(parent.getTestRecordId());
@@ -326,6 +403,11 @@ public abstract class ProtoResultReporter implements ITestInvocationListener, IL
     @Override
     public final void testEnded(
             TestDescription test, long endTime, HashMap<String, Metric> testMetrics) {
+        Map<String, Metric> metrics = new HashMap<>(testMetrics);
+        runEvent(() -> handleTestEnded(endTime, metrics));
+    }
+
+    private void handleTestEnded(long endTime, Map<String, Metric> testMetrics) {
         TestRecord.Builder testBuilder = mLatestChild.pop();
         testBuilder.setEndTime(createTimeStamp(endTime));
         testBuilder.putAllMetrics(testMetrics);
@@ -344,6 +426,10 @@ public abstract class ProtoResultReporter implements ITestInvocationListener, IL
 
     @Override
     public final void testFailed(TestDescription test, String trace) {
+        runEvent(() -> handleTestFailed(trace));
+    }
+
+    private void handleTestFailed(String trace) {
         TestRecord.Builder testBuilder = mLatestChild.peek();
 
         testBuilder.setStatus(TestStatus.FAIL);
@@ -356,12 +442,15 @@ public abstract class ProtoResultReporter implements ITestInvocationListener, IL
 
     @Override
     public final void testIgnored(TestDescription test) {
-        TestRecord.Builder testBuilder = mLatestChild.peek();
-        testBuilder.setStatus(TestStatus.IGNORED);
+        runEvent(() -> mLatestChild.peek().setStatus(TestStatus.IGNORED));
     }
 
     @Override
     public final void testAssumptionFailure(TestDescription test, String trace) {
+        runEvent(() -> handleTestAssumptionFailure(trace));
+    }
+
+    private void handleTestAssumptionFailure(String trace) {
         TestRecord.Builder testBuilder = mLatestChild.peek();
 
         testBuilder.setStatus(TestStatus.ASSUMPTION_FAILURE);
@@ -376,6 +465,10 @@ public abstract class ProtoResultReporter implements ITestInvocationListener, IL
 
     @Override
     public final void logAssociation(String dataName, LogFile logFile) {
+        runEvent(() -> handleLogAssociation(dataName, logFile));
+    }
+
+    private void handleLogAssociation(String dataName, LogFile logFile) {
         TestRecord.Builder current = mLatestChild.peek();
         Map<String, Any> fullmap = new HashMap<>();
         fullmap.putAll(current.getArtifacts());
@@ -23,9 +23,12 @@ import com.android.tradefed.result.proto.TestRecordProto.TestRecord;
 import com.android.tradefed.util.StreamUtil;
 import com.android.tradefed.util.TimeUtil;
 
-import java.io.BufferedReader;
+import com.google.protobuf.CodedInputStream;
+
+import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.concurrent.CountDownLatch;
@@ -133,12 +136,18 @@ public class StreamProtoReceiver implements Closeable {
         @Override
         public void run() {
             Socket client = null;
-            BufferedReader in = null;
+            InputStream in = null;
             try {
                 client = mSocket.accept();
-                TestRecord received = null;
-                while ((received = TestRecord.parseDelimitedFrom(client.getInputStream()))
-                        != null) {
+                in = new BufferedInputStream(client.getInputStream());
+                // Reuse a single coded stream for all the length-delimited records instead of
+                // creating new streams for each of them.
+                CodedInputStream codedIn = CodedInputStream.newInstance(in);
+                while (!codedIn.isAtEnd()) {
+                    int limit = codedIn.pushLimit(codedIn.readRawVarint32());
+                    TestRecord received = TestRecord.parseFrom(codedIn);
+                    codedIn.popLimit(limit);
+                    codedIn.resetSizeCounter();
                     parse(received);
                 }
             } catch (IOException e) {
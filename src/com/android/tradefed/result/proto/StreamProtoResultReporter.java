@@ -21,21 +21,74 @@ import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.result.proto.TestRecordProto.TestRecord;
 import com.android.tradefed.util.StreamUtil;
 
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
-/** An implementation of {@link ProtoResultReporter} */
+/**
+ * An implementation of {@link ProtoResultReporter}
+ *
+ * <p>By default the events are handled by a separate thread: the test thread only queues the
+ * arguments of its callbacks, and the records are built, serialized and written to the socket by
+ * the event thread. Events are queued in a bounded queue: when the event thread falls behind, the
+ * test thread waits for room in the queue instead of dropping events. The queue depth and the
+ * queuing latency of the events are reported as invocation attributes. If the event thread stops
+ * unexpectedly, the remaining events are handled by the test thread.
+ */
 public final class StreamProtoResultReporter extends ProtoResultReporter {
 
     public static final String PROTO_REPORT_PORT_OPTION = "proto-report-port";
 
+    /** Invocation attribute of the number of events handled by the event thread. */
+    public static final String EVENT_COUNT_KEY = "proto_report_event_count";
+    /** Invocation attribute of the maximum number of events waiting in the queue. */
+    public static final String MAX_QUEUE_DEPTH_KEY = "proto_report_max_queue_depth";
+    /** Invocation attribute of the average time in us between reporting and handling an event. */
+    public static final String AVERAGE_LATENCY_KEY = "proto_report_average_latency_us";
+    /** Invocation attribute of the maximum time in us between reporting and handling an event. */
+    public static final String MAX_LATENCY_KEY = "proto_report_max_latency_us";
+
+    /** How often a test thread waiting for room in the queue checks that the event thread runs. */
+    private static final long QUEUE_CHECK_INTERVAL_MS = 100L;
+
     @Option(
         name = PROTO_REPORT_PORT_OPTION,
         description = "the port where to connect to send the protos."
     )
     private Integer mReportPort = null;
 
+    @Option(
+        name = "proto-report-async",
+        description = "build and write the protos to the socket from a separate thread."
+    )
+    private boolean mAsync = true;
+
+    @Option(
+        name = "proto-report-queue-size",
+        description =
+                "the maximum number of events waiting to be handled when writing asynchronously. "
+                        + "Reporting waits when the queue is full."
+    )
+    private int mQueueSize = 1000;
+
+    @Option(
+        name = "proto-report-flush-interval",
+        description =
+                "the maximum time in ms protos stay buffered before being sent when writing "
+                        + "asynchronously. Protos are always sent when no more events are queued.",
+        isTimeVal = true
+    )
+    private long mFlushIntervalMs = 100L;
+
     private Socket mReportSocket = null;
+    private OutputStream mOutput = null;
+    private EventThread mEventThread = null;
 
     @Override
     public void processStartInvocation(
@@ -76,20 +129,227 @@ public final class StreamProtoResultReporter extends ProtoResultReporter {
     @Override
     public void processFinalProto(TestRecord finalRecord) {
         writeRecordToSocket(finalRecord);
-        StreamUtil.close(mReportSocket);
+        if (mEventThread == null) {
+            StreamUtil.close(mReportSocket);
+        }
+    }
+
+    @Override
+    protected void beforeFinalProto(IInvocationContext invocationContext) {
+        if (mEventThread != null) {
+            mEventThread.addAttributes(invocationContext);
+        }
+    }
+
+    @Override
+    protected void runEvent(Runnable event) {
+        if (!mAsync || mReportPort == null) {
+            event.run();
+            return;
+        }
+        if (mEventThread == null) {
+            mEventThread = new EventThread(mQueueSize);
+            mEventThread.start();
+        }
+        if (!mEventThread.add(event)) {
+            // The event thread stopped, handle the events on the test thread instead.
+            mEventThread.runPending();
+            event.run();
+            flushRecords();
+        }
+    }
+
+    @Override
+    protected void waitForEvents() {
+        if (mEventThread != null) {
+            mEventThread.finish();
+            mEventThread = null;
+            StreamUtil.close(mReportSocket);
+        }
     }
 
     private void writeRecordToSocket(TestRecord record) {
         if (mReportPort == null) {
             CLog.d("No port set. Skipping the reporter.");
+            return;
         }
         try {
             if (mReportSocket == null) {
                 mReportSocket = new Socket("localhost", mReportPort);
+                mOutput = mReportSocket.getOutputStream();
+                if (mEventThread != null) {
+                    // The event thread flushes the records in batches.
+                    mOutput = new BufferedOutputStream(mOutput);
+                }
             }
-            record.writeDelimitedTo(mReportSocket.getOutputStream());
+            record.writeDelimitedTo(mOutput);
         } catch (IOException e) {
             CLog.e(e);
         }
     }
+
+    /** Send the records written so far, if any. */
+    private void flushRecords() {
+        if (mOutput == null) {
+            return;
+        }
+        try {
+            mOutput.flush();
+        } catch (IOException e) {
+            CLog.e(e);
+        }
+    }
+
+    /** An event waiting to be handled, with the time it was queued. */
+    private static final class QueuedEvent {
+        final Runnable mEvent;
+        final long mQueuedNanos;
+
+        QueuedEvent(Runnable event) {
+            mEvent = event;
+            mQueuedNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Thread handling the queued events in order: it builds their records and writes them to the
+     * socket, flushing them in batches.
+     */
+    private class EventThread extends Thread {
+        /** Marks the end of the events. */
+        private final QueuedEvent mEnd = new QueuedEvent(null);
+
+        private final BlockingQueue<QueuedEvent> mQueue;
+
+        private int mEventCount = 0;
+        private int mMaxQueueDepth = 0;
+        private long mTotalLatencyNanos = 0L;
+        private long mMaxLatencyNanos = 0L;
+        /** Set once the thread stopped handling events. */
+        private volatile boolean mStopped = false;
+
+        EventThread(int queueSize) {
+            super("ProtoEventThread");
+            setDaemon(true);
+            mQueue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        }
+
+        /**
+         * Queue an event, waiting for room in the queue if needed.
+         *
+         * @return false if the event was not queued because the thread stopped.
+         */
+        boolean add(Runnable event) {
+            return offer(new QueuedEvent(event));
+        }
+
+        /** Wait for all the queued events to be handled. */
+        void finish() {
+            offer(mEnd);
+            Uninterruptibles.joinUninterruptibly(this);
+            // Handle the events left behind if the thread stopped before the end.
+            runPending();
+            CLog.d(
+                    "Handled %d events. Max queue depth: %d, average latency: %d us, "
+                            + "max latency: %d us.",
+                    mEventCount,
+                    mMaxQueueDepth,
+                    getAverageLatencyMicros(),
+                    TimeUnit.NANOSECONDS.toMicros(mMaxLatencyNanos));
+        }
+
+        /** Add the statistics of the events handled so far to the invocation context. */
+        void addAttributes(IInvocationContext context) {
+            context.addInvocationAttribute(EVENT_COUNT_KEY, Integer.toString(mEventCount));
+            context.addInvocationAttribute(
+                    MAX_QUEUE_DEPTH_KEY, Integer.toString(mMaxQueueDepth));
+            context.addInvocationAttribute(
+                    AVERAGE_LATENCY_KEY, Long.toString(getAverageLatencyMicros()));
+            context.addInvocationAttribute(
+                    MAX_LATENCY_KEY,
+                    Long.toString(TimeUnit.NANOSECONDS.toMicros(mMaxLatencyNanos)));
+        }
+
+        /** Handle the events left in the queue after the thread stopped, on the calling thread. */
+        void runPending() {
+            QueuedEvent queued;
+            while ((queued = mQueue.poll()) != null) {
+                if (queued != mEnd) {
+                    queued.mEvent.run();
+                }
+            }
+            flushRecords();
+        }
+
+        /** Queue an event, waiting for room in the queue as long as the thread is running. */
+        private boolean offer(QueuedEvent queued) {
+            boolean interrupted = false;
+            try {
+                while (!mStopped) {
+                    try {
+                        if (mQueue.offer(
+                                queued, QUEUE_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                            return true;
+                        }
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                return false;
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private long getAverageLatencyMicros() {
+            if (mEventCount == 0) {
+                return 0L;
+            }
+            return TimeUnit.NANOSECONDS.toMicros(mTotalLatencyNanos / mEventCount);
+        }
+
+        @Override
+        public void run() {
+            try {
+                handleEvents();
+            } finally {
+                // Producers stop waiting for room in the queue and handle the events themselves.
+                mStopped = true;
+            }
+        }
+
+        private void handleEvents() {
+            long lastFlush = System.nanoTime();
+            long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(mFlushIntervalMs);
+            while (true) {
+                mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueue.size());
+                QueuedEvent queued = Uninterruptibles.takeUninterruptibly(mQueue);
+                if (queued == mEnd) {
+                    break;
+                }
+                long latency = System.nanoTime() - queued.mQueuedNanos;
+                mEventCount++;
+                mTotalLatencyNanos += latency;
+                mMaxLatencyNanos = Math.max(mMaxLatencyNanos, latency);
+                try {
+                    queued.mEvent.run();
+                } catch (Throwable e) {
+                    // Keep handling the following events, an event failing must not block the
+                    // test thread.
+                    CLog.e("Failed to handle a result event:");
+                    CLog.e(e);
+                }
+                // Batch the records of the events already queued, as long as the flush interval
+                // allows.
+                long now = System.nanoTime();
+                if (mQueue.isEmpty() || now - lastFlush >= flushIntervalNanos) {
+                    flushRecords();
+                    lastFlush = now;
+                }
+            }
+            flushRecords();
+        }
+    }
 }
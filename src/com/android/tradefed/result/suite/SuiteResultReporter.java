@@ -70,6 +70,10 @@ public class SuiteResultReporter extends CollectingTestListener {
     private Map<String, String> mFailedModule = new HashMap<>();
     // Map holding the preparation time for each Module.
     private Map<String, ModulePrepTimes> mPreparationMap = new HashMap<>();
+    // Host-side preparation time and device idle time of the modules reporting them.
+    private int mHostPreparedModules = 0;
+    private long mTotalHostPrepTime = 0L;
+    private long mTotalDeviceIdleTime = 0L;
 
     private Map<String, IAbi> mModuleAbi = new LinkedHashMap<>();
 
@@ -144,6 +148,14 @@ public class SuiteResultReporter extends CollectingTestListener {
                         moduleResult.getName(),
                         new ModulePrepTimes(Long.parseLong(prepTime), Long.parseLong(tearTime)));
             }
+            String hostPrepTime =
+                    moduleResult.getRunMetrics().get(ModuleDefinition.HOST_PREPARATION_TIME);
+            String idleTime = moduleResult.getRunMetrics().get(ModuleDefinition.DEVICE_IDLE_TIME);
+            if (hostPrepTime != null && idleTime != null) {
+                mHostPreparedModules++;
+                mTotalHostPrepTime += Long.parseLong(hostPrepTime);
+                mTotalDeviceIdleTime += Long.parseLong(idleTime);
+            }
 
             // If they exists, get all the retry information
             String retrySuccess =
@@ -303,6 +315,13 @@ public class SuiteResultReporter extends CollectingTestListener {
                         "Total preparation time: %s  ||  Total tear down time: %s\n",
                         TimeUtil.formatElapsedTime(totalPrep),
                         TimeUtil.formatElapsedTime(totalTear)));
+        if (mHostPreparedModules > 0) {
+            mSummary.append(
+                    String.format(
+                            "Total host preparation time: %s  ||  Device idle waiting for it: %s\n",
+                            TimeUtil.formatElapsedTime(mTotalHostPrepTime),
+                            TimeUtil.formatElapsedTime(mTotalDeviceIdleTime)));
+        }
         mSummary.append("=======================================================\n");
     }
 
@@ -30,26 +30,36 @@ import com.android.tradefed.testtype.Abi;
 import com.android.tradefed.testtype.IAbi;
 import com.android.tradefed.testtype.suite.TestFailureListener;
 import com.android.tradefed.util.AbiUtils;
+import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.StreamUtil;
 import com.android.tradefed.util.proto.TfMetricProtoUtil;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
 import com.google.common.xml.XmlEscapers;
 import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -62,6 +72,11 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Utility class to save a suite run as an XML. TODO: Remove all the special Compatibility Test
@@ -74,6 +89,8 @@ public class XmlSuiteResultFormatter implements IFormatterGenerator {
     public static final String NS = null;
 
     public static final String TEST_RESULT_FILE_NAME = "test_result.xml";
+    /** Index of where each module is in {@link #TEST_RESULT_FILE_NAME}. */
+    public static final String INDEX_FILE_NAME = "test_result_index.json";
 
     // XML constants
     private static final String ABI_ATTR = "abi";
@@ -129,6 +146,23 @@ public class XmlSuiteResultFormatter implements IFormatterGenerator {
         public long endTime;
     }
 
+    /** Helper object for JSON conversion of the index of the result file. */
+    public static final class ResultIndex {
+        /** Length of the indexed result file, to detect a stale index. */
+        public long resultLength;
+
+        public List<ModuleIndex> modules;
+    }
+
+    /** Helper object for JSON conversion of where a module is in the result file. */
+    public static final class ModuleIndex {
+        public String id;
+        public boolean done;
+        public int failed;
+        public long offset;
+        public long length;
+    }
+
     /**
      * Allows to add some attributes to the <Result> tag via {@code serializer.attribute}.
      *
@@ -177,6 +211,9 @@ public class XmlSuiteResultFormatter implements IFormatterGenerator {
     /**
      * Write the invocation results in an xml format.
      *
+     * <p>The modules are serialized in parallel, then appended in order to the results. Where each
+     * module starts is saved in {@link #INDEX_FILE_NAME} so they can be parsed separately.
+     *
      * @param holder a {@link SuiteResultHolder} holding all the info required for the xml
      * @param resultDir the result directory {@link File} where to put the results.
      * @return a {@link File} pointing to the xml output file.
@@ -184,14 +221,11 @@ public class XmlSuiteResultFormatter implements IFormatterGenerator {
     @Override
     public File writeResults(SuiteResultHolder holder, File resultDir) throws IOException {
         File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
-        OutputStream stream = new FileOutputStream(resultFile);
-        XmlSerializer serializer = null;
-        try {
-            serializer = XmlPullParserFactory.newInstance(TYPE, null).newSerializer();
-        } catch (XmlPullParserException e) {
-            StreamUtil.close(stream);
-            throw new IOException(e);
-        }
+        XmlSerializer serializer = newSerializer();
+        // Count the bytes written to index where each module starts.
+        CountingOutputStream stream =
+                new CountingOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(resultFile)));
         serializer.setOutput(stream, ENCODING);
         serializer.startDocument(ENCODING, false);
         serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
@@ -271,66 +305,167 @@ public class XmlSuiteResultFormatter implements IFormatterGenerator {
 
         List<TestRunResult> sortedModuleList = sortModules(holder.runResults, holder.modulesAbi);
         // Results
-        for (TestRunResult module : sortedModuleList) {
-            serializer.startTag(NS, MODULE_TAG);
-            // To be compatible of CTS strip the abi from the module name when available.
-            if (holder.modulesAbi.get(module.getName()) != null) {
-                String moduleAbi = holder.modulesAbi.get(module.getName()).getName();
-                String moduleNameStripped = module.getName().replace(moduleAbi + " ", "");
-                serializer.attribute(NS, NAME_ATTR, moduleNameStripped);
-                serializer.attribute(NS, ABI_ATTR, moduleAbi);
-            } else {
-                serializer.attribute(NS, NAME_ATTR, module.getName());
+        List<ModuleIndex> modulesIndex = null;
+        try {
+            serializer.flush();
+            modulesIndex = writeModules(stream, sortedModuleList, holder.modulesAbi);
+            serializer.endDocument();
+        } finally {
+            StreamUtil.close(stream);
+        }
+
+        ResultIndex index = new ResultIndex();
+        index.resultLength = resultFile.length();
+        index.modules = modulesIndex;
+        FileUtil.writeToFile(new Gson().toJson(index), new File(resultDir, INDEX_FILE_NAME));
+        return resultFile;
+    }
+
+    /**
+     * Serialize the modules in parallel, each one in its own fragment, then append the fragments
+     * in order to the result stream.
+     *
+     * @return the index of where each module was written in the stream.
+     */
+    private List<ModuleIndex> writeModules(
+            CountingOutputStream stream, List<TestRunResult> modules, Map<String, IAbi> moduleAbis)
+            throws IOException {
+        List<ModuleIndex> index = new ArrayList<>();
+        if (modules.isEmpty()) {
+            return index;
+        }
+        File fragmentDir = FileUtil.createTempDir("xml-result-fragments");
+        ExecutorService executor =
+                Executors.newFixedThreadPool(
+                        Math.min(modules.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<File>> fragments = new ArrayList<>();
+            for (TestRunResult module : modules) {
+                fragments.add(
+                        executor.submit(
+                                () -> writeModuleFragment(module, moduleAbis, fragmentDir)));
+            }
+            for (int i = 0; i < modules.size(); i++) {
+                TestRunResult module = modules.get(i);
+                File fragment = getFragment(fragments.get(i));
+                ModuleIndex moduleIndex = new ModuleIndex();
+                moduleIndex.id = module.getName();
+                moduleIndex.done = isModuleDone(module);
+                moduleIndex.failed = module.getNumAllFailedTests();
+                moduleIndex.offset = stream.getCount();
+                Files.copy(fragment.toPath(), stream);
+                moduleIndex.length = stream.getCount() - moduleIndex.offset;
+                index.add(moduleIndex);
+                FileUtil.deleteFile(fragment);
             }
-            serializer.attribute(NS, RUNTIME_ATTR, String.valueOf(module.getElapsedTime()));
-            boolean isDone = module.isRunComplete() && !module.isRunFailure();
+        } finally {
+            executor.shutdownNow();
+            FileUtil.recursiveDelete(fragmentDir);
+        }
+        return index;
+    }
 
-            serializer.attribute(NS, DONE_ATTR, Boolean.toString(isDone));
-            serializer.attribute(
-                    NS, PASS_ATTR, Integer.toString(module.getNumTestsInState(TestStatus.PASSED)));
-            serializer.attribute(NS, TOTAL_TESTS_ATTR, Integer.toString(module.getNumTests()));
+    private static File getFragment(Future<File> fragment) throws IOException {
+        try {
+            return fragment.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
 
-            serializeTestCases(serializer, module.getTestResults());
-            serializer.endTag(NS, MODULE_TAG);
+    /** Serialize a module and its test cases in a fragment file of its own. */
+    private static File writeModuleFragment(
+            TestRunResult module, Map<String, IAbi> moduleAbis, File fragmentDir)
+            throws IOException {
+        File fragment = FileUtil.createTempFile(MODULE_TAG, ".xml", fragmentDir);
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(fragment))) {
+            XmlSerializer serializer = newSerializer();
+            serializer.setOutput(stream, ENCODING);
+            serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+            serializeModule(serializer, module, moduleAbis);
+            serializer.flush();
+        }
+        return fragment;
+    }
+
+    private static void serializeModule(
+            XmlSerializer serializer, TestRunResult module, Map<String, IAbi> moduleAbis)
+            throws IllegalArgumentException, IllegalStateException, IOException {
+        serializer.startTag(NS, MODULE_TAG);
+        // To be compatible of CTS strip the abi from the module name when available.
+        if (moduleAbis.get(module.getName()) != null) {
+            String moduleAbi = moduleAbis.get(module.getName()).getName();
+            String moduleNameStripped = module.getName().replace(moduleAbi + " ", "");
+            serializer.attribute(NS, NAME_ATTR, moduleNameStripped);
+            serializer.attribute(NS, ABI_ATTR, moduleAbi);
+        } else {
+            serializer.attribute(NS, NAME_ATTR, module.getName());
+        }
+        serializer.attribute(NS, RUNTIME_ATTR, String.valueOf(module.getElapsedTime()));
+        serializer.attribute(NS, DONE_ATTR, Boolean.toString(isModuleDone(module)));
+        serializer.attribute(
+                NS, PASS_ATTR, Integer.toString(module.getNumTestsInState(TestStatus.PASSED)));
+        serializer.attribute(NS, TOTAL_TESTS_ATTR, Integer.toString(module.getNumTests()));
+
+        serializeTestCases(serializer, module.getTestResults());
+        serializer.endTag(NS, MODULE_TAG);
+    }
+
+    private static boolean isModuleDone(TestRunResult module) {
+        return module.isRunComplete() && !module.isRunFailure();
+    }
+
+    private static XmlSerializer newSerializer() throws IOException {
+        try {
+            return XmlPullParserFactory.newInstance(TYPE, null).newSerializer();
+        } catch (XmlPullParserException e) {
+            throw new IOException(e);
         }
-        serializer.endDocument();
-        return resultFile;
     }
 
     private static void serializeTestCases(
             XmlSerializer serializer, Map<TestDescription, TestResult> results)
             throws IllegalArgumentException, IllegalStateException, IOException {
         // We reformat into the same format as the ResultHandler from CTS to be compatible for now.
-        Map<String, Map<String, TestResult>> format = new LinkedHashMap<>();
-        for (Entry<TestDescription, TestResult> cr : results.entrySet()) {
-            if (format.get(cr.getKey().getClassName()) == null) {
-                format.put(cr.getKey().getClassName(), new LinkedHashMap<>());
+        // Only the descriptions are grouped, results are accessed one at a time since they may
+        // be read from disk.
+        Map<String, Map<String, TestDescription>> format = new LinkedHashMap<>();
+        for (TestDescription description : results.keySet()) {
+            if (format.get(description.getClassName()) == null) {
+                format.put(description.getClassName(), new LinkedHashMap<>());
             }
-            Map<String, TestResult> methodResult = format.get(cr.getKey().getClassName());
-            methodResult.put(cr.getKey().getTestName(), cr.getValue());
+            Map<String, TestDescription> methodResult = format.get(description.getClassName());
+            methodResult.put(description.getTestName(), description);
         }
 
         for (String className : format.keySet()) {
             serializer.startTag(NS, CASE_TAG);
             serializer.attribute(NS, NAME_ATTR, className);
-            for (Entry<String, TestResult> individualResult : format.get(className).entrySet()) {
-                TestStatus status = individualResult.getValue().getStatus();
+            for (Entry<String, TestDescription> individualTest :
+                    format.get(className).entrySet()) {
+                TestResult result = results.get(individualTest.getValue());
+                TestStatus status = result.getStatus();
                 if (status == null) {
                     continue; // test was not executed, don't report
                 }
                 serializer.startTag(NS, TEST_TAG);
                 serializer.attribute(NS, RESULT_ATTR, getTestStatusCompatibilityString(status));
-                serializer.attribute(NS, NAME_ATTR, individualResult.getKey());
+                serializer.attribute(NS, NAME_ATTR, individualTest.getKey());
                 if (TestStatus.IGNORED.equals(status)) {
                     serializer.attribute(NS, SKIPPED_ATTR, Boolean.toString(true));
                 }
 
-                handleTestFailure(serializer, individualResult.getValue().getStackTrace());
+                handleTestFailure(serializer, result.getStackTrace());
 
-                HandleLoggedFiles(serializer, individualResult);
+                HandleLoggedFiles(serializer, result);
 
-                for (Entry<String, String> metric :
-                        individualResult.getValue().getMetrics().entrySet()) {
+                for (Entry<String, String> metric : result.getMetrics().entrySet()) {
                     serializer.startTag(NS, METRIC_TAG);
                     serializer.attribute(NS, METRIC_KEY, metric.getKey());
                     serializer.text(sanitizeXmlContent(metric.getValue()));
@@ -366,10 +501,9 @@ public class XmlSuiteResultFormatter implements IFormatterGenerator {
     }
 
     /** Add files captured by {@link TestFailureListener} on test failures. */
-    private static void HandleLoggedFiles(
-            XmlSerializer serializer, Entry<String, TestResult> testResult)
+    private static void HandleLoggedFiles(XmlSerializer serializer, TestResult testResult)
             throws IllegalArgumentException, IllegalStateException, IOException {
-        Map<String, LogFile> loggedFiles = testResult.getValue().getLoggedFiles();
+        Map<String, LogFile> loggedFiles = testResult.getLoggedFiles();
         if (loggedFiles == null || loggedFiles.isEmpty()) {
             return;
         }
@@ -442,6 +576,29 @@ public class XmlSuiteResultFormatter implements IFormatterGenerator {
     /** {@inheritDoc} */
     @Override
     public SuiteResultHolder parseResults(File resultDir, boolean shallow) throws IOException {
+        return parseResults(resultDir, shallow, null, false);
+    }
+
+    /**
+     * Parse the results of some modules only, for example to retry them. The modules are read
+     * from their position in {@link #INDEX_FILE_NAME} when available, and from the whole results
+     * otherwise. Either way only one module is parsed at a time, and the results of the modules
+     * that are not requested are never loaded.
+     *
+     * @param resultDir the result directory {@link File} where the results are.
+     * @param moduleIds the ids of the modules to load, or null to load all the modules.
+     * @param failedOnly if true, only load the modules that are not done or have failures, and
+     *     skip their passed, ignored and assumption failure tests.
+     * @return the {@link SuiteResultHolder} of the requested modules, or null if it failed.
+     */
+    public SuiteResultHolder parseResults(File resultDir, Set<String> moduleIds, boolean failedOnly)
+            throws IOException {
+        return parseResults(resultDir, false, moduleIds, failedOnly);
+    }
+
+    private SuiteResultHolder parseResults(
+            File resultDir, boolean shallow, Set<String> moduleIds, boolean failedOnly)
+            throws IOException {
         File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
         if (!resultFile.exists()) {
             CLog.e("Could not find %s for loading the results.", resultFile.getAbsolutePath());
@@ -449,70 +606,26 @@ public class XmlSuiteResultFormatter implements IFormatterGenerator {
         }
         SuiteResultHolder invocation = new SuiteResultHolder();
         IInvocationContext context = new InvocationContext();
-        try {
-            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-            XmlPullParser parser = factory.newPullParser();
-            parser.setInput(new FileReader(resultFile));
-
-            parser.nextTag();
-            parser.require(XmlPullParser.START_TAG, NS, RESULT_TAG);
-            invocation.startTime = (Long.valueOf(parser.getAttributeValue(NS, START_TIME_ATTR)));
-            invocation.endTime = (Long.valueOf(parser.getAttributeValue(NS, END_TIME_ATTR)));
-            context.addInvocationAttribute(
-                    COMMAND_LINE_ARGS, parser.getAttributeValue(NS, COMMAND_LINE_ARGS));
-            parseSuiteAttributes(parser, context);
-
-            String deviceList = parser.getAttributeValue(NS, DEVICES_ATTR);
-            int i = 0;
-            // TODO: Fix to correctly handle the number of device per shard.
-            for (String device : deviceList.split(",")) {
-                context.addSerialsFromShard(i, Arrays.asList(device));
-                i++;
-            }
-
-            parser.nextTag();
-            parser.require(XmlPullParser.START_TAG, NS, BUILD_TAG);
-
-            for (int index = 0; index < parser.getAttributeCount(); index++) {
-                String key = parser.getAttributeName(index);
-                String value = parser.getAttributeValue(NS, key);
-                // TODO: Handle list of values that are comma separated.
-                context.addInvocationAttribute(key, value);
-            }
-            parseBuildInfoAttributes(parser, context);
-
-            parser.nextTag();
-            parser.require(XmlPullParser.END_TAG, NS, BUILD_TAG);
-
-            parser.nextTag();
-            boolean hasRunHistoryTag = true;
-            try {
-                parser.require(XmlPullParser.START_TAG, NS, RUN_HISTORY_TAG);
-            } catch (XmlPullParserException e) {
-                hasRunHistoryTag = false;
-            }
-            if (hasRunHistoryTag) {
-                handleRunHistoryLevel(parser);
-            }
-
-            parser.require(XmlPullParser.START_TAG, NS, SUMMARY_TAG);
-
-            invocation.completeModules =
-                    Integer.parseInt(parser.getAttributeValue(NS, MODULES_DONE_ATTR));
-            invocation.totalModules =
-                    Integer.parseInt(parser.getAttributeValue(NS, MODULES_TOTAL_ATTR));
-            invocation.passedTests = Integer.parseInt(parser.getAttributeValue(NS, PASS_ATTR));
-            invocation.failedTests = Integer.parseInt(parser.getAttributeValue(NS, FAILED_ATTR));
-
-            parser.nextTag();
-            parser.require(XmlPullParser.END_TAG, NS, SUMMARY_TAG);
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(resultFile))) {
+            XmlPullParser parser = newParser();
+            parser.setInput(stream, ENCODING);
+            parseHeader(parser, invocation, context);
 
             if (!shallow) {
                 Collection<TestRunResult> results = new ArrayList<>();
                 Map<String, IAbi> moduleAbis = new HashMap<>();
-                // Module level information parsing
-                handleModuleLevel(parser, results, moduleAbis);
-                parser.require(XmlPullParser.END_TAG, NS, RESULT_TAG);
+                ResultIndex index = null;
+                if (moduleIds != null || failedOnly) {
+                    index = loadIndex(resultDir, resultFile);
+                }
+                if (index != null) {
+                    parseIndexedModules(
+                            resultFile, index, moduleIds, failedOnly, results, moduleAbis);
+                } else {
+                    // Module level information parsing
+                    handleModuleLevel(parser, results, moduleAbis, moduleIds, failedOnly);
+                    parser.require(XmlPullParser.END_TAG, NS, RESULT_TAG);
+                }
                 invocation.runResults = results;
                 invocation.modulesAbi = moduleAbis;
             }
@@ -525,6 +638,120 @@ public class XmlSuiteResultFormatter implements IFormatterGenerator {
         return invocation;
     }
 
+    private static XmlPullParser newParser() throws XmlPullParserException {
+        return XmlPullParserFactory.newInstance().newPullParser();
+    }
+
+    /** Parse the invocation level information, up to the summary. */
+    private void parseHeader(
+            XmlPullParser parser, SuiteResultHolder invocation, IInvocationContext context)
+            throws IOException, XmlPullParserException {
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, NS, RESULT_TAG);
+        invocation.startTime = (Long.valueOf(parser.getAttributeValue(NS, START_TIME_ATTR)));
+        invocation.endTime = (Long.valueOf(parser.getAttributeValue(NS, END_TIME_ATTR)));
+        context.addInvocationAttribute(
+                COMMAND_LINE_ARGS, parser.getAttributeValue(NS, COMMAND_LINE_ARGS));
+        parseSuiteAttributes(parser, context);
+
+        String deviceList = parser.getAttributeValue(NS, DEVICES_ATTR);
+        int i = 0;
+        // TODO: Fix to correctly handle the number of device per shard.
+        for (String device : deviceList.split(",")) {
+            context.addSerialsFromShard(i, Arrays.asList(device));
+            i++;
+        }
+
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, NS, BUILD_TAG);
+
+        for (int index = 0; index < parser.getAttributeCount(); index++) {
+            String key = parser.getAttributeName(index);
+            String value = parser.getAttributeValue(NS, key);
+            // TODO: Handle list of values that are comma separated.
+            context.addInvocationAttribute(key, value);
+        }
+        parseBuildInfoAttributes(parser, context);
+
+        parser.nextTag();
+        parser.require(XmlPullParser.END_TAG, NS, BUILD_TAG);
+
+        parser.nextTag();
+        boolean hasRunHistoryTag = true;
+        try {
+            parser.require(XmlPullParser.START_TAG, NS, RUN_HISTORY_TAG);
+        } catch (XmlPullParserException e) {
+            hasRunHistoryTag = false;
+        }
+        if (hasRunHistoryTag) {
+            handleRunHistoryLevel(parser);
+        }
+
+        parser.require(XmlPullParser.START_TAG, NS, SUMMARY_TAG);
+
+        invocation.completeModules =
+                Integer.parseInt(parser.getAttributeValue(NS, MODULES_DONE_ATTR));
+        invocation.totalModules =
+                Integer.parseInt(parser.getAttributeValue(NS, MODULES_TOTAL_ATTR));
+        invocation.passedTests = Integer.parseInt(parser.getAttributeValue(NS, PASS_ATTR));
+        invocation.failedTests = Integer.parseInt(parser.getAttributeValue(NS, FAILED_ATTR));
+
+        parser.nextTag();
+        parser.require(XmlPullParser.END_TAG, NS, SUMMARY_TAG);
+    }
+
+    /** Returns the index of the result file, or null if it's missing or out of date. */
+    private static ResultIndex loadIndex(File resultDir, File resultFile) {
+        File indexFile = new File(resultDir, INDEX_FILE_NAME);
+        if (!indexFile.exists()) {
+            return null;
+        }
+        try {
+            ResultIndex index =
+                    new Gson().fromJson(FileUtil.readStringFromFile(indexFile), ResultIndex.class);
+            if (index != null
+                    && index.modules != null
+                    && index.resultLength == resultFile.length()) {
+                return index;
+            }
+            CLog.w("%s does not match %s, ignoring it.", indexFile, resultFile);
+        } catch (IOException | JsonSyntaxException e) {
+            CLog.e("Failed to load %s, ignoring it.", indexFile);
+            CLog.e(e);
+        }
+        return null;
+    }
+
+    /** Parse the requested modules only, reading each one from its position in the index. */
+    private void parseIndexedModules(
+            File resultFile,
+            ResultIndex index,
+            Set<String> moduleIds,
+            boolean failedOnly,
+            Collection<TestRunResult> results,
+            Map<String, IAbi> moduleAbis)
+            throws IOException, XmlPullParserException {
+        try (RandomAccessFile file = new RandomAccessFile(resultFile, "r")) {
+            for (ModuleIndex module : index.modules) {
+                if (moduleIds != null && !moduleIds.contains(module.id)) {
+                    continue;
+                }
+                if (failedOnly && module.done && module.failed == 0) {
+                    continue;
+                }
+                file.seek(module.offset);
+                XmlPullParser parser = newParser();
+                parser.setInput(
+                        new BufferedInputStream(
+                                ByteStreams.limit(
+                                        Channels.newInputStream(file.getChannel()),
+                                        module.length)),
+                        ENCODING);
+                parser.nextTag();
+                handleModule(parser, results, moduleAbis, null, failedOnly);
+            }
+        }
+    }
     /** Sort the list of results based on their name without abi primarily then secondly on abi. */
     @VisibleForTesting
     List<TestRunResult> sortModules(
@@ -576,45 +803,100 @@ public class XmlSuiteResultFormatter implements IFormatterGenerator {
      * failures).
      */
     private void handleModuleLevel(
-            XmlPullParser parser, Collection<TestRunResult> results, Map<String, IAbi> moduleAbis)
+            XmlPullParser parser,
+            Collection<TestRunResult> results,
+            Map<String, IAbi> moduleAbis,
+            Set<String> moduleIds,
+            boolean failedOnly)
             throws IOException, XmlPullParserException {
         while (parser.nextTag() == XmlPullParser.START_TAG) {
-            parser.require(XmlPullParser.START_TAG, NS, MODULE_TAG);
-            TestRunResult module = new TestRunResult();
-            results.add(module);
-            String name = parser.getAttributeValue(NS, NAME_ATTR);
-            String abi = parser.getAttributeValue(NS, ABI_ATTR);
-            String moduleId = name;
-            if (abi != null) {
-                moduleId = AbiUtils.createId(abi, name);
-                moduleAbis.put(moduleId, new Abi(abi, AbiUtils.getBitness(abi)));
-            }
-            long moduleElapsedTime = Long.parseLong(parser.getAttributeValue(NS, RUNTIME_ATTR));
-            boolean moduleDone = Boolean.parseBoolean(parser.getAttributeValue(NS, DONE_ATTR));
-            int totalTests = Integer.parseInt(parser.getAttributeValue(NS, TOTAL_TESTS_ATTR));
-            module.testRunStarted(moduleId, totalTests);
-            // TestCase level information parsing
-            while (parser.nextTag() == XmlPullParser.START_TAG) {
-                parser.require(XmlPullParser.START_TAG, NS, CASE_TAG);
-                String className = parser.getAttributeValue(NS, NAME_ATTR);
-                // Test level information parsing
-                handleTestCaseLevel(parser, module, className);
-                parser.require(XmlPullParser.END_TAG, NS, CASE_TAG);
+            handleModule(parser, results, moduleAbis, moduleIds, failedOnly);
+        }
+    }
+
+    /**
+     * Parse the module the parser is on. Modules that are not requested, or that have no failures
+     * when only failed tests are requested, are skipped.
+     */
+    private void handleModule(
+            XmlPullParser parser,
+            Collection<TestRunResult> results,
+            Map<String, IAbi> moduleAbis,
+            Set<String> moduleIds,
+            boolean failedOnly)
+            throws IOException, XmlPullParserException {
+        parser.require(XmlPullParser.START_TAG, NS, MODULE_TAG);
+        String name = parser.getAttributeValue(NS, NAME_ATTR);
+        String abi = parser.getAttributeValue(NS, ABI_ATTR);
+        String moduleId = name;
+        if (abi != null) {
+            moduleId = AbiUtils.createId(abi, name);
+        }
+        if (moduleIds != null && !moduleIds.contains(moduleId)) {
+            skipSubTree(parser);
+            return;
+        }
+        TestRunResult module = new TestRunResult();
+        long moduleElapsedTime = Long.parseLong(parser.getAttributeValue(NS, RUNTIME_ATTR));
+        boolean moduleDone = Boolean.parseBoolean(parser.getAttributeValue(NS, DONE_ATTR));
+        int totalTests = Integer.parseInt(parser.getAttributeValue(NS, TOTAL_TESTS_ATTR));
+        module.testRunStarted(moduleId, totalTests);
+        // TestCase level information parsing
+        while (parser.nextTag() == XmlPullParser.START_TAG) {
+            parser.require(XmlPullParser.START_TAG, NS, CASE_TAG);
+            String className = parser.getAttributeValue(NS, NAME_ATTR);
+            // Test level information parsing
+            handleTestCaseLevel(parser, module, className, failedOnly);
+            parser.require(XmlPullParser.END_TAG, NS, CASE_TAG);
+        }
+        module.testRunEnded(moduleElapsedTime, new HashMap<String, Metric>());
+        module.setRunComplete(moduleDone);
+        parser.require(XmlPullParser.END_TAG, NS, MODULE_TAG);
+        if (failedOnly && moduleDone && module.getNumAllFailedTests() == 0) {
+            return;
+        }
+        results.add(module);
+        if (abi != null) {
+            moduleAbis.put(moduleId, new Abi(abi, AbiUtils.getBitness(abi)));
+        }
+    }
+
+    /** Skip the element the parser is on, leaving the parser on its end tag. */
+    private static void skipSubTree(XmlPullParser parser)
+            throws IOException, XmlPullParserException {
+        int depth = 1;
+        while (depth > 0) {
+            switch (parser.next()) {
+                case XmlPullParser.START_TAG:
+                    depth++;
+                    break;
+                case XmlPullParser.END_TAG:
+                    depth--;
+                    break;
+                case XmlPullParser.END_DOCUMENT:
+                    throw new XmlPullParserException("Unexpected end of document", parser, null);
+                default:
+                    break;
             }
-            module.testRunEnded(moduleElapsedTime, new HashMap<String, Metric>());
-            module.setRunComplete(moduleDone);
-            parser.require(XmlPullParser.END_TAG, NS, MODULE_TAG);
         }
     }
 
     /** Parse and replay all the individual test cases level (method) informations. */
     private void handleTestCaseLevel(
-            XmlPullParser parser, TestRunResult currentModule, String className)
+            XmlPullParser parser, TestRunResult currentModule, String className, boolean failedOnly)
             throws IOException, XmlPullParserException {
         while (parser.nextTag() == XmlPullParser.START_TAG) {
             parser.require(XmlPullParser.START_TAG, NS, TEST_TAG);
             String methodName = parser.getAttributeValue(NS, NAME_ATTR);
             TestStatus status = getStatusFromString(parser.getAttributeValue(NS, RESULT_ATTR));
+            if (failedOnly
+                    && (TestStatus.PASSED.equals(status)
+                            || TestStatus.IGNORED.equals(status)
+                            || TestStatus.ASSUMPTION_FAILURE.equals(status))) {
+                skipSubTree(parser);
+                parser.require(XmlPullParser.END_TAG, NS, TEST_TAG);
+                continue;
+            }
             TestDescription description = new TestDescription(className, methodName);
             currentModule.testStarted(description);
             if (TestStatus.IGNORED.equals(status)) {
@@ -43,7 +43,8 @@ public class SandboxConfigUtil {
 
     /**
      * Create a subprocess based on the Tf jars from any version, and dump the xml {@link
-     * IConfiguration} based on the command line args.
+     * IConfiguration} based on the command line args. A warm JVM of the {@link SandboxJvmPool} is
+     * used instead when the pool is enabled.
      *
      * @param classpath the classpath to use to run the sandbox.
      * @param runUtil the {@link IRunUtil} to use to run the command.
@@ -75,17 +76,26 @@ public class SandboxConfigUtil {
             FileUtil.deleteFile(destination);
             throw e;
         }
-        List<String> mCmdArgs = new ArrayList<>();
-        mCmdArgs.add("java");
-        mCmdArgs.add("-cp");
-        mCmdArgs.add(classpath);
-        mCmdArgs.add(SandboxConfigDump.class.getCanonicalName());
-        mCmdArgs.add(dump.toString());
-        mCmdArgs.add(destination.getAbsolutePath());
+        List<String> dumpArgs = new ArrayList<>();
+        dumpArgs.add(dump.toString());
+        dumpArgs.add(destination.getAbsolutePath());
         for (String arg : args) {
-            mCmdArgs.add(arg);
+            dumpArgs.add(arg);
+        }
+        CommandResult result = null;
+        SandboxJvmPool pool = SandboxJvmPool.getInstance();
+        if (pool.isEnabled()) {
+            result = pool.dumpConfig(classpath, globalConfig, runUtil, dumpArgs, DUMP_TIMEOUT);
+        }
+        if (result == null) {
+            List<String> mCmdArgs = new ArrayList<>();
+            mCmdArgs.add("java");
+            mCmdArgs.add("-cp");
+            mCmdArgs.add(classpath);
+            mCmdArgs.add(SandboxConfigDump.class.getCanonicalName());
+            mCmdArgs.addAll(dumpArgs);
+            result = runUtil.runTimedCmd(DUMP_TIMEOUT, mCmdArgs.toArray(new String[0]));
         }
-        CommandResult result = runUtil.runTimedCmd(DUMP_TIMEOUT, mCmdArgs.toArray(new String[0]));
         CLog.d("stdout: %s", result.getStdout());
         if (result.getStderr() != null && !result.getStderr().isEmpty()) {
             CLog.d("stderr: %s", result.getStderr());
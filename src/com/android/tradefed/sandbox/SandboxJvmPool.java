@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.sandbox;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.tradefed.config.GlobalConfiguration;
+import com.android.tradefed.host.IHostOptions;
+import com.android.tradefed.log.LogRegistry;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.CommandResult;
+import com.android.tradefed.util.CommandStatus;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.IRunUtil;
+import com.android.tradefed.util.IRunUtil.EnvPriority;
+import com.android.tradefed.util.RunUtil;
+import com.android.tradefed.util.SharedThreadFactory;
+import com.android.tradefed.util.StreamUtil;
+import com.android.tradefed.util.TimeUtil;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pool of warm JVMs running {@link SandboxJvmServer}, keyed by the classpath and the global
+ * configuration of the sandbox. They dump the sandbox configurations without paying the JVM
+ * startup and the class loading of the whole Tradefed classpath for each dump.
+ *
+ * <p>A JVM is replaced after {@link IHostOptions#getSandboxJvmMaxUses()} dumps or after a failed
+ * one, and its replacement is started in the background so the next dump finds it warm. The
+ * dumps fall back to a new process when the caller needs a specific environment, which the shared
+ * JVMs cannot have, or when the classpath cannot run {@link SandboxJvmServer}, like the ones of
+ * older Tradefed versions.
+ */
+public class SandboxJvmPool {
+
+    private static final long START_TIMEOUT = 2 * 60 * 1000; // 2 minutes
+    private static final int START_POLL_INTERVAL_MS = 500;
+    /** Classpath and global configuration combinations kept, the oldest ones are stopped. */
+    private static final int MAX_ENTRIES = 4;
+    /** The environment variables the pool sets itself for the JVMs it launches. */
+    private static final Set<String> POOL_ENV_VARIABLES =
+            new HashSet<>(
+                    Arrays.asList(
+                            GlobalConfiguration.GLOBAL_CONFIG_VARIABLE,
+                            GlobalConfiguration.GLOBAL_CONFIG_SERVER_CONFIG_VARIABLE));
+
+    private static final SandboxJvmPool sInstance = new SandboxJvmPool();
+
+    // Access ordered, to stop the least recently used entry.
+    private final Map<String, PoolEntry> mEntries =
+            new LinkedHashMap<String, PoolEntry>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PoolEntry> eldest) {
+                    if (size() <= MAX_ENTRIES) {
+                        return false;
+                    }
+                    eldest.getValue().stop();
+                    return true;
+                }
+            };
+    /** The classpaths whose JVM exited before connecting, guarded by mEntries. */
+    private final Set<String> mFailedClasspaths = new HashSet<>();
+    private final SharedThreadFactory mPrestartThreadFactory =
+            new SharedThreadFactory("SandboxJvmPool-prestart");
+    private long mSavedStartupTime = 0L;
+
+    /** The warm JVMs of a classpath and global configuration. */
+    private static class PoolEntry {
+        final String mClasspath;
+        // Copy of the global configuration, owned by the pool as the JVMs outlive the original.
+        final File mGlobalConfig;
+        final Deque<WarmJvm> mIdleJvms = new ArrayDeque<>();
+
+        PoolEntry(String classpath, File globalConfig) {
+            mClasspath = classpath;
+            mGlobalConfig = globalConfig;
+        }
+
+        void stop() {
+            for (WarmJvm jvm : mIdleJvms) {
+                jvm.destroy();
+            }
+            mIdleJvms.clear();
+            FileUtil.deleteFile(mGlobalConfig);
+        }
+    }
+
+    /** A JVM running {@link SandboxJvmServer} and its connection. */
+    private static class WarmJvm {
+        final PoolEntry mEntry;
+        final Process mProcess;
+        final Socket mSocket;
+        final BufferedReader mIn;
+        final PrintWriter mOut;
+        final long mStartupTime;
+        // Whether it was started ahead of the dump needing it.
+        final boolean mPrestarted;
+        int mUses = 0;
+
+        WarmJvm(
+                PoolEntry entry,
+                Process process,
+                Socket socket,
+                long startupTime,
+                boolean prestarted)
+                throws IOException {
+            mEntry = entry;
+            mProcess = process;
+            mSocket = socket;
+            mIn =
+                    new BufferedReader(
+                            new InputStreamReader(
+                                    socket.getInputStream(), StandardCharsets.UTF_8));
+            mOut =
+                    new PrintWriter(
+                            new OutputStreamWriter(
+                                    socket.getOutputStream(), StandardCharsets.UTF_8),
+                            true);
+            mStartupTime = startupTime;
+            mPrestarted = prestarted;
+        }
+
+        void destroy() {
+            // Closing the connection makes the JVM exit, destroy it in case it is stuck.
+            StreamUtil.close(mSocket);
+            mProcess.destroy();
+        }
+    }
+
+    @VisibleForTesting
+    SandboxJvmPool() {}
+
+    /** Returns the pool shared by the sandboxes of this Tradefed instance. */
+    public static SandboxJvmPool getInstance() {
+        return sInstance;
+    }
+
+    /** Returns whether warm JVMs should be used to dump the configurations. */
+    public boolean isEnabled() {
+        return getPoolSize() > 0;
+    }
+
+    /** Returns the JVM startup time saved by the warm JVMs so far. */
+    public synchronized long getSavedStartupTime() {
+        return mSavedStartupTime;
+    }
+
+    /**
+     * Dump a configuration in a warm JVM with the {@link SandboxConfigDump} args.
+     *
+     * @param classpath the classpath to use to run the sandbox.
+     * @param globalConfig the file describing the global configuration to be used, or null.
+     * @param runUtil the {@link IRunUtil} the dump would run with in a new process.
+     * @param dumpArgs the {@link SandboxConfigDump} args.
+     * @param timeout the maximum time to wait for the dump in ms.
+     * @return the {@link CommandResult} of the dump, or null if it could not use a warm JVM and
+     *     should be run in a new process.
+     */
+    public CommandResult dumpConfig(
+            String classpath,
+            File globalConfig,
+            IRunUtil runUtil,
+            List<String> dumpArgs,
+            long timeout) {
+        if (!hasPoolEnv(runUtil)) {
+            CLog.d("The dump needs a specific environment, dumping the config in a new JVM.");
+            return null;
+        }
+        synchronized (mEntries) {
+            if (mFailedClasspaths.contains(classpath)) {
+                return null;
+            }
+        }
+        WarmJvm jvm = null;
+        try {
+            jvm = acquire(getEntry(classpath, globalConfig));
+        } catch (IOException e) {
+            CLog.w("Could not get a warm sandbox JVM, dumping the config in a new one.");
+            CLog.w(e);
+            return null;
+        }
+        CommandResult result = new CommandResult();
+        try {
+            jvm.mSocket.setSoTimeout((int) timeout);
+            JSONObject request = new JSONObject();
+            request.put(SandboxJvmServer.ARGS_KEY, new JSONArray(dumpArgs));
+            jvm.mOut.println(request.toString());
+            String line = jvm.mIn.readLine();
+            if (line == null) {
+                throw new IOException("The sandbox JVM exited during the dump.");
+            }
+            JSONObject response = new JSONObject(line);
+            int exitCode = response.getInt(SandboxJvmServer.EXIT_CODE_KEY);
+            result.setExitCode(exitCode);
+            result.setStdout("");
+            result.setStderr(response.getString(SandboxJvmServer.STDERR_KEY));
+            result.setStatus(exitCode == 0 ? CommandStatus.SUCCESS : CommandStatus.FAILED);
+        } catch (SocketTimeoutException e) {
+            result.setStatus(CommandStatus.TIMED_OUT);
+            result.setStderr("");
+        } catch (IOException | JSONException e) {
+            CLog.w("The warm sandbox JVM failed, dumping the config in a new one.");
+            CLog.w(e);
+            release(jvm, false);
+            return null;
+        }
+        jvm.mUses++;
+        if (jvm.mUses > 1 || jvm.mPrestarted) {
+            long saved;
+            synchronized (this) {
+                mSavedStartupTime += jvm.mStartupTime;
+                saved = mSavedStartupTime;
+            }
+            CLog.d(
+                    "Dumped the config in a warm sandbox JVM, saved %s of startup (%s in total).",
+                    TimeUtil.formatElapsedTime(jvm.mStartupTime),
+                    TimeUtil.formatElapsedTime(saved));
+        }
+        release(jvm, CommandStatus.SUCCESS.equals(result.getStatus()));
+        return result;
+    }
+
+    /**
+     * Returns whether the commands of the {@link IRunUtil} run with the environment of the pool
+     * JVMs, which is the one of Tradefed apart from the variables the pool sets itself.
+     */
+    private static boolean hasPoolEnv(IRunUtil runUtil) {
+        if (!(runUtil instanceof RunUtil)) {
+            return false;
+        }
+        Set<String> modifiedVariables = ((RunUtil) runUtil).getModifiedEnvVariables();
+        modifiedVariables.removeAll(POOL_ENV_VARIABLES);
+        return modifiedVariables.isEmpty();
+    }
+
+    /** Returns the entry of a classpath and global configuration, creating it if needed. */
+    private PoolEntry getEntry(String classpath, File globalConfig) throws IOException {
+        String key = classpath;
+        if (globalConfig != null) {
+            key += File.pathSeparator + FileUtil.calculateMd5(globalConfig);
+        }
+        synchronized (mEntries) {
+            PoolEntry entry = mEntries.get(key);
+            if (entry == null) {
+                File globalConfigCopy = null;
+                if (globalConfig != null) {
+                    globalConfigCopy = FileUtil.createTempFile("sandbox-jvm-global-config", ".xml");
+                    globalConfigCopy.deleteOnExit();
+                    FileUtil.copyFile(globalConfig, globalConfigCopy);
+                }
+                entry = new PoolEntry(classpath, globalConfigCopy);
+                mEntries.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    /** Take an idle JVM of the entry, or start one if there is none. */
+    private WarmJvm acquire(PoolEntry entry) throws IOException {
+        synchronized (mEntries) {
+            WarmJvm jvm = null;
+            while ((jvm = entry.mIdleJvms.poll()) != null) {
+                if (jvm.mProcess.isAlive()) {
+                    return jvm;
+                }
+                jvm.destroy();
+            }
+        }
+        return startJvm(entry, false);
+    }
+
+    /** Put a JVM back in the pool, or replace it if it failed or was used enough. */
+    private void release(WarmJvm jvm, boolean success) {
+        boolean recycle = !success || jvm.mUses >= getMaxUses() || !jvm.mProcess.isAlive();
+        if (!recycle && offer(jvm)) {
+            return;
+        }
+        jvm.destroy();
+        if (recycle) {
+            prestart(jvm.mEntry);
+        }
+    }
+
+    /** Add a JVM to the idle ones of its entry, returns false if it is not needed. */
+    private boolean offer(WarmJvm jvm) {
+        synchronized (mEntries) {
+            if (!mEntries.containsValue(jvm.mEntry)
+                    || jvm.mEntry.mIdleJvms.size() >= getPoolSize()) {
+                return false;
+            }
+            jvm.mEntry.mIdleJvms.push(jvm);
+            return true;
+        }
+    }
+
+    /** Start a JVM for the entry in the background, to replace a recycled one. */
+    private void prestart(PoolEntry entry) {
+        // The thread outlives the invocation that recycled the JVM, but logs in its log.
+        mPrestartThreadFactory
+                .newThread(
+                        LogRegistry.wrapWithLogContext(
+                                () -> {
+                                    try {
+                                        WarmJvm jvm = startJvm(entry, true);
+                                        if (!offer(jvm)) {
+                                            jvm.destroy();
+                                        }
+                                    } catch (IOException e) {
+                                        CLog.w("Failed to start a warm sandbox JVM.");
+                                        CLog.w(e);
+                                    }
+                                }))
+                .start();
+    }
+
+    /** Start a JVM running {@link SandboxJvmServer} and wait for it to be warm. */
+    private WarmJvm startJvm(PoolEntry entry, boolean prestarted) throws IOException {
+        long startTime = System.currentTimeMillis();
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(START_POLL_INTERVAL_MS);
+            Process process =
+                    launchJvm(entry.mClasspath, entry.mGlobalConfig, server.getLocalPort());
+            if (process == null) {
+                throw new IOException("Failed to launch the sandbox JVM.");
+            }
+            Socket socket = null;
+            try {
+                while (socket == null) {
+                    try {
+                        socket = server.accept();
+                    } catch (SocketTimeoutException e) {
+                        if (!process.isAlive()) {
+                            // Likely a classpath without SandboxJvmServer, do not try it again.
+                            synchronized (mEntries) {
+                                mFailedClasspaths.add(entry.mClasspath);
+                            }
+                            throw new IOException("The sandbox JVM exited before connecting.", e);
+                        }
+                        if (System.currentTimeMillis() - startTime > START_TIMEOUT) {
+                            throw new IOException("The sandbox JVM did not connect.", e);
+                        }
+                    }
+                }
+                socket.setSoTimeout((int) START_TIMEOUT);
+                WarmJvm jvm =
+                        new WarmJvm(
+                                entry,
+                                process,
+                                socket,
+                                System.currentTimeMillis() - startTime,
+                                prestarted);
+                if (!SandboxJvmServer.READY.equals(jvm.mIn.readLine())) {
+                    throw new IOException("The sandbox JVM failed to warm up.");
+                }
+                CLog.d(
+                        "Started a warm sandbox JVM in %s.",
+                        TimeUtil.formatElapsedTime(jvm.mStartupTime));
+                return jvm;
+            } catch (IOException e) {
+                StreamUtil.close(socket);
+                process.destroy();
+                throw e;
+            }
+        }
+    }
+
+    /** Launch the JVM process, that connects to the pool on the given port. */
+    @VisibleForTesting
+    Process launchJvm(String classpath, File globalConfig, int port) throws IOException {
+        IRunUtil runUtil = new RunUtil();
+        runUtil.unsetEnvVariable(GlobalConfiguration.GLOBAL_CONFIG_SERVER_CONFIG_VARIABLE);
+        if (globalConfig != null) {
+            runUtil.setEnvVariable(
+                    GlobalConfiguration.GLOBAL_CONFIG_VARIABLE, globalConfig.getAbsolutePath());
+            runUtil.setEnvVariablePriority(EnvPriority.SET);
+        } else {
+            runUtil.unsetEnvVariable(GlobalConfiguration.GLOBAL_CONFIG_VARIABLE);
+        }
+        List<String> cmdArgs = new ArrayList<>();
+        cmdArgs.add("java");
+        cmdArgs.add("-cp");
+        cmdArgs.add(classpath);
+        cmdArgs.add(SandboxJvmServer.class.getCanonicalName());
+        cmdArgs.add(Integer.toString(port));
+        // The errors of the dumps are sent back with their results, ignore the rest of the output.
+        return runUtil.runCmdInBackground(
+                cmdArgs,
+                new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        // Ignore output
+                    }
+                });
+    }
+
+    /** Returns the number of idle JVMs to keep for each entry. */
+    @VisibleForTesting
+    int getPoolSize() {
+        IHostOptions hostOptions = getHostOptions();
+        return hostOptions == null ? 0 : hostOptions.getSandboxJvmPoolSize();
+    }
+
+    /** Returns the number of dumps after which a JVM is replaced. */
+    @VisibleForTesting
+    int getMaxUses() {
+        IHostOptions hostOptions = getHostOptions();
+        return hostOptions == null ? 1 : hostOptions.getSandboxJvmMaxUses();
+    }
+
+    private IHostOptions getHostOptions() {
+        try {
+            return GlobalConfiguration.getInstance().getHostOptions();
+        } catch (IllegalStateException e) {
+            // No global configuration, like in unit tests.
+            return null;
+        }
+    }
+}
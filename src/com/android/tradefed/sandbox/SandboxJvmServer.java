@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.sandbox;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.tradefed.config.ConfigurationException;
+import com.android.tradefed.config.GlobalConfiguration;
+import com.android.tradefed.config.IConfiguration;
+import com.android.tradefed.config.SandboxConfigurationFactory;
+import com.android.tradefed.sandbox.SandboxConfigDump.DumpCmd;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runner started by {@link SandboxJvmPool} that stays alive to dump several configurations with
+ * {@link SandboxConfigDump}, saving the JVM startup and class loading of each dump. args: <port of
+ * the pool>
+ *
+ * <p>Each request is a line of JSON holding the {@link SandboxConfigDump} args, answered by a line
+ * of JSON holding its exit code and stderr. The runner exits when the pool closes the connection.
+ */
+public class SandboxJvmServer {
+
+    /** Sent once the runner is warm and ready for requests. */
+    public static final String READY = "SANDBOX_JVM_READY";
+
+    public static final String ARGS_KEY = "args";
+    public static final String EXIT_CODE_KEY = "exit_code";
+    public static final String STDERR_KEY = "stderr";
+
+    /** Config loaded during the warm up, shipped with every Tradefed version. */
+    private static final String WARM_UP_CONFIG = "empty";
+
+    /** Warm up, then answer the dump requests until the input is closed. */
+    @VisibleForTesting
+    void serve(InputStream input, OutputStream output) throws IOException, JSONException {
+        warmUp();
+        BufferedReader in =
+                new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        PrintWriter out =
+                new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), true);
+        out.println(READY);
+        String request = null;
+        while ((request = in.readLine()) != null) {
+            JSONArray jsonArgs = new JSONObject(request).getJSONArray(ARGS_KEY);
+            String[] args = new String[jsonArgs.length()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = jsonArgs.getString(i);
+            }
+            // The dump reports its errors on stderr, capture them for the pool.
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+            PrintStream originalStderr = System.err;
+            int exitCode = 1;
+            System.setErr(new PrintStream(stderr, true));
+            try {
+                exitCode = dump(args);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                System.err.flush();
+                System.setErr(originalStderr);
+            }
+            JSONObject response = new JSONObject();
+            response.put(EXIT_CODE_KEY, exitCode);
+            response.put(STDERR_KEY, stderr.toString());
+            out.println(response.toString());
+        }
+    }
+
+    /** Load the classes used by the dumps, by creating and dumping a configuration. */
+    @VisibleForTesting
+    void warmUp() {
+        try {
+            IConfiguration config =
+                    SandboxConfigurationFactory.getInstance()
+                            .createConfigurationFromArgs(
+                                    new String[] {WARM_UP_CONFIG}, DumpCmd.RUN_CONFIG);
+            config.dumpXml(new PrintWriter(new StringWriter()));
+        } catch (ConfigurationException | IOException e) {
+            // The dumps still work, they are only slower.
+            e.printStackTrace();
+        }
+    }
+
+    /** Dump a configuration, returns the exit code of the dump. */
+    @VisibleForTesting
+    int dump(String[] args) {
+        return new SandboxConfigDump().parse(args);
+    }
+
+    public static void main(final String[] mainArgs) {
+        try {
+            GlobalConfiguration.createGlobalConfiguration(new String[] {});
+        } catch (ConfigurationException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        int code = 0;
+        try (Socket socket =
+                new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(mainArgs[0]))) {
+            new SandboxJvmServer().serve(socket.getInputStream(), socket.getOutputStream());
+        } catch (IOException | JSONException e) {
+            e.printStackTrace();
+            code = 1;
+        }
+        System.exit(code);
+    }
+}
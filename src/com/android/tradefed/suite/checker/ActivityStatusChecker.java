@@ -25,11 +25,24 @@ import com.android.tradefed.result.LogDataType;
 import com.android.tradefed.suite.checker.StatusCheckerResult.CheckStatus;
 import com.android.tradefed.util.StreamUtil;
 
+import java.util.Arrays;
+import java.util.List;
+
 /** Status checker for left over activities running at the end of a module. */
-public class ActivityStatusChecker implements ISystemStatusChecker, ITestLoggerReceiver {
+public class ActivityStatusChecker extends BaseBatchedShellCommandChecker
+        implements ITestLoggerReceiver {
+
+    private static final String FOCUS_COMMAND =
+            "dumpsys window windows | grep -E 'mCurrentFocus|mFocusedApp'";
 
     private ITestLogger mLogger;
 
+    /** {@inheritDoc} */
+    @Override
+    public List<String> getPostExecutionCommands() {
+        return Arrays.asList(FOCUS_COMMAND);
+    }
+
     @Override
     public StatusCheckerResult postExecutionCheck(ITestDevice device)
             throws DeviceNotAvailableException {
@@ -39,9 +52,7 @@ public class ActivityStatusChecker implements ISystemStatusChecker, ITestLoggerR
     private StatusCheckerResult isFrontActivityLauncher(ITestDevice device)
             throws DeviceNotAvailableException {
         StatusCheckerResult result = new StatusCheckerResult();
-        String output =
-                device.executeShellCommand(
-                        "dumpsys window windows | grep -E 'mCurrentFocus|mFocusedApp'");
+        String output = executeShellCommand(device, FOCUS_COMMAND);
         CLog.d("dumpsys window windows: %s", output);
         if (output.contains("Launcher")) {
             result.setStatus(CheckStatus.SUCCESS);
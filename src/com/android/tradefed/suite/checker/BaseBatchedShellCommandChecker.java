@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.suite.checker;
+
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Base implementation class for {@link IBatchedShellCommandChecker} that keeps the outputs of the
+ * batched commands, so that checkers only declare their commands and run them with {@link
+ * #executeShellCommand(ITestDevice, String)}.
+ */
+public abstract class BaseBatchedShellCommandChecker implements IBatchedShellCommandChecker {
+
+    private final Map<String, String> mCommandOutputs = new HashMap<>();
+
+    /** {@inheritDoc} */
+    @Override
+    public final void setCommandOutputs(Map<String, String> outputs) {
+        mCommandOutputs.clear();
+        mCommandOutputs.putAll(outputs);
+    }
+
+    /**
+     * Returns the output of a command from the batch, or runs the command if it was not part of
+     * the batch. Each output is only used once: running the command again gets a fresh output.
+     *
+     * @param device The {@link ITestDevice} to run the command on if needed.
+     * @param command the adb shell command.
+     * @return the shell output
+     * @throws DeviceNotAvailableException
+     */
+    protected String executeShellCommand(ITestDevice device, String command)
+            throws DeviceNotAvailableException {
+        String output = mCommandOutputs.remove(command);
+        if (output != null) {
+            return output;
+        }
+        return device.executeShellCommand(command);
+    }
+}
@@ -20,10 +20,14 @@ import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.suite.checker.StatusCheckerResult.CheckStatus;
 
+import java.util.Arrays;
+import java.util.List;
+
 /** Status checker that ensures the status of Selinux. */
-public class EnforcedSeLinuxChecker implements ISystemStatusChecker {
+public class EnforcedSeLinuxChecker extends BaseBatchedShellCommandChecker {
 
     private static final String ENFORCING_STRING = "enforcing";
+    private static final String GET_ENFORCE_COMMAND = "getenforce";
 
     @Option(
         name = "expect-enforced",
@@ -31,6 +35,13 @@ public class EnforcedSeLinuxChecker implements ISystemStatusChecker {
     )
     private boolean mExpectedEnforced = false;
 
+
+    /** {@inheritDoc} */
+    @Override
+    public List<String> getPostExecutionCommands() {
+        return Arrays.asList(GET_ENFORCE_COMMAND);
+    }
+
     /** {@inheritDoc} */
     @Override
     public StatusCheckerResult postExecutionCheck(ITestDevice device)
@@ -49,7 +60,7 @@ public class EnforcedSeLinuxChecker implements ISystemStatusChecker {
     }
 
     private boolean isEnforced(ITestDevice device) throws DeviceNotAvailableException {
-        String result = device.executeShellCommand("getenforce");
+        String result = executeShellCommand(device, GET_ENFORCE_COMMAND);
         if (ENFORCING_STRING.equals(result.toLowerCase().trim())) {
             return true;
         }
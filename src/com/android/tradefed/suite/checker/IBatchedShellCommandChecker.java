@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.suite.checker;
+
+import com.android.tradefed.device.ITestDevice;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link ISystemStatusChecker} that declares the shell commands run by its checks. The suite runs
+ * the commands of all the checkers in a single batch with {@link
+ * ITestDevice#executeShellCommands(List)}, instead of one round-trip to the device per command.
+ *
+ * <p>The batch runs before the first check, so the commands should not depend on changes made by
+ * the other checkers.
+ */
+public interface IBatchedShellCommandChecker extends ISystemStatusChecker {
+
+    /** Returns the shell commands run by {@link #preExecutionCheck(ITestDevice)}. */
+    public default List<String> getPreExecutionCommands() {
+        return Collections.emptyList();
+    }
+
+    /** Returns the shell commands run by {@link #postExecutionCheck(ITestDevice)}. */
+    public default List<String> getPostExecutionCommands() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Sets the outputs of the batched commands before each check, keyed by command. The check
+     * should use them instead of running the commands, see {@link
+     * BaseBatchedShellCommandChecker}.
+     */
+    public void setCommandOutputs(Map<String, String> outputs);
+}
@@ -20,16 +20,30 @@ import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.suite.checker.StatusCheckerResult.CheckStatus;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /** Checks if system server appears to be running out of FDs. */
-public class SystemServerFileDescriptorChecker implements ISystemStatusChecker {
+public class SystemServerFileDescriptorChecker extends BaseBatchedShellCommandChecker {
 
     /** Process will fail to allocate beyond 1024, so heuristic considers 900 a bad state */
     private static final int MAX_EXPECTED_FDS = 900;
     private static final String BUILD_TYPE_PROP = "ro.build.type";
     private static final String USER_BUILD = "user";
+    private static final String PID_COMMAND = "pidof system_server";
 
     private String mBuildType = null;
 
+    /** {@inheritDoc} */
+    @Override
+    public List<String> getPostExecutionCommands() {
+        if (USER_BUILD.equals(mBuildType)) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(PID_COMMAND);
+    }
+
     @Override
     public StatusCheckerResult preExecutionCheck(ITestDevice device)
             throws DeviceNotAvailableException {
@@ -48,7 +62,7 @@ public class SystemServerFileDescriptorChecker implements ISystemStatusChecker {
             CLog.d("Skipping system_server fd check on user builds.");
             return new StatusCheckerResult(CheckStatus.SUCCESS);
         }
-        Integer pid = getIntegerFromCommand(device, "pidof system_server");
+        Integer pid = getIntegerFromCommand(device, PID_COMMAND);
         if (pid == null) {
             CLog.d("Unable to find system_server pid.");
             return new StatusCheckerResult(CheckStatus.SUCCESS);
@@ -70,9 +84,9 @@ public class SystemServerFileDescriptorChecker implements ISystemStatusChecker {
         return new StatusCheckerResult(CheckStatus.SUCCESS);
     }
 
-    private static Integer getIntegerFromCommand(ITestDevice device, String command)
+    private Integer getIntegerFromCommand(ITestDevice device, String command)
             throws DeviceNotAvailableException {
-        String output = device.executeShellCommand(command);
+        String output = executeShellCommand(device, command);
         if (output == null) {
             CLog.w("no shell output for command: " + command);
             return null;
@@ -21,21 +21,38 @@ import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.suite.checker.StatusCheckerResult.CheckStatus;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Check if the pid of system_server has changed from before and after a module run. A new pid would
  * mean a runtime restart occurred during the module run.
  */
-public class SystemServerStatusChecker implements ISystemStatusChecker {
+public class SystemServerStatusChecker extends BaseBatchedShellCommandChecker {
+
+    private static final String PID_COMMAND = "pidof system_server";
 
     private String mSystemServerPid = null;
     private Long mModuleStartTime = null;
 
+    /** {@inheritDoc} */
+    @Override
+    public List<String> getPreExecutionCommands() {
+        return Arrays.asList(PID_COMMAND);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<String> getPostExecutionCommands() {
+        return Arrays.asList(PID_COMMAND);
+    }
+
     /** {@inheritDoc} */
     @Override
     public StatusCheckerResult preExecutionCheck(ITestDevice device)
             throws DeviceNotAvailableException {
         mSystemServerPid = null;
-        mSystemServerPid = device.executeShellCommand("pidof system_server");
+        mSystemServerPid = executeShellCommand(device, PID_COMMAND);
         StatusCheckerResult result = new StatusCheckerResult(CheckStatus.SUCCESS);
         if (mSystemServerPid == null) {
             String message = "Failed to get system_server pid.";
@@ -65,7 +82,7 @@ public class SystemServerStatusChecker implements ISystemStatusChecker {
             CLog.d("No valid known value of system_server pid, skipping system checker.");
             return new StatusCheckerResult(CheckStatus.SUCCESS);
         }
-        String tmpSystemServerPid = device.executeShellCommand("pidof system_server");
+        String tmpSystemServerPid = executeShellCommand(device, PID_COMMAND);
         if (tmpSystemServerPid != null) {
             tmpSystemServerPid = tmpSystemServerPid.trim();
         }
@@ -32,7 +32,9 @@ import com.android.tradefed.util.CommandStatus;
 import com.android.tradefed.util.IRunUtil;
 import com.android.tradefed.util.RunUtil;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.TimeUnit;
 
@@ -106,6 +108,14 @@ public abstract class DeviceFlashPreparer extends BaseTargetPreparer implements
     )
     private Collection<String> mFastbootFlashOptions = new ArrayList<>();
 
+    @Option(
+            name = "stage-device-image",
+            description =
+                    "extract the device image zip once for all the devices flashed with the same "
+                            + "build, and flash it with fastboot flashall instead of running "
+                            + "fastboot update on the zip for each device.")
+    private boolean mStageDeviceImage = false;
+
     /**
      * Sets the device boot time
      * <p/>
@@ -188,10 +198,11 @@ public abstract class DeviceFlashPreparer extends BaseTargetPreparer implements
             device.setRecoveryMode(RecoveryMode.ONLINE);
             IDeviceFlasher flasher = createFlasher(device);
             flasher.setWipeTimeout(mWipeTimeout);
+            long imageBytes = getImageBytes(deviceBuild);
             // only surround fastboot related operations with flashing permit restriction
             try {
                 start = System.currentTimeMillis();
-                deviceManager.takeFlashingPermit();
+                deviceManager.takeFlashingPermit(imageBytes);
                 queueTime = System.currentTimeMillis() - start;
                 CLog.v("Flashing permit obtained after %ds",
                         TimeUnit.MILLISECONDS.toSeconds((queueTime)));
@@ -202,13 +213,14 @@ public abstract class DeviceFlashPreparer extends BaseTargetPreparer implements
                 flasher.setDataWipeSkipList(mDataWipeSkipList);
                 if (flasher instanceof FastbootDeviceFlasher) {
                     ((FastbootDeviceFlasher) flasher).setFlashOptions(mFastbootFlashOptions);
+                    ((FastbootDeviceFlasher) flasher).setStageDeviceImage(mStageDeviceImage);
                 }
                 preEncryptDevice(device, flasher);
                 start = System.currentTimeMillis();
                 flasher.flash(device, deviceBuild);
             } finally {
                 flashingTime = System.currentTimeMillis() - start;
-                deviceManager.returnFlashingPermit();
+                deviceManager.returnFlashingPermit(imageBytes);
                 // report flashing status
                 CommandStatus status = flasher.getSystemFlashingStatus();
                 if (status == null) {
@@ -255,6 +267,25 @@ public abstract class DeviceFlashPreparer extends BaseTargetPreparer implements
         }
     }
 
+    /**
+     * Returns the total size of the images of the build that can be flashed, used to limit the
+     * number of bytes being flashed concurrently.
+     */
+    private static long getImageBytes(IDeviceBuildInfo deviceBuild) {
+        long imageBytes = 0L;
+        for (File image :
+                Arrays.asList(
+                        deviceBuild.getDeviceImageFile(),
+                        deviceBuild.getUserDataImageFile(),
+                        deviceBuild.getBootloaderImageFile(),
+                        deviceBuild.getBasebandImageFile())) {
+            if (image != null) {
+                imageBytes += image.length();
+            }
+        }
+        return imageBytes;
+    }
+
     /**
      * Possible check before flashing to ensure the device is as expected compare to the build info.
      *
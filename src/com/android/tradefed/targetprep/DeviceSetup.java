@@ -22,6 +22,7 @@ import com.android.tradefed.config.Option;
 import com.android.tradefed.config.OptionClass;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.device.SettingsCommands;
 import com.android.tradefed.device.StubDevice;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.util.BinaryState;
@@ -31,8 +32,10 @@ import com.google.common.annotations.VisibleForTesting;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -494,14 +497,12 @@ public class DeviceSetup extends BaseTargetPreparer implements ITargetCleaner {
         }
 
         if (mRestoreSettings) {
-            for (Map.Entry<String, String> entry : mPreviousSystemSettings.entrySet()) {
-                device.setSetting("system", entry.getKey(), entry.getValue());
-            }
-            for (Map.Entry<String, String> entry : mPreviousGlobalSettings.entrySet()) {
-                device.setSetting("global", entry.getKey(), entry.getValue());
-            }
-            for (Map.Entry<String, String> entry : mPreviousSecureSettings.entrySet()) {
-                device.setSetting("secure", entry.getKey(), entry.getValue());
+            List<String> commands = new ArrayList<>();
+            addRestoreSettingCommands("system", mPreviousSystemSettings, commands);
+            addRestoreSettingCommands("global", mPreviousGlobalSettings, commands);
+            addRestoreSettingCommands("secure", mPreviousSecureSettings, commands);
+            if (!commands.isEmpty()) {
+                device.executeShellCommands(commands);
             }
         }
     }
@@ -754,16 +755,18 @@ public class DeviceSetup extends BaseTargetPreparer implements ITargetCleaner {
         switch (mScreenAlwaysOn) {
             case ON:
                 CLog.d("Setting screen always on to true");
-                device.executeShellCommand(String.format(cmd, "true"));
-                // send MENU press in case keygaurd needs to be dismissed again
-                device.executeShellCommand("input keyevent 82");
-                // send HOME press in case keyguard was already dismissed, so we bring device back
-                // to home screen
-                device.executeShellCommand("input keyevent 3");
+                device.executeShellCommands(
+                        Arrays.asList(
+                                String.format(cmd, "true"),
+                                // send MENU press in case keygaurd needs to be dismissed again
+                                "input keyevent 82",
+                                // send HOME press in case keyguard was already dismissed, so we
+                                // bring device back to home screen
+                                "input keyevent 3"));
                 break;
             case OFF:
                 CLog.d("Setting screen always on to false");
-                device.executeShellCommand(String.format(cmd, "false"));
+                device.executeShellCommands(Arrays.asList(String.format(cmd, "false")));
                 break;
             case IGNORE:
                 break;
@@ -798,22 +801,28 @@ public class DeviceSetup extends BaseTargetPreparer implements ITargetCleaner {
                     "must be API 22+", device.getSerialNumber()), device.getDeviceDescriptor());
         }
 
+        if (mRestoreSettings) {
+            readPreviousSettings(device);
+        }
+
+        // All the settings are changed in a single batch of shell commands.
+        List<String> commands = new ArrayList<>();
         // Special case airplane mode since it needs to be set before other connectivity settings
         // For example, it is possible to enable airplane mode and then turn wifi on
         String command = "am broadcast -a android.intent.action.AIRPLANE_MODE --ez state %s";
         switch (mAirplaneMode) {
             case ON:
                 CLog.d("Changing global setting airplane_mode_on to 1");
-                device.setSetting("global", "airplane_mode_on", "1");
+                commands.add(SettingsCommands.putCommand("global", "airplane_mode_on", "1"));
                 if (!mForceSkipRunCommands) {
-                    device.executeShellCommand(String.format(command, "true"));
+                    commands.add(String.format(command, "true"));
                 }
                 break;
             case OFF:
                 CLog.d("Changing global setting airplane_mode_on to 0");
-                device.setSetting("global", "airplane_mode_on", "0");
+                commands.add(SettingsCommands.putCommand("global", "airplane_mode_on", "0"));
                 if (!mForceSkipRunCommands) {
-                    device.executeShellCommand(String.format(command, "false"));
+                    commands.add(String.format(command, "false"));
                 }
                 break;
             case IGNORE:
@@ -821,37 +830,70 @@ public class DeviceSetup extends BaseTargetPreparer implements ITargetCleaner {
                 break;
         }
 
-        for (String key : mSystemSettings.keySet()) {
-            for (String value : mSystemSettings.get(key)) {
-                if (mRestoreSettings) {
-                    String previousSetting = device.getSetting("system", key);
-                    mPreviousSystemSettings.put(key, previousSetting);
-                }
-                CLog.d("Changing system setting %s to %s", key, value);
-                device.setSetting("system", key, value);
+        addSettingCommands("system", mSystemSettings, commands);
+        addSettingCommands("secure", mSecureSettings, commands);
+        addSettingCommands("global", mGlobalSettings, commands);
+        if (!commands.isEmpty()) {
+            device.executeShellCommands(commands);
+        }
+    }
+
+    /** Add the commands changing the settings of a namespace, in order. */
+    private void addSettingCommands(
+            String namespace, MultiMap<String, String> settings, List<String> commands) {
+        for (String key : settings.keySet()) {
+            for (String value : settings.get(key)) {
+                CLog.d("Changing %s setting %s to %s", namespace, key, value);
+                commands.add(SettingsCommands.putCommand(namespace, key, value));
             }
         }
-        for (String key : mSecureSettings.keySet()) {
-            for (String value : mSecureSettings.get(key)) {
-                if (mRestoreSettings) {
-                    String previousSetting = device.getSetting("secure", key);
-                    mPreviousSecureSettings.put(key, previousSetting);
-                }
-                CLog.d("Changing secure setting %s to %s", key, value);
-                device.setSetting("secure", key, value);
+    }
+
+    /** Add the commands restoring the previous settings of a namespace. */
+    private void addRestoreSettingCommands(
+            String namespace, Map<String, String> previousSettings, List<String> commands) {
+        for (Map.Entry<String, String> entry : previousSettings.entrySet()) {
+            if (entry.getValue() == null) {
+                // The setting did not exist before
+                commands.add(SettingsCommands.deleteCommand(namespace, entry.getKey()));
+            } else {
+                commands.add(
+                        SettingsCommands.putCommand(namespace, entry.getKey(), entry.getValue()));
             }
         }
+    }
 
+    /** Read the value of the settings to change in a single batch, to restore them later. */
+    private void readPreviousSettings(ITestDevice device) throws DeviceNotAvailableException {
+        List<String> commands = new ArrayList<>();
+        for (String key : mSystemSettings.keySet()) {
+            commands.add(SettingsCommands.getCommand("system", key));
+        }
+        for (String key : mSecureSettings.keySet()) {
+            commands.add(SettingsCommands.getCommand("secure", key));
+        }
         for (String key : mGlobalSettings.keySet()) {
-            for (String value : mGlobalSettings.get(key)) {
-                if (mRestoreSettings) {
-                    String previousSetting = device.getSetting("global", key);
-                    mPreviousGlobalSettings.put(key, previousSetting);
-                }
-                CLog.d("Changing global setting %s to %s", key, value);
-                device.setSetting("global", key, value);
-            }
+            commands.add(SettingsCommands.getCommand("global", key));
+        }
+        if (commands.isEmpty()) {
+            return;
         }
+        Iterator<String> outputs = device.executeShellCommands(commands).iterator();
+        for (String key : mSystemSettings.keySet()) {
+            mPreviousSystemSettings.put(key.trim(), parseSetting(outputs.next()));
+        }
+        for (String key : mSecureSettings.keySet()) {
+            mPreviousSecureSettings.put(key.trim(), parseSetting(outputs.next()));
+        }
+        for (String key : mGlobalSettings.keySet()) {
+            mPreviousGlobalSettings.put(key.trim(), parseSetting(outputs.next()));
+        }
+    }
+
+    /** Returns the value of a setting from the output of 'settings get'. */
+    private static String parseSetting(String output) {
+        output = output.trim();
+        return "null".equals(output) ? null : output;
     }
 
     /**
@@ -869,8 +911,8 @@ public class DeviceSetup extends BaseTargetPreparer implements ITargetCleaner {
             return;
         }
 
-        for (String command : commands) {
-            device.executeShellCommand(command);
+        if (!commands.isEmpty()) {
+            device.executeShellCommands(commands);
         }
     }
 
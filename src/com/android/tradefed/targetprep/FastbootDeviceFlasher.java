@@ -37,6 +37,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.regex.Matcher;
@@ -56,6 +57,9 @@ public class FastbootDeviceFlasher implements IDeviceFlasher  {
     private static final String SLOT_PROP = "ro.boot.slot_suffix";
     private static final String SLOT_VAR = "current-slot";
 
+    /** The variable pointing fastboot flashall to the directory of the images to flash. */
+    private static final String PRODUCT_OUT_VAR = "ANDROID_PRODUCT_OUT";
+
     private long mWipeTimeout = 4 * 60 * 1000;
 
     private UserDataFlashOption mUserDataFlashOption = UserDataFlashOption.FLASH;
@@ -70,6 +74,8 @@ public class FastbootDeviceFlasher implements IDeviceFlasher  {
 
     private boolean mForceSystemFlash;
 
+    private boolean mStageDeviceImage = false;
+
     private CommandStatus mFbCmdStatus;
 
     private CommandStatus mSystemFlashStatus;
@@ -133,6 +139,15 @@ public class FastbootDeviceFlasher implements IDeviceFlasher  {
         mFlashOptions = flashOptions.stream().map(String::trim).collect(Collectors.toList());
     }
 
+    /**
+     * Sets whether the device image zip is extracted once in a directory shared by all the devices
+     * flashed with it, and flashed from there with fastboot flashall, instead of running fastboot
+     * update on the zip for each device.
+     */
+    public void setStageDeviceImage(boolean stageDeviceImage) {
+        mStageDeviceImage = stageDeviceImage;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -166,7 +181,7 @@ public class FastbootDeviceFlasher implements IDeviceFlasher  {
 
     private String[] buildFastbootCommand(String action, String... args) {
         List<String> cmdArgs = new ArrayList<>();
-        if ("flash".equals(action) || "update".equals(action)) {
+        if ("flash".equals(action) || "update".equals(action) || "flashall".equals(action)) {
             cmdArgs.addAll(mFlashOptions);
         }
         cmdArgs.add(action);
@@ -551,6 +566,22 @@ public class FastbootDeviceFlasher implements IDeviceFlasher  {
      */
     protected void flashUserDataFromDeviceImageFile(ITestDevice device,
             IDeviceBuildInfo deviceBuild) throws DeviceNotAvailableException, TargetSetupError {
+        if (mStageDeviceImage) {
+            StagedDeviceImage image = stageDeviceImage(device, deviceBuild);
+            try {
+                File userdataImg = image.getImage("userdata.img");
+                if (userdataImg == null) {
+                    throw new TargetSetupError(
+                            "failed to extract userdata.img from image file",
+                            device.getDeviceDescriptor());
+                }
+                CLog.i("Flashing %s with userdata %s", device.getSerialNumber(), userdataImg);
+                flashPartition(device, userdataImg, "userdata");
+            } finally {
+                image.release();
+            }
+            return;
+        }
         File userdataImg = null;
         try {
             try (ZipFile zip = new ZipFile(deviceBuild.getDeviceImageFile())) {
@@ -652,10 +683,14 @@ public class FastbootDeviceFlasher implements IDeviceFlasher  {
                 deviceBuild.getDeviceImageFile().getAbsolutePath());
         // give extra time to the update cmd
         try {
-            executeLongFastbootCmd(
-                    device,
-                    buildFastbootCommand(
-                            "update", deviceBuild.getDeviceImageFile().getAbsolutePath()));
+            if (mStageDeviceImage) {
+                flashStagedSystem(device, deviceBuild);
+            } else {
+                executeLongFastbootCmd(
+                        device,
+                        buildFastbootCommand(
+                                "update", deviceBuild.getDeviceImageFile().getAbsolutePath()));
+            }
             // only transfer last fastboot command status over to system flash status after having
             // flashing the system partitions
             mSystemFlashStatus = mFbCmdStatus;
@@ -667,6 +702,45 @@ public class FastbootDeviceFlasher implements IDeviceFlasher  {
         }
     }
 
+    /**
+     * Flash the device image from its staged images with fastboot flashall, which flashes and
+     * checks them exactly like fastboot update does with the zip.
+     *
+     * @param device the {@link ITestDevice} to flash
+     * @param deviceBuild the {@link IDeviceBuildInfo} to flash
+     * @throws DeviceNotAvailableException if device is not available
+     * @throws TargetSetupError if the device image could not be staged or fastboot command fails
+     */
+    private void flashStagedSystem(ITestDevice device, IDeviceBuildInfo deviceBuild)
+            throws DeviceNotAvailableException, TargetSetupError {
+        StagedDeviceImage image = stageDeviceImage(device, deviceBuild);
+        try {
+            String[] cmdArgs = buildFastbootCommand("flashall");
+            CommandResult result =
+                    device.executeLongFastbootCommand(
+                            Collections.singletonMap(
+                                    PRODUCT_OUT_VAR, image.getDir().getAbsolutePath()),
+                            cmdArgs);
+            handleFastbootResult(device, result, cmdArgs);
+        } finally {
+            image.release();
+        }
+    }
+
+    private StagedDeviceImage stageDeviceImage(ITestDevice device, IDeviceBuildInfo deviceBuild)
+            throws TargetSetupError {
+        try {
+            return StagedDeviceImage.acquire(
+                    deviceBuild.getDeviceBuildId(), deviceBuild.getDeviceImageFile());
+        } catch (IOException e) {
+            throw new TargetSetupError(
+                    String.format(
+                            "failed to stage device image %s", deviceBuild.getDeviceImageFile()),
+                    e,
+                    device.getDeviceDescriptor());
+        }
+    }
+
     /**
      * Helper method to get the current image version on device.
      *
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.targetprep;
+
+import com.android.tradefed.build.IBuildInfo;
+import com.android.tradefed.device.ITestDevice;
+
+/**
+ * A {@link ITargetPreparer} that can do the host-only part of its setup ahead of time, for example
+ * resolving the files to push or parsing the apks to install. Suites call it on a background
+ * thread while the device is still running a previous module, then call {@link
+ * ITargetPreparer#setUp(ITestDevice, IBuildInfo)} as usual, which only has the device steps left.
+ */
+public interface IHostPreparer {
+
+    /**
+     * Prepare what the setup needs on the host. This must not interact with the device, and the
+     * setup must still work if this is not called or failed: the setup reports the errors.
+     *
+     * @param buildInfo the {@link IBuildInfo} of the device that will be set up.
+     * @throws TargetSetupError if the host preparation failed.
+     */
+    public void prepareOnHost(IBuildInfo buildInfo) throws TargetSetupError;
+}
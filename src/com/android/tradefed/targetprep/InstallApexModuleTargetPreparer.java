@@ -63,6 +63,16 @@ public class InstallApexModuleTargetPreparer extends SuiteApkInstaller {
     @Option(name = "bundletool-file-name", description = "The file name of the bundletool jar.")
     private String mBundletoolFilename;
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Nothing is prepared ahead: apex and split apks files are resolved during the setup.
+     */
+    @Override
+    public void prepareOnHost(IBuildInfo buildInfo) {
+        // Empty on purpose.
+    }
+
     @Override
     public void setUp(ITestDevice device, IBuildInfo buildInfo)
             throws TargetSetupError, DeviceNotAvailableException {
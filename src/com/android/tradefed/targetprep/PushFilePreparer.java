@@ -43,6 +43,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A {@link ITargetPreparer} that attempts to push any number of files from any host path to any
@@ -50,10 +51,12 @@ import java.util.Set;
  *
  * <p>Should be performed *after* a new build is flashed, and *after* DeviceSetup is run (if
  * enabled)
+ *
+ * <p>The relative local paths can be resolved ahead of the setup through {@link IHostPreparer}.
  */
 @OptionClass(alias = "push-file")
 public class PushFilePreparer extends BaseTargetPreparer
-        implements ITargetCleaner, IAbiReceiver, IInvocationContextReceiver {
+        implements ITargetCleaner, IAbiReceiver, IInvocationContextReceiver, IHostPreparer {
     private static final String LOG_TAG = "PushFilePreparer";
     private static final String MEDIA_SCAN_INTENT =
             "am broadcast -a android.intent.action.MEDIA_MOUNTED -d file://%s "
@@ -107,6 +110,8 @@ public class PushFilePreparer extends BaseTargetPreparer
     private Set<String> mFilesPushed = null;
     /** If the preparer is part of a module, we can use the test module name as a search criteria */
     private String mModuleName = null;
+    /** Relative local paths resolved by prepareOnHost, consumed by the next setup. */
+    private Map<String, File> mResolvedFiles = new ConcurrentHashMap<>();
 
     /**
      * Helper method to only throw if mAbortOnFailure is enabled.  Callers should behave as if this
@@ -234,12 +239,49 @@ public class PushFilePreparer extends BaseTargetPreparer
         return src;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Resolves the relative local paths of the files to push.
+     */
+    @Override
+    public void prepareOnHost(IBuildInfo buildInfo) {
+        List<String> localPaths = new ArrayList<>();
+        for (String pushspec : mPushSpecs) {
+            String[] pair = pushspec.split("->");
+            if (pair.length == 2) {
+                localPaths.add(pair[0]);
+            }
+        }
+        for (File src : mPushFileSpecs.keySet()) {
+            localPaths.add(src.getPath());
+        }
+        for (String localPath : localPaths) {
+            if (new File(localPath).isAbsolute() || mResolvedFiles.containsKey(localPath)) {
+                continue;
+            }
+            File src = resolveRelativeFilePath(buildInfo, localPath);
+            if (src != null) {
+                mResolvedFiles.put(localPath, src);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void setUp(ITestDevice device, IBuildInfo buildInfo) throws TargetSetupError, BuildError,
             DeviceNotAvailableException {
+        try {
+            pushFiles(device, buildInfo);
+        } finally {
+            mResolvedFiles.clear();
+        }
+    }
+
+    private void pushFiles(ITestDevice device, IBuildInfo buildInfo)
+            throws TargetSetupError, DeviceNotAvailableException {
         mFilesPushed = new HashSet<>();
         if (mRemount) {
             device.remountSystemWritable();
@@ -309,7 +351,8 @@ public class PushFilePreparer extends BaseTargetPreparer
             throws TargetSetupError, DeviceNotAvailableException {
         String localPath = src.getPath();
         if (!src.isAbsolute()) {
-            src = resolveRelativeFilePath(buildInfo, localPath);
+            File resolved = mResolvedFiles.get(localPath);
+            src = resolved != null ? resolved : resolveRelativeFilePath(buildInfo, localPath);
         }
         if (src == null || !src.exists()) {
             fail(String.format("Local source file '%s' does not exist", localPath), device);
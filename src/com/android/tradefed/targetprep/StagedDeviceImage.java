@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.targetprep;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * A device image zip extracted once in a directory shared by all the devices flashed with it, so
+ * the zip is not read and inflated again for each device.
+ *
+ * <p>The staged images are keyed by build id and by a digest of the zip entries, and reference
+ * counted: {@link #acquire(String, File)} extracts the zip or waits for another device extracting
+ * it, and {@link #release()} returns the reference. The images no device uses are kept for the
+ * next devices flashed with the same build, up to {@link #MAX_IDLE_IMAGES}, and deleted after.
+ * All the staged images are deleted when TF exits.
+ */
+public class StagedDeviceImage {
+
+    static final int MAX_IDLE_IMAGES = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The staged images by key, from the least to the most recently used. */
+    private static final Map<String, StagedDeviceImage> sImages = new LinkedHashMap<>();
+    /** Whether the staged images are deleted when TF exits, guarded by the class. */
+    private static boolean sShutdownHookAdded = false;
+
+    private final String mKey;
+    /** Number of devices using the image, guarded by the class. */
+    private int mReferences = 0;
+    /** The directory with the extracted images, guarded by this. */
+    private File mDir = null;
+
+    private StagedDeviceImage(String key) {
+        mKey = key;
+    }
+
+    /**
+     * Get the staged images of a device image zip, extracting them if no other device did.
+     *
+     * @param buildId the build id of the device image
+     * @param imageZip the device image zip
+     * @return the {@link StagedDeviceImage}, to {@link #release()} after flashing
+     * @throws IOException if the zip could not be read or is corrupted
+     */
+    public static StagedDeviceImage acquire(String buildId, File imageZip) throws IOException {
+        StagedDeviceImage image;
+        try (ZipFile zip = new ZipFile(imageZip)) {
+            String key = String.format("%s-%s", buildId, computeDigest(zip));
+            synchronized (StagedDeviceImage.class) {
+                image = sImages.remove(key);
+                if (image == null) {
+                    image = new StagedDeviceImage(key);
+                }
+                addShutdownHook();
+                // Keep the most recently used images last.
+                sImages.put(key, image);
+                image.mReferences++;
+            }
+            try {
+                image.extract(zip);
+            } catch (IOException | RuntimeException e) {
+                image.release();
+                throw e;
+            }
+        }
+        return image;
+    }
+
+    /** Returns the directory with the extracted images. */
+    public synchronized File getDir() {
+        return mDir;
+    }
+
+    /** Returns the extracted image with the given name, or null if the zip does not contain it. */
+    public File getImage(String name) {
+        File image = new File(getDir(), name);
+        return image.isFile() ? image : null;
+    }
+
+    /** Release the reference taken by {@link #acquire(String, File)}. */
+    public void release() {
+        List<StagedDeviceImage> evicted = new ArrayList<>();
+        synchronized (StagedDeviceImage.class) {
+            mReferences--;
+            int idle = 0;
+            for (StagedDeviceImage image : sImages.values()) {
+                if (image.mReferences == 0) {
+                    idle++;
+                }
+            }
+            Iterator<StagedDeviceImage> iterator = sImages.values().iterator();
+            while (idle > MAX_IDLE_IMAGES && iterator.hasNext()) {
+                StagedDeviceImage image = iterator.next();
+                if (image.mReferences == 0) {
+                    iterator.remove();
+                    evicted.add(image);
+                    idle--;
+                }
+            }
+        }
+        for (StagedDeviceImage image : evicted) {
+            image.delete();
+        }
+    }
+
+    /**
+     * Delete all the staged images, used or not. Called when TF exits, since the images are only
+     * shared by the devices flashed by this TF instance.
+     */
+    static void deleteAll() {
+        List<StagedDeviceImage> images;
+        synchronized (StagedDeviceImage.class) {
+            images = new ArrayList<>(sImages.values());
+            sImages.clear();
+        }
+        for (StagedDeviceImage image : images) {
+            image.delete();
+        }
+    }
+
+    /** Delete the staged images when TF exits. Must be called with the class lock held. */
+    private static void addShutdownHook() {
+        if (!sShutdownHookAdded) {
+            Runtime.getRuntime()
+                    .addShutdownHook(
+                            new Thread(StagedDeviceImage::deleteAll, "StagedDeviceImage-cleanup"));
+            sShutdownHookAdded = true;
+        }
+    }
+
+    /** Returns the number of staged images, used or not. Exposed for testing. */
+    static int getStagedImageCount() {
+        synchronized (StagedDeviceImage.class) {
+            return sImages.size();
+        }
+    }
+
+    /** Extract the zip if it was not done yet. The other devices wait for the extraction. */
+    private synchronized void extract(ZipFile zip) throws IOException {
+        if (mDir != null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        File dir = FileUtil.createTempDir("staged-device-image");
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            Enumeration<ZipArchiveEntry> entries = zip.getEntries();
+            while (entries.hasMoreElements()) {
+                ZipArchiveEntry entry = entries.nextElement();
+                File file = new File(dir, entry.getName());
+                if (!file.getCanonicalPath().startsWith(dir.getCanonicalPath() + File.separator)) {
+                    throw new IOException(
+                            String.format("Invalid entry %s in device image", entry.getName()));
+                }
+                if (entry.isDirectory()) {
+                    file.mkdirs();
+                    continue;
+                }
+                file.getParentFile().mkdirs();
+                extractEntry(zip, entry, file, buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            FileUtil.recursiveDelete(dir);
+            throw e;
+        }
+        CLog.i(
+                "Staged device image %s in %s in %d ms",
+                mKey, dir, System.currentTimeMillis() - start);
+        mDir = dir;
+    }
+
+    /** Extract an entry and check it against the size and checksum recorded in the zip. */
+    private static void extractEntry(ZipFile zip, ZipArchiveEntry entry, File file, byte[] buffer)
+            throws IOException {
+        long size = 0;
+        CRC32 crc = new CRC32();
+        try (InputStream input = new CheckedInputStream(zip.getInputStream(entry), crc);
+                OutputStream output = new FileOutputStream(file)) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+                size += read;
+            }
+        }
+        if ((entry.getSize() != -1 && entry.getSize() != size)
+                || (entry.getCrc() != -1 && entry.getCrc() != crc.getValue())) {
+            throw new IOException(
+                    String.format("Entry %s of the device image is corrupted", entry.getName()));
+        }
+    }
+
+    private synchronized void delete() {
+        if (mDir != null) {
+            CLog.d("Deleting staged device image %s", mKey);
+            FileUtil.recursiveDelete(mDir);
+            mDir = null;
+        }
+    }
+
+    /**
+     * Compute a digest of a zip from the names, sizes and checksums of its entries, which only
+     * requires reading its central directory.
+     */
+    static String computeDigest(ZipFile zip) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        Enumeration<ZipArchiveEntry> entries = zip.getEntries();
+        while (entries.hasMoreElements()) {
+            ZipArchiveEntry entry = entries.nextElement();
+            String record =
+                    String.format("%s:%d:%d\n", entry.getName(), entry.getSize(), entry.getCrc());
+            digest.update(record.getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
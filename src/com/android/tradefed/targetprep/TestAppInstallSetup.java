@@ -36,6 +36,8 @@ import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A {@link ITargetPreparer} that installs one or more apps from a {@link
@@ -44,10 +46,12 @@ import java.util.List;
  * <p>This preparer will look in alternate directories if the tests zip does not exist or does not
  * contain the required apk. The search will go in order from the last alternative dir specified to
  * the first.
+ *
+ * <p>The apks can be resolved and parsed ahead of the setup through {@link IHostPreparer}.
  */
 @OptionClass(alias = "tests-zip-app")
 public class TestAppInstallSetup extends BaseTargetPreparer
-        implements ITargetCleaner, IAbiReceiver {
+        implements ITargetCleaner, IAbiReceiver, IHostPreparer {
 
     /** The mode the apk should be install in. */
     private enum InstallMode {
@@ -129,6 +133,10 @@ public class TestAppInstallSetup extends BaseTargetPreparer
 
     private List<String> mPackagesInstalled = null;
 
+    // Apks resolved and parsed by prepareOnHost, consumed by the next setup.
+    private Map<String, File> mResolvedFiles = new ConcurrentHashMap<>();
+    private Map<File, String> mPackageNames = new ConcurrentHashMap<>();
+
     /**
      * Adds a file name to the list of apks to installed
      *
@@ -179,7 +187,8 @@ public class TestAppInstallSetup extends BaseTargetPreparer
      *
      * @param buildInfo build artifact information
      * @param apkFileName filename of the apk to install
-     * @param device the {@link ITestDevice} being prepared
+     * @param device the {@link ITestDevice} being prepared, null when resolving the apk ahead of
+     *     the setup
      * @return a {@link File} representing the physical apk file on host or {@code null} if the file
      *     does not exist.
      */
@@ -195,7 +204,36 @@ public class TestAppInstallSetup extends BaseTargetPreparer
                             "failed to resolve apk path for apk %s in build %s",
                             apkFileName, buildInfo.toString()),
                     ioe,
-                    device.getDeviceDescriptor());
+                    device == null ? null : device.getDeviceDescriptor());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Resolves the apks to install and parses their package names.
+     */
+    @Override
+    public void prepareOnHost(IBuildInfo buildInfo) throws TargetSetupError {
+        List<String> apkNames = new ArrayList<>(mTestFileNames);
+        for (String testAppNames : mSplitApkFileNames) {
+            apkNames.addAll(Arrays.asList(testAppNames.split(",")));
+        }
+        for (String name : apkNames) {
+            if (name == null || name.trim().isEmpty() || mResolvedFiles.containsKey(name)) {
+                continue;
+            }
+            File testAppFile = getLocalPathForFilename(buildInfo, name, null);
+            if (testAppFile == null || !testAppFile.canRead()) {
+                // Left to the setup, which reports it.
+                continue;
+            }
+            // The device descriptor is only needed for errors, which the setup reports again.
+            String packageName = parsePackageName(testAppFile, null);
+            if (packageName != null) {
+                mPackageNames.put(testAppFile, packageName);
+            }
+            mResolvedFiles.put(name, testAppFile);
         }
     }
 
@@ -203,6 +241,16 @@ public class TestAppInstallSetup extends BaseTargetPreparer
     @Override
     public void setUp(ITestDevice device, IBuildInfo buildInfo)
             throws TargetSetupError, DeviceNotAvailableException {
+        try {
+            doSetUp(device, buildInfo);
+        } finally {
+            mResolvedFiles.clear();
+            mPackageNames.clear();
+        }
+    }
+
+    private void doSetUp(ITestDevice device, IBuildInfo buildInfo)
+            throws TargetSetupError, DeviceNotAvailableException {
         if (mTestFileNames.isEmpty() && mSplitApkFileNames.isEmpty()) {
             CLog.i("No test apps to install, skipping");
             return;
@@ -316,7 +364,10 @@ public class TestAppInstallSetup extends BaseTargetPreparer
             if (name == null || name.trim().isEmpty()) {
                 continue;
             }
-            File testAppFile = getLocalPathForFilename(buildInfo, name, device);
+            File testAppFile = mResolvedFiles.get(name);
+            if (testAppFile == null) {
+                testAppFile = getLocalPathForFilename(buildInfo, name, device);
+            }
             if (testAppFile == null) {
                 if (mThrowIfNoFile) {
                     throw new TargetSetupError(
@@ -338,7 +389,10 @@ public class TestAppInstallSetup extends BaseTargetPreparer
                 }
             }
             appFiles.add(testAppFile);
-            String packageName = parsePackageName(testAppFile, device.getDeviceDescriptor());
+            String packageName = mPackageNames.get(testAppFile);
+            if (packageName == null) {
+                packageName = parsePackageName(testAppFile, device.getDeviceDescriptor());
+            }
             if (!packageNames.contains(packageName)) {
                 packageNames.add(packageName);
             }
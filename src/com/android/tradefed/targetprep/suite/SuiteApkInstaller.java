@@ -130,7 +130,9 @@ public class SuiteApkInstaller extends TestAppInstallSetup {
             }
         } catch (FileNotFoundException e) {
             throw new TargetSetupError(
-                    String.format("%s not found", apkFileName), e, device.getDeviceDescriptor());
+                    String.format("%s not found", apkFileName),
+                    e,
+                    device == null ? null : device.getDeviceDescriptor());
         }
         return apkFile;
     }
@@ -16,7 +16,7 @@
 package com.android.tradefed.testtype;
 
 import com.android.ddmlib.IShellOutputReceiver;
-import com.android.ddmlib.MultiLineReceiver;
+import com.android.ddmlib.Log.LogLevel;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
 import com.android.tradefed.result.ITestInvocationListener;
@@ -24,6 +24,8 @@ import com.android.tradefed.result.TestDescription;
 
 import com.google.common.base.Joiner;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -90,8 +92,22 @@ import java.util.regex.Pattern;
  * </pre>
  *
  * All other lines are ignored.
+ *
+ * <p>The output is split in lines directly from the chunks of bytes received from the device. Only
+ * the lines with a tag are decoded, the lines of test output are copied as bytes to the output of
+ * the current test.
  */
-public class GTestResultParser extends MultiLineReceiver {
+public class GTestResultParser implements IShellOutputReceiver {
+    // All the tags start with this character.
+    private static final byte TAG_START = '[';
+    // eg: (XX ms)
+    private static final Pattern TEST_TIME_PATTERN = Pattern.compile(".*(\\((\\d+) ms\\))");
+    // eg: (Running XX tests from 1 test case.)
+    private static final Pattern NUM_TESTS_PATTERN =
+            Pattern.compile("Running (\\d+) test[s]? from .*");
+    // eg: (XX ms total)
+    private static final Pattern RUN_TIME_PATTERN = Pattern.compile(".*\\((\\d+) ms total\\)");
+
     // Variables to keep track of state
     private TestResult mCurrentTestResult = null;
     private int mNumTestsRun = 0;
@@ -119,6 +135,11 @@ public class GTestResultParser extends MultiLineReceiver {
     /** Whether or not to prepend filename to classname. */
     private boolean mPrependFileName = false;
 
+    /** The bytes of the line being received, when it spans several chunks of output. */
+    private byte[] mUnfinishedLine = new byte[256];
+
+    private int mUnfinishedLineLength = 0;
+
     /** The final status of the test. */
     enum TestStatus {
         OK,
@@ -140,7 +161,7 @@ public class GTestResultParser extends MultiLineReceiver {
     private static class TestResult {
         private String mTestName = null;
         private String mTestClass = null;
-        private StringBuilder mStackTrace = null;
+        private ByteArrayOutputStream mStackTrace = null;
         @SuppressWarnings("unused")
         private Long mRunTime = null;
 
@@ -169,7 +190,7 @@ public class GTestResultParser extends MultiLineReceiver {
          */
         String getTrace() {
             if (hasStackTrace()) {
-                return mStackTrace.toString();
+                return new String(mStackTrace.toByteArray(), StandardCharsets.UTF_8);
             } else {
                 CLog.e("Could not find stack trace for failed test");
                 return new Throwable("Unknown failure").toString();
@@ -268,20 +289,102 @@ public class GTestResultParser extends MultiLineReceiver {
         mCurrentTestResult = null;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void addOutput(byte[] data, int offset, int length) {
+        if (isCancelled()) {
+            return;
+        }
+        int lineStart = offset;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            if (mUnfinishedLineLength > 0) {
+                appendToUnfinishedLine(data, lineStart, i);
+                processLine(mUnfinishedLine, 0, mUnfinishedLineLength);
+                mUnfinishedLineLength = 0;
+            } else {
+                processLine(data, lineStart, i);
+            }
+            lineStart = i + 1;
+        }
+        appendToUnfinishedLine(data, lineStart, end);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void flush() {
+        if (mUnfinishedLineLength > 0) {
+            processLine(mUnfinishedLine, 0, mUnfinishedLineLength);
+            mUnfinishedLineLength = 0;
+        }
+        done();
+    }
+
+    /** Keeps the bytes of a line that continues in the next chunk of output. */
+    private void appendToUnfinishedLine(byte[] data, int start, int end) {
+        int length = end - start;
+        if (mUnfinishedLineLength + length > mUnfinishedLine.length) {
+            mUnfinishedLine =
+                    Arrays.copyOf(
+                            mUnfinishedLine,
+                            Math.max(mUnfinishedLine.length * 2, mUnfinishedLineLength + length));
+        }
+        System.arraycopy(data, start, mUnfinishedLine, mUnfinishedLineLength, length);
+        mUnfinishedLineLength += length;
+    }
+
     /**
-     * {@inheritDoc}
+     * Parse a line of output received as bytes. The line is only decoded if it can hold a tag, or
+     * has to be kept or logged as a String.
      */
-    @Override
-    public void processNewLines(String[] lines) {
-        if (!mSeenOneTestRunStart) {
-            mTrackLogsBeforeRunStart.addAll(Arrays.asList(lines));
+    private void processLine(byte[] data, int start, int end) {
+        // Trim the line, including the '\r' of "\r\n" line endings.
+        while (start < end && (data[start] & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (data[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        if (!mSeenOneTestRunStart
+                || CLog.isLoggable(LogLevel.VERBOSE)
+                || indexOf(data, start, end, TAG_START) >= 0) {
+            processLine(new String(data, start, end - start, StandardCharsets.UTF_8));
+        } else if (mTestRunInProgress && testInProgress()) {
+            // Test output, there is no tag to look for.
+            getCurrentTestOutput().write(data, start, end - start);
         }
+    }
 
+    private static int indexOf(byte[] data, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse lines of output that were already split and decoded.
+     *
+     * @param lines the lines of output, without their line separator
+     */
+    public void processNewLines(String[] lines) {
         for (String line : lines) {
-            parse(line);
-            // in verbose mode, dump all adb output to log
-            CLog.v(line);
+            processLine(line);
+        }
+    }
+
+    private void processLine(String line) {
+        if (!mSeenOneTestRunStart) {
+            mTrackLogsBeforeRunStart.add(line);
         }
+        parse(line);
+        // in verbose mode, dump all adb output to log
+        CLog.v(line);
     }
 
     /**
@@ -293,7 +396,12 @@ public class GTestResultParser extends MultiLineReceiver {
         String message = null;
 
         if (mTestRunInProgress || line.startsWith(Prefixes.TEST_RUN_MARKER)) {
-            if (line.startsWith(Prefixes.START_TEST_MARKER)) {
+            if (line.indexOf(TAG_START) < 0) {
+                // All the markers start with '[', skip looking for them in the test output.
+                if (testInProgress()) {
+                    appendTestOutputLine(line);
+                }
+            } else if (line.startsWith(Prefixes.START_TEST_MARKER)) {
                 // Individual test started
                 message = line.substring(Prefixes.START_TEST_MARKER.length()).trim();
                 processTestStartedTag(message);
@@ -477,8 +585,7 @@ public class GTestResultParser extends MultiLineReceiver {
     private ParsedTestInfo parseTestDescription(String identifier) {
         ParsedTestInfo returnInfo = new ParsedTestInfo("UNKNOWN_CLASS", "UNKNOWN_TEST", null);
 
-        Pattern timePattern = Pattern.compile(".*(\\((\\d+) ms\\))");  // eg: (XX ms)
-        Matcher time = timePattern.matcher(identifier);
+        Matcher time = TEST_TIME_PATTERN.matcher(identifier);
 
         // Try to find a time
         if (time.find()) {
@@ -505,9 +612,7 @@ public class GTestResultParser extends MultiLineReceiver {
      * @param identifier Raw identifier
      */
     private void processRunStartedTag(String identifier) {
-        // eg: (Running XX tests from 1 test case.)
-        Pattern numTestsPattern = Pattern.compile("Running (\\d+) test[s]? from .*");
-        Matcher numTests = numTestsPattern.matcher(identifier);
+        Matcher numTests = NUM_TESTS_PATTERN.matcher(identifier);
 
         // Try to find number of tests
         if (numTests.find()) {
@@ -535,8 +640,7 @@ public class GTestResultParser extends MultiLineReceiver {
      * @param identifier Raw log output from the suite ended tag
      */
     private void processRunCompletedTag(String identifier) {
-        Pattern timePattern = Pattern.compile(".*\\((\\d+) ms total\\)");  // eg: (XX ms total)
-        Matcher time = timePattern.matcher(identifier);
+        Matcher time = RUN_TIME_PATTERN.matcher(identifier);
 
         // Try to find the total run time
         if (time.find()) {
@@ -708,14 +812,24 @@ public class GTestResultParser extends MultiLineReceiver {
      * @param line Raw test result line of output.
      */
     private void appendTestOutputLine(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        getCurrentTestOutput().write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns the output of the current TestResult, ready for a new line to be written.
+     *
+     * @return the output of the current test, ending with a line separator if not empty
+     */
+    private ByteArrayOutputStream getCurrentTestOutput() {
         TestResult testResult = getCurrentTestResult();
         if (testResult.mStackTrace == null) {
-            testResult.mStackTrace = new StringBuilder();
-        }
-        else {
-            testResult.mStackTrace.append("\r\n");
+            testResult.mStackTrace = new ByteArrayOutputStream();
+        } else {
+            testResult.mStackTrace.write('\r');
+            testResult.mStackTrace.write('\n');
         }
-        testResult.mStackTrace.append(line);
+        return testResult.mStackTrace;
     }
 
     /**
@@ -756,12 +870,8 @@ public class GTestResultParser extends MultiLineReceiver {
         }
     }
 
-    /**
-     * Called by parent when adb session is complete.
-     */
-    @Override
+    /** Called by {@link #flush()} when adb session is complete. */
     public void done() {
-        super.done();
         if (mNumTestsExpected > mNumTestsRun) {
             handleTestRunFailed(String.format("Test run incomplete. Expected %d tests, received %d",
                     mNumTestsExpected, mNumTestsRun));
@@ -45,6 +45,7 @@ import com.android.tradefed.result.BugreportCollector;
 import com.android.tradefed.result.CollectingTestListener;
 import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.LogcatCrashResultForwarder;
+import com.android.tradefed.result.ResultForwarder;
 import com.android.tradefed.result.TestDescription;
 import com.android.tradefed.result.TestRunResult;
 import com.android.tradefed.result.ddmlib.DefaultRemoteAndroidTestRunner;
@@ -52,6 +53,7 @@ import com.android.tradefed.testtype.coverage.CoverageOptions;
 import com.android.tradefed.testtype.coverage.CoverageOptions.Toolchain;
 import com.android.tradefed.util.AbiFormatter;
 import com.android.tradefed.util.ArrayUtil;
+import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.JavaCodeCoverageFlusher;
 import com.android.tradefed.util.ListInstrumentationParser;
 import com.android.tradefed.util.ListInstrumentationParser.InstrumentationTarget;
@@ -62,7 +64,9 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Sets;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -89,10 +93,16 @@ public class InstrumentationTest
     private static final int COLLECT_TESTS_ATTEMPTS = 3;
     /** instrumentation test runner argument key used for test execution using a file */
     private static final String TEST_FILE_INST_ARGS_KEY = "testFile";
+    /** instrumentation test runner argument key used to exclude the tests of a file */
+    private static final String NOT_TEST_FILE_INST_ARGS_KEY = "notTestFile";
 
     /** instrumentation test runner argument key used for individual test timeout */
     static final String TEST_TIMEOUT_INST_ARGS_KEY = "timeout_msec";
 
+    /** instrumentation test runner arguments that do not change the tests of a run */
+    private static final Set<String> TEST_LIST_CACHE_IGNORED_ARGS =
+            Sets.newHashSet(TEST_TIMEOUT_INST_ARGS_KEY, "debug", "log", "listener", "coverage");
+
     /** default timeout for tests collection */
     static final long TEST_COLLECTION_TIMEOUT_MS = 2 * 60 * 1000;
 
@@ -246,6 +256,14 @@ public class InstrumentationTest
     )
     private long mCollectTestTimeout = TEST_COLLECTION_TIMEOUT_MS;
 
+    @Option(
+        name = "test-list-cache-dir",
+        description =
+                "Directory where the tests of the instrumentation are cached in rerun mode. The "
+                        + "tests are only collected when the apk, runner or arguments change."
+    )
+    private File mTestListCacheDir = null;
+
     @Option(
         name = "debug",
         description =
@@ -304,6 +322,8 @@ public class InstrumentationTest
 
     private Collection<TestDescription> mTestsToRun = null;
 
+    private InstrumentationTestListCache mTestListCache = null;
+
     private String mCoverageTarget = null;
 
     private String mTestFilePathOnDevice = null;
@@ -864,9 +884,21 @@ public class InstrumentationTest
 
         // If the tests to run weren't provided explicitly, collect them.
         Collection<TestDescription> testsToRun = mTestsToRun;
+        String testListCacheKey = null;
         if (testsToRun == null) {
-            // Don't notify the listener since it's not a real run.
-            testsToRun = collectTestsToRun(mRunner, null);
+            testListCacheKey = getTestListCacheKey(mRunner);
+            if (testListCacheKey != null) {
+                testsToRun = getTestListCache().get(testListCacheKey);
+                if (testsToRun != null) {
+                    CLog.d("Using %d cached tests for %s", testsToRun.size(), mPackageName);
+                    // The rerun removes the completed tests from the collection.
+                    testsToRun = new ArrayList<>(testsToRun);
+                    testListCacheKey = null;
+                }
+            } else {
+                // Don't notify the listener since it's not a real run.
+                testsToRun = collectTestsToRun(mRunner, null);
+            }
         }
 
         // Only set the debug flag after collecting tests.
@@ -919,7 +951,10 @@ public class InstrumentationTest
             mRunner.addInstrumentationArg("listener", ArrayUtil.join(",", mExtraDeviceListener));
         }
 
-        if (testsToRun == null) {
+        if (testListCacheKey != null) {
+            // The tests are not cached, list them from the actual run.
+            runAndCacheTestList(listener, testListCacheKey);
+        } else if (testsToRun == null) {
             // Failed to collect the tests or collection is off. Just try to run them all.
             mDevice.runInstrumentationTests(mRunner, listener);
         } else if (!testsToRun.isEmpty()) {
@@ -1018,7 +1053,139 @@ public class InstrumentationTest
                         }
                     }
                 });
+        rerunIncompleteTests(listener, testTracker.getCurrentRunResults(), expectedTests);
+    }
+
+    /**
+     * Execute the test run when its tests are not in the test list cache, and cache the tests it
+     * reports. If the run does not report all its tests, they are collected to rerun the missing
+     * ones.
+     *
+     * @param listener the {@link ITestInvocationListener}
+     * @param cacheKey the key of the tests in the test list cache
+     */
+    private void runAndCacheTestList(final ITestInvocationListener listener, String cacheKey)
+            throws DeviceNotAvailableException {
+        CollectingTestListener testTracker = new CollectingTestListener();
+        // In case of crash, run will attempt to report with 0 tests before the expected tests are
+        // known, so hold it back until they are collected.
+        EmptyRunForwarder emptyRunForwarder = new EmptyRunForwarder(listener);
+        mDevice.runInstrumentationTests(
+                mRunner,
+                // Use a crash forwarder to get stacks from logcat when crashing.
+                new LogcatCrashResultForwarder(getDevice(), emptyRunForwarder, testTracker));
         TestRunResult testRun = testTracker.getCurrentRunResults();
+        if (testRun.isRunComplete()
+                && !testRun.isRunFailure()
+                && testRun.getNumTests() == testRun.getExpectedTestCount()) {
+            emptyRunForwarder.releaseRun(0);
+            getTestListCache().put(cacheKey, testRun.getTestResults().keySet());
+            return;
+        }
+        // The extra device listeners and the coverage are not used to collect the tests.
+        mRunner.removeInstrumentationArg("listener");
+        mRunner.removeInstrumentationArg("coverage");
+        Collection<TestDescription> expectedTests = collectTestsToRun(mRunner, null);
+        if (expectedTests == null) {
+            CLog.e("Failed to collect tests to rerun for %s", mPackageName);
+            emptyRunForwarder.releaseRun(0);
+            return;
+        }
+        if (emptyRunForwarder.isHoldingRun() && !expectedTests.isEmpty()) {
+            CLog.e("Run reported 0 tests while we collected %s", expectedTests.size());
+        }
+        emptyRunForwarder.releaseRun(expectedTests.size());
+        getTestListCache().put(cacheKey, expectedTests);
+        rerunIncompleteTests(listener, testRun, expectedTests);
+    }
+
+    /**
+     * Forwarder holding back a run started with 0 tests, as reported when the instrumentation
+     * crashes before running any test, until the number of expected tests is known. The run is
+     * forwarded as soon as it reports a test.
+     */
+    private static class EmptyRunForwarder extends ResultForwarder {
+        private String mRunName = null;
+        private final List<String> mRunFailures = new ArrayList<>();
+        private Long mElapsedTime = null;
+        private HashMap<String, Metric> mRunMetrics = null;
+
+        EmptyRunForwarder(ITestInvocationListener listener) {
+            super(listener);
+        }
+
+        @Override
+        public void testRunStarted(String runName, int testCount) {
+            if (testCount == 0 && mRunName == null) {
+                mRunName = runName;
+                return;
+            }
+            releaseRun(0);
+            super.testRunStarted(runName, testCount);
+        }
+
+        @Override
+        public void testStarted(TestDescription test, long startTime) {
+            releaseRun(0);
+            super.testStarted(test, startTime);
+        }
+
+        @Override
+        public void testRunFailed(String errorMessage) {
+            if (isHoldingRun()) {
+                mRunFailures.add(errorMessage);
+                return;
+            }
+            super.testRunFailed(errorMessage);
+        }
+
+        @Override
+        public void testRunEnded(long elapsedTime, HashMap<String, Metric> runMetrics) {
+            if (isHoldingRun()) {
+                mElapsedTime = elapsedTime;
+                mRunMetrics = runMetrics;
+                return;
+            }
+            super.testRunEnded(elapsedTime, runMetrics);
+        }
+
+        /** Returns true if a run started with 0 tests is held back. */
+        boolean isHoldingRun() {
+            return mRunName != null;
+        }
+
+        /** Forward the run held back, if any, reporting the given number of tests. */
+        void releaseRun(int testCount) {
+            if (!isHoldingRun()) {
+                return;
+            }
+            String runName = mRunName;
+            mRunName = null;
+            super.testRunStarted(runName, testCount);
+            for (String failure : mRunFailures) {
+                super.testRunFailed(failure);
+            }
+            mRunFailures.clear();
+            if (mElapsedTime != null) {
+                super.testRunEnded(mElapsedTime, mRunMetrics);
+                mElapsedTime = null;
+                mRunMetrics = null;
+            }
+        }
+    }
+
+    /**
+     * Rerun the expected tests that did not complete in a test run.
+     *
+     * @param listener the {@link ITestInvocationListener}
+     * @param testRun the results of the test run
+     * @param expectedTests the full set of expected tests in this run.
+     */
+    private void rerunIncompleteTests(
+            final ITestInvocationListener listener,
+            TestRunResult testRun,
+            Collection<TestDescription> expectedTests)
+            throws DeviceNotAvailableException {
         if (testRun.isRunFailure() || !testRun.getCompletedTests().containsAll(expectedTests)) {
             if (mBugreportOnRunFailure) {
                 // Capture a bugreport to help with the failure.
@@ -1035,7 +1202,7 @@ public class InstrumentationTest
             // Don't re-run any completed tests, unless this is a coverage run.
             if (mConfiguration != null
                     && !mConfiguration.getCoverageOptions().isCoverageEnabled()) {
-                expectedTests.removeAll(testTracker.getCurrentRunResults().getCompletedTests());
+                expectedTests.removeAll(testRun.getCompletedTests());
             }
             rerunTests(expectedTests, listener);
         }
@@ -1091,6 +1258,74 @@ public class InstrumentationTest
         }
     }
 
+    /** Returns the cache of the tests listed by the instrumentations. */
+    private InstrumentationTestListCache getTestListCache() {
+        if (mTestListCache == null) {
+            mTestListCache = new InstrumentationTestListCache(mTestListCacheDir);
+        }
+        return mTestListCache;
+    }
+
+    /**
+     * Returns the key of the tests of this run in the test list cache, or null if they should not
+     * be cached. The key covers all the arguments of the runner, so the filters added by the
+     * subclasses in {@link #setRunnerArgs(IRemoteAndroidTestRunner)} are taken into account.
+     *
+     * @param runner the {@link IRemoteAndroidTestRunner} with all its arguments set
+     */
+    @VisibleForTesting
+    String getTestListCacheKey(IRemoteAndroidTestRunner runner)
+            throws DeviceNotAvailableException {
+        if (mTestListCacheDir == null || !isRerunMode()) {
+            return null;
+        }
+        if (!(runner instanceof DefaultRemoteAndroidTestRunner)) {
+            CLog.d("Cannot read the arguments of %s, not caching its tests.", runner);
+            return null;
+        }
+        Map<String, String> args =
+                new HashMap<>(((DefaultRemoteAndroidTestRunner) runner).getInstrumentationArgs());
+        // The content of the test files pushed to the device is unknown.
+        if (args.containsKey(TEST_FILE_INST_ARGS_KEY)
+                || args.containsKey(NOT_TEST_FILE_INST_ARGS_KEY)) {
+            return null;
+        }
+        args.keySet().removeAll(TEST_LIST_CACHE_IGNORED_ARGS);
+        String apkDigest = getApkDigest();
+        if (apkDigest == null) {
+            CLog.w("Could not compute the digest of %s, not caching its tests.", mPackageName);
+            return null;
+        }
+        String abi = (mAbi != null) ? mAbi.getName() : mForceAbi;
+        List<String> filters = Arrays.asList(abi, Integer.toString(mDevice.getApiLevel()));
+        return InstrumentationTestListCache.computeKey(apkDigest, mRunnerName, filters, args);
+    }
+
+    /** Returns the md5 of the test apk, or null if it could not be computed. */
+    private String getApkDigest() throws DeviceNotAvailableException {
+        if (mInstallFile != null) {
+            try {
+                return FileUtil.calculateMd5(mInstallFile);
+            } catch (IOException e) {
+                CLog.e(e);
+                return null;
+            }
+        }
+        String apkPath = null;
+        String output = mDevice.executeShellCommand("pm path " + mPackageName);
+        for (String line : output.split("\n")) {
+            if (line.trim().startsWith("package:")) {
+                apkPath = line.trim().substring("package:".length());
+                break;
+            }
+        }
+        if (apkPath == null) {
+            return null;
+        }
+        String md5 = mDevice.executeShellCommand("md5sum " + apkPath).trim().split("\\s+")[0];
+        return md5.matches("[0-9a-fA-F]{32}") ? md5 : null;
+    }
+
     /**
      * Collect the list of tests that should be executed by this test run.
      *
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.testtype;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.result.TestDescription;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Persistent cache of the tests of an instrumentation, so the instrumentation does not have to run
+ * in log-only mode to list them before each run.
+ *
+ * <p>The tests are cached by a key computed from everything that can change the tests reported by
+ * the instrumentation: the digest of the apk, the runner, the test filters and the instrumentation
+ * arguments. Each entry is a file of the cache directory with one test per line.
+ */
+class InstrumentationTestListCache {
+
+    private static final String ENTRY_EXTENSION = ".tests";
+    private static final String TEST_SEPARATOR = "#";
+
+    private final File mCacheDir;
+
+    InstrumentationTestListCache(File cacheDir) {
+        mCacheDir = cacheDir;
+    }
+
+    /**
+     * Compute the key of a list of tests.
+     *
+     * @param apkDigest the digest of the content of the test apk
+     * @param runnerName the instrumentation runner
+     * @param filters the values of the options filtering the tests, null for unset options
+     * @param instrumentationArgs the instrumentation arguments
+     * @return the key to use with {@link #get(String)} and {@link #put(String, Collection)}
+     */
+    static String computeKey(
+            String apkDigest,
+            String runnerName,
+            List<String> filters,
+            Map<String, String> instrumentationArgs) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(apkDigest).append('\n').append(runnerName).append('\n');
+        for (String filter : filters) {
+            builder.append(filter).append('\n');
+        }
+        // The arguments are sorted so their order does not matter.
+        for (Map.Entry<String, String> arg : new TreeMap<>(instrumentationArgs).entrySet()) {
+            builder.append(arg.getKey()).append('=').append(arg.getValue()).append('\n');
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest(builder.toString().getBytes(StandardCharsets.UTF_8))) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the cached tests for a key, or null if they are not cached.
+     *
+     * @param key the key from {@link #computeKey(String, String, List, Map)}
+     */
+    Collection<TestDescription> get(String key) {
+        File entry = new File(mCacheDir, key + ENTRY_EXTENSION);
+        if (!entry.isFile()) {
+            return null;
+        }
+        try {
+            Collection<TestDescription> tests = new LinkedHashSet<>();
+            for (String line : Files.readAllLines(entry.toPath(), StandardCharsets.UTF_8)) {
+                int separator = line.indexOf(TEST_SEPARATOR);
+                if (separator < 0) {
+                    CLog.w("Invalid line '%s' in cached test list %s", line, entry);
+                    return null;
+                }
+                tests.add(
+                        new TestDescription(
+                                line.substring(0, separator), line.substring(separator + 1)));
+            }
+            return tests;
+        } catch (IOException e) {
+            CLog.e("Failed to read cached test list %s", entry);
+            CLog.e(e);
+            return null;
+        }
+    }
+
+    /**
+     * Cache the tests for a key. The entry is written in a temporary file first so that the
+     * invocations reading it concurrently never see a partial list.
+     *
+     * @param key the key from {@link #computeKey(String, String, List, Map)}
+     * @param tests the tests reported by the instrumentation
+     */
+    void put(String key, Collection<TestDescription> tests) {
+        List<String> lines = new ArrayList<>(tests.size());
+        for (TestDescription test : tests) {
+            if (test.getTestName().contains("\n")) {
+                CLog.d("Test %s cannot be cached, skip caching the test list.", test);
+                return;
+            }
+            lines.add(test.getClassName() + TEST_SEPARATOR + test.getTestName());
+        }
+        File tmpEntry = null;
+        try {
+            mCacheDir.mkdirs();
+            tmpEntry = FileUtil.createTempFile(key, ENTRY_EXTENSION, mCacheDir);
+            Files.write(tmpEntry.toPath(), lines, StandardCharsets.UTF_8);
+            Files.move(
+                    tmpEntry.toPath(),
+                    new File(mCacheDir, key + ENTRY_EXTENSION).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            CLog.e("Failed to cache the test list in %s", mCacheDir);
+            CLog.e(e);
+            FileUtil.deleteFile(tmpEntry);
+        }
+    }
+}
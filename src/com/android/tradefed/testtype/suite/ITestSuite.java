@@ -42,6 +42,7 @@ import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
 import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.ITestLoggerReceiver;
 import com.android.tradefed.result.ResultForwarder;
+import com.android.tradefed.suite.checker.IBatchedShellCommandChecker;
 import com.android.tradefed.suite.checker.ISystemStatusChecker;
 import com.android.tradefed.suite.checker.ISystemStatusCheckerReceiver;
 import com.android.tradefed.suite.checker.StatusCheckerResult;
@@ -61,6 +62,7 @@ import com.android.tradefed.testtype.ITestCollector;
 import com.android.tradefed.util.AbiFormatter;
 import com.android.tradefed.util.AbiUtils;
 import com.android.tradefed.util.MultiMap;
+import com.android.tradefed.util.RunInterruptedException;
 import com.android.tradefed.util.TimeUtil;
 
 import com.google.inject.Inject;
@@ -72,6 +74,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -80,6 +83,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Abstract class used to run Test Suite. This class provide the base of how the Suite will be run.
@@ -300,6 +307,15 @@ public abstract class ITestSuite
     )
     private boolean mRebootBeforeTest = false;
 
+    @Option(
+        name = "host-preparation-look-ahead",
+        description =
+                "Number of upcoming modules whose host-side preparation (resolving and parsing "
+                        + "the files to push or install) runs in the background while the "
+                        + "current module runs. 0 to prepare each module right before it runs."
+    )
+    private int mHostPreparationLookAhead = 2;
+
     // [Options relate to module retry and intra-module retry][
     @Option(
         name = "max-testcase-run-count",
@@ -573,6 +589,19 @@ public abstract class ITestSuite
                     mRunModules);
         }
 
+        // Host preparation of the upcoming modules, done in the background while one runs.
+        Map<ModuleDefinition, Future<?>> hostPreparations = new IdentityHashMap<>();
+        ExecutorService hostPreparationExecutor = null;
+        if (mHostPreparationLookAhead > 0) {
+            hostPreparationExecutor =
+                    Executors.newSingleThreadExecutor(
+                            r -> {
+                                Thread t = new Thread(r, "ITestSuite-host-preparation");
+                                t.setDaemon(true);
+                                return t;
+                            });
+        }
+
         /** Run all the module, make sure to reduce the list to release resources as we go. */
         try {
             while (!mRunModules.isEmpty()) {
@@ -580,16 +609,11 @@ public abstract class ITestSuite
                 // Before running the module we ensure it has tests at this point or skip completely
                 // to avoid running SystemCheckers and preparation for nothing.
                 if (module.hasTests()) {
+                    hostPreparations.remove(module);
                     continue;
                 }
 
-                // Populate the module context with devices and builds
-                for (String deviceName : mContext.getDeviceConfigNames()) {
-                    module.getModuleInvocationContext()
-                            .addAllocatedDevice(deviceName, mContext.getDevice(deviceName));
-                    module.getModuleInvocationContext()
-                            .addDeviceBuildInfo(deviceName, mContext.getBuildInfo(deviceName));
-                }
+                prepareModuleOnHost(module, hostPreparations, hostPreparationExecutor);
                 listener.testModuleStarted(module.getModuleInvocationContext());
                 // Trigger module start on module level listener too
                 new ResultForwarder(moduleListeners)
@@ -612,6 +636,64 @@ public abstract class ITestSuite
                     mRunModules);
             reportNotExecuted(listener, "Module did not run due to device not available.");
             throw e;
+        } finally {
+            if (hostPreparationExecutor != null) {
+                hostPreparationExecutor.shutdownNow();
+            }
+        }
+    }
+
+    /** Populate the module context with devices and builds. */
+    private void populateModuleContext(ModuleDefinition module) {
+        for (String deviceName : mContext.getDeviceConfigNames()) {
+            module.getModuleInvocationContext()
+                    .addAllocatedDevice(deviceName, mContext.getDevice(deviceName));
+            module.getModuleInvocationContext()
+                    .addDeviceBuildInfo(deviceName, mContext.getBuildInfo(deviceName));
+        }
+    }
+
+    /**
+     * Complete the host preparation of a module about to run: wait for the background one, or do
+     * it now if there was none. Then start the background host preparation of the next modules,
+     * which overlaps with the device steps of this one.
+     *
+     * @param module the {@link ModuleDefinition} about to run.
+     * @param hostPreparations the pending background host preparations of the modules.
+     * @param executor where to run the background host preparations, null if disabled.
+     */
+    private void prepareModuleOnHost(
+            ModuleDefinition module,
+            Map<ModuleDefinition, Future<?>> hostPreparations,
+            ExecutorService executor) {
+        long startTime = System.currentTimeMillis();
+        Future<?> preparation = hostPreparations.remove(module);
+        if (preparation == null) {
+            populateModuleContext(module);
+            module.prepareOnHost();
+        } else {
+            try {
+                preparation.get();
+            } catch (ExecutionException e) {
+                // The module setup reports the failures.
+                CLog.e(e);
+            } catch (InterruptedException e) {
+                throw new RunInterruptedException(e);
+            }
+        }
+        module.setDeviceIdleTime(System.currentTimeMillis() - startTime);
+
+        if (executor == null) {
+            return;
+        }
+        for (int i = 0; i < mHostPreparationLookAhead && i < mRunModules.size(); i++) {
+            ModuleDefinition next = mRunModules.get(i);
+            if (next.hasTests() || hostPreparations.containsKey(next)) {
+                continue;
+            }
+            // The context is only populated here, the background preparation only reads it.
+            populateModuleContext(next);
+            hostPreparations.put(next, executor.submit(next::prepareOnHost));
         }
     }
 
@@ -701,6 +783,40 @@ public abstract class ITestSuite
         }
     }
 
+    /**
+     * Helper to run the shell commands of all the {@link IBatchedShellCommandChecker}s in a single
+     * batch, and give them the outputs before their checks.
+     */
+    private void runBatchedCheckerCommands(
+            List<ISystemStatusChecker> checkers, ITestDevice device, boolean preExecution)
+            throws DeviceNotAvailableException {
+        List<IBatchedShellCommandChecker> batchedCheckers = new ArrayList<>();
+        Set<String> commands = new LinkedHashSet<>();
+        for (ISystemStatusChecker checker : checkers) {
+            if (!(checker instanceof IBatchedShellCommandChecker)
+                    || mSystemStatusCheckBlacklist.contains(checker.getClass().getName())) {
+                continue;
+            }
+            IBatchedShellCommandChecker batchedChecker = (IBatchedShellCommandChecker) checker;
+            batchedCheckers.add(batchedChecker);
+            commands.addAll(
+                    preExecution
+                            ? batchedChecker.getPreExecutionCommands()
+                            : batchedChecker.getPostExecutionCommands());
+        }
+        Map<String, String> outputs = new HashMap<>();
+        if (!commands.isEmpty()) {
+            List<String> commandList = new ArrayList<>(commands);
+            List<String> results = device.executeShellCommands(commandList);
+            for (int i = 0; i < commandList.size() && i < results.size(); i++) {
+                outputs.put(commandList.get(i), results.get(i));
+            }
+        }
+        for (IBatchedShellCommandChecker batchedChecker : batchedCheckers) {
+            batchedChecker.setCommandOutputs(outputs);
+        }
+    }
+
     /**
      * Helper to run the System Status checkers preExecutionChecks defined for the test and log
      * their failures.
@@ -713,6 +829,7 @@ public abstract class ITestSuite
             throws DeviceNotAvailableException {
         long startTime = System.currentTimeMillis();
         CLog.i("Running system status checker before module execution: %s", moduleName);
+        runBatchedCheckerCommands(checkers, device, true);
         Map<String, String> failures = new LinkedHashMap<>();
         boolean bugreportNeeded = false;
         for (ISystemStatusChecker checker : checkers) {
@@ -764,6 +881,7 @@ public abstract class ITestSuite
             throws DeviceNotAvailableException {
         long startTime = System.currentTimeMillis();
         CLog.i("Running system status checker after module execution: %s", moduleName);
+        runBatchedCheckerCommands(checkers, device, false);
         Map<String, String> failures = new LinkedHashMap<>();
         boolean bugreportNeeded = false;
         for (ISystemStatusChecker checker : checkers) {
@@ -45,6 +45,7 @@ import com.android.tradefed.result.TestResult;
 import com.android.tradefed.result.TestRunResult;
 import com.android.tradefed.suite.checker.ISystemStatusCheckerReceiver;
 import com.android.tradefed.targetprep.BuildError;
+import com.android.tradefed.targetprep.IHostPreparer;
 import com.android.tradefed.targetprep.ITargetCleaner;
 import com.android.tradefed.targetprep.ITargetPreparer;
 import com.android.tradefed.targetprep.TargetSetupError;
@@ -102,6 +103,8 @@ public class ModuleDefinition implements Comparable<ModuleDefinition>, ITestColl
     public static final String PREPARATION_TIME = "PREP_TIME";
     public static final String TEAR_DOWN_TIME = "TEARDOWN_TIME";
     public static final String TEST_TIME = "TEST_TIME";
+    public static final String HOST_PREPARATION_TIME = "HOST_PREP_TIME";
+    public static final String DEVICE_IDLE_TIME = "DEVICE_IDLE_TIME";
     public static final String RETRY_TIME = "MODULE_RETRY_TIME";
     public static final String RETRY_SUCCESS_COUNT = "MODULE_RETRY_SUCCESS";
     public static final String RETRY_FAIL_COUNT = "MODULE_RETRY_FAILED";
@@ -134,6 +137,11 @@ public class ModuleDefinition implements Comparable<ModuleDefinition>, ITestColl
 
     private long mStartTestTime = 0l;
 
+    // Tracking of the host-side preparation, only reported for modules with IHostPreparers.
+    private boolean mHasHostPreparers = false;
+    private long mElapsedHostPreparation = 0L;
+    private long mDeviceIdleTime = 0L;
+
     // Tracking of retry performance
     private long mRetryTime = 0L;
     /** The number of test cases that passed after a failed attempt */
@@ -654,6 +662,14 @@ public class ModuleDefinition implements Comparable<ModuleDefinition>, ITestColl
                 TfMetricProtoUtil.createSingleValue(mElapsedTearDown, "milliseconds"));
         metricsProto.put(
                 TEST_TIME, TfMetricProtoUtil.createSingleValue(elapsedTime, "milliseconds"));
+        if (mHasHostPreparers) {
+            metricsProto.put(
+                    HOST_PREPARATION_TIME,
+                    TfMetricProtoUtil.createSingleValue(mElapsedHostPreparation, "milliseconds"));
+            metricsProto.put(
+                    DEVICE_IDLE_TIME,
+                    TfMetricProtoUtil.createSingleValue(mDeviceIdleTime, "milliseconds"));
+        }
         // Report all the retry informations
         if (mRetryTime > 0L) {
             metricsProto.put(
@@ -728,6 +744,53 @@ public class ModuleDefinition implements Comparable<ModuleDefinition>, ITestColl
         }
     }
 
+    /**
+     * Run the host-only preparation of the {@link IHostPreparer}s of the module. It does not
+     * interact with the devices, so it can run on another thread while a previous module runs,
+     * but must complete before {@link #run(ITestInvocationListener)}. The devices and builds must
+     * already be in the module invocation context.
+     */
+    void prepareOnHost() {
+        long startTime = getCurrentTime();
+        List<String> deviceNames = mModuleInvocationContext.getDeviceConfigNames();
+        for (int i = 0; i < deviceNames.size() && i < mPreparersPerDevice.size(); i++) {
+            String deviceName = deviceNames.get(i);
+            List<ITargetPreparer> preparers = mPreparersPerDevice.get(deviceName);
+            if (preparers == null) {
+                String key = new ArrayList<>(mPreparersPerDevice.keySet()).get(i);
+                preparers = mPreparersPerDevice.get(key);
+            }
+            for (ITargetPreparer preparer : preparers) {
+                if (!(preparer instanceof IHostPreparer) || preparer.isDisabled()) {
+                    continue;
+                }
+                mHasHostPreparers = true;
+                if (preparer instanceof IInvocationContextReceiver) {
+                    ((IInvocationContextReceiver) preparer)
+                            .setInvocationContext(mModuleInvocationContext);
+                }
+                try {
+                    ((IHostPreparer) preparer)
+                            .prepareOnHost(mModuleInvocationContext.getBuildInfo(deviceName));
+                } catch (TargetSetupError | RuntimeException e) {
+                    // The setup does the same steps again and reports the failure.
+                    CLog.w(
+                            "Host preparation of %s failed for module %s: %s",
+                            preparer.getClass().getSimpleName(), getId(), e.getMessage());
+                }
+            }
+        }
+        mElapsedHostPreparation = getCurrentTime() - startTime;
+    }
+
+    /**
+     * Sets how long the device was idle, waiting for the host preparation of the module before
+     * its setup.
+     */
+    void setDeviceIdleTime(long idleTime) {
+        mDeviceIdleTime = idleTime;
+    }
+
     /** Run all the prepare steps. */
     private Throwable runPreparerSetup(
             ITestDevice device, IBuildInfo build, ITargetPreparer preparer, ITestLogger logger) {
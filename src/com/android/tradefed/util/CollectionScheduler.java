@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import com.android.tradefed.log.LogRegistry;
+import com.android.tradefed.log.LogUtil.CLog;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A host-wide scheduler for periodic collections, like the device metric collectors and the host
+ * monitors, running on a small shared pool of threads instead of one thread per collection.
+ *
+ * <p>Collections are scheduled with a key, usually the serial of the device they query: the
+ * collections with the same key never run concurrently. Collections with the same key, interval
+ * and scheduling mode share the same tick and run one after the other.
+ *
+ * <p>A tick is missed when the previous run of the collections of the tick has not finished yet,
+ * and late when the collections start more than a tenth of their interval after the tick time.
+ * Both are counted for each collection and for the whole scheduler.
+ */
+public class CollectionScheduler {
+
+    /** A collection to run periodically. */
+    public interface ICollection {
+        /**
+         * Run the collection once.
+         *
+         * @throws InterruptedException to stop the collection, it will not run again.
+         */
+        public void collect() throws InterruptedException;
+    }
+
+    /** A collection scheduled with {@link CollectionScheduler#schedule}. */
+    public final class ScheduledCollection {
+        private final ICollection mCollection;
+        private final TickGroup mGroup;
+        /** The log context of the caller that scheduled the collection. */
+        private final ThreadGroup mLogContext = LogRegistry.getLogContext();
+        private volatile boolean mCancelled = false;
+        private final AtomicLong mTicks = new AtomicLong();
+        private final AtomicLong mMissedTicks = new AtomicLong();
+        private final AtomicLong mLateTicks = new AtomicLong();
+
+        private ScheduledCollection(ICollection collection, TickGroup group) {
+            mCollection = collection;
+            mGroup = group;
+        }
+
+        /** Stop the collection. A run in progress is not interrupted. */
+        public void cancel() {
+            if (!mCancelled) {
+                mCancelled = true;
+                removeCollection(this);
+            }
+        }
+
+        /** Returns whether the collection was cancelled. */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /** Returns the number of times the collection ran. */
+        public long getTickCount() {
+            return mTicks.get();
+        }
+
+        /** Returns the number of ticks skipped because the previous run was not done. */
+        public long getMissedTickCount() {
+            return mMissedTicks.get();
+        }
+
+        /** Returns the number of runs that started late. */
+        public long getLateTickCount() {
+            return mLateTicks.get();
+        }
+
+        private void run(long delayMs, boolean late) {
+            if (mCancelled) {
+                return;
+            }
+            mTicks.incrementAndGet();
+            if (late) {
+                mLateTicks.incrementAndGet();
+                mTotalLateTicks.incrementAndGet();
+            }
+            // Log in the log of the invocation that scheduled the collection.
+            LogRegistry.runWithLogContext(
+                    mLogContext,
+                    () -> {
+                        try {
+                            mCollection.collect();
+                        } catch (InterruptedException e) {
+                            CLog.e("Collection interrupted, stopping it.");
+                            CLog.e(e);
+                            cancel();
+                        } catch (RuntimeException e) {
+                            CLog.e("Collection failed after starting %d ms late.", delayMs);
+                            CLog.e(e);
+                        }
+                    });
+        }
+    }
+
+    /** Collections sharing the same key, interval and scheduling mode, run on the same tick. */
+    private final class TickGroup {
+        private final List<Object> mId;
+        private final String mKey;
+        private final long mIntervalMs;
+        private final boolean mFixedRate;
+        private final List<ScheduledCollection> mCollections = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean mPending = new AtomicBoolean(false);
+        private ScheduledFuture<?> mFuture;
+        private volatile long mNextTickTime;
+
+        TickGroup(List<Object> id, String key, long intervalMs, boolean fixedRate) {
+            mId = id;
+            mKey = key;
+            mIntervalMs = intervalMs;
+            mFixedRate = fixedRate;
+        }
+
+        private void tick() {
+            long tickTime = mNextTickTime;
+            if (mFixedRate) {
+                mNextTickTime += mIntervalMs;
+            }
+            if (!mPending.compareAndSet(false, true)) {
+                for (ScheduledCollection collection : mCollections) {
+                    collection.mMissedTicks.incrementAndGet();
+                }
+                mTotalMissedTicks.incrementAndGet();
+                return;
+            }
+            runSerially(mKey, () -> run(tickTime));
+        }
+
+        private void run(long tickTime) {
+            try {
+                long delay = System.currentTimeMillis() - tickTime;
+                boolean late = delay > mIntervalMs / LATE_TICK_DIVISOR;
+                for (ScheduledCollection collection : mCollections) {
+                    collection.run(delay, late);
+                }
+            } finally {
+                mPending.set(false);
+                if (!mFixedRate) {
+                    scheduleNextTick(this);
+                }
+            }
+        }
+    }
+
+    /** Runs the tasks of a key one at a time, in order, without holding a thread while idle. */
+    private final class SerialQueue {
+        private final Queue<Runnable> mTasks = new ArrayDeque<>();
+        private boolean mRunning = false;
+
+        synchronized void submit(Runnable task) {
+            mTasks.add(task);
+            if (!mRunning) {
+                mRunning = true;
+                mExecutor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = mTasks.poll();
+                    if (task == null) {
+                        mRunning = false;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    // Keep running the next tasks of the key.
+                    CLog.e(t);
+                }
+            }
+        }
+    }
+
+    /** A run is late if it starts more than interval / LATE_TICK_DIVISOR after its tick. */
+    private static final long LATE_TICK_DIVISOR = 10L;
+
+    private static final int DEFAULT_POOL_SIZE =
+            Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    private static CollectionScheduler sInstance = null;
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final Map<List<Object>, TickGroup> mGroups = new HashMap<>();
+    private final Map<String, SerialQueue> mQueues = new HashMap<>();
+    private final AtomicLong mTotalMissedTicks = new AtomicLong();
+    private final AtomicLong mTotalLateTicks = new AtomicLong();
+
+    /** Returns the {@link CollectionScheduler} shared by the whole host. */
+    public static synchronized CollectionScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new CollectionScheduler(DEFAULT_POOL_SIZE);
+        }
+        return sInstance;
+    }
+
+    /** @param poolSize the maximum number of collections running at the same time. */
+    @VisibleForTesting
+    CollectionScheduler(int poolSize) {
+        // The threads are shared by all the invocations, do not create them in the group of the
+        // first invocation scheduling a collection.
+        mExecutor =
+                new ScheduledThreadPoolExecutor(
+                        poolSize, new SharedThreadFactory("CollectionScheduler"));
+        mExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Schedule a periodic collection.
+     *
+     * @param key the resource used by the collection, like a device serial. Collections with the
+     *     same key never run concurrently. Null if the collection does not need it.
+     * @param initialDelayMs the delay before the first run. A collection joining the tick of other
+     *     collections runs at their next tick, or right away if the delay is 0.
+     * @param intervalMs the interval between two runs.
+     * @param fixedRate whether the runs are at a fixed rate, or at a fixed delay after the end of
+     *     the previous run.
+     * @param collection the {@link ICollection} to run.
+     * @return the {@link ScheduledCollection}, to cancel it and get its tick counts.
+     */
+    public ScheduledCollection schedule(
+            String key,
+            long initialDelayMs,
+            long intervalMs,
+            boolean fixedRate,
+            ICollection collection) {
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("Collection interval must be positive, got %d", intervalMs));
+        }
+        List<Object> id = Arrays.asList(key, intervalMs, fixedRate);
+        synchronized (this) {
+            TickGroup group = mGroups.get(id);
+            if (group != null) {
+                ScheduledCollection scheduled = new ScheduledCollection(collection, group);
+                group.mCollections.add(scheduled);
+                if (initialDelayMs <= 0) {
+                    runSerially(key, () -> scheduled.run(0L, false));
+                }
+                return scheduled;
+            }
+            group = new TickGroup(id, key, intervalMs, fixedRate);
+            ScheduledCollection scheduled = new ScheduledCollection(collection, group);
+            group.mCollections.add(scheduled);
+            mGroups.put(id, group);
+            long delay = Math.max(0L, initialDelayMs);
+            group.mNextTickTime = System.currentTimeMillis() + delay;
+            if (fixedRate) {
+                group.mFuture =
+                        mExecutor.scheduleAtFixedRate(
+                                group::tick, delay, intervalMs, TimeUnit.MILLISECONDS);
+            } else {
+                group.mFuture = mExecutor.schedule(group::tick, delay, TimeUnit.MILLISECONDS);
+            }
+            return scheduled;
+        }
+    }
+
+    /** Returns the number of ticks missed by all the collections since the scheduler started. */
+    public long getMissedTickCount() {
+        return mTotalMissedTicks.get();
+    }
+
+    /** Returns the number of late ticks of all the collections since the scheduler started. */
+    public long getLateTickCount() {
+        return mTotalLateTicks.get();
+    }
+
+    /** Stop all the collections and the threads of the scheduler. */
+    @VisibleForTesting
+    void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    /** Run a task after the other tasks of the key, or right away if the key is null. */
+    private void runSerially(String key, Runnable task) {
+        if (key == null) {
+            mExecutor.execute(task);
+            return;
+        }
+        SerialQueue queue;
+        synchronized (this) {
+            queue = mQueues.computeIfAbsent(key, k -> new SerialQueue());
+        }
+        queue.submit(task);
+    }
+
+    private synchronized void scheduleNextTick(TickGroup group) {
+        if (mGroups.get(group.mId) != group || mExecutor.isShutdown()) {
+            return;
+        }
+        group.mNextTickTime = System.currentTimeMillis() + group.mIntervalMs;
+        group.mFuture =
+                mExecutor.schedule(group::tick, group.mIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void removeCollection(ScheduledCollection collection) {
+        TickGroup group = collection.mGroup;
+        group.mCollections.remove(collection);
+        if (group.mCollections.isEmpty() && mGroups.get(group.mId) == group) {
+            mGroups.remove(group.mId);
+            if (group.mFuture != null) {
+                group.mFuture.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.tradefed.log.LogUtil.CLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the names of the files under a directory, used by the {@link FileUtil} searches to
+ * avoid walking large directories, like the test artifacts of a build, on every search.
+ *
+ * <p>The index of a registered directory is built on its first search. Before each search, the
+ * modification time of the directories searched is checked and the directories that changed are
+ * listed again, so files added or removed since the index was built are taken into account. The
+ * results are in the order of {@link Files#walk(Path, FileVisitOption...)}.
+ */
+public class FileNameIndex {
+
+    /** Directories modified this close to their listing may have changed in the same tick. */
+    private static final long MTIME_RESOLUTION_MS = 2000L;
+
+    private static final Map<Path, FileNameIndex> sIndexes = new ConcurrentHashMap<>();
+    private static final AtomicLong sIndexedSearches = new AtomicLong();
+    private static final AtomicLong sWalkedSearches = new AtomicLong();
+
+    private final Path mRoot;
+    private Node mRootNode = null;
+    private final Map<String, List<Node>> mNodesByName = new HashMap<>();
+    private long mNextSequence = 0L;
+    private long mSearches = 0L;
+
+    /** A file or directory of the index. */
+    private static final class Node {
+        final String name;
+        final Node parent;
+        /** Order of the node among its siblings. */
+        long sequence;
+        /** Children by name in listing order, null for files. */
+        Map<String, Node> children = null;
+        /** Number of nodes of the subtree, including this one. */
+        int size = 1;
+
+        FileTime lastModified = null;
+        long listedAt = 0L;
+
+        Node(String name, Node parent, long sequence) {
+            this.name = name;
+            this.parent = parent;
+            this.sequence = sequence;
+        }
+
+        boolean isDirectory() {
+            return children != null;
+        }
+    }
+
+    @VisibleForTesting
+    FileNameIndex(Path root) {
+        mRoot = root;
+    }
+
+    /**
+     * Index the files under a directory for the {@link FileUtil} searches. The index is built on
+     * the first search.
+     *
+     * @param rootDir the directory to index
+     */
+    public static void register(File rootDir) {
+        Path root = toPath(rootDir);
+        sIndexes.computeIfAbsent(root, FileNameIndex::new);
+    }
+
+    /**
+     * Stop indexing a directory, for example before deleting it.
+     *
+     * @param rootDir the directory passed to {@link #register(File)}
+     */
+    public static void unregister(File rootDir) {
+        FileNameIndex index = sIndexes.remove(toPath(rootDir));
+        if (index != null) {
+            CLog.d("Index of %s served %d searches.", rootDir, index.getSearchCount());
+        }
+    }
+
+    /** Returns the number of searches served by an index since Tradefed started. */
+    public static long getIndexedSearchCount() {
+        return sIndexedSearches.get();
+    }
+
+    /** Returns the number of searches that walked the directories since Tradefed started. */
+    public static long getWalkedSearchCount() {
+        return sWalkedSearches.get();
+    }
+
+    /**
+     * Search the files matching a name filter under a directory, including the directory itself,
+     * like {@link FileUtil#findFilesObject(File, String)}.
+     *
+     * @return the matching files in walk order, or null if the directory is not indexed, in which
+     *     case the caller walks the directory itself.
+     */
+    static List<Path> findFiles(File dir, String filter) throws IOException {
+        Path path = toPath(dir);
+        FileNameIndex index = getIndex(path);
+        if (index != null) {
+            List<Path> files = index.find(path, filter, true);
+            if (files != null) {
+                sIndexedSearches.incrementAndGet();
+                return files;
+            }
+        }
+        sWalkedSearches.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Search the first file matching a name filter under a directory, excluding the directory
+     * itself, in the order of {@link FileUtil#findFile(File, String)}: the files of a directory
+     * come before the directory.
+     *
+     * @return the matching file, an empty list if there is none, or null if the directory is not
+     *     indexed.
+     */
+    static List<Path> findFirstFile(File dir, String filter) throws IOException {
+        Path path = toPath(dir);
+        FileNameIndex index = getIndex(path);
+        if (index != null) {
+            List<Path> files = index.find(path, filter, false);
+            if (files != null) {
+                sIndexedSearches.incrementAndGet();
+                // Deeper matches come first, as a directory is checked after its files.
+                Path first = null;
+                for (Path file : files) {
+                    if (first != null && !file.startsWith(first)) {
+                        break;
+                    }
+                    first = file;
+                }
+                return first == null ? Collections.emptyList() : Collections.singletonList(first);
+            }
+        }
+        sWalkedSearches.incrementAndGet();
+        return null;
+    }
+
+    private static Path toPath(File file) {
+        return Paths.get(file.getAbsolutePath());
+    }
+
+    private static FileNameIndex getIndex(Path path) {
+        for (Path root = path; root != null; root = root.getParent()) {
+            FileNameIndex index = sIndexes.get(root);
+            if (index != null) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    private synchronized long getSearchCount() {
+        return mSearches;
+    }
+
+    /**
+     * Search the files matching the filter under a directory of the index.
+     *
+     * @return the matching files in walk order, or null if the directory is not in the index.
+     */
+    @VisibleForTesting
+    synchronized List<Path> find(Path dir, String filter, boolean includeDir)
+            throws IOException {
+        if (mRootNode == null) {
+            if (!Files.isDirectory(mRoot)) {
+                return null;
+            }
+            mRootNode = index(mRoot, null);
+        }
+        // Find the directory, listing again the directories on the way that changed.
+        Node dirNode = mRootNode;
+        Path dirPath = mRoot;
+        for (Path name : mRoot.relativize(dir)) {
+            if (name.toString().isEmpty()) {
+                continue;
+            }
+            if (!dirNode.isDirectory() || !relistIfChanged(dirNode, dirPath)) {
+                return null;
+            }
+            dirNode = dirNode.children.get(name.toString());
+            dirPath = dirPath.resolve(name);
+            if (dirNode == null) {
+                return null;
+            }
+        }
+        if (dirNode.isDirectory() && !refresh(dirNode, dirPath)) {
+            return null;
+        }
+        mSearches++;
+
+        NameMatcher matcher = new NameMatcher(filter);
+        List<Node> matches = new ArrayList<>();
+        if (dirNode.size > mNodesByName.size()) {
+            // Cheaper to check each name once than each file of the directory.
+            for (Map.Entry<String, List<Node>> entry : mNodesByName.entrySet()) {
+                if (matcher.matches(entry.getKey())) {
+                    for (Node node : entry.getValue()) {
+                        if (isUnder(node, dirNode)) {
+                            matches.add(node);
+                        }
+                    }
+                }
+            }
+            Collections.sort(matches, FileNameIndex::compareWalkOrder);
+        } else {
+            collect(dirNode, matcher, matches);
+        }
+        List<Path> files = new ArrayList<>(matches.size());
+        for (Node node : matches) {
+            if (includeDir || node != dirNode) {
+                files.add(getPath(node));
+            }
+        }
+        return files;
+    }
+
+    /** Index a file or directory and everything under it. */
+    private Node index(Path path, Node parent) throws IOException {
+        Deque<Node> dirs = new ArrayDeque<>();
+        Node[] top = new Node[1];
+        Files.walkFileTree(
+                path,
+                EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(
+                            Path dir, BasicFileAttributes attrs) {
+                        Node node = addNode(dir, dirs.isEmpty() ? parent : dirs.peek());
+                        node.children = new LinkedHashMap<>();
+                        node.lastModified = attrs.lastModifiedTime();
+                        node.listedAt = System.currentTimeMillis();
+                        if (top[0] == null) {
+                            top[0] = node;
+                        }
+                        dirs.push(node);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        Node node = addNode(file, dirs.isEmpty() ? parent : dirs.peek());
+                        if (top[0] == null) {
+                            top[0] = node;
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        // Keep the name of the files that cannot be read, like symlink loops.
+                        return visitFile(file, null);
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                        Node node = dirs.pop();
+                        for (Node child : node.children.values()) {
+                            node.size += child.size;
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        if (top[0] != null) {
+            for (Node node = parent; node != null; node = node.parent) {
+                node.size += top[0].size;
+            }
+        }
+        return top[0];
+    }
+
+    private Node addNode(Path path, Node parent) {
+        Path fileName = path.getFileName();
+        String name = fileName == null ? path.toString() : fileName.toString();
+        Node node = new Node(name, parent, mNextSequence++);
+        if (parent != null) {
+            parent.children.put(name, node);
+        }
+        mNodesByName.computeIfAbsent(name, k -> new ArrayList<>(1)).add(node);
+        return node;
+    }
+
+    /**
+     * List again the directories that changed under a directory of the index.
+     *
+     * @return false if the directory does not exist anymore.
+     */
+    private boolean refresh(Node dir, Path path) throws IOException {
+        if (!relistIfChanged(dir, path)) {
+            return false;
+        }
+        Iterator<Node> children = dir.children.values().iterator();
+        while (children.hasNext()) {
+            Node child = children.next();
+            if (child.isDirectory() && !refresh(child, path.resolve(child.name))) {
+                children.remove();
+                unindex(child);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * List again a directory of the index if it was modified since it was listed.
+     *
+     * @return false if the directory does not exist anymore.
+     */
+    private boolean relistIfChanged(Node dir, Path path) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (!attrs.isDirectory()) {
+            return false;
+        }
+        FileTime lastModified = attrs.lastModifiedTime();
+        if (!lastModified.equals(dir.lastModified)
+                || dir.listedAt - lastModified.toMillis() < MTIME_RESOLUTION_MS) {
+            relist(dir, path);
+            dir.lastModified = lastModified;
+        }
+        return true;
+    }
+
+    /** Update the children of a directory from its current listing, in the listing order. */
+    private void relist(Node dir, Path path) throws IOException {
+        dir.listedAt = System.currentTimeMillis();
+        Map<String, Node> previous = dir.children;
+        dir.children = new LinkedHashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+            for (Path child : stream) {
+                String name = child.getFileName().toString();
+                Node node = previous.remove(name);
+                if (node != null && node.isDirectory() != Files.isDirectory(child)) {
+                    unindex(node);
+                    node = null;
+                }
+                if (node == null) {
+                    index(child, dir);
+                } else {
+                    node.sequence = mNextSequence++;
+                    dir.children.put(name, node);
+                }
+            }
+        } finally {
+            for (Node removed : previous.values()) {
+                unindex(removed);
+            }
+        }
+    }
+
+    /** Remove a node and its subtree, which was already removed from its parent. */
+    private void unindex(Node node) {
+        for (Node parent = node.parent; parent != null; parent = parent.parent) {
+            parent.size -= node.size;
+        }
+        Deque<Node> nodes = new ArrayDeque<>();
+        nodes.push(node);
+        while (!nodes.isEmpty()) {
+            Node current = nodes.pop();
+            List<Node> sameName = mNodesByName.get(current.name);
+            if (sameName != null) {
+                sameName.remove(current);
+                if (sameName.isEmpty()) {
+                    mNodesByName.remove(current.name);
+                }
+            }
+            if (current.isDirectory()) {
+                for (Node child : current.children.values()) {
+                    nodes.push(child);
+                }
+            }
+        }
+    }
+
+    /** Collect the matching nodes of a subtree in walk order. */
+    private static void collect(Node node, NameMatcher matcher, List<Node> matches) {
+        if (matcher.matches(node.name)) {
+            matches.add(node);
+        }
+        if (node.isDirectory()) {
+            for (Node child : node.children.values()) {
+                collect(child, matcher, matches);
+            }
+        }
+    }
+
+    private static boolean isUnder(Node node, Node dir) {
+        for (Node current = node; current != null; current = current.parent) {
+            if (current == dir) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Compare two nodes in walk order: a directory, then its children in listing order. */
+    private static int compareWalkOrder(Node first, Node second) {
+        List<Node> firstChain = getChain(first);
+        List<Node> secondChain = getChain(second);
+        int i = 0;
+        while (i < firstChain.size()
+                && i < secondChain.size()
+                && firstChain.get(i) == secondChain.get(i)) {
+            i++;
+        }
+        if (i == firstChain.size() || i == secondChain.size()) {
+            // One is an ancestor of the other, it comes first.
+            return Integer.compare(firstChain.size(), secondChain.size());
+        }
+        return Long.compare(firstChain.get(i).sequence, secondChain.get(i).sequence);
+    }
+
+    /** Returns the nodes from the root to the given node. */
+    private static List<Node> getChain(Node node) {
+        List<Node> chain = new ArrayList<>();
+        for (Node current = node; current != null; current = current.parent) {
+            chain.add(current);
+        }
+        Collections.reverse(chain);
+        return chain;
+    }
+
+    private Path getPath(Node node) {
+        if (node == mRootNode) {
+            return mRoot;
+        }
+        return getPath(node.parent).resolve(node.name);
+    }
+
+    /** Matches the names against a filter, without a regex when the filter is a plain name. */
+    private static final class NameMatcher {
+        private final String mFilter;
+        private final Pattern mPattern;
+
+        NameMatcher(String filter) {
+            mFilter = filter;
+            mPattern = isPlainName(filter) ? null : Pattern.compile(filter);
+        }
+
+        boolean matches(String name) {
+            if (mPattern != null) {
+                return mPattern.matcher(name).matches();
+            }
+            // '.' is the only special character of the filter, it matches any character.
+            if (name.length() != mFilter.length()) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                char c = mFilter.charAt(i);
+                if (c != '.' && c != name.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isPlainName(String filter) {
+            for (int i = 0; i < filter.length(); i++) {
+                if ("\\^$|?*+()[]{}".indexOf(filter.charAt(i)) >= 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -38,6 +38,7 @@ import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystemException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
@@ -50,6 +51,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
 import java.util.zip.ZipFile;
 
 /**
@@ -817,10 +819,22 @@ public class FileUtil {
      * @return the {@link File} or <code>null</code> if it could not be found
      */
     public static File findFile(File dir, String fileName) {
+        try {
+            List<Path> indexed = FileNameIndex.findFirstFile(dir, fileName);
+            if (indexed != null) {
+                return indexed.isEmpty() ? null : indexed.get(0).toFile();
+            }
+        } catch (IOException e) {
+            CLog.w("Failed to search %s in the index of %s: %s", fileName, dir, e.getMessage());
+        }
+        return findFileWithoutIndex(dir, fileName);
+    }
+
+    private static File findFileWithoutIndex(File dir, String fileName) {
         if (dir.listFiles() != null) {
             for (File file : dir.listFiles()) {
                 if (file.isDirectory()) {
-                    File result = findFile(file, fileName);
+                    File result = findFileWithoutIndex(file, fileName);
                     if (result != null) {
                         return result;
                     }
@@ -1069,8 +1083,14 @@ public class FileUtil {
      */
     public static Set<String> findFiles(File dir, String filter) throws IOException {
         Set<String> files = new HashSet<>();
+        List<Path> indexed = FileNameIndex.findFiles(dir, filter);
+        if (indexed != null) {
+            indexed.forEach(path -> files.add(path.toString()));
+            return files;
+        }
+        Pattern pattern = Pattern.compile(filter);
         Files.walk(Paths.get(dir.getAbsolutePath()), FileVisitOption.FOLLOW_LINKS)
-                .filter(path -> path.getFileName().toString().matches(filter))
+                .filter(path -> pattern.matcher(path.getFileName().toString()).matches())
                 .forEach(path -> files.add(path.toString()));
         return files;
     }
@@ -1149,8 +1169,14 @@ public class FileUtil {
      */
     public static Set<File> findFilesObject(File dir, String filter) throws IOException {
         Set<File> files = new LinkedHashSet<>();
+        List<Path> indexed = FileNameIndex.findFiles(dir, filter);
+        if (indexed != null) {
+            indexed.forEach(path -> files.add(path.toFile()));
+            return files;
+        }
+        Pattern pattern = Pattern.compile(filter);
         Files.walk(Paths.get(dir.getAbsolutePath()), FileVisitOption.FOLLOW_LINKS)
-                .filter(path -> path.getFileName().toString().matches(filter))
+                .filter(path -> pattern.matcher(path.getFileName().toString()).matches())
                 .forEach(path -> files.add(path.toFile()));
         return files;
     }
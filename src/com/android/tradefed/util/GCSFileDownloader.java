@@ -17,7 +17,7 @@
 package com.android.tradefed.util;
 
 import com.android.tradefed.build.BuildRetrievalError;
-import com.android.tradefed.build.IFileDownloader;
+import com.android.tradefed.build.IRangedFileDownloader;
 import com.android.tradefed.log.LogUtil.CLog;
 
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
@@ -32,6 +32,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -44,7 +45,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /** File downloader to download file from google cloud storage (GCS). */
-public class GCSFileDownloader extends GCSCommon implements IFileDownloader {
+public class GCSFileDownloader extends GCSCommon implements IRangedFileDownloader {
     public static final String GCS_PREFIX = "gs://";
     public static final String GCS_APPROX_PREFIX = "gs:/";
 
@@ -53,6 +54,7 @@ public class GCSFileDownloader extends GCSCommon implements IFileDownloader {
     private static final Collection<String> SCOPES =
             Collections.singleton("https://www.googleapis.com/auth/devstorage.read_only");
     private static final long LIST_BATCH_SIZE = 100;
+    private static final int RANGE_BUFFER_SIZE = 64 * 1024;
 
     public GCSFileDownloader(File jsonKeyFile) {
         super(jsonKeyFile);
@@ -127,6 +129,77 @@ public class GCSFileDownloader extends GCSCommon implements IFileDownloader {
         downloadFile(pathParts[0], pathParts[1], destFile);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public RemoteFileInfo getRemoteFileInfo(String remotePath) throws BuildRetrievalError {
+        String[] pathParts = parseGcsPath(remotePath);
+        try {
+            StorageObject remoteFileMeta = getRemoteFileMetaData(pathParts[0], pathParts[1]);
+            if (remoteFileMeta == null || remoteFileMeta.getSize() == null) {
+                // Folders have no metadata, they are downloaded file by file.
+                return null;
+            }
+            Long generation = remoteFileMeta.getGeneration();
+            return new RemoteFileInfo(
+                    remoteFileMeta.getSize().longValue(),
+                    generation == null ? null : generation.toString());
+        } catch (IOException e) {
+            throw new BuildRetrievalError(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The version is the generation of the object, a range of an object overwritten since then
+     * fails to download.
+     */
+    @Override
+    public void downloadFileRange(
+            String remotePath, String version, File destFile, long offset, long length)
+            throws BuildRetrievalError {
+        String[] pathParts = parseGcsPath(remotePath);
+        InputStream remoteInput = null;
+        try (RandomAccessFile output = new RandomAccessFile(destFile, "rw")) {
+            Storage.Objects.Get request = createRangeRequest(pathParts[0], pathParts[1], version);
+            request.getRequestHeaders()
+                    .setRange(String.format("bytes=%d-%d", offset, offset + length - 1));
+            remoteInput = request.executeMediaAsInputStream();
+            output.seek(offset);
+            byte[] buffer = new byte[RANGE_BUFFER_SIZE];
+            long remaining = length;
+            int read;
+            while (remaining > 0
+                    && (read = remoteInput.read(buffer, 0, (int) Math.min(buffer.length, remaining)))
+                            != -1) {
+                output.write(buffer, 0, read);
+                remaining -= read;
+            }
+            if (remaining > 0) {
+                throw new IOException(
+                        String.format(
+                                "Range %d-%d of %s ended %d bytes early",
+                                offset, offset + length - 1, remotePath, remaining));
+            }
+        } catch (IOException e) {
+            CLog.e("Failed to download range %d+%d of %s.", offset, length, remotePath);
+            throw new BuildRetrievalError(e.getMessage(), e);
+        } finally {
+            StreamUtil.close(remoteInput);
+        }
+    }
+
+    /** Create the request of a range of an object, pinned to the given generation if any. */
+    @VisibleForTesting
+    Storage.Objects.Get createRangeRequest(String bucketName, String filename, String generation)
+            throws IOException {
+        Storage.Objects.Get request = getStorage().objects().get(bucketName, filename);
+        if (generation != null) {
+            request.setGeneration(Long.valueOf(generation));
+        }
+        return request;
+    }
+
     private boolean isFileFresh(File localFile, StorageObject remoteFile) throws IOException {
         if (localFile == null && remoteFile == null) {
             return true;
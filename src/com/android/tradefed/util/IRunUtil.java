@@ -91,6 +91,17 @@ public interface IRunUtil {
      */
     public void setRedirectStderrToStdout(boolean redirect);
 
+    /**
+     * Set the maximum number of bytes of stdout and stderr kept in the {@link CommandResult} of the
+     * commands run without caller provided {@link OutputStream}. Output past that size is dropped.
+     * Initial value is 0, which keeps all the output.
+     * <p/>
+     * Cannot be used on the default {@link IRunUtil} instance.
+     *
+     * @param maxBytes maximum number of bytes kept for each stream, 0 for no limit.
+     */
+    public void setMaxCapturedOutputSize(long maxBytes);
+
     /**
      * Helper method to execute a system command, and aborting if it takes longer than a specified
      * time.
@@ -18,6 +18,7 @@ package com.android.tradefed.util;
 
 import com.android.annotations.Nullable;
 import com.android.tradefed.command.CommandInterrupter;
+import com.android.tradefed.log.LogRegistry;
 import com.android.tradefed.log.LogUtil.CLog;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -36,7 +37,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Nonnull;
 
@@ -52,12 +59,25 @@ public class RunUtil implements IRunUtil {
     private static final long THREAD_JOIN_POLL_INTERVAL = 30 * 1000;
     private static final long IO_THREAD_JOIN_INTERVAL = 5 * 1000;
     private static final long PROCESS_DESTROY_TIMEOUT_SEC = 2;
+    /** Maximum number of pooled threads, beyond that tasks get a dedicated thread. */
+    private static final int MAX_POOL_THREADS = 256;
+    private static final long POOL_KEEP_ALIVE_SEC = 60;
+    private static final String POOL_NAME = "RunUtil-pool";
+
+    /**
+     * Threads shared by all the {@link RunUtil} instances to run the commands, and to pump their
+     * output. Running thousands of short commands per minute would otherwise create three threads
+     * per command.
+     */
+    private static final ThreadPoolExecutor sExecutor = createExecutor();
+
     private static IRunUtil sDefaultInstance = null;
     private File mWorkingDir = null;
     private Map<String, String> mEnvVariables = new HashMap<String, String>();
     private Set<String> mUnsetEnvVariables = new HashSet<String>();
     private EnvPriority mEnvVariablePriority = EnvPriority.UNSET;
     private boolean mRedirectStderr = false;
+    private long mMaxCapturedOutputSize = 0;
 
     private final CommandInterrupter mInterrupter;
 
@@ -126,6 +146,13 @@ public class RunUtil implements IRunUtil {
         mUnsetEnvVariables.add(key);
     }
 
+    /** Returns the names of the environment variables set or unset for the commands. */
+    public synchronized Set<String> getModifiedEnvVariables() {
+        Set<String> names = new HashSet<>(mEnvVariables.keySet());
+        names.addAll(mUnsetEnvVariables);
+        return names;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void setRedirectStderrToStdout(boolean redirect) {
@@ -136,6 +163,16 @@ public class RunUtil implements IRunUtil {
         mRedirectStderr = redirect;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void setMaxCapturedOutputSize(long maxBytes) {
+        if (this.equals(sDefaultInstance)) {
+            throw new UnsupportedOperationException(
+                    "Cannot setMaxCapturedOutputSize on default RunUtil");
+        }
+        mMaxCapturedOutputSize = maxBytes;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -361,7 +398,7 @@ public class RunUtil implements IRunUtil {
             }
             do {
                 try {
-                    runThread.join(pollInterval);
+                    runThread.await(pollInterval);
                 } catch (InterruptedException e) {
                     if (isInterruptAllowed()) {
                         CLog.i("runTimed: interrupted while joining the runnable");
@@ -372,7 +409,7 @@ public class RunUtil implements IRunUtil {
                 }
                 mInterrupter.checkInterrupted();
             } while ((timeout == 0L || (System.currentTimeMillis() - startTime) < timeout)
-                    && runThread.isAlive());
+                    && !runThread.isDone());
         } catch (RunInterruptedException e) {
             runThread.cancel();
             throw e;
@@ -512,40 +549,58 @@ public class RunUtil implements IRunUtil {
     }
 
     /**
-     * Helper thread that wraps a runnable, and notifies when done.
+     * Helper that runs a runnable on the shared executor, and notifies when done.
      */
-    private static class RunnableNotifier extends Thread {
+    private static class RunnableNotifier implements Runnable {
 
         private final IRunUtil.IRunnableResult mRunnable;
+        private final CountDownLatch mDone = new CountDownLatch(1);
         private CommandStatus mStatus = CommandStatus.TIMED_OUT;
         private boolean mLogErrors = true;
 
         RunnableNotifier(IRunUtil.IRunnableResult runnable, boolean logErrors) {
-            // Set this thread to be a daemon so that it does not prevent
-            // TF from shutting down.
-            setName(RUNNABLE_NOTIFIER_NAME);
-            setDaemon(true);
             mRunnable = runnable;
             mLogErrors = logErrors;
         }
 
+        void start() {
+            execute(RUNNABLE_NOTIFIER_NAME, this);
+        }
+
+        /** Wait for the runnable to complete, for at most the given time in ms. 0 waits forever. */
+        void await(long timeout) throws InterruptedException {
+            if (timeout == 0L) {
+                mDone.await();
+            } else {
+                mDone.await(timeout, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
         @Override
         public void run() {
-            CommandStatus status;
             try {
-                status = mRunnable.run() ? CommandStatus.SUCCESS : CommandStatus.FAILED;
-            } catch (InterruptedException e) {
-                CLog.i("runutil interrupted");
-                status = CommandStatus.EXCEPTION;
-            } catch (Exception e) {
-                if (mLogErrors) {
-                    CLog.e("Exception occurred when executing runnable");
-                    CLog.e(e);
+                CommandStatus status;
+                try {
+                    status = mRunnable.run() ? CommandStatus.SUCCESS : CommandStatus.FAILED;
+                } catch (InterruptedException e) {
+                    CLog.i("runutil interrupted");
+                    status = CommandStatus.EXCEPTION;
+                } catch (Exception e) {
+                    if (mLogErrors) {
+                        CLog.e("Exception occurred when executing runnable");
+                        CLog.e(e);
+                    }
+                    status = CommandStatus.EXCEPTION;
                 }
-                status = CommandStatus.EXCEPTION;
-            }
-            synchronized (this) {
-                mStatus = status;
+                synchronized (this) {
+                    mStatus = status;
+                }
+            } finally {
+                mDone.countDown();
             }
         }
 
@@ -614,8 +669,8 @@ public class RunUtil implements IRunUtil {
 
             // Redirect IO, so that the outputstream for the spawn process does not fill up
             // and cause deadlock.
-            mStdOut = stdoutStream != null ? stdoutStream : new ByteArrayOutputStream();
-            mStdErr = stderrStream != null ? stderrStream : new ByteArrayOutputStream();
+            mStdOut = stdoutStream != null ? stdoutStream : createOutputBuffer();
+            mStdErr = stderrStream != null ? stderrStream : createOutputBuffer();
         }
 
         @Override
@@ -635,8 +690,8 @@ public class RunUtil implements IRunUtil {
 
         @Override
         public boolean run() throws Exception {
-            Thread stdoutThread = null;
-            Thread stderrThread = null;
+            Future<?> stdoutThread = null;
+            Future<?> stderrThread = null;
             synchronized (mLock) {
                 if (mCancelled) {
                     // if cancel() was called before run() took the lock, we do not even attempt
@@ -679,18 +734,18 @@ public class RunUtil implements IRunUtil {
                 try {
                     rc = mProcess.waitFor();
                     // wait for stdout and stderr to be read
-                    stdoutThread.join(IO_THREAD_JOIN_INTERVAL);
-                    if (stdoutThread.isAlive()) {
-                        CLog.d("stdout read thread %s still alive.", stdoutThread.toString());
+                    if (!waitForIO(stdoutThread)) {
+                        CLog.d("stdout read of %s still running.", mProcessBuilder.command());
                     }
-                    stderrThread.join(IO_THREAD_JOIN_INTERVAL);
-                    if (stderrThread.isAlive()) {
-                        CLog.d("stderr read thread %s still alive.", stderrThread.toString());
+                    if (!waitForIO(stderrThread)) {
+                        CLog.d("stderr read of %s still running.", mProcessBuilder.command());
                     }
                 } finally {
                     rc = (rc != null) ? rc : 1; // In case of interruption ReturnCode is null
                     mCommandResult.setExitCode(rc);
 
+                    logDroppedOutput(mStdOut, "stdout");
+                    logDroppedOutput(mStdErr, "stderr");
                     // Write out the streams to the result.
                     if (mStdOut instanceof ByteArrayOutputStream) {
                         mCommandResult.setStdout(
@@ -719,6 +774,17 @@ public class RunUtil implements IRunUtil {
             return false;
         }
 
+        private void logDroppedOutput(OutputStream stream, String name) {
+            if (stream instanceof CappedByteArrayOutputStream) {
+                long dropped = ((CappedByteArrayOutputStream) stream).getDroppedSize();
+                if (dropped > 0) {
+                    CLog.d(
+                            "%s of %s was truncated, %d bytes dropped.",
+                            name, mProcessBuilder.command(), dropped);
+                }
+            }
+        }
+
         @Override
         public void cancel() {
             if (mCancelled) {
@@ -758,23 +824,116 @@ public class RunUtil implements IRunUtil {
      *
      * @param src {@link InputStream} to inherit/redirect from
      * @param dest {@link BufferedOutputStream} to inherit/redirect to
-     * @param name the name of the thread returned.
-     * @return a {@link Thread} started that receives the IO.
+     * @param name the name of the thread while it receives the IO.
+     * @return a {@link Future} that completes once all the IO is received.
      */
-    private static Thread inheritIO(final InputStream src, final OutputStream dest, String name) {
-        Thread t = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    StreamUtil.copyStreams(src, dest);
-                } catch (IOException e) {
-                    CLog.e("Failed to read input stream.");
-                }
+    private static Future<?> inheritIO(
+            final InputStream src, final OutputStream dest, String name) {
+        return execute(
+                name,
+                () -> {
+                    try {
+                        StreamUtil.copyStreams(src, dest);
+                    } catch (IOException e) {
+                        CLog.e("Failed to read input stream.");
+                    }
+                });
+    }
+
+    /**
+     * Wait for an IO redirection started by {@link #inheritIO} to complete.
+     *
+     * @return <code>true</code> if it completed, <code>false</code> if it is still running.
+     */
+    private static boolean waitForIO(Future<?> io) throws InterruptedException {
+        try {
+            io.get(IO_THREAD_JOIN_INTERVAL, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            CLog.e(e);
+        }
+        return true;
+    }
+
+    /**
+     * Run a task on the shared executor. The thread is renamed while it runs the task, so that the
+     * command it belongs to can be tracked.
+     */
+    private static Future<?> execute(String name, Runnable task) {
+        FutureTask<?> future =
+                new FutureTask<>(
+                        // Log in the log of the invocation running the command.
+                        LogRegistry.wrapWithLogContext(
+                                () -> {
+                                    Thread current = Thread.currentThread();
+                                    String poolName = current.getName();
+                                    current.setName(name);
+                                    try {
+                                        task.run();
+                                    } finally {
+                                        current.setName(poolName);
+                                    }
+                                }),
+                        null);
+        sExecutor.execute(future);
+        return future;
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        // The threads are shared by all the invocations, do not create them in the group of the
+        // first invocation running a command.
+        SharedThreadFactory threadFactory = new SharedThreadFactory(POOL_NAME);
+        return new ThreadPoolExecutor(
+                0,
+                MAX_POOL_THREADS,
+                POOL_KEEP_ALIVE_SEC,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                threadFactory,
+                // Stream pumps must never wait for a free thread, or the process could block on
+                // a full pipe. Use a dedicated thread when the pool is exhausted.
+                (r, e) -> threadFactory.newThread(r).start());
+    }
+
+    /** Returns the buffer capturing an output that is not redirected by the caller. */
+    private ByteArrayOutputStream createOutputBuffer() {
+        if (mMaxCapturedOutputSize > 0) {
+            return new CappedByteArrayOutputStream(mMaxCapturedOutputSize);
+        }
+        return new ByteArrayOutputStream();
+    }
+
+    /** A {@link ByteArrayOutputStream} that drops everything written past a maximum size. */
+    @VisibleForTesting
+    static class CappedByteArrayOutputStream extends ByteArrayOutputStream {
+        private final long mMaxSize;
+        private long mDropped = 0;
+
+        CappedByteArrayOutputStream(long maxSize) {
+            mMaxSize = maxSize;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (size() < mMaxSize) {
+                super.write(b);
+            } else {
+                mDropped++;
             }
-        });
-        t.setName(name);
-        t.start();
-        return t;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            int kept = (int) Math.max(0, Math.min(len, mMaxSize - size()));
+            super.write(b, off, kept);
+            mDropped += len - kept;
+        }
+
+        /** Returns the number of bytes that were dropped. */
+        synchronized long getDroppedSize() {
+            return mDropped;
+        }
     }
 
     /** {@inheritDoc} */
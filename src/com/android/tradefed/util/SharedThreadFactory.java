@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ThreadFactory} for the thread pools shared by all the invocations.
+ *
+ * <p>The threads are created in a dedicated {@link ThreadGroup} under the root group, instead of
+ * the group of the invocation that happens to create them: they outlive that invocation, and must
+ * neither be reported as its stray threads nor log in its log. The tasks run by these threads
+ * should be wrapped with {@link com.android.tradefed.log.LogRegistry#wrapWithLogContext(Runnable)}
+ * to log in the log of the invocation that submitted them.
+ */
+public class SharedThreadFactory implements ThreadFactory {
+
+    private final ThreadGroup mGroup;
+    private final String mPrefix;
+    private final AtomicInteger mThreadCount = new AtomicInteger();
+
+    /**
+     * Creates a factory of daemon threads.
+     *
+     * @param name the name of the thread group, and the prefix of the thread names
+     */
+    public SharedThreadFactory(String name) {
+        mGroup = new ThreadGroup(getRootThreadGroup(), name);
+        mPrefix = name + "-";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread t = new Thread(mGroup, r, mPrefix + mThreadCount.incrementAndGet());
+        // Daemon so that it does not prevent TF from shutting down.
+        t.setDaemon(true);
+        return t;
+    }
+
+    /** Returns the {@link ThreadGroup} of the threads created by the factory. */
+    public ThreadGroup getThreadGroup() {
+        return mGroup;
+    }
+
+    private static ThreadGroup getRootThreadGroup() {
+        ThreadGroup group = Thread.currentThread().getThreadGroup();
+        while (group.getParent() != null) {
+            group = group.getParent();
+        }
+        return group;
+    }
+}
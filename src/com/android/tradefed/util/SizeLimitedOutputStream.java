@@ -47,6 +47,10 @@ public class SizeLimitedOutputStream extends OutputStream {
 
     // circular array of backing files
     private final File[] mFiles;
+    // position in the overall stream of the first byte of each backing file
+    private final long[] mFileStarts;
+    // number of bytes written since the creation of the stream
+    private long mTotalSize = 0L;
     private final long mMaxFileSize;
     private CountingOutputStream mCurrentOutputStream;
     private int mCurrentFilePos = 0;
@@ -67,6 +71,7 @@ public class SizeLimitedOutputStream extends OutputStream {
             String tempFileSuffix) {
         mMaxFileSize = maxDataSize / numFiles;
         mFiles = new File[numFiles];
+        mFileStarts = new long[numFiles];
         mCurrentFilePos = numFiles;
         mTempFilePrefix = tempFilePrefix;
         mTempFileSuffix = tempFileSuffix;
@@ -91,14 +96,34 @@ public class SizeLimitedOutputStream extends OutputStream {
      * @return The collected output as a {@link InputStream}.
      */
     public synchronized InputStream getData() throws IOException {
+        return getDataFrom(0L);
+    }
+
+    /**
+     * Gets the collected output starting at the given position as a {@link InputStream}. The data
+     * is read directly from the backing files, the data before the position is skipped without
+     * being read.
+     *
+     * @param position the position in the overall stream, see {@link #getTotalSize()}. If the data
+     *     at this position was already dropped, the stream starts at the oldest data kept.
+     * @return The collected output as a {@link InputStream}.
+     */
+    public synchronized InputStream getDataFrom(long position) throws IOException {
         flush();
         InputStream combinedStream = null;
         for (int i = 0; i < mFiles.length; i++) {
             // oldest/starting file is always the next one up from current
             int currentPos = (mCurrentFilePos + i + 1) % mFiles.length;
             if (mFiles[currentPos] != null) {
+                long fileEnd = getFileEnd(currentPos);
+                if (fileEnd <= position) {
+                    continue;
+                }
                 @SuppressWarnings("resource")
                 FileInputStream fStream = new FileInputStream(mFiles[currentPos]);
+                if (position > mFileStarts[currentPos]) {
+                    fStream.skip(position - mFileStarts[currentPos]);
+                }
                 if (combinedStream == null) {
                     combinedStream = fStream;
                 } else {
@@ -113,6 +138,33 @@ public class SizeLimitedOutputStream extends OutputStream {
 
     }
 
+    /**
+     * Returns the number of bytes written since the creation of the stream, which is also the
+     * position of the next byte written.
+     */
+    public synchronized long getTotalSize() {
+        return mTotalSize;
+    }
+
+    /** Returns the position in the overall stream of the oldest data kept. */
+    public synchronized long getOldestPosition() {
+        for (int i = 0; i < mFiles.length; i++) {
+            int currentPos = (mCurrentFilePos + i + 1) % mFiles.length;
+            if (mFiles[currentPos] != null) {
+                return mFileStarts[currentPos];
+            }
+        }
+        return mTotalSize;
+    }
+
+    /** Returns the position in the overall stream after the last byte of a backing file. */
+    private long getFileEnd(int index) {
+        if (index == mCurrentFilePos) {
+            return mTotalSize;
+        }
+        return mFileStarts[getNextIndex(index)];
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -165,6 +217,7 @@ public class SizeLimitedOutputStream extends OutputStream {
         mCurrentFilePos = getNextIndex(mCurrentFilePos);
         FileUtil.deleteFile(mFiles[mCurrentFilePos]);
         mFiles[mCurrentFilePos] = FileUtil.createTempFile(mTempFilePrefix, mTempFileSuffix);
+        mFileStarts[mCurrentFilePos] = mTotalSize;
         mCurrentOutputStream = new CountingOutputStream(new BufferedOutputStream(
                 new FileOutputStream(mFiles[mCurrentFilePos]), BUFF_SIZE));
     }
@@ -182,6 +235,7 @@ public class SizeLimitedOutputStream extends OutputStream {
             generateNextFile();
         }
         mCurrentOutputStream.write(data);
+        mTotalSize++;
         if (mCurrentOutputStream.getCount() >= mMaxFileSize) {
             generateNextFile();
         }
@@ -201,6 +255,7 @@ public class SizeLimitedOutputStream extends OutputStream {
             // decide how much we should write: either fill up free space, or write entire content
             long sizeToWrite = freeSpace > len ? len : freeSpace;
             mCurrentOutputStream.write(b, off, (int)sizeToWrite);
+            mTotalSize += sizeToWrite;
             // accounting of space left, where to write next
             freeSpace -= sizeToWrite;
             off += sizeToWrite;
@@ -18,11 +18,13 @@ package com.android.tradefed.util;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.invoker.IInvocationContext;
 import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
 import com.android.tradefed.result.FileInputStreamSource;
 import com.android.tradefed.result.ILogSaverListener;
 import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.InputStreamSource;
 import com.android.tradefed.result.TestDescription;
+import com.android.tradefed.result.proto.SubprocessEventProto.TestCaseEvent;
 import com.android.tradefed.util.SubprocessEventHelper.BaseTestEventInfo;
 import com.android.tradefed.util.SubprocessEventHelper.FailedTestEventInfo;
 import com.android.tradefed.util.SubprocessEventHelper.InvocationEndedEventInfo;
@@ -38,20 +40,29 @@ import com.android.tradefed.util.SubprocessEventHelper.TestRunStartedEventInfo;
 import com.android.tradefed.util.SubprocessEventHelper.TestStartedEventInfo;
 import com.android.tradefed.util.proto.TfMetricProtoUtil;
 
+import com.google.protobuf.CodedInputStream;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -96,6 +107,47 @@ public class SubprocessTestResultsParser implements Closeable {
         public static final String INVOCATION_ENDED = "INVOCATION_ENDED";
     }
 
+    /**
+     * The binary event protocol, negotiated when a subprocess connects to the event socket.
+     *
+     * <p>A subprocess supporting it first sends the {@link #HELLO} line, then keeps sending its
+     * events as text lines until the parser replies with the highest version it supports, as an
+     * int. Once it got the reply, the subprocess sends a 0 byte and the {@link #MAGIC} int and
+     * sends the following events as frames. Older subprocesses never send the hello line and older
+     * parsers ignore it, so both keep using text lines.
+     *
+     * <p>A frame is the index of the event key in {@link #EVENT_KEYS} as a byte, then the length
+     * of the payload as a varint, then the payload. The payload of the test case events, which
+     * are most of the events, is a {@link TestCaseEvent} proto. The payload of the other events is
+     * their UTF-8 JSON, which is flagged by {@link #JSON_PAYLOAD} in the index byte.
+     */
+    public static class BinaryEvents {
+        public static final int VERSION = 2;
+        public static final String HELLO = "SUBPROCESS_BINARY_EVENTS " + VERSION;
+        /** Flag of the frames whose payload is the JSON of the event. */
+        public static final int JSON_PAYLOAD = 0x80;
+        /** Sent after a 0 byte, which cannot start a text event. */
+        public static final int MAGIC = 0x00544645;
+        /** The event keys, by index in the frames. Only add new keys at the end. */
+        public static final List<String> EVENT_KEYS =
+                Arrays.asList(
+                        StatusKeys.INVOCATION_FAILED,
+                        StatusKeys.TEST_ASSUMPTION_FAILURE,
+                        StatusKeys.TEST_ENDED,
+                        StatusKeys.TEST_FAILED,
+                        StatusKeys.TEST_IGNORED,
+                        StatusKeys.TEST_STARTED,
+                        StatusKeys.TEST_RUN_ENDED,
+                        StatusKeys.TEST_RUN_FAILED,
+                        StatusKeys.TEST_RUN_STARTED,
+                        StatusKeys.TEST_MODULE_STARTED,
+                        StatusKeys.TEST_MODULE_ENDED,
+                        StatusKeys.TEST_LOG,
+                        StatusKeys.LOG_ASSOCIATION,
+                        StatusKeys.INVOCATION_STARTED,
+                        StatusKeys.INVOCATION_ENDED);
+    }
+
     /**
      * Internal receiver thread class with a socket.
      */
@@ -135,33 +187,123 @@ public class SubprocessTestResultsParser implements Closeable {
         @Override
         public void run() {
             Socket client = null;
-            BufferedReader in = null;
+            InputStream in = null;
             try {
                 client = mSocket.accept();
-                in = new BufferedReader(new InputStreamReader(client.getInputStream()));
-                String event = null;
-                while ((event = in.readLine()) != null) {
-                    try {
-                        if (mShouldParse) {
-                            CLog.d("received event: '%s'", event);
-                            parse(event);
-                        } else {
-                            CLog.d("Skipping parsing of event: '%s'", event);
+                in = new BufferedInputStream(client.getInputStream());
+                // The first line is either the binary events hello or a text event.
+                String event = readLine(in);
+                if (BinaryEvents.HELLO.equals(event)) {
+                    DataOutputStream out = new DataOutputStream(client.getOutputStream());
+                    out.writeInt(BinaryEvents.VERSION);
+                    out.flush();
+                    // The events sent before the subprocess got the reply are text lines.
+                    while (true) {
+                        in.mark(1);
+                        int first = in.read();
+                        if (first == -1) {
+                            return;
                         }
-                    } catch (JSONException e) {
-                        CLog.e(e);
+                        if (first == 0) {
+                            receiveBinaryEvents(in);
+                            return;
+                        }
+                        in.reset();
+                        receiveTextEvent(readLine(in));
                     }
+                } else if (event != null) {
+                    receiveTextEvent(event);
+                }
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+                while ((event = reader.readLine()) != null) {
+                    receiveTextEvent(event);
                 }
             } catch (IOException e) {
                 CLog.e(e);
             } finally {
                 StreamUtil.close(in);
                 mCountDown.countDown();
+                CLog.d("EventReceiverThread done.");
+            }
+        }
+
+        private void receiveTextEvent(String event) {
+            try {
+                if (mShouldParse) {
+                    CLog.d("received event: '%s'", event);
+                    parse(event);
+                } else {
+                    CLog.d("Skipping parsing of event: '%s'", event);
+                }
+            } catch (JSONException e) {
+                CLog.e(e);
+            }
+        }
+
+        /**
+         * Receive the events sent as frames, after their leading 0 byte. The frames are read
+         * through a single {@link CodedInputStream} and its buffer.
+         */
+        private void receiveBinaryEvents(InputStream in) throws IOException {
+            if (new DataInputStream(in).readInt() != BinaryEvents.MAGIC) {
+                throw new IOException("Invalid binary events header");
+            }
+            CodedInputStream input = CodedInputStream.newInstance(in);
+            while (!input.isAtEnd()) {
+                // The size limit applies to the whole stream, reset it for each frame.
+                input.resetSizeCounter();
+                int index = input.readRawByte() & 0xff;
+                boolean json = (index & BinaryEvents.JSON_PAYLOAD) != 0;
+                index &= ~BinaryEvents.JSON_PAYLOAD;
+                int length = input.readRawVarint32();
+                if (index >= BinaryEvents.EVENT_KEYS.size()) {
+                    CLog.w("Skipping unknown event %d", index);
+                    input.skipRawBytes(length);
+                    continue;
+                }
+                String key = BinaryEvents.EVENT_KEYS.get(index);
+                if (!mShouldParse) {
+                    CLog.d("Skipping parsing of event: '%s'", key);
+                    input.skipRawBytes(length);
+                    continue;
+                }
+                try {
+                    if (!json) {
+                        int limit = input.pushLimit(length);
+                        TestCaseEvent event = TestCaseEvent.parseFrom(input);
+                        input.popLimit(limit);
+                        CLog.d("received event: '%s %s'", key, event);
+                        handleTestCaseEvent(key, event);
+                    } else {
+                        String eventJson =
+                                new String(input.readRawBytes(length), StandardCharsets.UTF_8);
+                        CLog.d("received event: '%s %s'", key, eventJson);
+                        handleEvent(key, eventJson);
+                    }
+                } catch (JSONException e) {
+                    CLog.e(e);
+                }
             }
-            CLog.d("EventReceiverThread done.");
         }
     }
 
+    /**
+     * Read a line of the stream one byte at a time, to leave the rest in the stream.
+     *
+     * @return the line, or null if the stream ended before it.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8.name());
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8.name());
+    }
+
     /**
      * If the event receiver is being used, ensure that we wait for it to terminate.
      *
@@ -309,15 +451,69 @@ public class SubprocessTestResultsParser implements Closeable {
      * Parse a line, if it matches one of the events, handle it.
      */
     private void parse(String line) throws JSONException {
-        Matcher matcher = mPattern.matcher(line);
-        if (matcher.find()) {
-            EventHandler handler = mHandlerMap.get(matcher.group(2));
+        // Events sent by the reporter start with their key, look it up before the pattern.
+        int space = line.indexOf(' ');
+        if (space > 0) {
+            EventHandler handler = mHandlerMap.get(line.substring(0, space));
             if (handler != null) {
-                handler.handleEvent(matcher.group(4));
-            } else {
-                CLog.w("No handler found matching: %s", matcher.group(2));
+                handler.handleEvent(line.substring(space + 1));
+                return;
             }
         }
+        Matcher matcher = mPattern.matcher(line);
+        if (matcher.find()) {
+            handleEvent(matcher.group(2), matcher.group(4));
+        }
+    }
+
+    private void handleEvent(String key, String eventJson) throws JSONException {
+        EventHandler handler = mHandlerMap.get(key);
+        if (handler != null) {
+            handler.handleEvent(eventJson);
+        } else {
+            CLog.w("No handler found matching: %s", key);
+        }
+    }
+
+    /** Handle a test case event received as a proto, without going through its JSON. */
+    private void handleTestCaseEvent(String key, TestCaseEvent event) {
+        switch (key) {
+            case StatusKeys.TEST_STARTED:
+                mCurrentTest = new TestDescription(event.getClassName(), event.getTestName());
+                if (event.getTime() != 0L) {
+                    mListener.testStarted(mCurrentTest, event.getTime());
+                } else {
+                    mListener.testStarted(mCurrentTest);
+                }
+                break;
+            case StatusKeys.TEST_FAILED:
+                checkCurrentTestId(event.getClassName(), event.getTestName());
+                mListener.testFailed(mCurrentTest, event.getTrace());
+                break;
+            case StatusKeys.TEST_ASSUMPTION_FAILURE:
+                checkCurrentTestId(event.getClassName(), event.getTestName());
+                mListener.testAssumptionFailure(mCurrentTest, event.getTrace());
+                break;
+            case StatusKeys.TEST_IGNORED:
+                checkCurrentTestId(event.getClassName(), event.getTestName());
+                mListener.testIgnored(mCurrentTest);
+                break;
+            case StatusKeys.TEST_ENDED:
+                try {
+                    checkCurrentTestId(event.getClassName(), event.getTestName());
+                    HashMap<String, Metric> metrics = new HashMap<>(event.getMetricsMap());
+                    if (event.getTime() != 0L) {
+                        mListener.testEnded(mCurrentTest, event.getTime(), metrics);
+                    } else {
+                        mListener.testEnded(mCurrentTest, metrics);
+                    }
+                } finally {
+                    mCurrentTest = null;
+                }
+                break;
+            default:
+                CLog.w("No test case handler found matching: %s", key);
+        }
     }
 
     private void checkCurrentTestId(String className, String testName) {
@@ -25,6 +25,7 @@ import org.apache.commons.compress.archivers.ArchiveException;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.utils.IOUtils;
 
 import java.io.File;
@@ -34,6 +35,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
@@ -44,6 +46,9 @@ import java.util.zip.GZIPOutputStream;
  */
 public class TarUtil {
 
+    /** Mode of the executable regular files added by {@link #createTar}. */
+    private static final int EXECUTABLE_FILE_MODE = 0100755;
+
     /**
      * Untar a tar file into a directory.
      * tar.gz file need to up {@link #unGzip(File, File)} first.
@@ -106,6 +111,64 @@ public class TarUtil {
         return untaredFiles;
     }
 
+    /**
+     * Create a tar archive containing some of the files of a directory.
+     *
+     * <p>The archive is a temporary file holding a copy of all the files, the caller is
+     * responsible for deleting it.
+     *
+     * @param sourceDir the directory the files are relative to.
+     * @param relativePaths the paths of the files and directories to archive, relative to
+     *     <var>sourceDir</var>. Directories are added as entries without their content.
+     * @param gzip whether or not to gzip the archive.
+     * @return the created archive {@link File}.
+     * @throws IOException
+     */
+    public static File createTar(File sourceDir, Collection<String> relativePaths, boolean gzip)
+            throws IOException {
+        File tarFile = FileUtil.createTempFile(sourceDir.getName(), gzip ? ".tar.gz" : ".tar");
+        TarArchiveOutputStream out = null;
+        try {
+            OutputStream fileStream = new FileOutputStream(tarFile);
+            if (gzip) {
+                fileStream = new GZIPOutputStream(fileStream);
+            }
+            out = new TarArchiveOutputStream(fileStream);
+            out.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+            out.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            for (String relativePath : relativePaths) {
+                File file = new File(sourceDir, relativePath);
+                // Only keep the attributes the device needs: type, size, mtime and exec bit.
+                TarArchiveEntry entry;
+                if (file.isDirectory()) {
+                    entry = new TarArchiveEntry(relativePath + "/");
+                } else {
+                    entry = new TarArchiveEntry(relativePath);
+                    entry.setSize(file.length());
+                    if (file.canExecute()) {
+                        entry.setMode(EXECUTABLE_FILE_MODE);
+                    }
+                }
+                entry.setModTime(file.lastModified());
+                out.putArchiveEntry(entry);
+                if (file.isFile()) {
+                    try (InputStream in = new FileInputStream(file)) {
+                        IOUtils.copy(in, out);
+                    }
+                }
+                out.closeArchiveEntry();
+            }
+            out.finish();
+        } catch (IOException e) {
+            StreamUtil.close(out);
+            FileUtil.deleteFile(tarFile);
+            throw e;
+        } finally {
+            StreamUtil.close(out);
+        }
+        return tarFile;
+    }
+
     /**
      * UnGZip a file: a tar.gz file will become a tar file.
      *
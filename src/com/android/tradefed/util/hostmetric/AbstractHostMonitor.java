@@ -18,8 +18,8 @@ package com.android.tradefed.util.hostmetric;
 import com.android.tradefed.config.GlobalConfiguration;
 import com.android.tradefed.config.Option;
 import com.android.tradefed.log.LogUtil.CLog;
-import com.android.tradefed.util.IRunUtil;
-import com.android.tradefed.util.RunUtil;
+import com.android.tradefed.util.CollectionScheduler;
+import com.android.tradefed.util.CollectionScheduler.ScheduledCollection;
 import com.android.tradefed.util.VersionParser;
 
 import java.net.InetAddress;
@@ -30,8 +30,11 @@ import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Typical class for Host Health Monitoring. implementing dispatch() with specifics of the agent.
+ *
+ * <p>{@link #start()} schedules the dispatches on the host-wide {@link CollectionScheduler} instead
+ * of starting a thread sleeping between them.
  */
-public abstract class AbstractHostMonitor extends Thread implements IHostMonitor {
+public abstract class AbstractHostMonitor implements IHostMonitor {
     @Option(
         name = "dispatch-interval",
         description = "the time interval between dispatches in ms",
@@ -51,10 +54,7 @@ public abstract class AbstractHostMonitor extends Thread implements IHostMonitor
 
     private boolean mIsCanceled = false;
 
-    public AbstractHostMonitor() {
-        super("AbstractHostMonitor");
-        this.setDaemon(true);
-    }
+    private ScheduledCollection mDispatchCollection = null;
 
     /**
      * Collect and Emits the current host data values. Should emits the Events of the Queue if any.
@@ -66,19 +66,36 @@ public abstract class AbstractHostMonitor extends Thread implements IHostMonitor
         return mTag;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Schedules {@link #dispatch()} on the {@link CollectionScheduler}, at the dispatch
+     * interval.
+     */
     @Override
-    public void run() {
+    public synchronized void start() {
+        if (mDispatchCollection != null || mIsCanceled) {
+            return;
+        }
         try {
-            mHostData.put("hostname", InetAddress.getLocalHost().getHostName());
-            mHostData.put("tradefed_version", VersionParser.fetchVersion());
-
-            while (!mIsCanceled) {
-                dispatch();
-                getRunUtil().sleep(mDispatchInterval);
-            }
+            initHostData();
         } catch (Exception e) {
             CLog.e(e);
+            return;
         }
+        mDispatchCollection =
+                CollectionScheduler.getInstance()
+                        .schedule(
+                                getClass().getName(),
+                                0L,
+                                mDispatchInterval,
+                                false,
+                                this::dispatch);
+    }
+
+    private void initHostData() throws Exception {
+        mHostData.put("hostname", InetAddress.getLocalHost().getHostName());
+        mHostData.put("tradefed_version", VersionParser.fetchVersion());
     }
 
     /** {@inheritDoc} */
@@ -91,8 +108,11 @@ public abstract class AbstractHostMonitor extends Thread implements IHostMonitor
 
     /** {@inheritDoc} */
     @Override
-    public void terminate() {
+    public synchronized void terminate() {
         mIsCanceled = true;
+        if (mDispatchCollection != null) {
+            mDispatchCollection.cancel();
+        }
     }
 
     IHostHealthAgent getMetricAgent() {
@@ -102,10 +122,6 @@ public abstract class AbstractHostMonitor extends Thread implements IHostMonitor
         return agent;
     }
 
-    IRunUtil getRunUtil() {
-        return RunUtil.getDefault();
-    }
-
     int getQueueSize() {
         return mHostEvents.size();
     }
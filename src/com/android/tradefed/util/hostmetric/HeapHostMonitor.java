@@ -33,11 +33,6 @@ public class HeapHostMonitor extends AbstractHostMonitor {
 
     protected static final String HEAP_KEY = "heap_memory_Mbytes";
 
-    public HeapHostMonitor() {
-        super();
-        setName("HeapHostMonitor");
-    }
-
     /** {@inheritDoc} */
     @Override
     public void dispatch() {
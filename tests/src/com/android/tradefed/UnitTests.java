@@ -22,10 +22,12 @@ import com.android.tradefed.build.BuildInfoTest;
 import com.android.tradefed.build.DeviceBuildDescriptorTest;
 import com.android.tradefed.build.DeviceBuildInfoTest;
 import com.android.tradefed.build.DeviceFolderBuildInfoTest;
+import com.android.tradefed.build.FileDownloadCacheIndexTest;
 import com.android.tradefed.build.FileDownloadCacheTest;
 import com.android.tradefed.build.GCSTestResourceProviderTest;
 import com.android.tradefed.build.LocalDeviceBuildProviderTest;
 import com.android.tradefed.build.OtaZipfileBuildProviderTest;
+import com.android.tradefed.build.SharedBuildFilesTest;
 import com.android.tradefed.clearcut.ClearcutClientTest;
 import com.android.tradefed.command.CommandFileParserTest;
 import com.android.tradefed.command.CommandFileWatcherTest;
@@ -34,6 +36,7 @@ import com.android.tradefed.command.CommandOptionsTest;
 import com.android.tradefed.command.CommandRunnerTest;
 import com.android.tradefed.command.CommandSchedulerTest;
 import com.android.tradefed.command.ConsoleTest;
+import com.android.tradefed.command.ReadyCommandQueueTest;
 import com.android.tradefed.command.VerifyTest;
 import com.android.tradefed.command.remote.RemoteManagerTest;
 import com.android.tradefed.command.remote.RemoteOperationTest;
@@ -62,11 +65,13 @@ import com.android.tradefed.device.DeviceStateMonitorTest;
 import com.android.tradefed.device.DeviceUtilStatsMonitorTest;
 import com.android.tradefed.device.DumpsysPackageReceiverTest;
 import com.android.tradefed.device.FastbootHelperTest;
+import com.android.tradefed.device.LogcatOutputReceiverTest;
 import com.android.tradefed.device.ManagedDeviceListTest;
 import com.android.tradefed.device.ManagedTestDeviceFactoryTest;
 import com.android.tradefed.device.NativeDeviceTest;
 import com.android.tradefed.device.ReconnectingRecoveryTest;
 import com.android.tradefed.device.RemoteAndroidDeviceTest;
+import com.android.tradefed.device.SettingsCommandsTest;
 import com.android.tradefed.device.TestDeviceTest;
 import com.android.tradefed.device.TopHelperTest;
 import com.android.tradefed.device.WaitDeviceRecoveryTest;
@@ -125,10 +130,12 @@ import com.android.tradefed.invoker.TestInvocationTest;
 import com.android.tradefed.invoker.UnexecutedTestReporterThreadTest;
 import com.android.tradefed.invoker.monitor.InvocationsMonitorTest;
 import com.android.tradefed.invoker.sandbox.ParentSandboxInvocationExecutionTest;
+import com.android.tradefed.invoker.shard.RuntimeShardPlannerTest;
 import com.android.tradefed.invoker.shard.ShardHelperTest;
 import com.android.tradefed.invoker.shard.StrictShardHelperTest;
 import com.android.tradefed.invoker.shard.TestsPoolPollerTest;
 import com.android.tradefed.invoker.shard.token.TokenProviderHelperTest;
+import com.android.tradefed.log.AsyncLogWriterTest;
 import com.android.tradefed.log.FileLoggerTest;
 import com.android.tradefed.log.HistoryLoggerTest;
 import com.android.tradefed.log.LogRegistryTest;
@@ -136,6 +143,7 @@ import com.android.tradefed.log.TerribleFailureEmailHandlerTest;
 import com.android.tradefed.postprocessor.AggregatePostProcessorTest;
 import com.android.tradefed.postprocessor.AveragePostProcessorTest;
 import com.android.tradefed.postprocessor.BasePostProcessorTest;
+import com.android.tradefed.postprocessor.MetricStatisticsTest;
 import com.android.tradefed.result.ATestFileSystemLogSaverTest;
 import com.android.tradefed.result.BugreportCollectorTest;
 import com.android.tradefed.result.CollectingTestListenerTest;
@@ -171,6 +179,7 @@ import com.android.tradefed.result.suite.XmlSuiteResultFormatterTest;
 import com.android.tradefed.sandbox.SandboxConfigDumpTest;
 import com.android.tradefed.sandbox.SandboxConfigUtilTest;
 import com.android.tradefed.sandbox.SandboxInvocationRunnerTest;
+import com.android.tradefed.sandbox.SandboxJvmPoolTest;
 import com.android.tradefed.sandbox.TradefedSandboxTest;
 import com.android.tradefed.suite.checker.ActivityStatusCheckerTest;
 import com.android.tradefed.suite.checker.DeviceSettingCheckerTest;
@@ -207,6 +216,7 @@ import com.android.tradefed.targetprep.RestartSystemServerTargetPreparerTest;
 import com.android.tradefed.targetprep.RootTargetPreparerTest;
 import com.android.tradefed.targetprep.RunCommandTargetPreparerTest;
 import com.android.tradefed.targetprep.RunHostCommandTargetPreparerTest;
+import com.android.tradefed.targetprep.StagedDeviceImageTest;
 import com.android.tradefed.targetprep.StopServicesSetupTest;
 import com.android.tradefed.targetprep.SwitchUserTargetPreparerTest;
 import com.android.tradefed.targetprep.SystemUpdaterDeviceFlasherTest;
@@ -236,6 +246,7 @@ import com.android.tradefed.testtype.HostTestTest;
 import com.android.tradefed.testtype.InstalledInstrumentationsTestTest;
 import com.android.tradefed.testtype.InstrumentationFileTestTest;
 import com.android.tradefed.testtype.InstrumentationSerialTestTest;
+import com.android.tradefed.testtype.InstrumentationTestListCacheTest;
 import com.android.tradefed.testtype.InstrumentationTestTest;
 import com.android.tradefed.testtype.JarHostTestTest;
 import com.android.tradefed.testtype.JavaCodeCoverageListenerTest;
@@ -292,12 +303,14 @@ import com.android.tradefed.util.BuildTestsZipUtilsTest;
 import com.android.tradefed.util.BundletoolUtilTest;
 import com.android.tradefed.util.ByteArrayListTest;
 import com.android.tradefed.util.ClassPathScannerTest;
+import com.android.tradefed.util.CollectionSchedulerTest;
 import com.android.tradefed.util.ConditionPriorityBlockingQueueTest;
 import com.android.tradefed.util.ConfigCompletorTest;
 import com.android.tradefed.util.DirectedGraphTest;
 import com.android.tradefed.util.EmailTest;
 import com.android.tradefed.util.FakeTestsZipFolderTest;
 import com.android.tradefed.util.FileIdleMonitorTest;
+import com.android.tradefed.util.FileNameIndexTest;
 import com.android.tradefed.util.FileUtilTest;
 import com.android.tradefed.util.FixedByteArrayOutputStreamTest;
 import com.android.tradefed.util.GCSFileDownloaderTest;
@@ -375,10 +388,12 @@ import org.junit.runners.Suite.SuiteClasses;
     DeviceBuildInfoTest.class,
     DeviceBuildDescriptorTest.class,
     DeviceFolderBuildInfoTest.class,
+    FileDownloadCacheIndexTest.class,
     FileDownloadCacheTest.class,
     GCSTestResourceProviderTest.class,
     LocalDeviceBuildProviderTest.class,
     OtaZipfileBuildProviderTest.class,
+    SharedBuildFilesTest.class,
 
     // clearcut
     ClearcutClientTest.class,
@@ -391,6 +406,7 @@ import org.junit.runners.Suite.SuiteClasses;
     CommandRunnerTest.class,
     CommandSchedulerTest.class,
     ConsoleTest.class,
+    ReadyCommandQueueTest.class,
     VerifyTest.class,
 
     // command.remote
@@ -429,12 +445,14 @@ import org.junit.runners.Suite.SuiteClasses;
     DeviceUtilStatsMonitorTest.class,
     DumpsysPackageReceiverTest.class,
     FastbootHelperTest.class,
+    LogcatOutputReceiverTest.class,
     ManagedDeviceListTest.class,
     ManagedTestDeviceFactoryTest.class,
     NativeDeviceTest.class,
     ReconnectingRecoveryTest.class,
     RemoteAndroidDeviceTest.class,
     PropertyChangerTest.class,
+    SettingsCommandsTest.class,
     TestDeviceTest.class,
     TopHelperTest.class,
     WaitDeviceRecoveryTest.class,
@@ -515,6 +533,7 @@ import org.junit.runners.Suite.SuiteClasses;
     InvocationsMonitorTest.class,
 
     // invoker.shard
+    RuntimeShardPlannerTest.class,
     ShardHelperTest.class,
     StrictShardHelperTest.class,
     TestsPoolPollerTest.class,
@@ -526,6 +545,7 @@ import org.junit.runners.Suite.SuiteClasses;
     ParentSandboxInvocationExecutionTest.class,
 
     // log
+    AsyncLogWriterTest.class,
     FileLoggerTest.class,
     HistoryLoggerTest.class,
     LogRegistryTest.class,
@@ -535,6 +555,7 @@ import org.junit.runners.Suite.SuiteClasses;
     AggregatePostProcessorTest.class,
     AveragePostProcessorTest.class,
     BasePostProcessorTest.class,
+    MetricStatisticsTest.class,
 
     // result
     ATestFileSystemLogSaverTest.class,
@@ -602,6 +623,7 @@ import org.junit.runners.Suite.SuiteClasses;
     RootTargetPreparerTest.class,
     RunCommandTargetPreparerTest.class,
     RunHostCommandTargetPreparerTest.class,
+    StagedDeviceImageTest.class,
     StopServicesSetupTest.class,
     SystemUpdaterDeviceFlasherTest.class,
     TestAppInstallSetupTest.class,
@@ -627,6 +649,7 @@ import org.junit.runners.Suite.SuiteClasses;
     SandboxConfigUtilTest.class,
     SandboxedInvocationExecutionTest.class,
     SandboxInvocationRunnerTest.class,
+    SandboxJvmPoolTest.class,
     TradefedSandboxTest.class,
 
     // suite/checker
@@ -661,6 +684,7 @@ import org.junit.runners.Suite.SuiteClasses;
     InstalledInstrumentationsTestTest.class,
     InstrumentationSerialTestTest.class,
     InstrumentationFileTestTest.class,
+    InstrumentationTestListCacheTest.class,
     InstrumentationTestTest.class,
     JarHostTestTest.class,
     JavaCodeCoverageListenerTest.class,
@@ -734,12 +758,14 @@ import org.junit.runners.Suite.SuiteClasses;
     BundletoolUtilTest.class,
     ByteArrayListTest.class,
     ClassPathScannerTest.class,
+    CollectionSchedulerTest.class,
     ConditionPriorityBlockingQueueTest.class,
     ConfigCompletorTest.class,
     DirectedGraphTest.class,
     EmailTest.class,
     FakeTestsZipFolderTest.class,
     FileIdleMonitorTest.class,
+    FileNameIndexTest.class,
     FileUtilTest.class,
     FixedByteArrayOutputStreamTest.class,
     GCSFileDownloaderTest.class,
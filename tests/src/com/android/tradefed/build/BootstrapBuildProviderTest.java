@@ -27,6 +27,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.File;
+
 /** Unit tests for {@link BootstrapBuildProvider}. */
 @RunWith(JUnit4.class)
 public class BootstrapBuildProviderTest {
@@ -84,4 +86,25 @@ public class BootstrapBuildProviderTest {
             mProvider.cleanUp(res);
         }
     }
+
+    /** Test that the created tests dir is not deleted while a clone of the build uses it. */
+    @Test
+    public void testCleanUp_sharedTestsDir() throws Exception {
+        EasyMock.expect(mMockDevice.getBuildId()).andReturn("5");
+        EasyMock.expect(mMockDevice.getIDevice()).andReturn(new StubDevice("serial"));
+        EasyMock.expect(mMockDevice.getBuildFlavor()).andStubReturn("flavor");
+        EasyMock.expect(mMockDevice.getBuildAlias()).andStubReturn("alias");
+        EasyMock.replay(mMockDevice);
+        IBuildInfo res = mProvider.getBuild(mMockDevice);
+        File testsDir = ((IDeviceBuildInfo) res).getTestsDir();
+        IBuildInfo clone = res.clone();
+        try {
+            assertEquals(testsDir, ((IDeviceBuildInfo) clone).getTestsDir());
+            mProvider.cleanUp(res);
+            assertTrue(testsDir.isDirectory());
+        } finally {
+            clone.cleanUp();
+        }
+        assertFalse(testsDir.exists());
+    }
 }
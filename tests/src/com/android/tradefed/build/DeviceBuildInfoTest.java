@@ -101,11 +101,13 @@ public class DeviceBuildInfoTest {
         mBuildInfo.setFile(BuildInfoFileKey.HOST_LINKED_DIR, mHostLinkedDir, "v1");
         DeviceBuildInfo copy = (DeviceBuildInfo) mBuildInfo.clone();
         try {
-            assertNotEquals(copy.getTestsDir(), mBuildInfo.getTestsDir());
+            // The directories are shared with the copy.
+            assertEquals(copy.getTestsDir(), mBuildInfo.getTestsDir());
             assertNotEquals(copy.getBasebandImageFile(), mBuildInfo.getBasebandImageFile());
         } finally {
             copy.cleanUp();
         }
+        assertTrue(mTestsDir.exists());
 
         mBuildInfo.setProperties(BuildInfoProperties.DO_NOT_COPY_ON_SHARDING);
         copy = (DeviceBuildInfo) mBuildInfo.clone();
@@ -119,6 +121,40 @@ public class DeviceBuildInfoTest {
         }
     }
 
+    /**
+     * Test that the tests dir shared with a copy is only deleted when both builds are cleaned up,
+     * and that a build modifying it gets its own copy.
+     */
+    @Test
+    public void testClone_sharedTestsDir() throws Exception {
+        File testFile = new File(mTestsDir, "test.apk");
+        FileUtil.writeToFile("apk", testFile);
+        DeviceBuildInfo copy = (DeviceBuildInfo) mBuildInfo.clone();
+        DeviceBuildInfo copy2 = (DeviceBuildInfo) mBuildInfo.clone();
+        try {
+            assertEquals(3, SharedBuildFiles.getReferenceCount(mTestsDir));
+            File copyTestsDir = copy.materializeFile(BuildInfoFileKey.TESTDIR_IMAGE.getFileKey());
+            assertNotEquals(mTestsDir, copyTestsDir);
+            assertEquals(copyTestsDir, copy.getTestsDir());
+            assertTrue(FileUtil.compareFileContents(testFile, new File(copyTestsDir, "test.apk")));
+            assertEquals(2, SharedBuildFiles.getReferenceCount(mTestsDir));
+
+            mBuildInfo.cleanUp();
+            assertTrue(testFile.exists());
+            copy.cleanUp();
+            assertFalse(copyTestsDir.exists());
+            assertTrue(testFile.exists());
+            // The last build holding the tests dir can modify it directly.
+            assertEquals(
+                    mTestsDir, copy2.materializeFile(BuildInfoFileKey.TESTDIR_IMAGE.getFileKey()));
+            assertEquals(0, SharedBuildFiles.getReferenceCount(mTestsDir));
+        } finally {
+            copy.cleanUp();
+            copy2.cleanUp();
+        }
+        assertFalse(mTestsDir.exists());
+    }
+
     /**
      * Test that {@link BuildInfoProperties#DO_NOT_COPY_IMAGE_FILE} properly skip the copying when
      * copying.
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.build;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tradefed.util.FileUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/** Unit tests for {@link FileDownloadCacheIndex}. */
+@RunWith(JUnit4.class)
+public class FileDownloadCacheIndexTest {
+
+    private File mCacheDir;
+    private File mIndexFile;
+    private FileDownloadCacheIndex mIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        mCacheDir = FileUtil.createTempDir("cache-index-unittest");
+        mIndexFile = new File(mCacheDir, FileDownloadCacheIndex.INDEX_FILE_NAME);
+        mIndex = new FileDownloadCacheIndex(mIndexFile);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mIndex.close();
+        FileUtil.recursiveDelete(mCacheDir);
+    }
+
+    /** Test that there is nothing to load when the index does not exist. */
+    @Test
+    public void testLoad_noIndex() {
+        assertFalse(mIndex.load());
+    }
+
+    /** Test that the entries survive a reload. */
+    @Test
+    public void testLoad() {
+        mIndex.put("foo/bar", 10, null);
+        mIndex.put("foo/baz", 20, "digest");
+        mIndex.put("other", 30, null);
+        mIndex.remove("other");
+        mIndex.close();
+
+        FileDownloadCacheIndex index = new FileDownloadCacheIndex(mIndexFile);
+        try {
+            assertTrue(index.load());
+            assertNull(index.get("other"));
+            assertEquals(10, index.get("foo/bar").mSize);
+            assertNull(index.get("foo/bar").mDigest);
+            assertEquals("digest", index.get("foo/baz").mDigest);
+            assertEquals(30, index.getTotalSize());
+        } finally {
+            index.close();
+        }
+    }
+
+    /** Test that a partially written record is ignored when loading. */
+    @Test
+    public void testLoad_partialRecord() throws Exception {
+        mIndex.put("foo/bar", 10, null);
+        mIndex.close();
+        try (FileOutputStream out = new FileOutputStream(mIndexFile, true)) {
+            out.write("P\tfoo/baz\t2".getBytes(StandardCharsets.UTF_8));
+        }
+
+        FileDownloadCacheIndex index = new FileDownloadCacheIndex(mIndexFile);
+        try {
+            assertTrue(index.load());
+            assertNotNull(index.get("foo/bar"));
+            assertNull(index.get("foo/baz"));
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Test that a clean close is only known when no record was written after it, and that loading
+     * invalidates it until the next close.
+     */
+    @Test
+    public void testLoad_closedCleanly() {
+        mIndex.put("foo/bar", 10, null);
+        mIndex.close();
+
+        FileDownloadCacheIndex index = new FileDownloadCacheIndex(mIndexFile);
+        assertTrue(index.load());
+        assertTrue(index.wasClosedCleanly());
+        // Not closed this time, as after a crash.
+        index.put("foo/baz", 20, null);
+
+        index = new FileDownloadCacheIndex(mIndexFile);
+        try {
+            assertTrue(index.load());
+            assertFalse(index.wasClosedCleanly());
+            assertNotNull(index.get("foo/baz"));
+        } finally {
+            index.close();
+        }
+        // Loading rewrites the index without the record of the clean close.
+        index = new FileDownloadCacheIndex(mIndexFile);
+        assertTrue(index.load());
+        FileDownloadCacheIndex reloaded = new FileDownloadCacheIndex(mIndexFile);
+        try {
+            assertTrue(reloaded.load());
+            assertFalse(reloaded.wasClosedCleanly());
+        } finally {
+            reloaded.close();
+            index.close();
+        }
+    }
+
+        /** Test that the downloads still pending are known after a reload. */
+    @Test
+    public void testLoad_pending() {
+        mIndex.markPending("foo/bar");
+        mIndex.markPending("foo/baz");
+        mIndex.put("foo/baz", 20, null);
+        mIndex.markPending("other");
+        mIndex.remove("other");
+        mIndex.close();
+
+        FileDownloadCacheIndex index = new FileDownloadCacheIndex(mIndexFile);
+        try {
+            assertTrue(index.load());
+            assertEquals(new HashSet<>(Arrays.asList("foo/bar")), index.getPendingPaths());
+            assertNotNull(index.get("foo/baz"));
+        } finally {
+            index.close();
+        }
+        // The pending download survives the compaction done by load.
+        index = new FileDownloadCacheIndex(mIndexFile);
+        try {
+            assertTrue(index.load());
+            assertEquals(new HashSet<>(Arrays.asList("foo/bar")), index.getPendingPaths());
+        } finally {
+            index.close();
+        }
+    }
+
+    /** Test that entries are returned in least recently accessed order. */
+    @Test
+    public void testGetEntriesByLastAccess() {
+        mIndex.reset(
+                Arrays.asList(
+                        new FileDownloadCacheIndex.Entry("a", 1, null, 300),
+                        new FileDownloadCacheIndex.Entry("b", 1, null, 100),
+                        new FileDownloadCacheIndex.Entry("c", 1, null, 200)));
+        mIndex.recordAccess("b");
+        List<FileDownloadCacheIndex.Entry> entries = mIndex.getEntriesByLastAccess();
+        assertEquals("c", entries.get(0).mRemotePath);
+        assertEquals("a", entries.get(1).mRemotePath);
+        assertEquals("b", entries.get(2).mRemotePath);
+    }
+
+    /** Test that entries with the same digest are counted once. */
+    @Test
+    public void testSharedDigest() {
+        mIndex.put("a", 100, "digest");
+        assertNull(mIndex.findOtherPathWithDigest("a", "digest"));
+        mIndex.put("b", 100, "digest");
+        assertEquals("a", mIndex.findOtherPathWithDigest("b", "digest"));
+        assertTrue(mIndex.isShared("a"));
+        assertEquals(100, mIndex.getTotalSize());
+        mIndex.remove("a");
+        assertFalse(mIndex.isShared("b"));
+        assertEquals(100, mIndex.getTotalSize());
+    }
+
+    /** Test that paths are normalized like the cache keys. */
+    @Test
+    public void testNormalizedPath() {
+        mIndex.put("foo//bar", 10, null);
+        assertNotNull(mIndex.get("foo/bar"));
+    }
+
+    /** Test that the journal is compacted once it grows too large. */
+    @Test
+    public void testCompaction() throws Exception {
+        mIndex.put("foo", 10, null);
+        for (int i = 0; i < 5000; i++) {
+            mIndex.recordAccess("foo");
+        }
+        mIndex.close();
+        assertTrue(FileUtil.readStringFromFile(mIndexFile).split("\n").length < 2000);
+
+        FileDownloadCacheIndex index = new FileDownloadCacheIndex(mIndexFile);
+        try {
+            assertTrue(index.load());
+            assertEquals(10, index.get("foo").mSize);
+        } finally {
+            index.close();
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package com.android.tradefed.build;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -36,9 +37,13 @@ import org.junit.runners.JUnit4;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** Unit tests for {@link FileDownloadCache}. */
 @RunWith(JUnit4.class)
@@ -200,6 +205,16 @@ public class FileDownloadCacheTest {
             assertNotNull(file);
             assertNotNull(mCache.getCachedFile(REMOTE_PATH));
             EasyMock.verify(mMockDownloader);
+            // the new download is complete in the index, and survives a reload
+            FileDownloadCacheIndex index =
+                    new FileDownloadCacheIndex(
+                            new File(mCacheDir, FileDownloadCacheIndex.INDEX_FILE_NAME));
+            assertTrue(index.load());
+            assertTrue(index.getPendingPaths().isEmpty());
+            assertNotNull(index.get(REMOTE_PATH));
+            index.close();
+            mCache = new FileDownloadCache(mCacheDir);
+            assertTrue(mCache.getCachedFile(REMOTE_PATH).exists());
         } finally {
             FileUtil.deleteFile(file);
         }
@@ -281,7 +296,67 @@ public class FileDownloadCacheTest {
         }
     }
 
-    /** Test that keys with multiple slashes are properly handled. */
+    /**
+     * Test that when the cache is loaded from its index, the files of interrupted downloads, the
+     * files not in the index and the partial files are deleted.
+     */
+    @Test
+    public void testCacheLoad_reconcileIndex() throws Exception {
+        setDownloadExpections(REMOTE_PATH);
+        EasyMock.replay(mMockDownloader);
+        assertFetchRemoteFile();
+        EasyMock.verify(mMockDownloader);
+        File cachedFile = mCache.getCachedFile(REMOTE_PATH);
+
+        File unindexedFile = new File(mCacheDir, "unindexed/file");
+        FileUtil.writeToFile("unindexed", unindexedFile);
+        File partialFile = new File(mCacheDir, "foo/other" + FileDownloadCache.PARTIAL_SUFFIX);
+        FileUtil.writeToFile("partial", partialFile);
+        // A download interrupted by a crash leaves a pending record and an incomplete file.
+        FileDownloadCacheIndex index =
+                new FileDownloadCacheIndex(
+                        new File(mCacheDir, FileDownloadCacheIndex.INDEX_FILE_NAME));
+        assertTrue(index.load());
+        index.markPending("foo/interrupted");
+        index.close();
+        File interruptedFile = new File(mCacheDir, "foo/interrupted");
+        FileUtil.writeToFile("incomplete", interruptedFile);
+
+        mCache = new FileDownloadCache(mCacheDir);
+        assertEquals(cachedFile, mCache.getCachedFile(REMOTE_PATH));
+        assertTrue(cachedFile.exists());
+        assertNull(mCache.getCachedFile("foo/interrupted"));
+        assertFalse(interruptedFile.exists());
+        assertFalse(unindexedFile.exists());
+        assertFalse(unindexedFile.getParentFile().exists());
+        assertFalse(partialFile.exists());
+    }
+
+    /**
+     * Test that when the index was closed cleanly, the cache directory is not checked against it
+     * on load.
+     */
+    @Test
+    public void testCacheLoad_cleanShutdown() throws Exception {
+        setDownloadExpections(REMOTE_PATH);
+        EasyMock.replay(mMockDownloader);
+        assertFetchRemoteFile();
+        EasyMock.verify(mMockDownloader);
+        FileDownloadCacheIndex index =
+                new FileDownloadCacheIndex(
+                        new File(mCacheDir, FileDownloadCacheIndex.INDEX_FILE_NAME));
+        assertTrue(index.load());
+        index.close();
+        File unindexedFile = new File(mCacheDir, "unindexed/file");
+        FileUtil.writeToFile("unindexed", unindexedFile);
+
+        mCache = new FileDownloadCache(mCacheDir);
+        assertTrue(mCache.getCachedFile(REMOTE_PATH).exists());
+        // No sweep of the cache directory
+        assertTrue(unindexedFile.exists());
+    }
+
+        /** Test that keys with multiple slashes are properly handled. */
     @Test
     public void testCacheRebuild_multiSlashPath() throws Exception {
         String gsPath = "foo//bar";
@@ -306,6 +381,281 @@ public class FileDownloadCacheTest {
         }
     }
 
+    /**
+     * Test {@link FileDownloadCache#fetchRemoteFile(IFileDownloader, String)} with a {@link
+     * IRangedFileDownloader}, the file is downloaded in several segments.
+     */
+    @Test
+    public void testFetchRemoteFile_segmented() throws Exception {
+        AtomicInteger rangeCount = new AtomicInteger();
+        IRangedFileDownloader downloader =
+                new IRangedFileDownloader() {
+                    @Override
+                    public File downloadFile(String remoteFilePath) {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public void downloadFile(String remotePath, File destFile) {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public RemoteFileInfo getRemoteFileInfo(String remoteFilePath) {
+                        return new RemoteFileInfo(DOWNLOADED_CONTENTS.length(), "1");
+                    }
+
+                    @Override
+                    public void downloadFileRange(
+                            String remoteFilePath,
+                            String version,
+                            File destFile,
+                            long offset,
+                            long length)
+                            throws BuildRetrievalError {
+                        assertEquals("1", version);
+                        rangeCount.incrementAndGet();
+                        try (RandomAccessFile raf = new RandomAccessFile(destFile, "rw")) {
+                            raf.seek(offset);
+                            raf.write(
+                                    DOWNLOADED_CONTENTS
+                                            .substring((int) offset, (int) (offset + length))
+                                            .getBytes());
+                        } catch (IOException e) {
+                            throw new BuildRetrievalError("failed", e);
+                        }
+                    }
+                };
+        mCache.setSegmentedDownloadOptions(1, 4, 2);
+        File fileCopy = mCache.fetchRemoteFile(downloader, REMOTE_PATH);
+        try {
+            assertEquals(DOWNLOADED_CONTENTS, FileUtil.readStringFromFile(fileCopy));
+            assertEquals((DOWNLOADED_CONTENTS.length() + 3) / 4, rangeCount.get());
+            File cachedFile = mCache.getCachedFile(REMOTE_PATH);
+            assertFalse(
+                    new File(cachedFile.getPath() + FileDownloadCache.PARTIAL_SUFFIX).exists());
+        } finally {
+            FileUtil.deleteFile(fileCopy);
+        }
+    }
+
+    /**
+     * Test {@link FileDownloadCache#fetchRemoteFile(IFileDownloader, String)} when another thread
+     * requests a file being downloaded, it waits for the download instead of starting another.
+     */
+    @Test
+    public void testFetchRemoteFile_inFlight() throws Exception {
+        CountDownLatch downloadStarted = new CountDownLatch(1);
+        CountDownLatch finishDownload = new CountDownLatch(1);
+        IAnswer<Object> downloadAnswer =
+                new IAnswer<Object>() {
+                    @Override
+                    public Object answer() throws Throwable {
+                        downloadStarted.countDown();
+                        finishDownload.await();
+                        File fileArg = (File) EasyMock.getCurrentArguments()[1];
+                        FileUtil.writeToFile(DOWNLOADED_CONTENTS, fileArg);
+                        return null;
+                    }
+                };
+        mMockDownloader.downloadFile(EasyMock.eq(REMOTE_PATH), EasyMock.<File>anyObject());
+        EasyMock.expectLastCall().andAnswer(downloadAnswer).once();
+        setFreshnessExpections(true);
+        EasyMock.replay(mMockDownloader);
+
+        List<File> copies = new ArrayList<>();
+        Thread first =
+                new Thread(
+                        () -> {
+                            try {
+                                File copy = mCache.fetchRemoteFile(mMockDownloader, REMOTE_PATH);
+                                synchronized (copies) {
+                                    copies.add(copy);
+                                }
+                            } catch (BuildRetrievalError e) {
+                                throw new RuntimeException(e);
+                            }
+                        });
+        first.start();
+        downloadStarted.await();
+        Thread second =
+                new Thread(
+                        () -> {
+                            try {
+                                File copy = mCache.fetchRemoteFile(mMockDownloader, REMOTE_PATH);
+                                synchronized (copies) {
+                                    copies.add(copy);
+                                }
+                            } catch (BuildRetrievalError e) {
+                                throw new RuntimeException(e);
+                            }
+                        });
+        second.start();
+        finishDownload.countDown();
+        first.join();
+        second.join();
+        try {
+            assertEquals(2, copies.size());
+            for (File copy : copies) {
+                assertEquals(DOWNLOADED_CONTENTS, FileUtil.readStringFromFile(copy));
+            }
+            EasyMock.verify(mMockDownloader);
+        } finally {
+            for (File copy : copies) {
+                FileUtil.deleteFile(copy);
+            }
+        }
+    }
+
+    /**
+     * Test {@link FileDownloadCache#fetchRemoteFile(IFileDownloader, String)} when the download
+     * another thread waits for fails with an {@link Error}: the waiting thread fails too instead of
+     * waiting forever.
+     */
+    @Test
+    public void testFetchRemoteFile_inFlightError() throws Exception {
+        CountDownLatch downloadStarted = new CountDownLatch(1);
+        CountDownLatch failDownload = new CountDownLatch(1);
+        IAnswer<Object> downloadAnswer =
+                new IAnswer<Object>() {
+                    @Override
+                    public Object answer() throws Throwable {
+                        downloadStarted.countDown();
+                        failDownload.await();
+                        throw new LinkageError("download error");
+                    }
+                };
+        mMockDownloader.downloadFile(EasyMock.eq(REMOTE_PATH), EasyMock.<File>anyObject());
+        EasyMock.expectLastCall().andAnswer(downloadAnswer).once();
+        EasyMock.replay(mMockDownloader);
+
+        List<Throwable> failures = new ArrayList<>();
+        Thread first =
+                new Thread(
+                        () -> {
+                            try {
+                                mCache.fetchRemoteFile(mMockDownloader, REMOTE_PATH);
+                            } catch (BuildRetrievalError | LinkageError e) {
+                                synchronized (failures) {
+                                    failures.add(e);
+                                }
+                            }
+                        });
+        first.start();
+        downloadStarted.await();
+        Thread second =
+                new Thread(
+                        () -> {
+                            try {
+                                mCache.fetchRemoteFile(mMockDownloader, REMOTE_PATH);
+                            } catch (BuildRetrievalError e) {
+                                synchronized (failures) {
+                                    failures.add(e);
+                                }
+                            }
+                        });
+        second.start();
+        // Wait for the second thread to block on the download in progress.
+        while (second.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(10);
+        }
+        failDownload.countDown();
+        first.join(10000);
+        second.join(10000);
+        assertFalse(second.isAlive());
+        assertEquals(2, failures.size());
+        assertNull(mCache.getCachedFile(REMOTE_PATH));
+        EasyMock.verify(mMockDownloader);
+    }
+
+    /** Test that large files with the same content under different remote paths are shared. */
+    @Test
+    public void testFetchRemoteFile_dedup() throws Exception {
+        StringBuilder largeContent = new StringBuilder();
+        while (largeContent.length() < 2 * 1024 * 1024) {
+            largeContent.append(DOWNLOADED_CONTENTS);
+        }
+        IAnswer<Object> downloadAnswer =
+                new IAnswer<Object>() {
+                    @Override
+                    public Object answer() throws Throwable {
+                        File fileArg = (File) EasyMock.getCurrentArguments()[1];
+                        FileUtil.writeToFile(largeContent.toString(), fileArg);
+                        return null;
+                    }
+                };
+        mMockDownloader.downloadFile(EasyMock.<String>anyObject(), EasyMock.<File>anyObject());
+        EasyMock.expectLastCall().andAnswer(downloadAnswer).times(2);
+        EasyMock.replay(mMockDownloader);
+        File copy1 = mCache.fetchRemoteFile(mMockDownloader, REMOTE_PATH);
+        File copy2 = mCache.fetchRemoteFile(mMockDownloader, "other/path");
+        try {
+            assertTrue(
+                    Files.isSameFile(
+                            mCache.getCachedFile(REMOTE_PATH).toPath(),
+                            mCache.getCachedFile("other/path").toPath()));
+            assertEquals(largeContent.toString(), FileUtil.readStringFromFile(copy2));
+            EasyMock.verify(mMockDownloader);
+        } finally {
+            FileUtil.deleteFile(copy1);
+            FileUtil.deleteFile(copy2);
+        }
+    }
+
+    /**
+     * Test that large files with the same content are not recorded as shared when the hardlink to
+     * the other entry cannot be made.
+     */
+    @Test
+    public void testFetchRemoteFile_dedupLinkFailed() throws Exception {
+        mCache =
+                new FileDownloadCache(mCacheDir) {
+                    @Override
+                    protected boolean tryLockFile(String remoteFilePath) {
+                        // the first entry is busy when the second one is downloaded
+                        if (REMOTE_PATH.equals(remoteFilePath)) {
+                            return false;
+                        }
+                        return super.tryLockFile(remoteFilePath);
+                    }
+                };
+        StringBuilder largeContent = new StringBuilder();
+        while (largeContent.length() < 2 * 1024 * 1024) {
+            largeContent.append(DOWNLOADED_CONTENTS);
+        }
+        IAnswer<Object> downloadAnswer =
+                new IAnswer<Object>() {
+                    @Override
+                    public Object answer() throws Throwable {
+                        File fileArg = (File) EasyMock.getCurrentArguments()[1];
+                        FileUtil.writeToFile(largeContent.toString(), fileArg);
+                        return null;
+                    }
+                };
+        mMockDownloader.downloadFile(EasyMock.<String>anyObject(), EasyMock.<File>anyObject());
+        EasyMock.expectLastCall().andAnswer(downloadAnswer).times(2);
+        EasyMock.replay(mMockDownloader);
+        File copy1 = mCache.fetchRemoteFile(mMockDownloader, REMOTE_PATH);
+        File copy2 = mCache.fetchRemoteFile(mMockDownloader, "other/path");
+        try {
+            File cachedFile1 = mCache.getCachedFile(REMOTE_PATH);
+            File cachedFile2 = mCache.getCachedFile("other/path");
+            assertFalse(Files.isSameFile(cachedFile1.toPath(), cachedFile2.toPath()));
+            FileDownloadCacheIndex index =
+                    new FileDownloadCacheIndex(
+                            new File(mCacheDir, FileDownloadCacheIndex.INDEX_FILE_NAME));
+            assertTrue(index.load());
+            assertFalse(index.isShared(REMOTE_PATH));
+            assertFalse(index.isShared("other/path"));
+            assertEquals(cachedFile1.length() + cachedFile2.length(), index.getTotalSize());
+            index.close();
+            EasyMock.verify(mMockDownloader);
+        } finally {
+            FileUtil.deleteFile(copy1);
+            FileUtil.deleteFile(copy2);
+        }
+    }
+
     /** Perform one fetchRemoteFile call and verify contents for default remote path */
     private void assertFetchRemoteFile() throws BuildRetrievalError, IOException {
         assertFetchRemoteFile(REMOTE_PATH, null);
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.build;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tradefed.util.FileUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+
+/** Unit tests for {@link SharedBuildFiles}. */
+@RunWith(JUnit4.class)
+public class SharedBuildFilesTest {
+
+    private File mDir;
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = FileUtil.createTempDir("shared-build-files");
+        mFile = new File(mDir, "subdir/file.txt");
+        mFile.getParentFile().mkdirs();
+        FileUtil.writeToFile("data", mFile);
+    }
+
+    @After
+    public void tearDown() {
+        while (SharedBuildFiles.getReferenceCount(mDir) > 0) {
+            SharedBuildFiles.release(mDir);
+        }
+        FileUtil.recursiveDelete(mDir);
+    }
+
+    /** Test that a shared directory is deleted when the last reference is released. */
+    @Test
+    public void testRelease() {
+        assertEquals(mDir, SharedBuildFiles.share(mDir));
+        assertEquals(2, SharedBuildFiles.getReferenceCount(mDir));
+        SharedBuildFiles.share(mDir);
+        assertEquals(3, SharedBuildFiles.getReferenceCount(mDir));
+
+        assertFalse(SharedBuildFiles.release(mDir));
+        assertFalse(SharedBuildFiles.release(mDir));
+        assertTrue(mDir.exists());
+        assertTrue(SharedBuildFiles.release(mDir));
+        assertFalse(mDir.exists());
+        assertEquals(0, SharedBuildFiles.getReferenceCount(mDir));
+    }
+
+    /** Test that the files located in a shared directory are not deleted while it is used. */
+    @Test
+    public void testRelease_inSharedDir() {
+        SharedBuildFiles.share(mDir);
+        assertFalse(SharedBuildFiles.release(mFile.getParentFile()));
+        assertTrue(mFile.exists());
+
+        SharedBuildFiles.release(mDir);
+        assertTrue(SharedBuildFiles.release(mFile.getParentFile()));
+        assertFalse(mFile.exists());
+    }
+
+    /** Test that materializing a shared directory gives a copy and releases the reference. */
+    @Test
+    public void testMaterialize() throws Exception {
+        SharedBuildFiles.share(mDir);
+        File copy = SharedBuildFiles.materialize(mDir, "copy");
+        try {
+            assertNotEquals(mDir, copy);
+            assertTrue(
+                    FileUtil.compareFileContents(mFile, new File(copy, "subdir/file.txt")));
+            assertEquals(0, SharedBuildFiles.getReferenceCount(copy));
+            assertEquals(1, SharedBuildFiles.getReferenceCount(mDir));
+            // The owner holds the last reference, no need to copy.
+            assertEquals(mDir, SharedBuildFiles.materialize(mDir, "copy"));
+            assertEquals(0, SharedBuildFiles.getReferenceCount(mDir));
+        } finally {
+            FileUtil.recursiveDelete(copy);
+        }
+    }
+
+    /** Test that the directories that are not shared are used directly. */
+    @Test
+    public void testMaterialize_notShared() throws Exception {
+        assertEquals(mDir, SharedBuildFiles.materialize(mDir, "copy"));
+        assertTrue(SharedBuildFiles.release(mDir));
+        assertFalse(mDir.exists());
+    }
+}
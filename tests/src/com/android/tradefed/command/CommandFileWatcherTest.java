@@ -17,18 +17,25 @@
 package com.android.tradefed.command;
 
 import com.android.tradefed.command.CommandFileWatcher.ICommandFileListener;
+import com.android.tradefed.util.FileUtil;
 
 import junit.framework.TestCase;
 
 import org.easymock.EasyMock;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.WatchService;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
- * Unit tests for {@link CommandFileWatcher}.  Mocks all file system accesses.
+ * Unit tests for {@link CommandFileWatcher}.  Mocks all file system accesses, except for the
+ * watching of a directory.
  */
 public class CommandFileWatcherTest extends TestCase {
     private static final List<String> EMPTY_ARGS = Collections.<String>emptyList();
@@ -143,6 +150,71 @@ public class CommandFileWatcherTest extends TestCase {
         EasyMock.verify(mMockListener);
     }
 
+    /**
+     * Make sure that only the command files depending on the changed files are checked, and that
+     * all of them are notified.
+     */
+    public void testChangedFiles() throws Exception {
+        final File cmdFile1 = new ModFile("/went/too/far", 1, 1);
+        final File cmdFile2 = new ModFile("/those/are/my/lines", 1, 1);
+        final File cmdFile3 = new ModFile("/ceci/n'est/pas/une/line", 1);
+        final File dep = new ModFile("/this/is/a/dep", 1, 1, 2, 2);
+
+        mWatcher.addCmdFile(cmdFile1, EMPTY_ARGS, Arrays.asList(dep));
+        mWatcher.addCmdFile(cmdFile2, EMPTY_ARGS, Arrays.asList(dep));
+        // cmdFile3 is not checked, it would throw on an unexpected call to #lastModified
+        mWatcher.addCmdFile(cmdFile3, EMPTY_ARGS, EMPTY_DEPENDENCIES);
+        mMockListener.notifyFileChanged(EasyMock.anyObject(), EasyMock.eq(EMPTY_ARGS));
+        EasyMock.expectLastCall().times(2);
+        EasyMock.replay(mMockListener);
+        mWatcher.checkForUpdates(Arrays.asList(new File("/this/is/a/dep")));
+        EasyMock.verify(mMockListener);
+    }
+
+    /**
+     * Make sure that a file of the watched directory that keeps changing neither delays the
+     * changes of the command files forever nor is reported as changed.
+     */
+    public void testWaitForChanges_busySibling() throws Exception {
+        File dir = FileUtil.createTempDir("cmdfile-watcher");
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        Thread writer = null;
+        try {
+            File cmdFile = new File(dir, "cmdfile");
+            File sibling = new File(dir, "sibling.log");
+            FileUtil.writeToFile("run", cmdFile);
+            mWatcher.addCmdFile(cmdFile, EMPTY_ARGS, EMPTY_DEPENDENCIES);
+            mWatcher.updateWatchedDirs(watchService, new HashMap<>());
+            writer =
+                    new Thread(
+                            () -> {
+                                try {
+                                    while (true) {
+                                        FileUtil.writeToFile("line\n", sibling, true);
+                                        Thread.sleep(100);
+                                    }
+                                } catch (IOException | InterruptedException e) {
+                                    // stopped
+                                }
+                            });
+            writer.setDaemon(true);
+            writer.start();
+            FileUtil.writeToFile("run again", cmdFile);
+
+            long start = System.currentTimeMillis();
+            Set<File> changedFiles = mWatcher.waitForChanges(watchService, start + 20 * 1000);
+            assertTrue(System.currentTimeMillis() - start < 10 * 1000);
+            assertEquals(Collections.singleton(cmdFile.getAbsoluteFile()), changedFiles);
+        } finally {
+            if (writer != null) {
+                writer.interrupt();
+                writer.join();
+            }
+            watchService.close();
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+
     /**
      * A File extension that allows a list of modtimes to be set.
      */
@@ -26,6 +26,12 @@ import junit.framework.TestCase;
 
 import org.easymock.EasyMock;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
 /**
  * Longer running stress java app that stresses {@link CommandScheduler}.
  * <p/>
@@ -94,10 +100,89 @@ public class CommandSchedulerStressApp extends TestCase {
         mCommandScheduler.join();
     }
 
+    /**
+     * Compare the scheduling latency of a full sort and scan of all ready commands against the
+     * bucketed {@link ReadyCommandQueue}, with 1000 commands waiting on 100 busy devices and one
+     * device being freed per scheduling pass.
+     */
+    public void testMatchingLatency() {
+        final int commandCount = 1000;
+        final int deviceCount = 100;
+        final int productCount = 20;
+        final int passes = 1000;
+        // each device is busy unless freed, a command for product p can use devices p, p + 20...
+        boolean[] freeDevices = new boolean[deviceCount];
+        Comparator<Integer> priority = Comparator.naturalOrder();
+
+        List<Integer> naive = new ArrayList<>();
+        for (int i = 0; i < commandCount; i++) {
+            naive.add(i);
+        }
+        long naiveAttempts = 0;
+        long startTime = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+            freeDevices[pass % deviceCount] = true;
+            Collections.sort(naive, priority);
+            List<Integer> requeued = new ArrayList<>();
+            Iterator<Integer> it = naive.iterator();
+            while (it.hasNext()) {
+                int cmd = it.next();
+                naiveAttempts++;
+                if (allocate(cmd % productCount, freeDevices, productCount)) {
+                    it.remove();
+                    // looping commands are re-queued right away
+                    requeued.add(cmd + commandCount);
+                }
+            }
+            naive.addAll(requeued);
+        }
+        long naiveNs = System.nanoTime() - startTime;
+
+        freeDevices = new boolean[deviceCount];
+        ReadyCommandQueue<Integer> queue = new ReadyCommandQueue<>(priority);
+        for (int i = 0; i < commandCount; i++) {
+            queue.add(i, Integer.toString(i % productCount), null);
+        }
+        long queueAttempts = 0;
+        final boolean[] devices = freeDevices;
+        startTime = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+            devices[pass % deviceCount] = true;
+            queue.markDirty("serial" + (pass % deviceCount));
+            List<Integer> matched =
+                    queue.match(cmd -> allocate(cmd % productCount, devices, productCount));
+            queueAttempts += queue.getLastMatchAttempts();
+            for (Integer cmd : matched) {
+                // looping commands are re-queued right away
+                queue.add(cmd + commandCount, Integer.toString(cmd % productCount), null);
+            }
+        }
+        long queueNs = System.nanoTime() - startTime;
+
+        System.out.printf(
+                "full scan: %d us/pass, %d allocation attempts%n",
+                naiveNs / passes / 1000, naiveAttempts);
+        System.out.printf(
+                "bucketed queue: %d us/pass, %d allocation attempts%n",
+                queueNs / passes / 1000, queueAttempts);
+    }
+
+    /** Simulate a device allocation, scanning the device list like the device manager does. */
+    private static boolean allocate(int product, boolean[] freeDevices, int productCount) {
+        for (int i = 0; i < freeDevices.length; i++) {
+            if (freeDevices[i] && i % productCount == product) {
+                freeDevices[i] = false;
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static void main(String[] args) {
         try {
             long startTime = System.currentTimeMillis();
             CommandSchedulerStressApp stressApp = new CommandSchedulerStressApp();
+            stressApp.testMatchingLatency();
             stressApp.testRunLoad();
             System.out.printf("Stress app ran for %s ms", System.currentTimeMillis() - startTime);
         } catch (Exception e) {
@@ -686,6 +686,140 @@ public class CommandSchedulerTest {
         Assert.assertArrayEquals(cmdFile2Args, cmds.get(1).getArgs());
     }
 
+    /** Test that reloading a command file only adds and removes the commands which changed. */
+    @Test
+    public void testAddCommandFile_reloadChangedCommands() throws ConfigurationException {
+        // set number of devices to 0 so we can verify command presence
+        mMockManager.setNumDevices(0);
+        List<String> extraArgs = Arrays.asList("--bar");
+        // The unchanged command is only parsed when the file is first added.
+        String[] unchangedArgs = new String[] {"unchanged", "--bar"};
+        setCreateConfigExpectations(unchangedArgs, 1);
+        setCreateConfigExpectations(new String[] {"removed", "--bar"}, 1);
+        String[] addedArgs = new String[] {"added", "--bar"};
+        setCreateConfigExpectations(addedArgs, 1);
+        mMockConfiguration.validateOptions();
+        EasyMock.expectLastCall().times(3);
+
+        final List<CommandLine> cmdFileContent1 =
+                Arrays.asList(
+                        new CommandLine(Arrays.asList("unchanged"), null, 0),
+                        new CommandLine(Arrays.asList("removed"), null, 1));
+        final List<CommandLine> cmdFileContent2 =
+                Arrays.asList(
+                        new CommandLine(Arrays.asList("unchanged"), null, 0),
+                        new CommandLine(Arrays.asList("added"), null, 1));
+        mMockCmdFileParser =
+                new CommandFileParser() {
+                    boolean firstCall = true;
+
+                    @Override
+                    public List<CommandLine> parseFile(File cmdFile) {
+                        if (firstCall) {
+                            firstCall = false;
+                            return cmdFileContent1;
+                        }
+                        return cmdFileContent2;
+                    }
+                };
+        replayMocks();
+        mScheduler.start();
+        mScheduler.setCommandFileReload(true);
+        mScheduler.addCommandFile("mycmd.txt", extraArgs);
+        List<CommandTracker> cmds = mScheduler.getCommandTrackers();
+        assertEquals(2, cmds.size());
+        Collections.sort(cmds, new CommandTrackerIdComparator());
+        int unchangedId = cmds.get(0).getId();
+
+        // now reload the command file
+        mScheduler.notifyFileChanged(new File("mycmd.txt"), extraArgs);
+
+        cmds = mScheduler.getCommandTrackers();
+        assertEquals(2, cmds.size());
+        Collections.sort(cmds, new CommandTrackerIdComparator());
+        Assert.assertArrayEquals(unchangedArgs, cmds.get(0).getArgs());
+        assertEquals(unchangedId, cmds.get(0).getId());
+        Assert.assertArrayEquals(addedArgs, cmds.get(1).getArgs());
+        EasyMock.verify(mMockConfigFactory);
+    }
+
+    /**
+     * Test that a command which failed to be added during a reload is added by the next reload,
+     * even if the command file did not change again.
+     */
+    @Test
+    public void testAddCommandFile_reloadAfterFailure() throws Throwable {
+        // set number of devices to 0 so we can verify command presence
+        mMockManager.setNumDevices(0);
+        List<String> extraArgs = Arrays.asList("--bar");
+        // The commands are all added again by the reload following the failure.
+        String[] unchangedArgs = new String[] {"unchanged", "--bar"};
+        setCreateConfigExpectations(unchangedArgs, 2);
+        String[] addedArgs = new String[] {"added", "--bar"};
+        List<String> nullArg = null;
+        EasyMock.expect(
+                        mMockConfigFactory.createConfigurationFromArgs(
+                                EasyMock.aryEq(addedArgs),
+                                EasyMock.eq(nullArg),
+                                (IKeyStoreClient) EasyMock.anyObject()))
+                .andThrow(new ConfigurationException("failed to load"));
+        setCreateConfigExpectations(addedArgs, 1);
+        mMockConfiguration.validateOptions();
+        EasyMock.expectLastCall().times(3);
+        // set up a mock global config and wtfhandler to handle CLog.wtf when the reload fails
+        IGlobalConfiguration mockGc = EasyMock.createMock(IGlobalConfiguration.class);
+        CLog.setGlobalConfigInstance(mockGc);
+        try {
+            ITerribleFailureHandler mockWtf = EasyMock.createMock(ITerribleFailureHandler.class);
+            EasyMock.expect(mockGc.getWtfHandler()).andReturn(mockWtf).anyTimes();
+            EasyMock.expect(
+                            mockWtf.onTerribleFailure(
+                                    (String) EasyMock.anyObject(),
+                                    (Throwable) EasyMock.anyObject()))
+                    .andReturn(Boolean.TRUE);
+
+            final List<CommandLine> cmdFileContent1 =
+                    Arrays.asList(new CommandLine(Arrays.asList("unchanged"), null, 0));
+            final List<CommandLine> cmdFileContent2 =
+                    Arrays.asList(
+                            new CommandLine(Arrays.asList("unchanged"), null, 0),
+                            new CommandLine(Arrays.asList("added"), null, 1));
+            mMockCmdFileParser =
+                    new CommandFileParser() {
+                        boolean firstCall = true;
+
+                        @Override
+                        public List<CommandLine> parseFile(File cmdFile) {
+                            if (firstCall) {
+                                firstCall = false;
+                                return cmdFileContent1;
+                            }
+                            return cmdFileContent2;
+                        }
+                    };
+            replayMocks(mockGc, mockWtf);
+            mScheduler.start();
+            mScheduler.setCommandFileReload(true);
+            mScheduler.addCommandFile("mycmd.txt", extraArgs);
+            assertEquals(1, mScheduler.getCommandTrackers().size());
+
+            // the first reload fails to add the new command
+            mScheduler.notifyFileChanged(new File("mycmd.txt"), extraArgs);
+            // the second one adds it, even if the content is the same
+            mScheduler.notifyFileChanged(new File("mycmd.txt"), extraArgs);
+
+            List<CommandTracker> cmds = mScheduler.getCommandTrackers();
+            assertEquals(2, cmds.size());
+            Collections.sort(cmds, new CommandTrackerIdComparator());
+            Assert.assertArrayEquals(unchangedArgs, cmds.get(0).getArgs());
+            Assert.assertArrayEquals(addedArgs, cmds.get(1).getArgs());
+            EasyMock.verify(mMockConfigFactory, mockWtf);
+        } finally {
+            // reset global config to null, which means 'not overloaded/use default'
+            CLog.setGlobalConfigInstance(null);
+        }
+    }
+
     /** Verify attempts to add the same commmand file in reload mode are rejected */
     @Test
     public void testAddCommandFile_twice() throws ConfigurationException {
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Unit tests for {@link ReadyCommandQueue}. */
+@RunWith(JUnit4.class)
+public class ReadyCommandQueueTest {
+
+    private ReadyCommandQueue<Integer> mQueue;
+
+    @Before
+    public void setUp() {
+        mQueue = new ReadyCommandQueue<>(Comparator.<Integer>naturalOrder());
+    }
+
+    /** Test that commands are matched in priority order across buckets. */
+    @Test
+    public void testMatch_priorityOrder() {
+        mQueue.add(3, "a", null);
+        mQueue.add(1, "b", null);
+        mQueue.add(2, "a", null);
+        List<Integer> matched = mQueue.match(cmd -> true);
+        assertEquals(Arrays.asList(1, 2, 3), matched);
+        assertEquals(0, mQueue.size());
+        assertEquals(0, mQueue.getBucketCount());
+    }
+
+    /** Test that once a command fails to allocate, the rest of its bucket is not tried. */
+    @Test
+    public void testMatch_blockedBucket() {
+        for (int i = 0; i < 10; i++) {
+            mQueue.add(i, "a", null);
+        }
+        mQueue.add(100, "b", null);
+        Set<Integer> tried = new HashSet<>();
+        List<Integer> matched =
+                mQueue.match(
+                        cmd -> {
+                            tried.add(cmd);
+                            return cmd < 2 || cmd == 100;
+                        });
+        assertEquals(Arrays.asList(0, 1, 100), matched);
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2, 100)), tried);
+        assertEquals(4, mQueue.getLastMatchAttempts());
+        assertEquals(8, mQueue.size());
+    }
+
+    /** Test that a blocked bucket is not re-evaluated until it is marked dirty. */
+    @Test
+    public void testMatch_onlyDirtyBuckets() {
+        mQueue.add(1, "a", null);
+        mQueue.add(2, "b", Arrays.asList("serial1"));
+        assertTrue(mQueue.match(cmd -> false).isEmpty());
+        assertEquals(2, mQueue.getLastMatchAttempts());
+
+        assertTrue(mQueue.match(cmd -> true).isEmpty());
+        assertEquals(0, mQueue.getLastMatchAttempts());
+
+        // A device that only bucket "a" can use
+        mQueue.markDirty("serial2");
+        assertEquals(Arrays.asList(1), mQueue.match(cmd -> true));
+        assertEquals(1, mQueue.getLastMatchAttempts());
+
+        mQueue.markDirty("serial1");
+        assertEquals(Arrays.asList(2), mQueue.match(cmd -> true));
+    }
+
+    /** Test that adding a command to a blocked bucket makes it eligible again. */
+    @Test
+    public void testMatch_addMakesDirty() {
+        mQueue.add(5, "a", null);
+        assertTrue(mQueue.match(cmd -> false).isEmpty());
+        mQueue.add(4, "a", null);
+        assertEquals(Arrays.asList(4, 5), mQueue.match(cmd -> true));
+    }
+
+    /** Test that {@link ReadyCommandQueue#markAllDirty()} re-evaluates every bucket. */
+    @Test
+    public void testMatch_markAllDirty() {
+        mQueue.add(1, "a", Arrays.asList("serial1"));
+        mQueue.add(2, "b", Arrays.asList("serial2"));
+        mQueue.match(cmd -> false);
+        mQueue.markAllDirty();
+        assertEquals(Arrays.asList(1, 2), mQueue.match(cmd -> true));
+    }
+
+    /**
+     * Test that a bucket blocked on a device that never notifies is re-evaluated every interval,
+     * even with a steady stream of events for other devices.
+     */
+    @Test
+    public void testMatch_markAllDirtyIfStale_steadyEvents() {
+        mQueue.add(1, "a", Arrays.asList("serial1"));
+        mQueue.add(2, "b", Arrays.asList("serial2"));
+        mQueue.match(cmd -> false);
+        int blockedAttempts = 0;
+        // An event for serial2 every second for 100 seconds, with a 30 seconds interval.
+        for (long now = 1000L; now <= 100000L; now += 1000L) {
+            mQueue.markDirty("serial2");
+            mQueue.markAllDirtyIfStale(now, 30000L);
+            assertTrue(mQueue.match(cmd -> false).isEmpty());
+            if (mQueue.getLastMatchAttempts() == 2) {
+                blockedAttempts++;
+            }
+        }
+        assertEquals(3, blockedAttempts);
+    }
+
+    /** Test removing commands from the queue. */
+    @Test
+    public void testRemove() {
+        mQueue.add(1, "a", null);
+        mQueue.add(2, "a", null);
+        mQueue.add(3, "b", null);
+        assertTrue(mQueue.remove(3));
+        assertEquals(1, mQueue.getBucketCount());
+        mQueue.removeIf(cmd -> cmd == 1);
+        assertEquals(Arrays.asList(2), mQueue.getAll());
+        mQueue.clear();
+        assertEquals(0, mQueue.size());
+    }
+}
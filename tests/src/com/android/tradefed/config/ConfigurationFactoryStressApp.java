@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.config;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Longer running stress java app that measures the cost of creating {@link IConfiguration}s, the
+ * way sharding and suites create one per shard or per module.
+ *
+ * <p>Intended to be executed under a profiler.
+ */
+public class ConfigurationFactoryStressApp extends TestCase {
+
+    private static final int CONFIG_COUNT = 5000;
+    private static final String[] ARGS = {"host", "--log-level", "VERBOSE"};
+
+    /** Compare looking up the option fields through reflection against the cached fields. */
+    public void testOptionFieldsLookup() throws Exception {
+        IConfiguration config =
+                ConfigurationFactory.getInstance().createConfigurationFromArgs(ARGS);
+        List<Object> objects = new ArrayList<>(config.getAllConfigurationObjects());
+        int fields = 0;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < CONFIG_COUNT; i++) {
+            for (Object object : objects) {
+                for (Class<?> c = object.getClass(); c != null; c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        if (field.isAnnotationPresent(Option.class)) {
+                            fields += field.getAnnotation(Option.class).name().length();
+                        }
+                    }
+                }
+            }
+        }
+        long reflectionTime = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        for (int i = 0; i < CONFIG_COUNT; i++) {
+            for (Object object : objects) {
+                for (Field field : OptionSetter.getOptionFieldsForClass(object.getClass())) {
+                    fields -= field.getAnnotation(Option.class).name().length();
+                }
+            }
+        }
+        long cachedTime = System.nanoTime() - startTime;
+        assertEquals(0, fields);
+        System.out.printf(
+                "Option fields of %d configs: reflection %d ms, cached %d ms\n",
+                CONFIG_COUNT, reflectionTime / 1000000, cachedTime / 1000000);
+    }
+
+    /** Measure creating configurations from the same command line, like each shard does. */
+    public void testCreateConfiguration() throws Exception {
+        IConfigurationFactory factory = ConfigurationFactory.getInstance();
+        // Warm up the configuration definition cache.
+        factory.createConfigurationFromArgs(ARGS);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < CONFIG_COUNT; i++) {
+            factory.createConfigurationFromArgs(ARGS);
+        }
+        long elapsed = System.nanoTime() - startTime;
+        System.out.printf(
+                "Created %d configs in %d ms, %d us per config\n",
+                CONFIG_COUNT, elapsed / 1000000, elapsed / 1000 / CONFIG_COUNT);
+    }
+
+    public static void main(String[] args) {
+        try {
+            long startTime = System.currentTimeMillis();
+            ConfigurationFactoryStressApp stressApp = new ConfigurationFactoryStressApp();
+            stressApp.testOptionFieldsLookup();
+            stressApp.testCreateConfiguration();
+            System.out.printf("Stress app ran for %s ms", System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -266,6 +266,29 @@ public class OptionSetterTest extends TestCase {
         private final String mFinal= "foo";
     }
 
+    /**
+     * Test that {@link OptionSetter#getOptionFieldsForClass(Class)} returns the declared and
+     * inherited fields, and resolves them only once per class.
+     */
+    public void testGetOptionFieldsForClass() {
+        Collection<Field> fields = OptionSetter.getOptionFieldsForClass(ChildOptionSource.class);
+        Collection<String> names = new ArrayList<>();
+        for (Field field : fields) {
+            names.add(field.getAnnotation(Option.class).name());
+        }
+        assertTrue(names.contains("child-string"));
+        assertTrue(names.contains("child-boolean"));
+        assertTrue(names.contains("string"));
+        assertTrue(names.contains("boolean"));
+        assertSame(fields, OptionSetter.getOptionFieldsForClass(ChildOptionSource.class));
+        try {
+            fields.clear();
+            fail("Should have thrown an exception.");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+    }
+
     /**
      * Test creating an {@link OptionSetter} for a source with invalid option type.
      */
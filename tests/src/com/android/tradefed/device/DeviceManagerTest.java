@@ -1376,6 +1376,9 @@ public class DeviceManagerTest {
                     manager.returnFlashingPermit();
                 }
             };
+            EasyMock.expect(mMockHostOptions.getConcurrentFlasherBytesLimit())
+                    .andReturn(null)
+                    .anyTimes();
             EasyMock.expect(mMockHostOptions.getConcurrentFlasherLimit()).andReturn(1).anyTimes();
             EasyMock.replay(mMockHostOptions);
             // take the permit; the next attempt to take the permit should block
@@ -1401,6 +1404,55 @@ public class DeviceManagerTest {
         }
     }
 
+    /** Ensure that the flashers can be limited by the size of the images being flashed. */
+    @Test
+    public void testFlashLimit_withBytesLimit() throws Exception {
+        setCheckAvailableDeviceExpectations();
+        replayMocks();
+        final DeviceManager manager = createDeviceManager(null, mMockIDevice);
+        final long megabyte = 1024 * 1024;
+        try {
+            Thread waiter =
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            manager.takeFlashingPermit(4 * megabyte);
+                            manager.returnFlashingPermit(4 * megabyte);
+                        }
+                    };
+            EasyMock.expect(mMockHostOptions.getConcurrentFlasherBytesLimit())
+                    .andReturn(10 * megabyte)
+                    .anyTimes();
+            EasyMock.replay(mMockHostOptions);
+            // two small images fit under the limit
+            manager.takeFlashingPermit(2 * megabyte);
+            manager.takeFlashingPermit(5 * megabyte + 1);
+            assertEquals(2, manager.getAvailableFlashingPermits());
+            assertFalse(manager.getConcurrentFlashLock().hasQueuedThreads());
+
+            waiter.start();
+            RunUtil.getDefault().sleep(100); // Thread start should take <100ms
+            assertTrue("Invalid state: waiter thread is not alive", waiter.isAlive());
+            assertTrue("No queued threads", manager.getConcurrentFlashLock().hasQueuedThreads());
+
+            manager.returnFlashingPermit(2 * megabyte);
+            waiter.join(1000);
+            assertFalse("waiter thread has not returned", waiter.isAlive());
+            manager.returnFlashingPermit(5 * megabyte + 1);
+            assertEquals(10, manager.getAvailableFlashingPermits());
+
+            // an image bigger than the limit is flashed alone
+            manager.takeFlashingPermit(20 * megabyte);
+            assertEquals(0, manager.getAvailableFlashingPermits());
+            manager.returnFlashingPermit(20 * megabyte);
+            assertEquals(10, manager.getAvailableFlashingPermits());
+            EasyMock.verify(mMockHostOptions);
+        } finally {
+            // Attempt to reset concurrent flash settings to defaults
+            manager.setConcurrentFlashSettings(null, true);
+        }
+    }
+
     /** Ensure that the flasher instance limiting machinery is working as expected. */
     @Test
     public void testUnlimitedFlashLimit() throws Exception {
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tradefed.result.InputStreamSource;
+import com.android.tradefed.util.StreamUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/** Unit tests for {@link LogcatOutputReceiver}. */
+@RunWith(JUnit4.class)
+public class LogcatOutputReceiverTest {
+
+    private static final String LINE_FORMAT = "%s  1234  5678 I Tag: line %d\n";
+
+    private LogcatOutputReceiver mReceiver;
+    private SimpleDateFormat mFormat;
+    private long mStartTime;
+
+    @Before
+    public void setUp() {
+        mReceiver = new LogcatOutputReceiver("logcat", "serial", 10 * 1024 * 1024);
+        mFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS");
+        // One hour ago, on a second boundary.
+        mStartTime = (System.currentTimeMillis() - 60 * 60 * 1000L) / 1000L * 1000L;
+    }
+
+    @After
+    public void tearDown() {
+        mReceiver.delete();
+    }
+
+    /** Add logcat lines logged one second apart, in chunks not aligned with the lines. */
+    private void addLines(int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(String.format(LINE_FORMAT, mFormat.format(new Date(getTime(i))), i));
+        }
+        byte[] data = builder.toString().getBytes(StandardCharsets.UTF_8);
+        for (int offset = 0; offset < data.length; offset += 1000) {
+            mReceiver.addOutput(data, offset, Math.min(1000, data.length - offset));
+        }
+    }
+
+    private long getTime(int line) {
+        return mStartTime + line * 1000L;
+    }
+
+    private String getLine(int line) {
+        return String.format(LINE_FORMAT, mFormat.format(new Date(getTime(line))), line);
+    }
+
+    /** Test that the output since a time starts at the first line logged at or after it. */
+    @Test
+    public void testGetDataSince() throws Exception {
+        // Enough lines for several index entries.
+        addLines(2000);
+        assertTrue(mReceiver.getPosition() > 2 * LogcatOutputReceiver.INDEX_INTERVAL);
+        try (InputStreamSource source = mReceiver.getDataSince(getTime(1234))) {
+            String output = StreamUtil.getStringFromSource(source);
+            assertTrue(output.startsWith(getLine(1234)));
+            assertTrue(output.endsWith(getLine(1999)));
+            assertEquals(output.length(), source.size());
+        }
+        // Between two lines
+        try (InputStreamSource source = mReceiver.getDataSince(getTime(567) + 500L)) {
+            assertTrue(StreamUtil.getStringFromSource(source).startsWith(getLine(568)));
+        }
+        // Before the first line
+        try (InputStreamSource source = mReceiver.getDataSince(getTime(0) - 5000L)) {
+            assertEquals(mReceiver.getPosition(), source.size());
+        }
+        // After the last line
+        try (InputStreamSource source = mReceiver.getDataSince(getTime(2000))) {
+            assertEquals(0L, source.size());
+        }
+    }
+
+    /** Test that the output is not looked up if it does not have timestamps. */
+    @Test
+    public void testGetDataSince_notIndexed() {
+        byte[] data = "--------- beginning of main\nno timestamp\n".getBytes();
+        mReceiver.addOutput(data, 0, data.length);
+        assertNull(mReceiver.getDataSince(mStartTime));
+    }
+
+    /** Test that the index restarts with the output when it is cleared. */
+    @Test
+    public void testGetDataSince_cleared() throws Exception {
+        addLines(10);
+        mReceiver.clear();
+        assertNull(mReceiver.getDataSince(mStartTime));
+        addLines(10);
+        try (InputStreamSource source = mReceiver.getDataSince(getTime(5))) {
+            assertTrue(StreamUtil.getStringFromSource(source).startsWith(getLine(5)));
+        }
+    }
+
+    /** Test parsing the timestamps, which do not have a year. */
+    @Test
+    public void testParseTimestamp() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        long now = format.parse("2019-01-01 00:30:00.000").getTime();
+        assertEquals(
+                format.parse("2019-01-01 00:10:42.123").getTime(),
+                LogcatOutputReceiver.parseTimestamp("01-01 00:10:42.123".getBytes(), now));
+        // More than a day in the future is from the previous year.
+        assertEquals(
+                format.parse("2018-12-31 23:59:59.999").getTime(),
+                LogcatOutputReceiver.parseTimestamp("12-31 23:59:59.999".getBytes(), now));
+        assertEquals(
+                -1L, LogcatOutputReceiver.parseTimestamp("--------- beginning".getBytes(), now));
+    }
+}
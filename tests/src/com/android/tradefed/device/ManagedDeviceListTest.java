@@ -92,6 +92,44 @@ public class ManagedDeviceListTest extends TestCase {
         assertNull(mManagedDeviceList.allocate(DeviceManager.ANY_DEVICE_OPTIONS));
     }
 
+    /**
+     * Test that {@link ManagedDeviceList#allocate(IDeviceSelection)} tries the least recently
+     * allocated device first.
+     */
+    public void testAllocate_order() {
+        IManagedTestDevice foo = mManagedDeviceList.findOrCreate(new StubDevice("foo"));
+        IManagedTestDevice bar = mManagedDeviceList.findOrCreate(new StubDevice("bar"));
+        foo.handleAllocationEvent(DeviceEvent.FORCE_AVAILABLE);
+        bar.handleAllocationEvent(DeviceEvent.FORCE_AVAILABLE);
+        assertEquals(foo, mManagedDeviceList.allocate(DeviceManager.ANY_DEVICE_OPTIONS));
+        foo.handleAllocationEvent(DeviceEvent.FREE_AVAILABLE);
+        // foo was just allocated, bar is tried first
+        assertEquals(bar, mManagedDeviceList.allocate(DeviceManager.ANY_DEVICE_OPTIONS));
+        bar.handleAllocationEvent(DeviceEvent.FREE_AVAILABLE);
+        assertEquals(foo, mManagedDeviceList.allocate(DeviceManager.ANY_DEVICE_OPTIONS));
+        // the copy follows the allocation order
+        assertEquals(bar, mManagedDeviceList.getCopy().get(0));
+        assertEquals(foo, mManagedDeviceList.getCopy().get(1));
+    }
+
+    /**
+     * Test that {@link ManagedDeviceList#allocate(IDeviceSelection)} only allocates the requested
+     * serial.
+     */
+    public void testAllocate_serial() {
+        IManagedTestDevice foo = mManagedDeviceList.findOrCreate(new StubDevice("foo"));
+        IManagedTestDevice bar = mManagedDeviceList.findOrCreate(new StubDevice("bar"));
+        foo.handleAllocationEvent(DeviceEvent.FORCE_AVAILABLE);
+        bar.handleAllocationEvent(DeviceEvent.FORCE_AVAILABLE);
+        DeviceSelectionOptions options = new DeviceSelectionOptions();
+        options.addSerial("bar");
+        assertEquals(bar, mManagedDeviceList.allocate(options));
+        assertNull(mManagedDeviceList.allocate(options));
+        options = new DeviceSelectionOptions();
+        options.addSerial("unknown");
+        assertNull(mManagedDeviceList.allocate(options));
+    }
+
     /**
      * Basic test for {@link ManagedDeviceList#handleDeviceEvent(IManagedTestDevice, DeviceEvent)}
      */
@@ -51,6 +51,7 @@ import com.android.tradefed.util.CommandStatus;
 import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.IRunUtil;
 import com.android.tradefed.util.StreamUtil;
+import com.android.tradefed.util.TarUtil;
 
 import org.easymock.EasyMock;
 import org.junit.Before;
@@ -74,6 +75,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /** Unit tests for {@link NativeDevice}. */
 @RunWith(JUnit4.class)
@@ -334,6 +337,211 @@ public class NativeDeviceTest {
         }
     }
 
+    /** Test {@link NativeDevice#pushDir(File, String)} when pushing as a single tar stream. */
+    @Test
+    public void testPushDir_asTar() throws Exception {
+        File testDir = FileUtil.createTempDir("pushDirTest");
+        List<String> commands = new ArrayList<>();
+        try {
+            FileUtil.createTempFile("test1", ".txt", FileUtil.createTempDir("sub", testDir));
+            mTestDevice =
+                    new TestableAndroidNativeDevice() {
+                        @Override
+                        public CommandResult executeShellV2Command(
+                                String cmd,
+                                File pipeAsInput,
+                                OutputStream pipeToOutput,
+                                long maxTimeoutForCommand,
+                                TimeUnit timeUnit,
+                                int retryAttempts)
+                                throws DeviceNotAvailableException {
+                            commands.add(cmd);
+                            if (cmd.startsWith("mkdir")) {
+                                assertNotNull(pipeAsInput);
+                                assertTrue(pipeAsInput.isFile());
+                            }
+                            return new CommandResult(CommandStatus.SUCCESS);
+                        }
+
+                        @Override
+                        public boolean pushFile(File localFile, String remoteFilePath)
+                                throws DeviceNotAvailableException {
+                            fail("Files should not be pushed one by one.");
+                            return false;
+                        }
+                    };
+            new OptionSetter(mTestDevice.getOptions()).setOptionValue("push-dir-as-tar", "true");
+            assertTrue(mTestDevice.pushDir(testDir, "/data/local/tmp"));
+            assertEquals(
+                    Arrays.asList(
+                            "command -v tar",
+                            "mkdir -p \"/data/local/tmp\" && tar -xf - -C \"/data/local/tmp\""),
+                    commands);
+        } finally {
+            FileUtil.recursiveDelete(testDir);
+        }
+    }
+
+    /**
+     * Test {@link NativeDevice#pushDir(File, String)} falls back to pushing file by file when tar
+     * is not available on the device.
+     */
+    @Test
+    public void testPushDir_asTar_unavailable() throws Exception {
+        File testDir = FileUtil.createTempDir("pushDirTest");
+        List<String> pushedFiles = new ArrayList<>();
+        try {
+            FileUtil.createTempFile("test1", ".txt", testDir);
+            mTestDevice =
+                    new TestableAndroidNativeDevice() {
+                        @Override
+                        public CommandResult executeShellV2Command(
+                                String cmd,
+                                File pipeAsInput,
+                                OutputStream pipeToOutput,
+                                long maxTimeoutForCommand,
+                                TimeUnit timeUnit,
+                                int retryAttempts)
+                                throws DeviceNotAvailableException {
+                            assertEquals("command -v tar", cmd);
+                            return new CommandResult(CommandStatus.FAILED);
+                        }
+
+                        @Override
+                        public boolean pushFile(File localFile, String remoteFilePath)
+                                throws DeviceNotAvailableException {
+                            pushedFiles.add(remoteFilePath);
+                            return true;
+                        }
+                    };
+            new OptionSetter(mTestDevice.getOptions()).setOptionValue("push-dir-as-tar", "true");
+            assertTrue(mTestDevice.pushDir(testDir, "/data/local/tmp"));
+            assertEquals(1, pushedFiles.size());
+        } finally {
+            FileUtil.recursiveDelete(testDir);
+        }
+    }
+
+    /**
+     * Test {@link NativeDevice#pushDir(File, String)} falls back to pushing file by file when the
+     * tar fails to extract, without trying tar again for each sub directory.
+     */
+    @Test
+    public void testPushDir_asTar_extractFailed() throws Exception {
+        File testDir = FileUtil.createTempDir("pushDirTest");
+        List<String> commands = new ArrayList<>();
+        List<String> pushedFiles = new ArrayList<>();
+        try {
+            File subDir = FileUtil.createTempDir("sub", testDir);
+            FileUtil.createTempFile("test1", ".txt", subDir);
+            FileUtil.createTempFile("test2", ".txt", FileUtil.createTempDir("sub2", subDir));
+            mTestDevice =
+                    new TestableAndroidNativeDevice() {
+                        @Override
+                        public CommandResult executeShellV2Command(
+                                String cmd,
+                                File pipeAsInput,
+                                OutputStream pipeToOutput,
+                                long maxTimeoutForCommand,
+                                TimeUnit timeUnit,
+                                int retryAttempts)
+                                throws DeviceNotAvailableException {
+                            commands.add(cmd);
+                            if (cmd.startsWith("mkdir")) {
+                                return new CommandResult(CommandStatus.FAILED);
+                            }
+                            return new CommandResult(CommandStatus.SUCCESS);
+                        }
+
+                        @Override
+                        public String executeShellCommand(String command)
+                                throws DeviceNotAvailableException {
+                            return "";
+                        }
+
+                        @Override
+                        public boolean pushFile(File localFile, String remoteFilePath)
+                                throws DeviceNotAvailableException {
+                            pushedFiles.add(remoteFilePath);
+                            return true;
+                        }
+                    };
+            new OptionSetter(mTestDevice.getOptions()).setOptionValue("push-dir-as-tar", "true");
+            assertTrue(mTestDevice.pushDir(testDir, "/data/local/tmp"));
+            assertEquals(
+                    Arrays.asList(
+                            "command -v tar",
+                            "mkdir -p \"/data/local/tmp\" && tar -xf - -C \"/data/local/tmp\""),
+                    commands);
+            assertEquals(2, pushedFiles.size());
+        } finally {
+            FileUtil.recursiveDelete(testDir);
+        }
+    }
+
+    /**
+     * Test {@link NativeDevice#syncFiles(File, String)} in tar mode only pushes the files that
+     * differ from the remote listing.
+     */
+    @Test
+    public void testSyncFiles_asTar() throws Exception {
+        File testDir = FileUtil.createTempDir("syncFilesTest");
+        List<String> pushedEntries = new ArrayList<>();
+        try {
+            File upToDate = new File(testDir, "up_to_date.txt");
+            FileUtil.writeToFile("same", upToDate);
+            File resized = new File(testDir, "resized.txt");
+            FileUtil.writeToFile("longer content", resized);
+            File added = new File(testDir, "added.txt");
+            FileUtil.writeToFile("new", added);
+            FileUtil.writeToFile("hidden", new File(testDir, ".hidden"));
+            String remoteDir = "/data/local/tmp/" + testDir.getName();
+            long mtime = upToDate.lastModified() / 1000;
+            String listing =
+                    String.format(
+                            "4 %d %s/up_to_date.txt\n3 %d %s/resized.txt\n",
+                            mtime, remoteDir, mtime, remoteDir);
+            mTestDevice =
+                    new TestableAndroidNativeDevice() {
+                        @Override
+                        public CommandResult executeShellV2Command(
+                                String cmd,
+                                File pipeAsInput,
+                                OutputStream pipeToOutput,
+                                long maxTimeoutForCommand,
+                                TimeUnit timeUnit,
+                                int retryAttempts)
+                                throws DeviceNotAvailableException {
+                            CommandResult result = new CommandResult(CommandStatus.SUCCESS);
+                            if (cmd.startsWith("find")) {
+                                assertTrue(cmd.contains(remoteDir));
+                                result.setStdout(listing);
+                            } else if (cmd.startsWith("mkdir")) {
+                                File extractDir = null;
+                                try {
+                                    extractDir = FileUtil.createTempDir("extract");
+                                    for (File f : TarUtil.unTar(pipeAsInput, extractDir)) {
+                                        pushedEntries.add(f.getName());
+                                    }
+                                } catch (IOException e) {
+                                    throw new RuntimeException(e);
+                                } finally {
+                                    FileUtil.recursiveDelete(extractDir);
+                                }
+                            }
+                            return result;
+                        }
+                    };
+            new OptionSetter(mTestDevice.getOptions()).setOptionValue("push-dir-as-tar", "true");
+            assertTrue(mTestDevice.syncFiles(testDir, "/data/local/tmp"));
+            assertEquals(2, pushedEntries.size());
+            assertTrue(pushedEntries.contains("resized.txt"));
+            assertTrue(pushedEntries.contains("added.txt"));
+        } finally {
+            FileUtil.recursiveDelete(testDir);
+        }
+    }
+
     /** Test {@link NativeDevice#pullDir(String, File)} when the remote directory is empty. */
     @Test
     public void testPullDir_nothingToDo() throws Exception {
@@ -2610,4 +2818,159 @@ public class NativeDeviceTest {
         assertEquals(2, result.size());
         EasyMock.verify(mMockIDevice);
     }
+
+    /**
+     * A device simulating the shell: each command in a batch outputs its name, and the session can
+     * end or fail after a given number of commands.
+     */
+    private class BatchShellNativeDevice extends TestableAndroidNativeDevice {
+        List<String> mScripts = new ArrayList<>();
+        int mCommandsBeforeEnd = Integer.MAX_VALUE;
+        boolean mFailSession = false;
+        int mRecoveryCount = 0;
+        private IDevice mShell = Mockito.mock(IDevice.class);
+
+        BatchShellNativeDevice() throws Exception {
+            Mockito.doAnswer(
+                            invocation -> {
+                                String script = (String) invocation.getArguments()[0];
+                                IShellOutputReceiver receiver =
+                                        (IShellOutputReceiver) invocation.getArguments()[1];
+                                mScripts.add(script);
+                                boolean ended = mCommandsBeforeEnd >= 0;
+                                byte[] output = runBatch(script).getBytes();
+                                ended = ended && mCommandsBeforeEnd < 0;
+                                receiver.addOutput(output, 0, output.length);
+                                receiver.flush();
+                                if (ended && mFailSession) {
+                                    throw new ShellCommandUnresponsiveException();
+                                }
+                                return null;
+                            })
+                    .when(mShell)
+                    .executeShellCommand(
+                            Mockito.anyString(),
+                            Mockito.any(IShellOutputReceiver.class),
+                            Mockito.anyLong(),
+                            Mockito.any(TimeUnit.class));
+        }
+
+        @Override
+        public IDevice getIDevice() {
+            return mShell;
+        }
+
+        @Override
+        public String executeShellCommand(String command) throws DeviceNotAvailableException {
+            mScripts.add(command);
+            return "out-" + command;
+        }
+
+        @Override
+        public void recoverDevice() {
+            mRecoveryCount++;
+        }
+
+        private String runBatch(String script) {
+            Matcher matcher = Pattern.compile("echo (__TF_BATCH_[^;]*__);").matcher(script);
+            assertTrue(matcher.find());
+            String delimiter = matcher.group(1);
+            StringBuilder output = new StringBuilder();
+            for (String command : script.split(Pattern.quote("; echo; echo " + delimiter + ";"))) {
+                // Strip the subshell
+                String name = command.substring(1, command.length() - 2);
+                output.append("out-").append(name);
+                if (mCommandsBeforeEnd-- == 0) {
+                    return output.toString();
+                }
+                output.append("\n").append(delimiter).append("\n");
+            }
+            return output.toString();
+        }
+    }
+
+    /** Test {@link NativeDevice#executeShellCommands(List)} runs the commands in one session. */
+    @Test
+    public void testExecuteShellCommands() throws Exception {
+        BatchShellNativeDevice device = new BatchShellNativeDevice();
+        List<String> outputs = device.executeShellCommands(Arrays.asList("a", "b\n", "c"));
+        assertEquals(Arrays.asList("out-a", "out-b\n", "out-c"), outputs);
+        assertEquals(1, device.mScripts.size());
+        // A single command runs as is
+        assertEquals(Arrays.asList("out-d"), device.executeShellCommands(Arrays.asList("d")));
+        assertEquals("d", device.mScripts.get(1));
+    }
+
+    /** Test {@link NativeDevice#executeShellCommands(List)} splits large batches. */
+    @Test
+    public void testExecuteShellCommands_large() throws Exception {
+        BatchShellNativeDevice device = new BatchShellNativeDevice();
+        List<String> commands = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String command = String.format("%0100d", i);
+            commands.add(command);
+            expected.add("out-" + command);
+        }
+        assertEquals(expected, device.executeShellCommands(commands));
+        assertTrue(device.mScripts.size() > 1);
+        for (String script : device.mScripts) {
+            assertTrue(script.length() <= 4000);
+        }
+    }
+
+    /**
+     * Test {@link NativeDevice#executeShellCommands(List)} when the shell session ends before the
+     * end of the batch: the interrupted command does not run again.
+     */
+    @Test
+    public void testExecuteShellCommands_sessionEnded() throws Exception {
+        BatchShellNativeDevice device = new BatchShellNativeDevice();
+        device.mCommandsBeforeEnd = 1;
+        List<String> outputs = device.executeShellCommands(Arrays.asList("a", "b", "c"));
+        assertEquals(Arrays.asList("out-a", "out-b", "out-c"), outputs);
+        assertEquals(2, device.mScripts.size());
+        assertEquals("c", device.mScripts.get(1));
+    }
+
+    /**
+     * Test {@link NativeDevice#executeShellCommands(List)} when the shell session fails before the
+     * end of the batch: only the commands without output run again.
+     */
+    @Test
+    public void testExecuteShellCommands_sessionFailed() throws Exception {
+        BatchShellNativeDevice device = new BatchShellNativeDevice();
+        device.mCommandsBeforeEnd = 1;
+        device.mFailSession = true;
+        List<String> outputs = device.executeShellCommands(Arrays.asList("a", "b", "c", "d"));
+        assertEquals(Arrays.asList("out-a", "out-b", "out-c", "out-d"), outputs);
+        assertEquals(2, device.mScripts.size());
+        assertFalse(device.mScripts.get(1).contains("(a\n)"));
+        assertTrue(device.mScripts.get(1).contains("(b\n)"));
+        assertEquals(1, device.mRecoveryCount);
+    }
+
+    /**
+     * Test {@link NativeDevice#executeShellCommands(List)} when the shell sessions keep failing
+     * without completing any command.
+     */
+    @Test
+    public void testExecuteShellCommands_sessionFailedRepeatedly() throws Exception {
+        BatchShellNativeDevice device = new BatchShellNativeDevice();
+        // Every session fails before the end of its first command
+        Mockito.doThrow(new ShellCommandUnresponsiveException())
+                .when(device.mShell)
+                .executeShellCommand(
+                        Mockito.anyString(),
+                        Mockito.any(IShellOutputReceiver.class),
+                        Mockito.anyLong(),
+                        Mockito.any(TimeUnit.class));
+        try {
+            device.executeShellCommands(Arrays.asList("a", "b"));
+            fail("DeviceUnresponsiveException not thrown");
+        } catch (DeviceUnresponsiveException expected) {
+            // expected
+        }
+        assertEquals(3, device.mRecoveryCount);
+    }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SettingsCommands}. */
+@RunWith(JUnit4.class)
+public class SettingsCommandsTest {
+
+    /** Test the commands built for each namespace, with and without a user. */
+    @Test
+    public void testCommands() {
+        assertEquals("settings get system key", SettingsCommands.getCommand("system", " key "));
+        assertEquals(
+                "settings put global key value",
+                SettingsCommands.putCommand(" Global", "key", "value "));
+        assertEquals("settings delete secure key", SettingsCommands.deleteCommand("secure", "key"));
+        assertEquals(
+                "settings --user 10 get secure key",
+                SettingsCommands.getCommand("--user 10", "secure", "key"));
+    }
+
+    /** Test that the commands are not built for an invalid namespace. */
+    @Test
+    public void testCommands_invalidNamespace() {
+        assertTrue(SettingsCommands.isValidNamespace("SYSTEM"));
+        assertFalse(SettingsCommands.isValidNamespace("system; reboot"));
+        try {
+            SettingsCommands.putCommand("system; reboot", "key", "value");
+            fail("IllegalArgumentException not thrown");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+}
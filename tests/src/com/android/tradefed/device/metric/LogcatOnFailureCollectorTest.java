@@ -106,8 +106,7 @@ public class LogcatOnFailureCollectorTest {
                 EasyMock.<HashMap<String, Metric>>anyObject());
         mMockListener.testRunEnded(0L, new HashMap<String, Metric>());
         // Buffer at testRunStarted
-        EasyMock.expect(mMockReceiver.getLogcatData())
-                .andReturn(new ByteArrayInputStreamSource("aaa".getBytes()));
+        EasyMock.expect(mMockReceiver.getLogcatDataSize()).andReturn(3L);
         // Buffer to be logged
         EasyMock.expect(mMockReceiver.getLogcatData(EasyMock.anyInt(), EasyMock.eq(3)))
                 .andReturn(new ByteArrayInputStreamSource("aaabbb".getBytes()));
@@ -158,8 +157,7 @@ public class LogcatOnFailureCollectorTest {
                 EasyMock.<HashMap<String, Metric>>anyObject());
         mMockListener.testRunEnded(0L, new HashMap<String, Metric>());
         // Buffer at testRunStarted
-        EasyMock.expect(mMockReceiver.getLogcatData())
-                .andReturn(new ByteArrayInputStreamSource("aaa".getBytes()));
+        EasyMock.expect(mMockReceiver.getLogcatDataSize()).andReturn(3L);
         // Buffer to be logged
         EasyMock.expect(mMockReceiver.getLogcatData(EasyMock.anyInt(), EasyMock.eq(3)))
                 .andReturn(new ByteArrayInputStreamSource("aaabbb".getBytes()));
@@ -177,8 +175,7 @@ public class LogcatOnFailureCollectorTest {
                 EasyMock.<HashMap<String, Metric>>anyObject());
         mMockListener.testRunEnded(0L, new HashMap<String, Metric>());
         // Buffer at testRunStarted
-        EasyMock.expect(mMockReceiver.getLogcatData())
-                .andReturn(new ByteArrayInputStreamSource("aaa".getBytes()));
+        EasyMock.expect(mMockReceiver.getLogcatDataSize()).andReturn(3L);
         // Buffer to be logged
         EasyMock.expect(mMockReceiver.getLogcatData(EasyMock.anyInt(), EasyMock.eq(3)))
                 .andReturn(new ByteArrayInputStreamSource("aaabbb".getBytes()));
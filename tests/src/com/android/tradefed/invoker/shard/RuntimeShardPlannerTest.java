@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.invoker.shard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.testtype.IRemoteTest;
+import com.android.tradefed.testtype.IRuntimeHintProvider;
+import com.android.tradefed.testtype.suite.ITestSuite;
+import com.android.tradefed.testtype.suite.ModuleDefinition;
+import com.android.tradefed.util.FileUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Unit tests for {@link RuntimeShardPlanner} and {@link ModuleRuntimeHistory}. */
+@RunWith(JUnit4.class)
+public class RuntimeShardPlannerTest {
+
+    private File mHistoryFile;
+
+    /** A test with a runtime hint. */
+    private static class HintedTest implements IRemoteTest, IRuntimeHintProvider {
+        private final long mHint;
+
+        HintedTest(long hint) {
+            mHint = hint;
+        }
+
+        @Override
+        public long getRuntimeHint() {
+            return mHint;
+        }
+
+        @Override
+        public void run(ITestInvocationListener listener) throws DeviceNotAvailableException {
+            // Nothing to run
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mHistoryFile = FileUtil.createTempFile("module-runtime-history", ".txt");
+        FileUtil.deleteFile(mHistoryFile);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.deleteFile(mHistoryFile);
+    }
+
+    /** Test that the tests are sorted by runtime hint, longest first. */
+    @Test
+    public void testSortLongestFirst_hints() {
+        IRemoteTest short1 = new HintedTest(10);
+        IRemoteTest long1 = new HintedTest(100);
+        IRemoteTest medium = new HintedTest(50);
+        List<IRemoteTest> tests = new ArrayList<>(Arrays.asList(short1, long1, medium));
+        RuntimeShardPlanner planner = new RuntimeShardPlanner(null);
+        planner.sortLongestFirst(tests);
+        assertEquals(Arrays.asList(long1, medium, short1), tests);
+    }
+
+    /** Test that tests without estimate are assumed to be average and keep their order. */
+    @Test
+    public void testSortLongestFirst_unknown() {
+        IRemoteTest unknown1 = new HintedTest(0);
+        IRemoteTest unknown2 = new HintedTest(0);
+        IRemoteTest short1 = new HintedTest(10);
+        IRemoteTest long1 = new HintedTest(90);
+        List<IRemoteTest> tests = new ArrayList<>(Arrays.asList(unknown1, short1, unknown2, long1));
+        RuntimeShardPlanner planner = new RuntimeShardPlanner(null);
+        planner.sortLongestFirst(tests);
+        assertEquals(Arrays.asList(long1, unknown1, unknown2, short1), tests);
+        assertEquals(50, planner.getEstimate(unknown1));
+    }
+
+    /** Test that the recorded duration of a module takes precedence over its hint. */
+    @Test
+    public void testSortLongestFirst_history() {
+        ModuleRuntimeHistory history = new ModuleRuntimeHistory(mHistoryFile);
+        history.recordDuration("module1", 1000);
+        IRemoteTest module1Part1 = createModuleTest("module1");
+        IRemoteTest module1Part2 = createModuleTest("module1");
+        IRemoteTest hinted = new HintedTest(700);
+        List<IRemoteTest> tests =
+                new ArrayList<>(Arrays.asList(module1Part1, hinted, module1Part2));
+        RuntimeShardPlanner planner = new RuntimeShardPlanner(history);
+        planner.sortLongestFirst(tests);
+        assertSame(hinted, tests.get(0));
+        // The recorded duration is shared by the parts of the module.
+        assertEquals(500, planner.getEstimate(module1Part1));
+    }
+
+    /** Test the expected makespan of the longest-first order. */
+    @Test
+    public void testGetExpectedMakespan() {
+        List<IRemoteTest> tests = new ArrayList<>();
+        for (long hint : new long[] {30, 30, 20, 20, 20}) {
+            tests.add(new HintedTest(hint));
+        }
+        RuntimeShardPlanner planner = new RuntimeShardPlanner(null);
+        planner.sortLongestFirst(tests);
+        assertEquals(70, planner.getExpectedMakespan(tests, 2));
+        assertEquals(30, planner.getExpectedMakespan(tests, 5));
+    }
+
+    /** Test that the history is persisted and averaged. */
+    @Test
+    public void testModuleRuntimeHistory() {
+        ModuleRuntimeHistory history = new ModuleRuntimeHistory(mHistoryFile);
+        assertNull(history.getDuration("module1"));
+        history.recordDuration("module1", 1000);
+        history.recordDuration("module1", 2000);
+        history.recordDuration("module2", 10);
+        history.save();
+
+        ModuleRuntimeHistory reloaded = new ModuleRuntimeHistory(mHistoryFile);
+        assertEquals(1500L, reloaded.getDuration("module1").longValue());
+        assertEquals(10L, reloaded.getDuration("module2").longValue());
+    }
+
+    private IRemoteTest createModuleTest(String moduleId) {
+        ModuleDefinition module = Mockito.mock(ModuleDefinition.class);
+        Mockito.doReturn(moduleId).when(module).getId();
+        ITestSuite suite = Mockito.mock(ITestSuite.class);
+        Mockito.doReturn(module).when(suite).getDirectModule();
+        return suite;
+    }
+}
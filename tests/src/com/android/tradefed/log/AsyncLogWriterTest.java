@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.log;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Unit tests for {@link AsyncLogWriter}. */
+@RunWith(JUnit4.class)
+public class AsyncLogWriterTest {
+
+    /** Test that flushing waits for all the queued messages. */
+    @Test
+    public void testWrite_flush() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        AsyncLogWriter writer = new AsyncLogWriter(stream, "test-writer", 4);
+        try {
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                writer.write("message" + i + "\n");
+                expected.append("message" + i + "\n");
+            }
+            writer.flush();
+            assertEquals(expected.toString(), stream.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /** Test that the messages of several threads are all written, even with a full queue. */
+    @Test
+    public void testWrite_concurrent() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        AsyncLogWriter writer = new AsyncLogWriter(stream, "test-writer", 8);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread =
+                    new Thread(
+                            () -> {
+                                for (int j = 0; j < 1000; j++) {
+                                    try {
+                                        writer.write("x\n");
+                                    } catch (Exception e) {
+                                        throw new RuntimeException(e);
+                                    }
+                                }
+                            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writer.close();
+        assertEquals(4 * 1000 * 2, stream.size());
+    }
+
+    /** Test that the messages written after closing go directly to the stream. */
+    @Test
+    public void testWrite_afterClose() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        AsyncLogWriter writer = new AsyncLogWriter(stream, "test-writer");
+        writer.write("before\n");
+        writer.close();
+        writer.write("after\n");
+        assertEquals("before\nafter\n", stream.toString());
+    }
+}
@@ -94,6 +94,30 @@ public class FileLoggerTest {
         }
     }
 
+    /** Test that the messages written in the background are all in the log, in order. */
+    @Test
+    public void testLogToLogger_async() throws Exception {
+        FileLogger logger = new FileLogger();
+        OptionSetter setter = new OptionSetter(logger);
+        setter.setOptionValue("async-log", "true");
+        InputStreamSource logSource = null;
+        try {
+            logger.init();
+            for (int i = 0; i < 1000; i++) {
+                logger.printLog(LogLevel.INFO, LOG_TAG, "message" + i);
+            }
+            logSource = logger.getLog();
+            String[] lines = StreamUtil.getStringFromSource(logSource).split("\n");
+            assertEquals(1000, lines.length);
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(lines[i].endsWith(LOG_TAG + ": message" + i));
+            }
+        } finally {
+            StreamUtil.cancel(logSource);
+            logger.closeLog();
+        }
+    }
+
     /**
      * Remove the timestamp at the beginning of the log message.
      *
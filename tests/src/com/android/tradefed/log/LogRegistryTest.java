@@ -104,6 +104,44 @@ public class LogRegistryTest extends TestCase {
         mLogRegistry.unregisterLogger();
     }
 
+    /**
+     * Tests that a task wrapped by {@link LogRegistry#wrapWithLogContext(Runnable)} logs with the
+     * logger of the thread that wrapped it, whichever thread runs it.
+     */
+    public void testWrapWithLogContext() throws Exception {
+        LogRegistry logRegistry =
+                new LogRegistry() {
+                    @Override
+                    public void saveGlobalLog() {
+                        // empty on purpose, avoid leaving logs that we can't clean.
+                    }
+                };
+        StdoutLogger invocationLogger = new StdoutLogger();
+        Runnable[] task = new Runnable[1];
+        ILeveledLogOutput[] taskLogger = new ILeveledLogOutput[1];
+        try {
+            Thread invocation =
+                    new Thread(
+                            new ThreadGroup("invocation"),
+                            () -> {
+                                logRegistry.registerLogger(invocationLogger);
+                                task[0] =
+                                        LogRegistry.wrapWithLogContext(
+                                                () -> taskLogger[0] = logRegistry.getLogger());
+                            });
+            invocation.start();
+            invocation.join();
+
+            ILeveledLogOutput ownLogger = logRegistry.getLogger();
+            task[0].run();
+            assertEquals(invocationLogger, taskLogger[0]);
+            // The context is only used while the task runs.
+            assertEquals(ownLogger, logRegistry.getLogger());
+        } finally {
+            logRegistry.closeAndRemoveAllLogs();
+        }
+    }
+
     /**
      * Tests for ensuring new threads spawned without an explicit ThreadGroup will inherit the
      * same logger as the parent's logger.
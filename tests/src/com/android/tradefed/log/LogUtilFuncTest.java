@@ -16,6 +16,7 @@
 
 package com.android.tradefed.log;
 
+import com.android.ddmlib.DdmPreferences;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.tradefed.config.ConfigurationException;
@@ -116,6 +117,31 @@ public class LogUtilFuncTest extends TestCase {
         EasyMock.verify(mMockWtfHandler);
     }
 
+    /** Verify that the messages below the log level are not formatted. */
+    public void testCLog_belowLogLevel() {
+        LogLevel previousLevel = DdmPreferences.getLogLevel();
+        int[] formatted = new int[1];
+        Object arg =
+                new Object() {
+                    @Override
+                    public String toString() {
+                        formatted[0]++;
+                        return STRING;
+                    }
+                };
+        try {
+            DdmPreferences.setLogLevel(LogLevel.INFO.getStringValue());
+            assertFalse(CLog.isLoggable(LogLevel.DEBUG));
+            CLog.v("this is CLog.v with a format string: %s", arg);
+            CLog.d("this is CLog.d with a format string: %s", arg);
+            assertEquals(0, formatted[0]);
+            CLog.i("this is CLog.i with a format string: %s", arg);
+            assertEquals(1, formatted[0]);
+        } finally {
+            DdmPreferences.setLogLevel(previousLevel.getStringValue());
+        }
+    }
+
     /**
      * Verify that getClassName can get the desired class name from the stack trace.
      */
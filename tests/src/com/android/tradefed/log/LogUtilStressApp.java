@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.log;
+
+import com.android.ddmlib.DdmPreferences;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.Log.LogLevel;
+import com.android.tradefed.config.OptionSetter;
+import com.android.tradefed.log.LogUtil.CLog;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Longer running stress java app that measures the throughput of {@link CLog} from several
+ * threads logging to the same invocation logger, for messages filtered by the log level and for
+ * messages written to the log file directly or from a background thread.
+ *
+ * <p>Intended to be executed under a profiler.
+ */
+public class LogUtilStressApp extends TestCase {
+
+    private static final int THREAD_COUNT = 20;
+    private static final int MESSAGE_COUNT = 50000;
+
+    /** Measure logging messages below the log level of the invocation. */
+    public void testFilteredMessages() throws Exception {
+        logMessages(LogLevel.INFO, false);
+    }
+
+    /** Measure logging messages written to the log file by the logging threads. */
+    public void testSyncMessages() throws Exception {
+        logMessages(LogLevel.DEBUG, false);
+    }
+
+    /** Measure logging messages written to the log file from a background thread. */
+    public void testAsyncMessages() throws Exception {
+        logMessages(LogLevel.DEBUG, true);
+    }
+
+    private void logMessages(LogLevel invocationLevel, boolean async) throws Exception {
+        DdmPreferences.setLogLevel(LogLevel.VERBOSE.getStringValue());
+        ILogRegistry registry = LogRegistry.getLogRegistry();
+        Log.setLogOutput(registry);
+        FileLogger logger = new FileLogger();
+        OptionSetter setter = new OptionSetter(logger);
+        setter.setOptionValue("log-level", invocationLevel.getStringValue());
+        setter.setOptionValue("async-log", Boolean.toString(async));
+        // Keep the whole log for the stress run.
+        setter.setOptionValue("max-log-size", "1000");
+        logger.init();
+        registry.registerLogger(logger);
+        try {
+            List<Thread> threads = new ArrayList<>();
+            long startTime = System.nanoTime();
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                Thread thread =
+                        new Thread(
+                                () -> {
+                                    for (int j = 0; j < MESSAGE_COUNT; j++) {
+                                        CLog.d("message %d of thread %s", j, getName());
+                                    }
+                                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            logger.getLog().close();
+            long elapsed = System.nanoTime() - startTime;
+            long count = (long) THREAD_COUNT * MESSAGE_COUNT;
+            System.out.printf(
+                    "Logged %d debug messages at level %s%s in %d ms, %d messages/s\n",
+                    count,
+                    invocationLevel,
+                    async ? " (async)" : "",
+                    elapsed / 1000000,
+                    count * 1000000000L / Math.max(1L, elapsed));
+        } finally {
+            registry.unregisterLogger();
+            logger.closeLog();
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            long startTime = System.currentTimeMillis();
+            LogUtilStressApp stressApp = new LogUtilStressApp();
+            stressApp.testFilteredMessages();
+            stressApp.testSyncMessages();
+            stressApp.testAsyncMessages();
+            System.out.printf("Stress app ran for %s ms", System.currentTimeMillis() - startTime);
+            LogRegistry.getLogRegistry().closeAndRemoveAllLogs();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
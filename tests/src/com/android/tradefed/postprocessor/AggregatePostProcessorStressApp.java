@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.postprocessor;
+
+import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
+import com.android.tradefed.result.TestDescription;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Longer running stress java app that measures the cost of {@link AggregatePostProcessor} on a
+ * test iterated many times, reporting many metrics.
+ *
+ * <p>Intended to be executed under a profiler.
+ */
+public class AggregatePostProcessorStressApp extends TestCase {
+
+    private static final int ITERATIONS = 10000;
+    private static final int METRICS = 200;
+
+    /** Measure aggregating the metrics of each iteration with the ones of the previous ones. */
+    public void testProcessTestMetrics() {
+        AggregatePostProcessor processor = new AggregatePostProcessor();
+        TestDescription test = new TestDescription("class", "test");
+        Random random = new Random(0);
+        long elapsed = 0L;
+        Map<String, Metric.Builder> aggregateMetrics = null;
+        for (int i = 0; i < ITERATIONS; i++) {
+            HashMap<String, Metric> testMetrics = new HashMap<>();
+            for (int j = 0; j < METRICS; j++) {
+                Metric.Builder metric = Metric.newBuilder();
+                metric.getMeasurementsBuilder()
+                        .setSingleString(
+                                String.format(
+                                        "%.3f,%.3f", random.nextDouble(), random.nextDouble()));
+                testMetrics.put("metric" + j, metric.build());
+            }
+            long startTime = System.nanoTime();
+            aggregateMetrics = processor.processTestMetrics(test, testMetrics);
+            elapsed += System.nanoTime() - startTime;
+        }
+        assertEquals(METRICS * 6, aggregateMetrics.size());
+        System.out.printf(
+                "Aggregated %d iterations of %d metrics in %d ms, %d us per iteration\n",
+                ITERATIONS, METRICS, elapsed / 1000000, elapsed / 1000 / ITERATIONS);
+    }
+
+    public static void main(String[] args) {
+        try {
+            long startTime = System.currentTimeMillis();
+            AggregatePostProcessorStressApp stressApp = new AggregatePostProcessorStressApp();
+            stressApp.testProcessTestMetrics();
+            System.out.printf("Stress app ran for %s ms", System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.postprocessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/** Unit tests for {@link MetricStatistics}. */
+@RunWith(JUnit4.class)
+public class MetricStatisticsTest {
+
+    private static final double DELTA = 1e-9;
+
+    /** Test the statistics of comma separated values added over several iterations. */
+    @Test
+    public void testAddAll() {
+        MetricStatistics stats = new MetricStatistics();
+        assertEquals(2, stats.addAll("1.1, 2.2"));
+        assertEquals(0, stats.addAll(""));
+        assertEquals(4, stats.addAll("1.5, 2.5, 1.9, 2.9,"));
+        assertTrue(stats.isValid());
+        assertEquals(6, stats.getCount());
+        assertEquals(1.1, stats.getMin(), DELTA);
+        assertEquals(2.9, stats.getMax(), DELTA);
+        assertEquals(12.1 / 6, stats.getMean(), DELTA);
+        double variance = 0.0;
+        for (double value : new double[] {1.1, 2.2, 1.5, 2.5, 1.9, 2.9}) {
+            variance += Math.pow(value - 12.1 / 6, 2) / 6;
+        }
+        assertEquals(variance, stats.getVariance(), DELTA);
+        assertEquals(2.05, stats.getMedian(), DELTA);
+    }
+
+    /** Test that the statistics are invalid once a value is not a number. */
+    @Test
+    public void testAddAll_notNumber() {
+        MetricStatistics stats = new MetricStatistics();
+        stats.addAll("1");
+        stats.addAll("success");
+        assertFalse(stats.isValid());
+        stats.addAll("2");
+        assertFalse(stats.isValid());
+        // Empty values other than the trailing ones are not numbers.
+        MetricStatistics emptyValue = new MetricStatistics();
+        emptyValue.addAll("1,,2");
+        assertFalse(emptyValue.isValid());
+    }
+
+    /** Test that the numbers are parsed like {@link Double#parseDouble(String)}. */
+    @Test
+    public void testParseDouble() {
+        for (String value :
+                Arrays.asList(
+                        "0", "-0", "12", " 3.25 ", "+7.", ".5", "-0.001", "123456789.123456",
+                        "1234567890123456789", "1e3", "-2.5E-3", "NaN", "Infinity", "4d",
+                        "0.1234567890123456789")) {
+            // Parse the value in the middle of other ones.
+            double parsed = MetricStatistics.parseDouble("," + value + ",", 1, value.length() + 1);
+            assertEquals(
+                    value,
+                    Double.doubleToLongBits(Double.parseDouble(value)),
+                    Double.doubleToLongBits(parsed));
+        }
+        for (String value : Arrays.asList("", " ", ".", "-", "1.2.3", "abc", "1,2")) {
+            try {
+                MetricStatistics.parseDouble(value, 0, value.length());
+                fail("Should have thrown an exception for " + value);
+            } catch (NumberFormatException expected) {
+                // Expected
+            }
+        }
+    }
+
+    /** Test that the median stays close to the exact one once the sketch is compacted. */
+    @Test
+    public void testGetMedian_approximate() {
+        Random random = new Random(42);
+        double[] values = new double[100 * MetricStatistics.SKETCH_LEVEL_SIZE];
+        MetricStatistics stats = new MetricStatistics();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian();
+            stats.add(values[i]);
+        }
+        Arrays.sort(values);
+        double median = stats.getMedian();
+        int rank = Arrays.binarySearch(values, median);
+        if (rank < 0) {
+            rank = -rank - 1;
+        }
+        // Within 2% of the middle rank.
+        assertTrue(Math.abs(rank - values.length / 2) < values.length / 50);
+        assertEquals(values[0], stats.getMin(), DELTA);
+        assertEquals(values[values.length - 1], stats.getMax(), DELTA);
+    }
+
+    /** Test that merging statistics gives the statistics of all the values. */
+    @Test
+    public void testMerge() {
+        MetricStatistics first = new MetricStatistics();
+        MetricStatistics second = new MetricStatistics();
+        MetricStatistics all = new MetricStatistics();
+        for (int i = 0; i < 10; i++) {
+            double value = i * i;
+            (i < 4 ? first : second).add(value);
+            all.add(value);
+        }
+        first.merge(second);
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getMin(), first.getMin(), DELTA);
+        assertEquals(all.getMax(), first.getMax(), DELTA);
+        assertEquals(all.getMean(), first.getMean(), DELTA);
+        assertEquals(all.getVariance(), first.getVariance(), DELTA);
+        assertEquals(all.getMedian(), first.getMedian(), DELTA);
+    }
+}
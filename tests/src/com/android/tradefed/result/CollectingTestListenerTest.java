@@ -23,6 +23,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.android.ddmlib.testrunner.TestResult.TestStatus;
 import com.android.tradefed.build.BuildInfo;
+import com.android.tradefed.config.OptionSetter;
 import com.android.tradefed.invoker.IInvocationContext;
 import com.android.tradefed.invoker.InvocationContext;
 import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
@@ -33,6 +34,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.File;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -360,6 +363,33 @@ public final class CollectingTestListenerTest {
         assertThat(mCollectingTestListener.getExpectedTests()).isEqualTo(3);
     }
 
+    /**
+     * Test that all the runs keep their results in the same file, and that it is deleted when the
+     * results are released.
+     */
+    @Test
+    public void testReleaseSpilledResults() throws Exception {
+        OptionSetter setter = new OptionSetter(mCollectingTestListener);
+        setter.setOptionValue("spill-results-to-disk", "true");
+        injectTestRun("run1", "testFoo1", METRIC_VALUE, 0);
+        File spillFile = mCollectingTestListener.getCurrentRunResults().getSpillFile();
+        injectTestRun("run1", "testFoo1", METRIC_VALUE, 1);
+        injectTestRun("run2", "testFoo2", METRIC_VALUE, 0);
+        assertTrue(spillFile.exists());
+        assertEquals(spillFile, mCollectingTestListener.getCurrentRunResults().getSpillFile());
+        // The results of every attempt and of the merged runs are read from the shared file.
+        assertEquals(2, mCollectingTestListener.getNumTotalTests());
+        for (TestRunResult result : mCollectingTestListener.getMergedTestRunResults()) {
+            for (TestResult testResult : result.getTestResults().values()) {
+                assertEquals(TestStatus.PASSED, testResult.getStatus());
+            }
+        }
+
+        CollectingTestListener.releaseSpilledResults(
+                Arrays.asList(new TextResultReporter(), mCollectingTestListener));
+        assertFalse(spillFile.exists());
+    }
+
     /**
      * Injects a single test run with 1 passed test into the {@link CollectingTestListener} under
      * test
@@ -20,8 +20,10 @@ import static org.junit.Assert.*;
 import com.android.tradefed.config.ConfigurationException;
 import com.android.tradefed.config.OptionSetter;
 import com.android.tradefed.invoker.InvocationContext;
+import com.android.tradefed.metrics.proto.MetricMeasurement.Measurements;
 import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
 import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.RunUtil;
 import com.android.tradefed.util.SubprocessTestResultsParser;
 
 import org.easymock.EasyMock;
@@ -134,6 +136,72 @@ public class SubprocessResultsReporterTest {
         }
     }
 
+    /** Test that the events are received when they are sent as text lines through the socket. */
+    @Test
+    public void testPrintEvent_printTextToSocket() throws Exception {
+        TestDescription testId = new TestDescription("com.fakeclass", "faketest");
+        ITestInvocationListener mMockListener = EasyMock.createMock(ITestInvocationListener.class);
+        SubprocessTestResultsParser receiver =
+                new SubprocessTestResultsParser(mMockListener, true, new InvocationContext());
+        try {
+            OptionSetter setter = new OptionSetter(mReporter);
+            setter.setOptionValue(
+                    "subprocess-report-port", Integer.toString(receiver.getSocketServerPort()));
+            setter.setOptionValue("subprocess-report-binary", "false");
+            mMockListener.testStarted(EasyMock.eq(testId), EasyMock.anyLong());
+            mMockListener.testFailed(testId, "fake trace");
+            EasyMock.replay(mMockListener);
+            mReporter.testStarted(testId);
+            mReporter.testFailed(testId, "fake trace");
+            mReporter.close();
+            receiver.joinReceiver(LONG_TIMEOUT_MS);
+            EasyMock.verify(mMockListener);
+        } finally {
+            receiver.close();
+        }
+    }
+
+    /**
+     * Test that once the parser replied to the hello line, the test case events are sent as protos
+     * with their full metrics.
+     */
+    @Test
+    public void testPrintEvent_printBinaryToSocket() throws Exception {
+        TestDescription testId = new TestDescription("com.fakeclass", "faketest");
+        HashMap<String, Metric> metrics = new HashMap<>();
+        metrics.put(
+                "metric",
+                Metric.newBuilder()
+                        .setMeasurements(Measurements.newBuilder().setSingleDouble(1.5))
+                        .build());
+        ITestInvocationListener mMockListener =
+                EasyMock.createStrictMock(ITestInvocationListener.class);
+        SubprocessTestResultsParser receiver =
+                new SubprocessTestResultsParser(mMockListener, true, new InvocationContext());
+        try {
+            OptionSetter setter = new OptionSetter(mReporter);
+            setter.setOptionValue(
+                    "subprocess-report-port", Integer.toString(receiver.getSocketServerPort()));
+            mMockListener.testRunStarted("run", 1);
+            mMockListener.testStarted(testId, 5L);
+            // Text events would carry the metrics as strings.
+            mMockListener.testEnded(testId, 10L, metrics);
+            mMockListener.testRunEnded(100L, new HashMap<String, Metric>());
+            EasyMock.replay(mMockListener);
+            mReporter.testRunStarted("run", 1);
+            // let the reply to the hello line arrive
+            RunUtil.getDefault().sleep(500);
+            mReporter.testStarted(testId, 5L);
+            mReporter.testEnded(testId, 10L, metrics);
+            mReporter.testRunEnded(100L, new HashMap<String, Metric>());
+            mReporter.close();
+            assertTrue(receiver.joinReceiver(LONG_TIMEOUT_MS));
+            EasyMock.verify(mMockListener);
+        } finally {
+            receiver.close();
+        }
+    }
+
     @Test
     public void testTestLog() throws ConfigurationException, IOException {
         byte[] logData = new byte[1024];
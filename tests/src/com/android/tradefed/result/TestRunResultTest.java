@@ -22,6 +22,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.android.ddmlib.testrunner.TestResult.TestStatus;
 import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
+import com.android.tradefed.util.proto.TfMetricProtoUtil;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -602,4 +603,75 @@ public class TestRunResultTest {
 
         assertEquals("Second run failed.\n\nthird run failed.", testResult.getStackTrace());
     }
+
+    /** Test that the results of a run kept on disk are read back as they were reported. */
+    @Test
+    public void testSpillToDisk() {
+        TestDescription test1 = new TestDescription("FooTest", "testBar1");
+        TestDescription test2 = new TestDescription("FooTest", "testBar2");
+        TestRunResult result = new TestRunResult();
+        result.setSpillToDisk(true);
+        try {
+            assertTrue(result.isSpilledToDisk());
+            result.testRunStarted("fake run", 2);
+            result.testStarted(test1, 5L);
+            result.testLogSaved("log", new LogFile("/path", "url", LogDataType.TEXT));
+            result.testFailed(test1, "I failed!");
+            HashMap<String, Metric> metrics = new HashMap<>();
+            metrics.put("key", TfMetricProtoUtil.stringToMetric("value"));
+            result.testEnded(test1, 10L, metrics);
+            result.testStarted(test2);
+            result.testEnded(test2, new HashMap<String, Metric>());
+            result.testRunEnded(0, new HashMap<String, Metric>());
+
+            assertEquals(2, result.getNumTests());
+            assertEquals(1, result.getNumTestsInState(TestStatus.PASSED));
+            assertEquals(1, result.getNumTestsInState(TestStatus.FAILURE));
+            assertEquals(1, result.getFailedTests().size());
+            TestResult testResult = result.getTestResults().get(test1);
+            assertEquals(TestStatus.FAILURE, testResult.getStatus());
+            assertEquals("I failed!", testResult.getStackTrace());
+            assertEquals(5L, testResult.getStartTime());
+            assertEquals(10L, testResult.getEndTime());
+            assertEquals("value", testResult.getMetrics().get("key"));
+            assertEquals(metrics, testResult.getProtoMetrics());
+            assertEquals("/path", testResult.getLoggedFiles().get("log").getPath());
+            assertEquals(
+                    Arrays.asList(test1, test2), new ArrayList<>(result.getTestResults().keySet()));
+        } finally {
+            result.cleanUp();
+        }
+    }
+
+    /** Test that merging runs kept on disk gives the same results as merging in memory. */
+    @Test
+    public void testSpillToDisk_merge() {
+        TestDescription testcase = new TestDescription("com.android.tradefed", "testMethod");
+        List<TestRunResult> attempts = new ArrayList<>();
+        try {
+            for (String failure : Arrays.asList("first run failed.", null)) {
+                TestRunResult attempt = new TestRunResult();
+                attempt.setSpillToDisk(true);
+                attempt.testRunStarted("fake run", 1);
+                attempt.testStarted(testcase);
+                if (failure != null) {
+                    attempt.testFailed(testcase, failure);
+                }
+                attempt.testEnded(testcase, new HashMap<String, Metric>());
+                attempt.testRunEnded(0, new HashMap<String, Metric>());
+                attempts.add(attempt);
+            }
+            TestRunResult result = TestRunResult.merge(attempts);
+
+            assertTrue(result.isSpilledToDisk());
+            assertEquals(1, result.getNumTestsInState(TestStatus.PASSED));
+            TestResult testResult = result.getTestResults().get(testcase);
+            assertEquals(TestStatus.PASSED, testResult.getStatus());
+            assertEquals("first run failed.", testResult.getStackTrace());
+        } finally {
+            for (TestRunResult attempt : attempts) {
+                attempt.cleanUp();
+            }
+        }
+    }
 }
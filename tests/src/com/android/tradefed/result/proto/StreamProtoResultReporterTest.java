@@ -15,6 +15,8 @@
  */
 package com.android.tradefed.result.proto;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 import com.android.tradefed.config.ConfigurationDescriptor;
@@ -120,6 +122,19 @@ public class StreamProtoResultReporterTest {
         }
         EasyMock.verify(mMockListener);
         assertNull(receiver.getError());
+        // The events were handled by the event thread, which reported its statistics.
+        assertEquals(
+                "13",
+                mInvocationContext
+                        .getAttributes()
+                        .get(StreamProtoResultReporter.EVENT_COUNT_KEY)
+                        .get(0));
+        assertNotNull(
+                mInvocationContext.getAttributes().get(StreamProtoResultReporter.MAX_LATENCY_KEY));
+        assertNotNull(
+                mInvocationContext
+                        .getAttributes()
+                        .get(StreamProtoResultReporter.MAX_QUEUE_DEPTH_KEY));
     }
 
     @Test
@@ -187,6 +202,97 @@ public class StreamProtoResultReporterTest {
         assertNull(receiver.getError());
     }
 
+    /**
+     * Test that when the writer falls behind with a small queue, reporting waits and no event is
+     * lost.
+     */
+    @Test
+    public void testStream_smallQueue() throws Exception {
+        StreamProtoReceiver receiver =
+                new StreamProtoReceiver(mMockListener, mMainInvocationContext, false);
+        OptionSetter setter = new OptionSetter(mReporter);
+        try {
+            setter.setOptionValue(
+                    "proto-report-port", Integer.toString(receiver.getSocketServerPort()));
+            setter.setOptionValue("proto-report-queue-size", "1");
+            setter.setOptionValue("proto-report-flush-interval", "1000");
+            mMockListener.testRunStarted(
+                    EasyMock.eq("run1"), EasyMock.eq(50), EasyMock.eq(0), EasyMock.anyLong());
+            for (int i = 0; i < 50; i++) {
+                TestDescription test = new TestDescription("class1", "test" + i);
+                mMockListener.testStarted(test, i);
+                mMockListener.testEnded(test, i + 1L, new HashMap<String, Metric>());
+            }
+            mMockListener.testRunEnded(
+                    EasyMock.anyLong(), EasyMock.<HashMap<String, Metric>>anyObject());
+
+            EasyMock.replay(mMockListener);
+            mReporter.invocationStarted(mInvocationContext);
+            mReporter.testRunStarted("run1", 50);
+            for (int i = 0; i < 50; i++) {
+                TestDescription test = new TestDescription("class1", "test" + i);
+                mReporter.testStarted(test, i);
+                mReporter.testEnded(test, i + 1L, new HashMap<String, Metric>());
+            }
+            mReporter.testRunEnded(50L, new HashMap<String, Metric>());
+            mReporter.invocationEnded(500L);
+        } finally {
+            receiver.joinReceiver(5000);
+            receiver.close();
+        }
+        EasyMock.verify(mMockListener);
+        assertNull(receiver.getError());
+    }
+
+    /**
+     * Test that an event throwing an {@link Error} does not stop the event thread: the following
+     * events are still reported and reporting does not block.
+     */
+    @Test
+    public void testStream_eventError() throws Exception {
+        StreamProtoReceiver receiver =
+                new StreamProtoReceiver(mMockListener, mMainInvocationContext, false);
+        OptionSetter setter = new OptionSetter(mReporter);
+        try {
+            setter.setOptionValue(
+                    "proto-report-port", Integer.toString(receiver.getSocketServerPort()));
+            setter.setOptionValue("proto-report-queue-size", "1");
+            TestDescription test1 = new TestDescription("class1", "test1");
+            TestDescription test2 = new TestDescription("class1", "test2");
+            mMockListener.testRunStarted(
+                    EasyMock.eq("run1"), EasyMock.eq(2), EasyMock.eq(0), EasyMock.anyLong());
+            mMockListener.testStarted(test1, 5L);
+            mMockListener.testEnded(test1, 10L, new HashMap<String, Metric>());
+            mMockListener.testStarted(test2, 11L);
+            mMockListener.testEnded(test2, 12L, new HashMap<String, Metric>());
+            mMockListener.testRunEnded(
+                    EasyMock.anyLong(), EasyMock.<HashMap<String, Metric>>anyObject());
+
+            EasyMock.replay(mMockListener);
+            mReporter.invocationStarted(mInvocationContext);
+            mReporter.testRunStarted("run1", 2);
+            mReporter.testStarted(test1, 5L);
+            mReporter.logAssociation(
+                    "log1",
+                    new LogFile("path", "url", false, LogDataType.TEXT, 5) {
+                        @Override
+                        public String getPath() {
+                            throw new AssertionError("broken log file");
+                        }
+                    });
+            mReporter.testEnded(test1, 10L, new HashMap<String, Metric>());
+            mReporter.testStarted(test2, 11L);
+            mReporter.testEnded(test2, 12L, new HashMap<String, Metric>());
+            mReporter.testRunEnded(50L, new HashMap<String, Metric>());
+            mReporter.invocationEnded(500L);
+        } finally {
+            receiver.joinReceiver(5000);
+            receiver.close();
+        }
+        EasyMock.verify(mMockListener);
+        assertNull(receiver.getError());
+    }
+
     /** Helper to create a module context. */
     private IInvocationContext createModuleContext(String moduleId) {
         IInvocationContext context = new InvocationContext();
@@ -50,6 +50,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -567,6 +568,79 @@ public class XmlSuiteResultFormatterTest {
         assertEquals("armeabi-v7a module4", sortedResult.get(5).getName());
     }
 
+    /** Test that only the requested modules are loaded, using the index of the modules. */
+    @Test
+    public void testParseResults_modules() throws Exception {
+        writeIndexedResults();
+        assertTrue(new File(mResultDir, XmlSuiteResultFormatter.INDEX_FILE_NAME).exists());
+
+        SuiteResultHolder holder =
+                mFormatter.parseResults(
+                        mResultDir, new HashSet<>(Arrays.asList("armeabi-v7a module2")), false);
+        assertEquals(3, holder.totalModules);
+        assertEquals(1, holder.runResults.size());
+        TestRunResult module = holder.runResults.iterator().next();
+        assertEquals("armeabi-v7a module2", module.getName());
+        assertEquals(5, module.getNumTests());
+        assertEquals(1, module.getNumAllFailedTests());
+        assertEquals(1, holder.modulesAbi.size());
+    }
+
+    /** Test that only the failed tests are loaded, using the index of the modules. */
+    @Test
+    public void testParseResults_failedOnly() throws Exception {
+        writeIndexedResults();
+        checkFailedOnly(mFormatter.parseResults(mResultDir, null, true));
+    }
+
+    /** Test that the results are still loaded when the index is out of date. */
+    @Test
+    public void testParseResults_staleIndex() throws Exception {
+        writeIndexedResults();
+        FileUtil.writeToFile(
+                "{\"resultLength\": 1, \"modules\": []}",
+                new File(mResultDir, XmlSuiteResultFormatter.INDEX_FILE_NAME));
+        checkFailedOnly(mFormatter.parseResults(mResultDir, null, true));
+    }
+
+    private void writeIndexedResults() throws Exception {
+        mResultHolder.context = mContext;
+        Collection<TestRunResult> runResults = new ArrayList<>();
+        runResults.add(createFakeResult("armeabi-v7a module1", 2, 0, 0, 0));
+        runResults.add(createFakeResult("armeabi-v7a module2", 2, 1, 1, 1));
+        runResults.add(createFakeResult("armeabi-v7a module3", 1, 0, 0, 0));
+        mResultHolder.runResults = runResults;
+
+        Map<String, IAbi> modulesAbi = new HashMap<>();
+        modulesAbi.put("armeabi-v7a module1", new Abi("armeabi-v7a", "32"));
+        modulesAbi.put("armeabi-v7a module2", new Abi("armeabi-v7a", "32"));
+        modulesAbi.put("armeabi-v7a module3", new Abi("armeabi-v7a", "32"));
+        mResultHolder.modulesAbi = modulesAbi;
+
+        mResultHolder.completeModules = 3;
+        mResultHolder.totalModules = 3;
+        mResultHolder.passedTests = 5;
+        mResultHolder.failedTests = 1;
+        mResultHolder.startTime = 0L;
+        mResultHolder.endTime = 10L;
+        mFormatter.writeResults(mResultHolder, mResultDir);
+    }
+
+    private void checkFailedOnly(SuiteResultHolder holder) {
+        assertEquals(5, holder.passedTests);
+        assertEquals(1, holder.runResults.size());
+        TestRunResult module = holder.runResults.iterator().next();
+        assertEquals("armeabi-v7a module2", module.getName());
+        assertEquals(1, module.getNumTests());
+        assertEquals(1, module.getNumAllFailedTests());
+        assertTrue(
+                module.getTestResults()
+                        .containsKey(
+                                new TestDescription(
+                                        "com.class.armeabi-v7a module2",
+                                        "armeabi-v7a module2.failed0")));
+    }
+
     private TestRunResult createResultWithLog(String runName, int count, LogDataType type) {
         TestRunResult fakeRes = new TestRunResult();
         fakeRes.testRunStarted(runName, count);
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.sandbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.android.tradefed.config.GlobalConfiguration;
+import com.android.tradefed.util.CommandResult;
+import com.android.tradefed.util.CommandStatus;
+import com.android.tradefed.util.IRunUtil;
+import com.android.tradefed.util.RunUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Unit tests for {@link SandboxJvmPool}. */
+@RunWith(JUnit4.class)
+public class SandboxJvmPoolTest {
+
+    private List<Process> mLaunchedJvms;
+    private boolean mConnect;
+    private int mMaxUses;
+    private SandboxJvmPool mPool;
+
+    @Before
+    public void setUp() {
+        mLaunchedJvms = new ArrayList<>();
+        mConnect = true;
+        mMaxUses = 10;
+        mPool =
+                new SandboxJvmPool() {
+                    @Override
+                    Process launchJvm(String classpath, File globalConfig, int port)
+                            throws IOException {
+                        Process process = Mockito.mock(Process.class);
+                        doReturn(mConnect).when(process).isAlive();
+                        synchronized (mLaunchedJvms) {
+                            mLaunchedJvms.add(process);
+                        }
+                        if (mConnect) {
+                            startFakeJvm(port);
+                        }
+                        return process;
+                    }
+
+                    @Override
+                    int getPoolSize() {
+                        return 1;
+                    }
+
+                    @Override
+                    int getMaxUses() {
+                        return mMaxUses;
+                    }
+                };
+    }
+
+    /** Serve the dumps in a thread, failing the ones of the "fail" config. */
+    private void startFakeJvm(int port) {
+        Thread thread =
+                new Thread(
+                        () -> {
+                            SandboxJvmServer server =
+                                    new SandboxJvmServer() {
+                                        @Override
+                                        void warmUp() {
+                                            // Nothing to warm up
+                                        }
+
+                                        @Override
+                                        int dump(String[] args) {
+                                            System.err.print("dumped " + args[2]);
+                                            return "fail".equals(args[2]) ? 1 : 0;
+                                        }
+                                    };
+                            try (Socket socket =
+                                    new Socket(InetAddress.getLoopbackAddress(), port)) {
+                                server.serve(socket.getInputStream(), socket.getOutputStream());
+                            } catch (Exception e) {
+                                // The pool closed the connection.
+                            }
+                        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private CommandResult dump(String config) {
+        return dump(config, new RunUtil());
+    }
+
+    private CommandResult dump(String config, IRunUtil runUtil) {
+        return mPool.dumpConfig(
+                "classpath",
+                null,
+                runUtil,
+                Arrays.asList("RUN_CONFIG", "destination", config),
+                10000L);
+    }
+
+    /** Test that the successive dumps of a classpath use the same JVM. */
+    @Test
+    public void testDumpConfig_reuse() {
+        CommandResult result = dump("config1");
+        assertEquals(CommandStatus.SUCCESS, result.getStatus());
+        assertEquals("dumped config1", result.getStderr());
+        result = dump("config2");
+        assertEquals(CommandStatus.SUCCESS, result.getStatus());
+        assertEquals("dumped config2", result.getStderr());
+        assertEquals(1, mLaunchedJvms.size());
+        verify(mLaunchedJvms.get(0), never()).destroy();
+        assertTrue(mPool.getSavedStartupTime() >= 0L);
+    }
+
+    /** Test that a JVM is replaced once it was used enough, by one started in the background. */
+    @Test
+    public void testDumpConfig_maxUses() throws Exception {
+        mMaxUses = 1;
+        assertEquals(CommandStatus.SUCCESS, dump("config1").getStatus());
+        verify(mLaunchedJvms.get(0)).destroy();
+        waitForLaunchedJvms(2);
+    }
+
+    /** Test that a JVM is replaced after a failed dump. */
+    @Test
+    public void testDumpConfig_failure() throws Exception {
+        CommandResult result = dump("fail");
+        assertEquals(CommandStatus.FAILED, result.getStatus());
+        assertEquals(1, (int) result.getExitCode());
+        assertEquals("dumped fail", result.getStderr());
+        verify(mLaunchedJvms.get(0)).destroy();
+        waitForLaunchedJvms(2);
+    }
+
+    /** Test that the dump falls back to a new process when no JVM can be started. */
+    @Test
+    public void testDumpConfig_startFailure() {
+        mConnect = false;
+        assertNull(dump("config1"));
+        verify(mLaunchedJvms.get(0)).destroy();
+    }
+
+    /** Test that a classpath whose JVM exits before connecting is not tried again. */
+    @Test
+    public void testDumpConfig_startFailureRemembered() {
+        mConnect = false;
+        assertNull(dump("config1"));
+        assertNull(dump("config2"));
+        assertEquals(1, mLaunchedJvms.size());
+    }
+
+    /** Test that the dumps needing a specific environment are not run in the shared JVMs. */
+    @Test
+    public void testDumpConfig_env() {
+        IRunUtil runUtil = new RunUtil();
+        runUtil.unsetEnvVariable(GlobalConfiguration.GLOBAL_CONFIG_VARIABLE);
+        assertEquals(CommandStatus.SUCCESS, dump("config1", runUtil).getStatus());
+        runUtil.setEnvVariable("FOO", "bar");
+        assertNull(dump("config2", runUtil));
+        assertEquals(1, mLaunchedJvms.size());
+    }
+
+    private void waitForLaunchedJvms(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (mLaunchedJvms) {
+                if (mLaunchedJvms.size() >= count) {
+                    return;
+                }
+            }
+            Thread.sleep(50L);
+        }
+        assertEquals(count, mLaunchedJvms.size());
+    }
+}
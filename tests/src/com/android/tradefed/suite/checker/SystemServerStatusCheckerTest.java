@@ -28,6 +28,9 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 /** Unit tests for {@link SystemServerStatusChecker} */
 @RunWith(JUnit4.class)
 public class SystemServerStatusCheckerTest {
@@ -59,6 +62,20 @@ public class SystemServerStatusCheckerTest {
         EasyMock.verify(mMockDevice);
     }
 
+    /** Test that the checks use the output of the batched commands instead of running them. */
+    @Test
+    public void testBatchedCommands() throws Exception {
+        // The command is only run when its batched output was already used.
+        EasyMock.expect(mMockDevice.executeShellCommand(EasyMock.eq("pidof system_server")))
+                .andReturn("914\n");
+        EasyMock.replay(mMockDevice);
+        assertEquals(Arrays.asList("pidof system_server"), mChecker.getPreExecutionCommands());
+        mChecker.setCommandOutputs(Collections.singletonMap("pidof system_server", "914\n"));
+        assertEquals(CheckStatus.SUCCESS, mChecker.preExecutionCheck(mMockDevice).getStatus());
+        assertEquals(CheckStatus.SUCCESS, mChecker.postExecutionCheck(mMockDevice).getStatus());
+        EasyMock.verify(mMockDevice);
+    }
+
     /** Test that system checker fail if the pid of system checker does change. */
     @Test
     public void testPidChanged() throws Exception {
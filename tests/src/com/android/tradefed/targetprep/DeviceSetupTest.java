@@ -35,7 +35,12 @@ import org.easymock.Capture;
 import org.easymock.EasyMock;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Unit tests for {@link DeviceSetup}.
@@ -47,6 +52,11 @@ public class DeviceSetupTest extends TestCase {
     private IDevice mMockIDevice;
     private IDeviceBuildInfo mMockBuildInfo;
     private File mTmpDir;
+    /** The commands expected to run in batches, and the ones that ran. */
+    private List<String> mExpectedCommands;
+    private List<String> mBatchedCommands;
+    /** The output of the batched commands, empty by default. */
+    private Map<String, String> mCommandOutputs;
 
     private static final int DEFAULT_API_LEVEL = 23;
 
@@ -61,6 +71,22 @@ public class DeviceSetupTest extends TestCase {
         EasyMock.expect(mMockDevice.getSerialNumber()).andReturn("foo").anyTimes();
         EasyMock.expect(mMockDevice.getDeviceDescriptor()).andStubReturn(null);
         EasyMock.expect(mMockDevice.getIDevice()).andStubReturn(mMockIDevice);
+        mExpectedCommands = new ArrayList<>();
+        mBatchedCommands = new ArrayList<>();
+        mCommandOutputs = new HashMap<>();
+        EasyMock.expect(mMockDevice.executeShellCommands(EasyMock.anyObject()))
+                .andStubAnswer(
+                        () -> {
+                            @SuppressWarnings("unchecked")
+                            List<String> commands =
+                                    (List<String>) EasyMock.getCurrentArguments()[0];
+                            List<String> outputs = new ArrayList<>();
+                            for (String command : commands) {
+                                mBatchedCommands.add(command);
+                                outputs.add(mCommandOutputs.getOrDefault(command, ""));
+                            }
+                            return outputs;
+                        });
         mMockBuildInfo = new DeviceBuildInfo("0", "");
         mDeviceSetup = new DeviceSetup();
         mTmpDir = FileUtil.createTempDir("tmp");
@@ -86,7 +112,7 @@ public class DeviceSetupTest extends TestCase {
 
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
 
         String setProp = setPropCapture.getValue();
         assertTrue("Set prop doesn't contain ro.telephony.disable-call=true",
@@ -110,7 +136,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setAirplaneMode(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_airplane_mode_off() throws Exception {
@@ -124,7 +150,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setAirplaneMode(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_data_on() throws Exception {
@@ -137,7 +163,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setData(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_data_off() throws Exception {
@@ -150,7 +176,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setData(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_cell_on() throws Exception {
@@ -162,7 +188,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setCell(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_cell_off() throws Exception {
@@ -174,7 +200,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setCell(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_cell_auto_setting_on() throws Exception {
@@ -186,7 +212,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setCellAutoSetting(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_cell_auto_setting_off() throws Exception {
@@ -198,7 +224,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setCellAutoSetting(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_wifi_on() throws Exception {
@@ -211,7 +237,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setWifi(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_wifi_off() throws Exception {
@@ -224,7 +250,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setWifi(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_wifi_network_name() throws Exception {
@@ -241,7 +267,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setWifi(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_wifi_multiple_network_names() throws Exception {
@@ -264,7 +290,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setWifi(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_wifi_multiple_network_names_unsecured() throws Exception {
@@ -287,7 +313,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setWifi(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_wifi_watchdog_on() throws Exception {
@@ -299,7 +325,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setWifiWatchdog(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_wifi_watchdog_off() throws Exception {
@@ -311,7 +337,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setWifiWatchdog(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_disable_cw_wifi_mediator_on() throws Exception {
@@ -323,7 +349,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setDisableCwWifiMediator(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_disable_cw_wifi_mediator_off() throws Exception {
@@ -335,7 +361,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setDisableCwWifiMediator(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_wifi_scan_on() throws Exception {
@@ -347,7 +373,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setWifiScanAlwaysEnabled(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_wifi_scan_off() throws Exception {
@@ -359,7 +385,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setWifiScanAlwaysEnabled(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_ethernet_on() throws Exception {
@@ -371,7 +397,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setEthernet(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_ethernet_off() throws Exception {
@@ -383,7 +409,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setEthernet(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_bluetooth_on() throws Exception {
@@ -395,7 +421,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setBluetooth(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_bluetooth_off() throws Exception {
@@ -407,7 +433,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setBluetooth(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_nfc_on() throws Exception {
@@ -419,7 +445,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setNfc(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_nfc_off() throws Exception {
@@ -431,7 +457,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setNfc(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_screen_adaptive_on() throws Exception {
@@ -443,7 +469,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setScreenAdaptiveBrightness(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_screen_adaptive_off() throws Exception {
@@ -455,7 +481,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setScreenAdaptiveBrightness(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_screen_brightness() throws Exception {
@@ -467,7 +493,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setScreenBrightness(50);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_screen_stayon_default() throws Exception {
@@ -478,7 +504,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setScreenAlwaysOn(BinaryState.IGNORE);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_screen_stayon_off() throws Exception {
@@ -490,7 +516,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setScreenAlwaysOn(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_screen_timeout() throws Exception {
@@ -503,7 +529,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setScreenTimeoutSecs(5l);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_screen_ambient_on() throws Exception {
@@ -515,7 +541,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setScreenAmbientMode(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_screen_ambient_off() throws Exception {
@@ -527,7 +553,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setScreenAmbientMode(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_wake_gesture_on() throws Exception {
@@ -539,7 +565,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setWakeGesture(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_wake_gesture_off() throws Exception {
@@ -551,7 +577,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setWakeGesture(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_screen_saver_on() throws Exception {
@@ -563,7 +589,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setScreenSaver(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_screen_saver_off() throws Exception {
@@ -575,7 +601,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setScreenSaver(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_notification_led_on() throws Exception {
@@ -587,7 +613,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setNotificationLed(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_notification_led_off() throws Exception {
@@ -599,7 +625,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setNotificationLed(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testInstallNonMarketApps_on() throws Exception {
@@ -611,7 +637,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setInstallNonMarketApps(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testInstallNonMarketApps_off() throws Exception {
@@ -623,7 +649,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setInstallNonMarketApps(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_trigger_media_mounted() throws Exception {
@@ -637,7 +663,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setTriggerMediaMounted(true);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_location_gps_on() throws Exception {
@@ -649,7 +675,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setLocationGps(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_location_gps_off() throws Exception {
@@ -661,7 +687,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setLocationGps(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_location_network_on() throws Exception {
@@ -673,7 +699,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setLocationNetwork(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_location_network_off() throws Exception {
@@ -685,7 +711,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setLocationNetwork(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_rotate_on() throws Exception {
@@ -697,7 +723,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setAutoRotate(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_rotate_off() throws Exception {
@@ -709,7 +735,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setAutoRotate(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_battery_saver_on() throws Exception {
@@ -722,7 +748,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setBatterySaver(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_legacy_battery_saver_on() throws Exception {
@@ -735,7 +761,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setBatterySaver(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_battery_saver_off() throws Exception {
@@ -747,7 +773,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setBatterySaver(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_battery_saver_trigger() throws Exception {
@@ -759,7 +785,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setBatterySaverTrigger(50);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_enable_full_battery_stats_history() throws Exception {
@@ -771,7 +797,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setEnableFullBatteryStatsHistory(true);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_disable_doze() throws Exception {
@@ -783,7 +809,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setDisableDoze(true);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_update_time_on() throws Exception {
@@ -795,7 +821,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setAutoUpdateTime(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_update_time_off() throws Exception {
@@ -807,7 +833,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setAutoUpdateTime(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_update_timezone_on() throws Exception {
@@ -819,7 +845,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setAutoUpdateTimezone(BinaryState.ON);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_update_timezone_off() throws Exception {
@@ -831,7 +857,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setAutoUpdateTimezone(BinaryState.OFF);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_set_timezone_LA() throws Exception {
@@ -844,7 +870,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setTimezone("America/Los_Angeles");
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_no_disable_dialing() throws Exception {
@@ -856,7 +882,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setDisableDialing(false);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
 
         assertFalse("Set prop contains ro.telephony.disable-call=true",
                 setPropCapture.getValue().contains("ro.telephony.disable-call=true\n"));
@@ -871,7 +897,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setDefaultSimData(1);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_sim_voice() throws Exception {
@@ -883,7 +909,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setDefaultSimVoice(1);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_sim_sms() throws Exception {
@@ -895,7 +921,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setDefaultSimSms(1);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_no_disable_audio() throws Exception {
@@ -907,7 +933,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setDisableAudio(false);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
 
         assertFalse("Set prop contains ro.audio.silent=1",
                 setPropCapture.getValue().contains("ro.audio.silent=1\n"));
@@ -922,7 +948,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setTestHarness(false);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
 
         String setProp = setPropCapture.getValue();
         assertFalse("Set prop contains ro.test_harness=1",
@@ -940,7 +966,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setDisableDalvikVerifier(true);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
 
         String setProp = setPropCapture.getValue();
         assertTrue("Set prop doesn't contain dalvik.vm.dexopt-flags=v=n",
@@ -1021,7 +1047,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setDeprecatedSetProp("key=value");
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
 
         String setProp = setPropCapture.getValue();
         assertTrue("Set prop doesn't contain ro.telephony.disable-call=true",
@@ -1095,7 +1121,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
         mDeviceSetup.tearDown(mMockDevice, mMockBuildInfo, null);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void test_restore_properties_previous_doesnt_exists() throws Exception {
@@ -1113,28 +1139,27 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
         mDeviceSetup.tearDown(mMockDevice, mMockBuildInfo, null);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void test_restore_settings() throws Exception {
         doSetupExpectations();
         doCheckExternalStoreSpaceExpectations();
         EasyMock.expect(mMockDevice.getApiLevel()).andStubReturn(23);
-        EasyMock.expect(mMockDevice.getSetting("system", "key")).andReturn("orig").once();
-        mMockDevice.setSetting("system", "key", "value");
-        EasyMock.expectLastCall().once();
-        EasyMock.expect(mMockDevice.getSetting("global", "key2")).andReturn("orig2").once();
-        mMockDevice.setSetting("global", "key2", "value2");
-        EasyMock.expectLastCall().once();
-        EasyMock.expect(mMockDevice.getSetting("secure", "key3")).andReturn("orig3").once();
-        mMockDevice.setSetting("secure", "key3", "value3");
-        EasyMock.expectLastCall().once();
-        mMockDevice.setSetting("system", "key", "orig");
-        EasyMock.expectLastCall().once();
-        mMockDevice.setSetting("global", "key2", "orig2");
-        EasyMock.expectLastCall().once();
-        mMockDevice.setSetting("secure", "key3", "orig3");
-        EasyMock.expectLastCall().once();
+        mCommandOutputs.put("settings get system key", "orig\n");
+        mCommandOutputs.put("settings get global key2", "orig2\n");
+        // The setting did not exist before
+        mCommandOutputs.put("settings get secure key3", "null\n");
+        doCommandsExpectations(
+                "settings get system key",
+                "settings get secure key3",
+                "settings get global key2",
+                "settings put system key value",
+                "settings put secure key3 value3",
+                "settings put global key2 value2",
+                "settings put system key orig",
+                "settings put global key2 orig2",
+                "settings delete secure key3");
 
         EasyMock.replay(mMockDevice);
 
@@ -1145,13 +1170,13 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
         mDeviceSetup.tearDown(mMockDevice, mMockBuildInfo, null);
 
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testTearDown() throws Exception {
         EasyMock.replay(mMockDevice);
         mDeviceSetup.tearDown(mMockDevice, mMockBuildInfo, null);
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testTearDown_disconnectFromWifi() throws Exception {
@@ -1160,7 +1185,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setWifiNetwork("wifi_network");
         EasyMock.replay(mMockDevice);
         mDeviceSetup.tearDown(mMockDevice, mMockBuildInfo, null);
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     /** Test that tearDown is inop when using a stub device instance. */
@@ -1168,7 +1193,7 @@ public class DeviceSetupTest extends TestCase {
         EasyMock.expect(mMockDevice.getIDevice()).andReturn(new TcpDevice("tcp-device-0"));
         EasyMock.replay(mMockDevice);
         mDeviceSetup.tearDown(mMockDevice, mMockBuildInfo, null);
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_rootDisabled_withoutChangeSystemProp() throws Exception {
@@ -1184,7 +1209,7 @@ public class DeviceSetupTest extends TestCase {
         mDeviceSetup.setDisableAudio(false);
         mDeviceSetup.setTestHarness(false);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_rootDisabled_withSkipChangeSystemProp() throws Exception {
@@ -1198,7 +1223,7 @@ public class DeviceSetupTest extends TestCase {
         EasyMock.replay(mMockDevice);
         mDeviceSetup.setForceSkipSystemProps(true);
         mDeviceSetup.setUp(mMockDevice, mMockBuildInfo);
-        EasyMock.verify(mMockDevice);
+        verifyDevice();
     }
 
     public void testSetup_rootDisabled_withChangeSystemProp() throws Exception {
@@ -1283,9 +1308,8 @@ public class DeviceSetupTest extends TestCase {
             mMockDevice.reboot();
         }
         if (screenOn) {
-            EasyMock.expect(mMockDevice.executeShellCommand("svc power stayon true")).andReturn("");
-            EasyMock.expect(mMockDevice.executeShellCommand("input keyevent 82")).andReturn("");
-            EasyMock.expect(mMockDevice.executeShellCommand("input keyevent 3")).andReturn("");
+            doCommandsExpectations(
+                    "svc power stayon true", "input keyevent 82", "input keyevent 3");
         }
     }
 
@@ -1305,17 +1329,21 @@ public class DeviceSetupTest extends TestCase {
         EasyMock.expect(mMockDevice.getExternalStoreFreeSpace()).andReturn(1000l);
     }
 
-    private void doCommandsExpectations(String... commands)
-            throws DeviceNotAvailableException {
-        for (String command : commands) {
-            EasyMock.expect(mMockDevice.executeShellCommand(command)).andReturn("");
-        }
+    private void doCommandsExpectations(String... commands) {
+        Collections.addAll(mExpectedCommands, commands);
     }
 
     private void doSettingExpectations(String namespace, String key, String value)
             throws DeviceNotAvailableException {
         EasyMock.expect(mMockDevice.getApiLevel()).andReturn(22);
-        mMockDevice.setSetting(namespace, key, value);
-        EasyMock.expectLastCall();
+        mExpectedCommands.add(String.format("settings put %s %s %s", namespace, key, value));
+    }
+
+    /** Verify the device mock and the commands run in batches. */
+    private void verifyDevice() {
+        EasyMock.verify(mMockDevice);
+        Collections.sort(mExpectedCommands);
+        Collections.sort(mBatchedCommands);
+        assertEquals(mExpectedCommands, mBatchedCommands);
     }
 }
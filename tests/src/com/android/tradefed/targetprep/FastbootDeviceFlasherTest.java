@@ -30,7 +30,9 @@ import com.android.tradefed.util.CommandResult;
 import com.android.tradefed.util.CommandStatus;
 import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.IRunUtil;
+import com.android.tradefed.util.ZipUtil;
 
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +45,7 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Map;
 
 /** Unit tests for {@link FastbootDeviceFlasher}. */
 @RunWith(JUnit4.class)
@@ -623,6 +626,85 @@ public class FastbootDeviceFlasherTest {
         }
     }
 
+    /**
+     * Test {@link FastbootDeviceFlasher#checkAndFlashSystem(ITestDevice, String, String,
+     * IDeviceBuildInfo)} when the device image is staged: it is flashed with fastboot flashall
+     * from the staged directory.
+     */
+    @Test
+    public void testCheckAndFlashSystem_stagedImage() throws Exception {
+        mFlasher.setStageDeviceImage(true);
+        final String buildId = "systemBuildId";
+        IDeviceBuildInfo mockBuild = EasyMock.createMock(IDeviceBuildInfo.class);
+        EasyMock.expect(mockBuild.getDeviceBuildId()).andStubReturn(buildId);
+        File imageDir = FileUtil.createTempDir("fakeDeviceImage");
+        File deviceImage = null;
+        try {
+            File bootImage = new File(imageDir, "boot.img");
+            FileUtil.writeToFile("boot", bootImage);
+            File systemImage = new File(imageDir, "system.img");
+            FileUtil.writeToFile("system", systemImage);
+            deviceImage = ZipUtil.createZip(Arrays.asList(bootImage, systemImage));
+            EasyMock.expect(mockBuild.getDeviceImageFile()).andStubReturn(deviceImage);
+            CommandResult res = new CommandResult(CommandStatus.SUCCESS);
+            res.setStderr("flashing");
+            Capture<Map<String, String>> envCapture = new Capture<>();
+            EasyMock.expect(
+                            mMockDevice.executeLongFastbootCommand(
+                                    EasyMock.capture(envCapture), EasyMock.eq("flashall")))
+                    .andReturn(res);
+            EasyMock.replay(mMockDevice, mockBuild);
+            assertTrue(mFlasher.checkAndFlashSystem(mMockDevice, buildId, null, mockBuild));
+            EasyMock.verify(mMockDevice, mockBuild);
+            assertEquals(
+                    "system flashing status should be \"SUCCESS\"",
+                    CommandStatus.SUCCESS,
+                    mFlasher.getSystemFlashingStatus());
+            File productOut = new File(envCapture.getValue().get("ANDROID_PRODUCT_OUT"));
+            assertTrue(new File(productOut, "system.img").isFile());
+            assertTrue(new File(productOut, "boot.img").isFile());
+        } finally {
+            FileUtil.recursiveDelete(imageDir);
+            FileUtil.deleteFile(deviceImage);
+        }
+    }
+
+    /**
+     * Test {@link FastbootDeviceFlasher#checkAndFlashSystem(ITestDevice, String, String,
+     * IDeviceBuildInfo)} when the device image is staged: the flash options are passed to fastboot
+     * flashall like to fastboot update.
+     */
+    @Test
+    public void testCheckAndFlashSystem_stagedImageFlashOptions() throws Exception {
+        mFlasher.setStageDeviceImage(true);
+        mFlasher.setFlashOptions(Arrays.asList("--skip-reboot"));
+        final String buildId = "systemBuildId";
+        IDeviceBuildInfo mockBuild = EasyMock.createMock(IDeviceBuildInfo.class);
+        EasyMock.expect(mockBuild.getDeviceBuildId()).andStubReturn(buildId);
+        File imageDir = FileUtil.createTempDir("fakeDeviceImage");
+        File deviceImage = null;
+        try {
+            File superImage = new File(imageDir, "super_empty.img");
+            FileUtil.writeToFile("super", superImage);
+            deviceImage = ZipUtil.createZip(Arrays.asList(superImage));
+            EasyMock.expect(mockBuild.getDeviceImageFile()).andStubReturn(deviceImage);
+            CommandResult res = new CommandResult(CommandStatus.SUCCESS);
+            res.setStderr("flashing");
+            EasyMock.expect(
+                            mMockDevice.executeLongFastbootCommand(
+                                    EasyMock.<Map<String, String>>anyObject(),
+                                    EasyMock.eq("--skip-reboot"),
+                                    EasyMock.eq("flashall")))
+                    .andReturn(res);
+            EasyMock.replay(mMockDevice, mockBuild);
+            assertTrue(mFlasher.checkAndFlashSystem(mMockDevice, buildId, null, mockBuild));
+            EasyMock.verify(mMockDevice, mockBuild);
+        } finally {
+            FileUtil.recursiveDelete(imageDir);
+            FileUtil.deleteFile(deviceImage);
+        }
+    }
+
     /**
      * Test {@link FastbootDeviceFlasher#checkAndFlashSystem(ITestDevice, String, String,
      * IDeviceBuildInfo)} when it needs to be flashed but throws an exception.
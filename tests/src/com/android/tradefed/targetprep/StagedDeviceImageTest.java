@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.targetprep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.ZipUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Unit tests for {@link StagedDeviceImage}. */
+@RunWith(JUnit4.class)
+public class StagedDeviceImageTest {
+
+    private File mImagesDir;
+    private List<File> mZips = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mImagesDir = FileUtil.createTempDir("staged-device-image-test");
+    }
+
+    @After
+    public void tearDown() {
+        for (File zip : mZips) {
+            FileUtil.deleteFile(zip);
+        }
+        FileUtil.recursiveDelete(mImagesDir);
+        StagedDeviceImage.deleteAll();
+    }
+
+    /** Test that the devices flashed with the same image share its extracted files. */
+    @Test
+    public void testAcquire_shared() throws Exception {
+        File zip = createImageZip("system");
+        StagedDeviceImage image = StagedDeviceImage.acquire("1234", zip);
+        StagedDeviceImage image2 = StagedDeviceImage.acquire("1234", zip);
+        try {
+            assertEquals(image.getDir(), image2.getDir());
+            assertEquals("system", FileUtil.readStringFromFile(image.getImage("system.img")));
+            assertEquals("boot", FileUtil.readStringFromFile(image.getImage("boot.img")));
+            assertNull(image.getImage("vendor.img"));
+        } finally {
+            image.release();
+            image2.release();
+        }
+        // The image is kept for the next devices.
+        assertTrue(image.getDir().isDirectory());
+    }
+
+    /** Test that images with the same build id but a different content are staged separately. */
+    @Test
+    public void testAcquire_differentContent() throws Exception {
+        StagedDeviceImage image = StagedDeviceImage.acquire("1234", createImageZip("system1"));
+        StagedDeviceImage image2 = StagedDeviceImage.acquire("1234", createImageZip("system2"));
+        try {
+            assertNotEquals(image.getDir(), image2.getDir());
+            assertEquals("system2", FileUtil.readStringFromFile(image2.getImage("system.img")));
+        } finally {
+            image.release();
+            image2.release();
+        }
+    }
+
+    /** Test that only a few of the images no device uses are kept. */
+    @Test
+    public void testRelease_deleteIdleImages() throws Exception {
+        List<StagedDeviceImage> images = new ArrayList<>();
+        for (int i = 0; i < StagedDeviceImage.MAX_IDLE_IMAGES + 2; i++) {
+            images.add(StagedDeviceImage.acquire("build" + i, createImageZip("system" + i)));
+        }
+        List<File> dirs = new ArrayList<>();
+        for (StagedDeviceImage image : images) {
+            dirs.add(image.getDir());
+            image.release();
+        }
+        assertEquals(StagedDeviceImage.MAX_IDLE_IMAGES, StagedDeviceImage.getStagedImageCount());
+        assertFalse(dirs.get(0).exists());
+        assertFalse(dirs.get(1).exists());
+        assertTrue(dirs.get(dirs.size() - 1).exists());
+    }
+
+    /** Test that all the staged images are deleted, including the ones in use. */
+    @Test
+    public void testDeleteAll() throws Exception {
+        StagedDeviceImage image = StagedDeviceImage.acquire("1234", createImageZip("system1"));
+        StagedDeviceImage image2 = StagedDeviceImage.acquire("5678", createImageZip("system2"));
+        image2.release();
+        File dir = image.getDir();
+        File dir2 = image2.getDir();
+        StagedDeviceImage.deleteAll();
+        assertEquals(0, StagedDeviceImage.getStagedImageCount());
+        assertFalse(dir.exists());
+        assertFalse(dir2.exists());
+    }
+
+    private File createImageZip(String systemContent) throws IOException {
+        File dir = FileUtil.createTempDir("image", mImagesDir);
+        File system = new File(dir, "system.img");
+        FileUtil.writeToFile(systemContent, system);
+        File boot = new File(dir, "boot.img");
+        FileUtil.writeToFile("boot", boot);
+        List<File> files = new ArrayList<>();
+        files.add(system);
+        files.add(boot);
+        File zip = ZipUtil.createZip(files);
+        mZips.add(zip);
+        return zip;
+    }
+}
@@ -38,6 +38,7 @@ import org.junit.runners.JUnit4;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** Unit tests for {@link TestAppInstallSetup} */
 @RunWith(JUnit4.class)
@@ -119,6 +120,50 @@ public class TestAppInstallSetupTest {
         EasyMock.verify(mMockBuildInfo, mMockTestDevice);
     }
 
+    /**
+     * Test that the apks resolved and parsed by {@link TestAppInstallSetup#prepareOnHost} are not
+     * resolved again during the setup.
+     */
+    @Test
+    public void testSetup_preparedOnHost() throws Exception {
+        AtomicInteger resolveCount = new AtomicInteger(0);
+        AtomicInteger parseCount = new AtomicInteger(0);
+        mPrep =
+                new TestAppInstallSetup() {
+                    @Override
+                    protected String parsePackageName(
+                            File testAppFile, DeviceDescriptor deviceDescriptor) {
+                        parseCount.incrementAndGet();
+                        return PACKAGE_NAME;
+                    }
+
+                    @Override
+                    protected File getLocalPathForFilename(
+                            IBuildInfo buildInfo, String apkFileName, ITestDevice device)
+                            throws TargetSetupError {
+                        resolveCount.incrementAndGet();
+                        return fakeApk;
+                    }
+                };
+        mSetter = new OptionSetter(mPrep);
+        mSetter.setOptionValue("test-file-name", APK_NAME);
+        mSetter.setOptionValue("split-apk-file-names", String.format("%s,%s", APK_NAME, APK_NAME));
+        EasyMock.expect(mMockTestDevice.installPackage(EasyMock.eq(fakeApk), EasyMock.eq(true)))
+                .andReturn(null);
+        EasyMock.expect(
+                        mMockTestDevice.installPackages(
+                                EasyMock.eq(mTestSplitApkFiles), EasyMock.eq(true)))
+                .andReturn(null);
+        EasyMock.replay(mMockBuildInfo, mMockTestDevice);
+        mPrep.prepareOnHost(mMockBuildInfo);
+        assertEquals(1, resolveCount.get());
+        assertEquals(1, parseCount.get());
+        mPrep.setUp(mMockTestDevice, mMockBuildInfo);
+        assertEquals(1, resolveCount.get());
+        assertEquals(1, parseCount.get());
+        EasyMock.verify(mMockBuildInfo, mMockTestDevice);
+    }
+
     @Test
     public void testSetupAndTeardown_install_package_only() throws Exception {
         mPrep =
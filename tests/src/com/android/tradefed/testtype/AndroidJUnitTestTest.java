@@ -17,6 +17,7 @@ package com.android.tradefed.testtype;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -36,6 +37,7 @@ import com.android.tradefed.guice.InvocationScopeModule;
 import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
 import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.ITestLifeCycleReceiver;
+import com.android.tradefed.result.ddmlib.DefaultRemoteAndroidTestRunner;
 import com.android.tradefed.util.FileUtil;
 
 import com.google.inject.Guice;
@@ -537,4 +539,42 @@ public class AndroidJUnitTestTest {
         mAndroidJUnitTest.setRunnerArgs(mMockRemoteRunner);
         EasyMock.verify(mMockRemoteRunner, mMockTestDevice);
     }
+
+    /** Test that the runs with different include filters do not share their cached tests. */
+    @Test
+    public void testGetTestListCacheKey_includeFilters() throws Exception {
+        File cacheDir = FileUtil.createTempDir("test-list-cache");
+        File apk = FileUtil.createTempFile("test", ".apk");
+        try {
+            FileUtil.writeToFile("apk", apk);
+            EasyMock.expect(mMockTestDevice.getApiLevel()).andStubReturn(29);
+            EasyMock.replay(mMockTestDevice);
+            String key1 = getTestListCacheKey(cacheDir, apk, TEST1.toString());
+            String key2 = getTestListCacheKey(cacheDir, apk, TEST2.toString());
+            assertNotNull(key1);
+            assertNotNull(key2);
+            assertNotEquals(key1, key2);
+            assertEquals(key1, getTestListCacheKey(cacheDir, apk, TEST1.toString()));
+        } finally {
+            FileUtil.deleteFile(apk);
+            FileUtil.recursiveDelete(cacheDir);
+        }
+    }
+
+    private String getTestListCacheKey(File cacheDir, File apk, String includeFilter)
+            throws Exception {
+        AndroidJUnitTest test = new AndroidJUnitTest();
+        test.setRunnerName(AJUR);
+        test.setPackageName(TEST_PACKAGE_VALUE);
+        test.setDevice(mMockTestDevice);
+        test.setInstallFile(apk);
+        test.setRerunMode(true);
+        test.addIncludeFilter(includeFilter);
+        OptionSetter setter = new OptionSetter(test);
+        setter.setOptionValue("test-list-cache-dir", cacheDir.getAbsolutePath());
+        IRemoteAndroidTestRunner runner =
+                new DefaultRemoteAndroidTestRunner(TEST_PACKAGE_VALUE, AJUR, mMockIDevice);
+        test.setRunnerArgs(runner);
+        return test.getTestListCacheKey(runner);
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.testtype;
+
+import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
+import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.result.TestDescription;
+import com.android.tradefed.util.StreamUtil;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+
+/**
+ * Longer running stress java app that measures the throughput of {@link GTestResultParser} on a
+ * recorded gtest output replayed until it reaches more than 100k tests.
+ *
+ * <p>Intended to be executed under a profiler.
+ */
+public class GTestResultParserStressApp extends TestCase {
+
+    private static final String GTEST_OUTPUT = "/testtype/gtest_output4.txt";
+    // gtest_output4.txt has 268 tests.
+    private static final int REPLAYS = 400;
+    // Size of the chunks of output received from the device.
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    /** Measure parsing the output as received from the device, one chunk at a time. */
+    public void testParse() throws Exception {
+        byte[] output;
+        try (InputStream stream = getClass().getResourceAsStream(GTEST_OUTPUT)) {
+            byte[] recorded = StreamUtil.getStringFromStream(stream).getBytes();
+            ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+            for (int i = 0; i < REPLAYS; i++) {
+                replayed.write(recorded);
+            }
+            output = replayed.toByteArray();
+        }
+        int[] testCount = new int[1];
+        ITestInvocationListener listener =
+                new ITestInvocationListener() {
+                    @Override
+                    public void testEnded(TestDescription test, HashMap<String, Metric> metrics) {
+                        testCount[0]++;
+                    }
+                };
+        GTestResultParser parser = new GTestResultParser("stress", listener);
+        long startTime = System.nanoTime();
+        for (int offset = 0; offset < output.length; offset += CHUNK_SIZE) {
+            parser.addOutput(output, offset, Math.min(CHUNK_SIZE, output.length - offset));
+        }
+        parser.flush();
+        long elapsed = System.nanoTime() - startTime;
+        assertEquals(268 * REPLAYS, testCount[0]);
+        System.out.printf(
+                "Parsed %d tests (%d KB) in %d ms, %d KB/s\n",
+                testCount[0],
+                output.length / 1024,
+                elapsed / 1000000,
+                output.length * 1000000L / Math.max(1L, elapsed));
+    }
+
+    public static void main(String[] args) {
+        try {
+            long startTime = System.currentTimeMillis();
+            GTestResultParserStressApp stressApp = new GTestResultParserStressApp();
+            stressApp.testParse();
+            System.out.printf("Stress app ran for %s ms", System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -24,6 +24,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 
 /** Unit tests for {@link GTestResultParser}. */
@@ -387,4 +388,44 @@ public class GTestResultParserTest extends GTestParserTestBase {
         resultParser.flush();
         EasyMock.verify(mockRunListener);
     }
+
+    /**
+     * Tests the parser for a run with test failures received in chunks of bytes that split the
+     * lines and the line separators.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAddOutput_chunks() throws Exception {
+        String MESSAGE_OUTPUT =
+                "This is some random text that should get captured by the parser.";
+        byte[] output =
+                String.join("\r\n", readInFile(GTEST_OUTPUT_FILE_5))
+                        .getBytes(StandardCharsets.UTF_8);
+        ITestInvocationListener mockRunListener =
+                EasyMock.createMock(ITestInvocationListener.class);
+        mockRunListener.testRunStarted(TEST_MODULE_NAME, 13);
+        // 13 tests run, with the second, seventh and eighth tests failing
+        for (int i = 0; i < 13; ++i) {
+            mockRunListener.testStarted((TestDescription) EasyMock.anyObject());
+            if (i == 1 || i == 6) {
+                mockRunListener.testFailed(
+                        (TestDescription) EasyMock.anyObject(), (String) EasyMock.anyObject());
+            } else if (i == 7) {
+                mockRunListener.testFailed(
+                        (TestDescription) EasyMock.anyObject(), EasyMock.matches(MESSAGE_OUTPUT));
+            }
+            mockRunListener.testEnded(
+                    (TestDescription) EasyMock.anyObject(),
+                    (HashMap<String, Metric>) EasyMock.anyObject());
+        }
+        mockRunListener.testRunEnded(
+                EasyMock.anyLong(), (HashMap<String, Metric>) EasyMock.anyObject());
+        EasyMock.replay(mockRunListener);
+        GTestResultParser resultParser = new GTestResultParser(TEST_MODULE_NAME, mockRunListener);
+        for (int offset = 0; offset < output.length; offset += 7) {
+            resultParser.addOutput(output, offset, Math.min(7, output.length - offset));
+        }
+        resultParser.flush();
+        EasyMock.verify(mockRunListener);
+    }
 }
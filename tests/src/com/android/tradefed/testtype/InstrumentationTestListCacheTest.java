@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.testtype;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import com.android.tradefed.result.TestDescription;
+import com.android.tradefed.util.FileUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Unit tests for {@link InstrumentationTestListCache}. */
+@RunWith(JUnit4.class)
+public class InstrumentationTestListCacheTest {
+
+    private static final String APK_DIGEST = "0123456789abcdef0123456789abcdef";
+    private static final String RUNNER = "androidx.test.runner.AndroidJUnitRunner";
+
+    private File mCacheDir;
+    private InstrumentationTestListCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mCacheDir = FileUtil.createTempDir("test-list-cache");
+        mCache = new InstrumentationTestListCache(mCacheDir);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.recursiveDelete(mCacheDir);
+    }
+
+    /** Test that the cached tests are returned in the order they were reported. */
+    @Test
+    public void testPutAndGet() {
+        List<TestDescription> tests = new ArrayList<>();
+        tests.add(new TestDescription("com.foo.Test", "test2"));
+        tests.add(new TestDescription("com.foo.Test", "test1"));
+        tests.add(new TestDescription("com.foo.Test", "test[a#b]"));
+        String key =
+                InstrumentationTestListCache.computeKey(
+                        APK_DIGEST, RUNNER, Arrays.asList("com.foo.Test", null), new HashMap<>());
+
+        assertNull(mCache.get(key));
+        mCache.put(key, tests);
+        Collection<TestDescription> cached = mCache.get(key);
+        assertEquals(tests, new ArrayList<>(cached));
+        // Only the entry is left in the cache directory.
+        assertEquals(1, mCacheDir.listFiles().length);
+    }
+
+    /** Test that the tests of an empty run are cached. */
+    @Test
+    public void testPutAndGet_empty() {
+        String key =
+                InstrumentationTestListCache.computeKey(
+                        APK_DIGEST, RUNNER, Arrays.asList((String) null), new HashMap<>());
+        mCache.put(key, new ArrayList<>());
+        assertEquals(0, mCache.get(key).size());
+    }
+
+    /** Test that the key changes with the apk, runner, filters and arguments. */
+    @Test
+    public void testComputeKey() {
+        Map<String, String> args = new LinkedHashMap<>();
+        args.put("annotation", "com.foo.SmallTest");
+        args.put("notAnnotation", "com.foo.FlakyTest");
+        List<String> filters = Arrays.asList("com.foo.Test", null);
+        String key = InstrumentationTestListCache.computeKey(APK_DIGEST, RUNNER, filters, args);
+
+        // The order of the arguments does not matter.
+        Map<String, String> reversedArgs = new LinkedHashMap<>();
+        reversedArgs.put("notAnnotation", "com.foo.FlakyTest");
+        reversedArgs.put("annotation", "com.foo.SmallTest");
+        assertEquals(
+                key,
+                InstrumentationTestListCache.computeKey(APK_DIGEST, RUNNER, filters, reversedArgs));
+
+        assertNotEquals(
+                key,
+                InstrumentationTestListCache.computeKey(
+                        "fedcba9876543210fedcba9876543210", RUNNER, filters, args));
+        assertNotEquals(
+                key, InstrumentationTestListCache.computeKey(APK_DIGEST, ".Runner", filters, args));
+        assertNotEquals(
+                key,
+                InstrumentationTestListCache.computeKey(
+                        APK_DIGEST, RUNNER, Arrays.asList(null, "com.foo.Test"), args));
+        Map<String, String> otherArgs = new HashMap<>(args);
+        otherArgs.remove("notAnnotation");
+        assertNotEquals(
+                key,
+                InstrumentationTestListCache.computeKey(APK_DIGEST, RUNNER, filters, otherArgs));
+    }
+}
@@ -31,6 +31,7 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -53,8 +54,10 @@ import com.android.tradefed.result.ITestLifeCycleReceiver;
 import com.android.tradefed.result.InputStreamSource;
 import com.android.tradefed.result.LogDataType;
 import com.android.tradefed.result.TestDescription;
+import com.android.tradefed.result.ddmlib.DefaultRemoteAndroidTestRunner;
 import com.android.tradefed.testtype.coverage.CoverageOptions;
 import com.android.tradefed.testtype.suite.GranularRetriableTestWrapperTest.CalledMetricCollector;
+import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.ListInstrumentationParser;
 import com.android.tradefed.util.ListInstrumentationParser.InstrumentationTarget;
 
@@ -75,6 +78,7 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -381,6 +385,207 @@ public class InstrumentationTestTest {
         inOrder.verifyNoMoreInteractions();
     }
 
+    /** Test that the tests reported by a complete run are cached and not collected again. */
+    @Test
+    public void testRun_testListCache() throws Exception {
+        File cacheDir = FileUtil.createTempDir("test-list-cache");
+        try {
+            setUpTestListCache(cacheDir);
+            RunInstrumentationTestsAnswer fullRun =
+                    (runner, listener) -> {
+                        listener.testRunStarted(TEST_PACKAGE_VALUE, 2);
+                        listener.testStarted(TEST1);
+                        listener.testEnded(TEST1, EMPTY_STRING_MAP);
+                        listener.testStarted(TEST2);
+                        listener.testEnded(TEST2, EMPTY_STRING_MAP);
+                        listener.testRunEnded(1, EMPTY_STRING_MAP);
+                        return true;
+                    };
+            doAnswer(fullRun)
+                    .when(mMockTestDevice)
+                    .runInstrumentationTests(
+                            any(IRemoteAndroidTestRunner.class),
+                            any(ITestLifeCycleReceiver.class));
+
+            // The tests are not cached yet, the run lists them without a collection.
+            mInstrumentationTest.run(mMockListener);
+            verify(mMockTestDevice, times(1))
+                    .runInstrumentationTests(
+                            any(IRemoteAndroidTestRunner.class),
+                            any(ITestLifeCycleReceiver.class));
+            String key = getTestListCacheKey();
+            assertThat(new InstrumentationTestListCache(cacheDir).get(key))
+                    .containsExactly(TEST1, TEST2);
+
+            // The cached tests are used as expected tests.
+            mInstrumentationTest.run(mMockListener);
+            verify(mMockTestDevice, times(2))
+                    .runInstrumentationTests(
+                            any(IRemoteAndroidTestRunner.class),
+                            any(ITestLifeCycleReceiver.class));
+            verify(mMockListener, times(2)).testRunStarted(TEST_PACKAGE_VALUE, 2);
+        } finally {
+            FileUtil.recursiveDelete(cacheDir);
+        }
+    }
+
+    /** Test that the tests are collected to rerun them when an uncached run fails. */
+    @Test
+    public void testRun_testListCache_runFailure() throws Exception {
+        File cacheDir = FileUtil.createTempDir("test-list-cache");
+        try {
+            setUpTestListCache(cacheDir);
+            RunInstrumentationTestsAnswer partialRun =
+                    (runner, listener) -> {
+                        listener.testRunStarted(TEST_PACKAGE_VALUE, 2);
+                        listener.testStarted(TEST1);
+                        listener.testEnded(TEST1, EMPTY_STRING_MAP);
+                        listener.testRunFailed(RUN_ERROR_MSG);
+                        listener.testRunEnded(1, EMPTY_STRING_MAP);
+                        return true;
+                    };
+            RunInstrumentationTestsAnswer collected =
+                    (runner, listener) -> {
+                        listener.testRunStarted(TEST_PACKAGE_VALUE, 2);
+                        listener.testStarted(TEST1);
+                        listener.testEnded(TEST1, EMPTY_STRING_MAP);
+                        listener.testStarted(TEST2);
+                        listener.testEnded(TEST2, EMPTY_STRING_MAP);
+                        listener.testRunEnded(1, EMPTY_STRING_MAP);
+                        return true;
+                    };
+            RunInstrumentationTestsAnswer rerun =
+                    (runner, listener) -> {
+                        listener.testRunStarted(TEST_PACKAGE_VALUE, 1);
+                        listener.testStarted(TEST2);
+                        listener.testEnded(TEST2, EMPTY_STRING_MAP);
+                        listener.testRunEnded(1, EMPTY_STRING_MAP);
+                        return true;
+                    };
+            doAnswer(partialRun)
+                    .doAnswer(collected)
+                    .doAnswer(rerun)
+                    .when(mMockTestDevice)
+                    .runInstrumentationTests(
+                            any(IRemoteAndroidTestRunner.class),
+                            any(ITestLifeCycleReceiver.class));
+
+            mInstrumentationTest.run(mMockListener);
+
+            InOrder inOrder = Mockito.inOrder(mMockListener);
+            inOrder.verify(mMockListener).testRunStarted(TEST_PACKAGE_VALUE, 2);
+            inOrder.verify(mMockListener).testRunFailed(RUN_ERROR_MSG);
+            inOrder.verify(mMockListener).testRunEnded(1, EMPTY_STRING_MAP);
+            inOrder.verify(mMockListener).testRunStarted(TEST_PACKAGE_VALUE, 0, 1);
+            inOrder.verify(mMockListener).testStarted(eq(TEST2), anyLong());
+            inOrder.verify(mMockListener).testEnded(eq(TEST2), anyLong(), eq(EMPTY_STRING_MAP));
+            inOrder.verify(mMockListener).testRunEnded(1, EMPTY_STRING_MAP);
+            String key = getTestListCacheKey();
+            assertThat(new InstrumentationTestListCache(cacheDir).get(key))
+                    .containsExactly(TEST1, TEST2);
+        } finally {
+            FileUtil.recursiveDelete(cacheDir);
+        }
+    }
+
+    /**
+     * Test that when an uncached run crashes before any test, it reports the number of collected
+     * tests instead of 0.
+     */
+    @Test
+    public void testRun_testListCache_runCrash() throws Exception {
+        File cacheDir = FileUtil.createTempDir("test-list-cache");
+        try {
+            setUpTestListCache(cacheDir);
+            RunInstrumentationTestsAnswer crashedRun =
+                    (runner, listener) -> {
+                        listener.testRunStarted(TEST_PACKAGE_VALUE, 0);
+                        listener.testRunFailed(RUN_ERROR_MSG);
+                        listener.testRunEnded(1, EMPTY_STRING_MAP);
+                        return true;
+                    };
+            RunInstrumentationTestsAnswer collected =
+                    (runner, listener) -> {
+                        listener.testRunStarted(TEST_PACKAGE_VALUE, 2);
+                        listener.testStarted(TEST1);
+                        listener.testEnded(TEST1, EMPTY_STRING_MAP);
+                        listener.testStarted(TEST2);
+                        listener.testEnded(TEST2, EMPTY_STRING_MAP);
+                        listener.testRunEnded(1, EMPTY_STRING_MAP);
+                        return true;
+                    };
+            RunInstrumentationTestsAnswer rerun =
+                    (runner, listener) -> {
+                        listener.testRunStarted(TEST_PACKAGE_VALUE, 2);
+                        listener.testStarted(TEST1);
+                        listener.testEnded(TEST1, EMPTY_STRING_MAP);
+                        listener.testStarted(TEST2);
+                        listener.testEnded(TEST2, EMPTY_STRING_MAP);
+                        listener.testRunEnded(1, EMPTY_STRING_MAP);
+                        return true;
+                    };
+            doAnswer(crashedRun)
+                    .doAnswer(collected)
+                    .doAnswer(rerun)
+                    .when(mMockTestDevice)
+                    .runInstrumentationTests(
+                            any(IRemoteAndroidTestRunner.class),
+                            any(ITestLifeCycleReceiver.class));
+
+            mInstrumentationTest.run(mMockListener);
+
+            InOrder inOrder = Mockito.inOrder(mMockListener);
+            inOrder.verify(mMockListener).testRunStarted(TEST_PACKAGE_VALUE, 2);
+            inOrder.verify(mMockListener).testRunFailed(RUN_ERROR_MSG);
+            inOrder.verify(mMockListener).testRunEnded(1, EMPTY_STRING_MAP);
+            verify(mMockListener, never()).testRunStarted(TEST_PACKAGE_VALUE, 0);
+            String key = getTestListCacheKey();
+            assertThat(new InstrumentationTestListCache(cacheDir).get(key))
+                    .containsExactly(TEST1, TEST2);
+        } finally {
+            FileUtil.recursiveDelete(cacheDir);
+        }
+    }
+
+    /** Returns the key of the tests of the last run in the test list cache. */
+    private String getTestListCacheKey() throws Exception {
+        ArgumentCaptor<IRemoteAndroidTestRunner> runner =
+                ArgumentCaptor.forClass(IRemoteAndroidTestRunner.class);
+        verify(mInstrumentationTest, Mockito.atLeastOnce()).setRunnerArgs(runner.capture());
+        String key = mInstrumentationTest.getTestListCacheKey(runner.getValue());
+        assertThat(key).isNotNull();
+        return key;
+    }
+
+    /** Test that the tests of the runs using a test file on the device are not cached. */
+    @Test
+    public void testGetTestListCacheKey_testFile() throws Exception {
+        File cacheDir = FileUtil.createTempDir("test-list-cache");
+        try {
+            setUpTestListCache(cacheDir);
+            mInstrumentationTest.setTestFilePathOnDevice("/data/local/tmp/tests.txt");
+            IRemoteAndroidTestRunner runner =
+                    new DefaultRemoteAndroidTestRunner(
+                            TEST_PACKAGE_VALUE, TEST_RUNNER_VALUE, mMockIDevice);
+            mInstrumentationTest.setRunnerArgs(runner);
+            assertThat(mInstrumentationTest.getTestListCacheKey(runner)).isNull();
+        } finally {
+            FileUtil.recursiveDelete(cacheDir);
+        }
+    }
+
+    private void setUpTestListCache(File cacheDir) throws Exception {
+        OptionSetter setter = new OptionSetter(mInstrumentationTest);
+        setter.setOptionValue("test-list-cache-dir", cacheDir.getAbsolutePath());
+        mInstrumentationTest.setRerunMode(true);
+        doReturn("package:/data/app/com.foo/base.apk\n")
+                .when(mMockTestDevice)
+                .executeShellCommand("pm path com.foo");
+        doReturn("0123456789abcdef0123456789abcdef  /data/app/com.foo/base.apk\n")
+                .when(mMockTestDevice)
+                .executeShellCommand("md5sum /data/app/com.foo/base.apk");
+    }
+
     /**
      * When retrying a parameterized test we run all the parameters (since AJUR doesn't support
      * re-running only one). So we should ignore the unexpected ones in the retry.
@@ -16,6 +16,7 @@
 package com.android.tradefed.testtype.suite;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -48,6 +49,7 @@ import com.android.tradefed.result.TestDescription;
 import com.android.tradefed.result.TestRunResult;
 import com.android.tradefed.targetprep.BaseTargetPreparer;
 import com.android.tradefed.targetprep.BuildError;
+import com.android.tradefed.targetprep.IHostPreparer;
 import com.android.tradefed.targetprep.ITargetCleaner;
 import com.android.tradefed.targetprep.ITargetPreparer;
 import com.android.tradefed.targetprep.TargetSetupError;
@@ -62,6 +64,7 @@ import com.android.tradefed.testtype.suite.module.BaseModuleController;
 import com.android.tradefed.testtype.suite.module.IModuleController;
 import com.android.tradefed.testtype.suite.module.TestFailureModuleController;
 
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.junit.Assert;
 import org.junit.Before;
@@ -255,6 +258,22 @@ public class ModuleDefinitionTest {
         public void clearExcludeFilters() {}
     }
 
+    /** A preparer with a host-side preparation, recording its calls. */
+    private static class HostPreparer extends BaseTargetPreparer implements IHostPreparer {
+        private IBuildInfo mPreparedBuild = null;
+        private boolean mSetUpAfterPreparation = false;
+
+        @Override
+        public void prepareOnHost(IBuildInfo buildInfo) {
+            mPreparedBuild = buildInfo;
+        }
+
+        @Override
+        public void setUp(ITestDevice device, IBuildInfo buildInfo) {
+            mSetUpAfterPreparation = mPreparedBuild != null;
+        }
+    }
+
     private class DirectFailureTestObject implements IRemoteTest {
         @Override
         public void run(ITestInvocationListener listener) throws DeviceNotAvailableException {
@@ -352,6 +371,46 @@ public class ModuleDefinitionTest {
         verifyMocks();
     }
 
+    /**
+     * Test that {@link ModuleDefinition#prepareOnHost()} only prepares the {@link IHostPreparer}s,
+     * and that the host preparation metrics are reported with the module.
+     */
+    @Test
+    public void testRun_preparedOnHost() throws Exception {
+        HostPreparer hostPreparer = new HostPreparer();
+        mTargetPrepList.add(hostPreparer);
+        mModule.setBuild(mMockBuildInfo);
+        mModule.setDevice(mMockDevice);
+        EasyMock.expect(mMockPrep.isDisabled()).andReturn(false);
+        mMockPrep.setUp(EasyMock.eq(mMockDevice), EasyMock.eq(mMockBuildInfo));
+        EasyMock.expect(mMockCleaner.isDisabled()).andStubReturn(false);
+        mMockCleaner.setUp(EasyMock.eq(mMockDevice), EasyMock.eq(mMockBuildInfo));
+        mMockTest.setBuild(EasyMock.eq(mMockBuildInfo));
+        mMockTest.setDevice(EasyMock.eq(mMockDevice));
+        mMockTest.run((ITestInvocationListener) EasyMock.anyObject());
+        EasyMock.expect(mMockCleaner.isTearDownDisabled()).andStubReturn(false);
+        mMockCleaner.tearDown(
+                EasyMock.eq(mMockDevice), EasyMock.eq(mMockBuildInfo), EasyMock.isNull());
+        mMockListener.testRunStarted(
+                EasyMock.eq(MODULE_NAME), EasyMock.eq(0), EasyMock.eq(0), EasyMock.anyLong());
+        Capture<HashMap<String, Metric>> metrics = new Capture<>();
+        mMockListener.testRunEnded(EasyMock.anyLong(), EasyMock.capture(metrics));
+        replayMocks();
+        mModule.prepareOnHost();
+        assertSame(mMockBuildInfo, hostPreparer.mPreparedBuild);
+        mModule.setDeviceIdleTime(5L);
+        mModule.run(mMockListener);
+        verifyMocks();
+        assertTrue(hostPreparer.mSetUpAfterPreparation);
+        assertTrue(metrics.getValue().containsKey(ModuleDefinition.HOST_PREPARATION_TIME));
+        assertEquals(
+                5L,
+                metrics.getValue()
+                        .get(ModuleDefinition.DEVICE_IDLE_TIME)
+                        .getMeasurements()
+                        .getSingleInt());
+    }
+
     /**
      * If an exception is thrown during tear down, report it for the module if there was no other
      * errors.
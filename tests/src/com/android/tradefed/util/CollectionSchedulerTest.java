@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tradefed.log.LogRegistry;
+import com.android.tradefed.util.CollectionScheduler.ScheduledCollection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit tests for {@link CollectionScheduler}. */
+@RunWith(JUnit4.class)
+public class CollectionSchedulerTest {
+
+    private CollectionScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mScheduler = new CollectionScheduler(4);
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.shutdown();
+    }
+
+    /** Test that a collection runs periodically until cancelled. */
+    @Test
+    public void testSchedule() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        ScheduledCollection collection =
+                mScheduler.schedule("serial", 0L, 50L, true, () -> count.incrementAndGet());
+        RunUtil.getDefault().sleep(500);
+        collection.cancel();
+        assertTrue(collection.isCancelled());
+        assertTrue(count.get() >= 3);
+        assertEquals(count.get(), collection.getTickCount());
+        int stopped = count.get();
+        RunUtil.getDefault().sleep(200);
+        // At most one run was in progress when cancelled.
+        assertTrue(count.get() <= stopped + 1);
+    }
+
+    /**
+     * Test that the collections run outside of the {@link ThreadGroup} of the invocation that
+     * scheduled them, but log in its log.
+     */
+    @Test
+    public void testSchedule_logContext() throws Exception {
+        ThreadGroup invocationGroup = new ThreadGroup("invocation");
+        ThreadGroup[] logContext = new ThreadGroup[1];
+        ThreadGroup[] threadGroup = new ThreadGroup[1];
+        CountDownLatch collected = new CountDownLatch(1);
+        ScheduledCollection[] collection = new ScheduledCollection[1];
+        CollectionScheduler.ICollection collect =
+                () -> {
+                    logContext[0] = LogRegistry.getLogContext();
+                    threadGroup[0] = Thread.currentThread().getThreadGroup();
+                    collected.countDown();
+                };
+        Thread invocation =
+                new Thread(
+                        invocationGroup,
+                        () -> {
+                            collection[0] = mScheduler.schedule("serial", 0L, 50L, true, collect);
+                        });
+        invocation.start();
+        invocation.join();
+        assertTrue(collected.await(5, TimeUnit.SECONDS));
+        collection[0].cancel();
+        assertEquals(invocationGroup, logContext[0]);
+        assertNotEquals(invocationGroup, threadGroup[0]);
+        assertEquals(0, invocationGroup.activeCount());
+    }
+
+    /** Test that the collections with the same key never run concurrently. */
+    @Test
+    public void testSchedule_sameKeySerialized() throws Exception {
+        AtomicBoolean running = new AtomicBoolean(false);
+        AtomicBoolean overlapped = new AtomicBoolean(false);
+        AtomicInteger count = new AtomicInteger();
+        CollectionScheduler.ICollection collection =
+                () -> {
+                    if (!running.compareAndSet(false, true)) {
+                        overlapped.set(true);
+                    }
+                    Thread.sleep(20);
+                    count.incrementAndGet();
+                    running.set(false);
+                };
+        ScheduledCollection first = mScheduler.schedule("serial", 0L, 30L, true, collection);
+        ScheduledCollection second = mScheduler.schedule("serial", 0L, 70L, false, collection);
+        RunUtil.getDefault().sleep(500);
+        first.cancel();
+        second.cancel();
+        assertTrue(count.get() >= 4);
+        assertFalse(overlapped.get());
+    }
+
+    /** Test that collections with the same key and interval share their tick. */
+    @Test
+    public void testSchedule_coalesced() throws Exception {
+        AtomicInteger first = new AtomicInteger();
+        AtomicInteger second = new AtomicInteger();
+        ScheduledCollection firstCollection =
+                mScheduler.schedule("serial", 0L, 50L, true, () -> first.incrementAndGet());
+        ScheduledCollection secondCollection =
+                mScheduler.schedule("serial", 0L, 50L, true, () -> second.incrementAndGet());
+        RunUtil.getDefault().sleep(300);
+        firstCollection.cancel();
+        RunUtil.getDefault().sleep(200);
+        secondCollection.cancel();
+        assertTrue(first.get() >= 2);
+        // The second one kept running after the first one was cancelled.
+        assertTrue(second.get() > first.get());
+    }
+
+    /** Test that the ticks happening while the previous run is not done are counted as missed. */
+    @Test
+    public void testSchedule_missedTicks() throws Exception {
+        ScheduledCollection collection =
+                mScheduler.schedule("serial", 0L, 20L, true, () -> Thread.sleep(100));
+        RunUtil.getDefault().sleep(500);
+        collection.cancel();
+        assertTrue(collection.getMissedTickCount() > 0);
+        assertTrue(mScheduler.getMissedTickCount() >= collection.getMissedTickCount());
+    }
+
+    /** Test that a collection throwing {@link InterruptedException} is stopped. */
+    @Test
+    public void testSchedule_interrupted() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        ScheduledCollection collection =
+                mScheduler.schedule(
+                        null,
+                        0L,
+                        20L,
+                        true,
+                        () -> {
+                            count.incrementAndGet();
+                            throw new InterruptedException();
+                        });
+        RunUtil.getDefault().sleep(200);
+        assertTrue(collection.isCancelled());
+        assertEquals(1, count.get());
+    }
+}
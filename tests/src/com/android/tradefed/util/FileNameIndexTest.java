@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** Unit tests for {@link FileNameIndex}. */
+@RunWith(JUnit4.class)
+public class FileNameIndexTest {
+
+    private File mRootDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mRootDir = FileUtil.createTempDir("file-name-index");
+        for (String module : Arrays.asList("module1", "module2")) {
+            for (String arch : Arrays.asList("arm", "arm64")) {
+                File archDir = new File(mRootDir, "testcases/" + module + "/" + arch);
+                archDir.mkdirs();
+                new File(archDir, module + ".so").createNewFile();
+                new File(archDir, "lib.so").createNewFile();
+            }
+            new File(mRootDir, "testcases/" + module + "/" + module + ".config")
+                    .createNewFile();
+        }
+        FileNameIndex.register(mRootDir);
+    }
+
+    @After
+    public void tearDown() {
+        FileNameIndex.unregister(mRootDir);
+        FileUtil.recursiveDelete(mRootDir);
+    }
+
+    /** Test that the index finds the same files as walking the directories, in the same order. */
+    @Test
+    public void testFindFiles() throws IOException {
+        File testcases = new File(mRootDir, "testcases");
+        File module = new File(testcases, "module1");
+        for (File dir : Arrays.asList(mRootDir, testcases, module)) {
+            for (String filter : Arrays.asList("lib.so", "lib.so.*", ".*\\.config", "arm", "x")) {
+                assertEquals(walk(dir, filter), FileNameIndex.findFiles(dir, filter));
+            }
+        }
+    }
+
+    /** Test that the files added and removed after the index was built are taken into account. */
+    @Test
+    public void testFindFiles_changed() throws IOException {
+        File testcases = new File(mRootDir, "testcases");
+        assertEquals(4, FileNameIndex.findFiles(testcases, "lib.so").size());
+
+        File newDir = new File(testcases, "module3/arm");
+        newDir.mkdirs();
+        new File(newDir, "lib.so").createNewFile();
+        FileUtil.recursiveDelete(new File(testcases, "module1"));
+        assertEquals(walk(testcases, "lib.so"), FileNameIndex.findFiles(testcases, "lib.so"));
+        assertEquals(3, FileNameIndex.findFiles(testcases, "lib.so").size());
+    }
+
+    /** Test that the files of a directory come before the directory, like a recursive search. */
+    @Test
+    public void testFindFirstFile() throws IOException {
+        File dir = new File(mRootDir, "testcases/module1/arm/data.bin");
+        dir.mkdirs();
+        File file = new File(dir, "data.bin");
+        file.createNewFile();
+        assertEquals(
+                Collections.singletonList(file.toPath()),
+                FileNameIndex.findFirstFile(mRootDir, "data.bin"));
+        assertEquals(file, FileUtil.findFile(mRootDir, "data.bin"));
+        assertTrue(FileNameIndex.findFirstFile(mRootDir, "missing").isEmpty());
+    }
+
+    /** Test that the directories that are not indexed are not searched. */
+    @Test
+    public void testFindFiles_notIndexed() throws IOException {
+        File dir = FileUtil.createTempDir("not-indexed");
+        try {
+            long walked = FileNameIndex.getWalkedSearchCount();
+            assertNull(FileNameIndex.findFiles(dir, "lib.so"));
+            assertEquals(walked + 1, FileNameIndex.getWalkedSearchCount());
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+
+    private static List<Path> walk(File dir, String filter) throws IOException {
+        try (Stream<Path> paths =
+                Files.walk(dir.getAbsoluteFile().toPath(), FileVisitOption.FOLLOW_LINKS)) {
+            return paths.filter(path -> path.getFileName().toString().matches(filter))
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -17,6 +17,9 @@
 package com.android.tradefed.util;
 
 import com.android.tradefed.build.BuildRetrievalError;
+import com.android.tradefed.build.IRangedFileDownloader.RemoteFileInfo;
+
+import com.google.api.services.storage.model.StorageObject;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -26,6 +29,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.File;
+import java.math.BigInteger;
 
 /** Unit test for {@link GCSFileDownloader}. */
 @RunWith(JUnit4.class)
@@ -77,6 +81,27 @@ public class GCSFileDownloaderTest {
         }
     }
 
+    /** Test that the generation of the object is the version its ranges are read from. */
+    @Test
+    public void testGetRemoteFileInfo() throws Exception {
+        mGCSFileDownloader =
+                new GCSFileDownloader() {
+                    @Override
+                    StorageObject getRemoteFileMetaData(String bucketName, String remoteFilename) {
+                        if (remoteFilename.endsWith("/")) {
+                            return null;
+                        }
+                        return new StorageObject()
+                                .setSize(BigInteger.valueOf(1234))
+                                .setGeneration(5678L);
+                    }
+                };
+        RemoteFileInfo info = mGCSFileDownloader.getRemoteFileInfo("gs://bucket/file.txt");
+        Assert.assertEquals(1234, info.getSize());
+        Assert.assertEquals("5678", info.getVersion());
+        Assert.assertNull(mGCSFileDownloader.getRemoteFileInfo("gs://bucket/folder/"));
+    }
+
     @Test
     public void testSanitizeDirectoryName() {
         Assert.assertEquals(
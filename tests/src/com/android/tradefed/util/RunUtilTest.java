@@ -165,6 +165,24 @@ public class RunUtilTest {
         }
     }
 
+    /**
+     * Test that the shared threads running a command are not created in the {@link ThreadGroup}
+     * of the caller, where they would be reported as stray threads.
+     */
+    @Test
+    public void testRunTimedCmd_sharedThreads() throws Exception {
+        ThreadGroup invocationGroup = new ThreadGroup("invocation");
+        CommandResult[] result = new CommandResult[1];
+        Thread invocation =
+                new Thread(
+                        invocationGroup,
+                        () -> result[0] = mRunUtil.runTimedCmd(LONG_TIMEOUT_MS, "echo", "hello"));
+        invocation.start();
+        invocation.join();
+        assertEquals(CommandStatus.SUCCESS, result[0].getStatus());
+        assertEquals(0, invocationGroup.activeCount());
+    }
+
     /** Test that {@link RunUtil#runTimedCmd(long, String[])} fails when given a garbage command. */
     @Test
     public void testRunTimedCmd_failed() {
@@ -229,6 +247,46 @@ public class RunUtilTest {
         }
     }
 
+    /**
+     * Verify that calling {@link RunUtil#setMaxCapturedOutputSize(long)} is not allowed on default
+     * instance.
+     */
+    @Test
+    public void testSetMaxCapturedOutputSize_default() {
+        try {
+            RunUtil.getDefault().setMaxCapturedOutputSize(10);
+            fail("could set max captured output size on RunUtil.getDefault()");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that {@link RunUtil#runTimedCmd(long, String[])} only keeps the beginning of the output
+     * when {@link RunUtil#setMaxCapturedOutputSize(long)} is set.
+     */
+    @Test
+    public void testRuntimedCmd_maxCapturedOutputSize() {
+        RunUtil spyUtil = new SpyRunUtil(false);
+        spyUtil.setMaxCapturedOutputSize(4);
+        CommandResult result = spyUtil.runTimedCmd(LONG_TIMEOUT_MS, "unused", "cmd");
+        assertEquals(CommandStatus.SUCCESS, result.getStatus());
+        assertEquals("TEST", result.getStdout());
+        assertEquals("TEST", result.getStderr());
+    }
+
+    /** Test that {@link RunUtil.CappedByteArrayOutputStream} drops the bytes past its size. */
+    @Test
+    public void testCappedByteArrayOutputStream() throws Exception {
+        RunUtil.CappedByteArrayOutputStream stream = new RunUtil.CappedByteArrayOutputStream(5);
+        stream.write("abc".getBytes());
+        stream.write('d');
+        stream.write("efgh".getBytes());
+        stream.write('i');
+        assertEquals("abcde", stream.toString());
+        assertEquals(4, stream.getDroppedSize());
+    }
+
     /**
      * Test that {@link RunUtil#runEscalatingTimedRetry(long, long, long, long, IRunnableResult)}
      * fails when operation continually fails, and that the maxTime variable is respected.
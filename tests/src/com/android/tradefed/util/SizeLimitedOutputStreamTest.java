@@ -59,4 +59,34 @@ public class SizeLimitedOutputStreamTest extends TestCase {
             outStream.delete();
         }
     }
+
+    /** Test reading the data from a position of the overall stream. */
+    public void testGetDataFrom() throws IOException {
+        final byte[] data = new byte[29];
+        for (byte i = 0; i < data.length; i++) {
+            data[i] = i;
+        }
+        // use a max size of 20 - expect first 10 bytes to get dropped
+        SizeLimitedOutputStream outStream = new SizeLimitedOutputStream(20, 4, "foo", "bar");
+        try {
+            outStream.write(data);
+            assertEquals(29, outStream.getTotalSize());
+            assertEquals(10, outStream.getOldestPosition());
+
+            byte[] readData = StreamUtil.getByteArrayListFromStream(
+                    outStream.getDataFrom(17)).getContents();
+            assertEquals(12, readData.length);
+            assertEquals(17, readData[0]);
+            assertEquals(28, readData[11]);
+            // Dropped data is not returned
+            readData = StreamUtil.getByteArrayListFromStream(
+                    outStream.getDataFrom(3)).getContents();
+            assertEquals(19, readData.length);
+            assertEquals(10, readData[0]);
+            // Nothing past the end
+            assertEquals(-1, outStream.getDataFrom(29).read());
+        } finally {
+            outStream.delete();
+        }
+    }
 }
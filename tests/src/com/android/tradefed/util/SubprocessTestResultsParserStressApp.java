@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tradefed.util;
+
+import com.android.tradefed.config.OptionSetter;
+import com.android.tradefed.invoker.InvocationContext;
+import com.android.tradefed.metrics.proto.MetricMeasurement.Metric;
+import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.result.SubprocessResultsReporter;
+import com.android.tradefed.result.TestDescription;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+
+/**
+ * Longer running stress java app that measures the throughput of the events sent by {@link
+ * SubprocessResultsReporter} to {@link SubprocessTestResultsParser}, as text lines and as binary
+ * frames.
+ *
+ * <p>Intended to be executed under a profiler.
+ */
+public class SubprocessTestResultsParserStressApp extends TestCase {
+
+    private static final int TEST_COUNT = 200000;
+
+    /** Measure sending the events of a large run as text lines. */
+    public void testTextEvents() throws Exception {
+        sendEvents(false);
+    }
+
+    /** Measure sending the events of a large run as binary frames. */
+    public void testBinaryEvents() throws Exception {
+        sendEvents(true);
+    }
+
+    private void sendEvents(boolean binary) throws Exception {
+        int[] received = new int[1];
+        ITestInvocationListener listener =
+                new ITestInvocationListener() {
+                    @Override
+                    public void testEnded(
+                            TestDescription test, long endTime, HashMap<String, Metric> metrics) {
+                        received[0]++;
+                    }
+                };
+        long startTime = System.nanoTime();
+        try (SubprocessTestResultsParser parser =
+                        new SubprocessTestResultsParser(listener, true, new InvocationContext());
+                SubprocessResultsReporter reporter = new SubprocessResultsReporter()) {
+            OptionSetter setter = new OptionSetter(reporter);
+            setter.setOptionValue(
+                    "subprocess-report-port", Integer.toString(parser.getSocketServerPort()));
+            setter.setOptionValue("subprocess-report-binary", Boolean.toString(binary));
+            reporter.testRunStarted("stress", TEST_COUNT);
+            HashMap<String, Metric> metrics = new HashMap<>();
+            for (int i = 0; i < TEST_COUNT; i++) {
+                TestDescription test = new TestDescription("com.android.StressTest", "test" + i);
+                reporter.testStarted(test);
+                reporter.testEnded(test, metrics);
+            }
+            reporter.testRunEnded(0L, metrics);
+            reporter.close();
+            assertTrue(parser.joinReceiver(10 * 60 * 1000L));
+        }
+        long elapsed = System.nanoTime() - startTime;
+        assertEquals(TEST_COUNT, received[0]);
+        System.out.printf(
+                "Sent %d tests as %s in %d ms, %d events/s\n",
+                TEST_COUNT,
+                binary ? "binary frames" : "text lines",
+                elapsed / 1000000,
+                2L * TEST_COUNT * 1000000000L / Math.max(1L, elapsed));
+    }
+
+    public static void main(String[] args) {
+        try {
+            long startTime = System.currentTimeMillis();
+            SubprocessTestResultsParserStressApp stressApp =
+                    new SubprocessTestResultsParserStressApp();
+            stressApp.testTextEvents();
+            stressApp.testBinaryEvents();
+            System.out.printf("Stress app ran for %s ms", System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
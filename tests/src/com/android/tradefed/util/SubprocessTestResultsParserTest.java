@@ -31,6 +31,11 @@ import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.LogDataType;
 import com.android.tradefed.result.LogFile;
 import com.android.tradefed.result.TestDescription;
+import com.android.tradefed.result.proto.SubprocessEventProto.TestCaseEvent;
+import com.android.tradefed.util.SubprocessTestResultsParser.BinaryEvents;
+import com.android.tradefed.util.proto.TfMetricProtoUtil;
+
+import com.google.protobuf.CodedOutputStream;
 
 import org.easymock.Capture;
 import org.easymock.EasyMock;
@@ -39,12 +44,15 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Vector;
@@ -309,6 +317,90 @@ public class SubprocessTestResultsParserTest {
         }
     }
 
+    /**
+     * Report results when received from socket as text lines and then, once the subprocess got the
+     * reply to its hello line, as binary frames.
+     */
+    @Test
+    public void testParser_receiveBinaryFromSocket() throws Exception {
+        TestDescription test = new TestDescription("com.fakeclass", "faketest");
+        HashMap<String, Metric> metrics = new HashMap<>();
+        metrics.put("metric", TfMetricProtoUtil.stringToMetric("value"));
+        ITestInvocationListener mockRunListener =
+                EasyMock.createStrictMock(ITestInvocationListener.class);
+        mockRunListener.testRunStarted("arm64-v8a CtsGestureTestCases", 4);
+        mockRunListener.testStarted(test, 5L);
+        mockRunListener.testFailed(test, "trace");
+        mockRunListener.testEnded(test, 10L, metrics);
+        mockRunListener.testRunFailed("no reason");
+        EasyMock.replay(mockRunListener);
+        SubprocessTestResultsParser resultParser = null;
+        Socket socket = null;
+        try {
+            resultParser =
+                    new SubprocessTestResultsParser(mockRunListener, true, new InvocationContext());
+            socket = new Socket("localhost", resultParser.getSocketServerPort());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.write((BinaryEvents.HELLO + "\n").getBytes());
+            out.write(
+                    ("TEST_RUN_STARTED {\"testCount\":4,\"runName\":\"arm64-v8a "
+                                    + "CtsGestureTestCases\"}\n")
+                            .getBytes());
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertEquals(BinaryEvents.VERSION, in.readInt());
+            out.writeByte(0);
+            out.writeInt(BinaryEvents.MAGIC);
+            CodedOutputStream frames = CodedOutputStream.newInstance(out);
+            writeFrame(
+                    frames,
+                    SubprocessTestResultsParser.StatusKeys.TEST_STARTED,
+                    TestCaseEvent.newBuilder()
+                            .setClassName(test.getClassName())
+                            .setTestName(test.getTestName())
+                            .setTime(5L)
+                            .build());
+            writeFrame(
+                    frames,
+                    SubprocessTestResultsParser.StatusKeys.TEST_FAILED,
+                    TestCaseEvent.newBuilder()
+                            .setClassName(test.getClassName())
+                            .setTestName(test.getTestName())
+                            .setTrace("trace")
+                            .build());
+            writeFrame(
+                    frames,
+                    SubprocessTestResultsParser.StatusKeys.TEST_ENDED,
+                    TestCaseEvent.newBuilder()
+                            .setClassName(test.getClassName())
+                            .setTestName(test.getTestName())
+                            .setTime(10L)
+                            .putAllMetrics(metrics)
+                            .build());
+            byte[] json = "{\"reason\":\"no reason\"}".getBytes(StandardCharsets.UTF_8);
+            frames.writeRawByte(
+                    BinaryEvents.EVENT_KEYS.indexOf(
+                                    SubprocessTestResultsParser.StatusKeys.TEST_RUN_FAILED)
+                            | BinaryEvents.JSON_PAYLOAD);
+            frames.writeUInt32NoTag(json.length);
+            frames.writeRawBytes(json);
+            frames.flush();
+            StreamUtil.close(socket);
+            assertTrue(resultParser.joinReceiver(2000));
+            EasyMock.verify(mockRunListener);
+        } finally {
+            StreamUtil.close(resultParser);
+            StreamUtil.close(socket);
+        }
+    }
+
+    private void writeFrame(CodedOutputStream out, String key, TestCaseEvent event)
+            throws IOException {
+        out.writeRawByte(BinaryEvents.EVENT_KEYS.indexOf(key));
+        out.writeUInt32NoTag(event.getSerializedSize());
+        event.writeTo(out);
+    }
+
     /** When the receiver thread fails to join then an exception is thrown. */
     @Test
     public void testParser_failToJoin() throws Exception {
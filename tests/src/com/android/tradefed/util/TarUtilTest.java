@@ -29,6 +29,8 @@ import org.junit.Test;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -159,6 +161,34 @@ public class TarUtilTest {
         }
     }
 
+    /**
+     * Test that {@link TarUtil#createTar(File, Collection, boolean)} only archives the given
+     * paths.
+     */
+    @Test
+    public void testCreateTar_unTar() throws Exception {
+        File sourceDir = FileUtil.createTempDir("tar-source", mWorkDir);
+        File subDir = new File(sourceDir, "sub");
+        subDir.mkdir();
+        FileUtil.writeToFile("content", new File(subDir, "file.txt"));
+        FileUtil.writeToFile("skipped", new File(sourceDir, "skipped.txt"));
+        new File(sourceDir, "empty").mkdir();
+        File tar = null;
+        File extracted = FileUtil.createTempDir("tar-extract", mWorkDir);
+        try {
+            tar =
+                    TarUtil.createTar(
+                            sourceDir, Arrays.asList("sub", "sub/file.txt", "empty"), false);
+            TarUtil.unTar(tar, extracted);
+            assertEquals(
+                    "content", FileUtil.readStringFromFile(new File(extracted, "sub/file.txt")));
+            assertTrue(new File(extracted, "empty").isDirectory());
+            assertFalse(new File(extracted, "skipped.txt").exists());
+        } finally {
+            FileUtil.deleteFile(tar);
+        }
+    }
+
     /** Test to ensure that {@link TarUtil#gzip(File)} properly throws if the file is not valid. */
     @Test
     public void testGzip_invalidFile() throws Exception {